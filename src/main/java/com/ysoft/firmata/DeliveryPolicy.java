@@ -0,0 +1,41 @@
+package com.ysoft.firmata;
+
+/**
+ * The way events are delivered to a listener.
+ */
+public enum DeliveryPolicy {
+
+    /**
+     * The listener is invoked by the thread that fires the event, or by a
+     * dispatch thread when the device has some (see
+     * {@link DeviceConfiguration#setDispatchThreads(int)}). A slow listener
+     * delays other listeners and eventually parsing of received data. With
+     * dispatch threads the delay is bounded by
+     * {@link DeviceConfiguration#setDispatchTimeout(long)}, after that the
+     * changes of values and ports are dropped.
+     */
+    SYNC,
+    /**
+     * Events are queued for the listener without a limit and a listener
+     * thread delivers them in order. A slow listener does not delay others,
+     * but its queue keeps growing. Stopping the device waits until the queue
+     * is empty.
+     */
+    ASYNC_UNBOUNDED,
+    /**
+     * Events are queued for the listener and a listener thread delivers them
+     * in order. When the queue is full, the oldest event is dropped (see
+     * {@link DeviceConfiguration#setListenerQueueCapacity(int)}).
+     */
+    ASYNC_DROP_OLDEST,
+    /**
+     * Only the latest event of a kind is kept for every pin, older ones are
+     * dropped. A listener thread delivers the events in the order the pins
+     * have changed first. Suits listeners that are only interested in the
+     * current values, like user interfaces. Events that do not belong to a
+     * pin are not conflated, they are queued like with
+     * {@link #ASYNC_DROP_OLDEST}.
+     */
+    CONFLATING
+
+}
@@ -2,7 +2,11 @@ package com.ysoft.firmata;
 
 import java.util.HashMap;
 import java.util.Map;
+import com.ysoft.firmata.capture.TrafficRecorder;
 import com.ysoft.firmata.impl.fsm.State;
+import com.ysoft.firmata.transport.NetworkTransport;
+import com.ysoft.firmata.transport.SerialTransport;
+import com.ysoft.firmata.transport.Transport;
 import purejavacomm.CommPortIdentifier;
 import purejavacomm.NoSuchPortException;
 
@@ -24,13 +28,42 @@ public class DeviceConfiguration {
     public static final int BAUD_RATE_57600 = 57600;
     public static final int BAUD_RATE_115200 = 115200;
 
+    /**
+     * Sampling interval (in milliseconds) of the board unless it is told
+     * otherwise.
+     */
+    public static final int DEFAULT_SAMPLING_INTERVAL = 19;
+    /**
+     * Bounds of the sampling interval (in milliseconds) the board accepts.
+     */
+    public static final int MIN_SAMPLING_INTERVAL = 10;
+    public static final int MAX_SAMPLING_INTERVAL = 100;
+
     private int serialPortBaudRate = BAUD_RATE_57600;
     private DataBits serialPortDataBits = DataBits.DATABITS_8;
     private StopBits serialPortStopBits = StopBits.STOPBITS_1;
     private Parity serialPortParity = Parity.PARITY_NONE;
     private long initializationTimeout = 15000L;
+    private long modeConfirmationTimeout = 5000L;
+    private int inboundQueueCapacity = 128;
+    private int inboundChunkSize = 1024;
+    private boolean inboundDirectBuffers = false;
+    private OverflowPolicy inboundOverflowPolicy = OverflowPolicy.BLOCK;
+    private WaitStrategy inboundWaitStrategy = WaitStrategy.BLOCKING;
+    private int outboundBufferSize = 1024;
+    private long outboundMaxLatency = 0L;
+    private boolean outboundPacing = false;
+    private int boardReceiveBufferSize = 64;
+    private int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+    private int dispatchThreads = 0;
+    private int dispatchQueueCapacity = 1024;
+    private long dispatchTimeout = 10_000L;
+    private int dispatchBatchSize = 64;
+    private int listenerQueueCapacity = 1024;
+    private TrafficRecorder trafficRecorder;
 
     private final CommPortIdentifier commPortIdentifier;
+    private final Transport transport;
     private Map<Byte, Class<? extends State>> customSysexStates = new HashMap<>();
     private Map<Byte, Class<? extends AbstractCustomSysexEvent>> customSysexEvents = new HashMap<>();
 
@@ -44,6 +77,29 @@ public class DeviceConfiguration {
         } catch (NoSuchPortException ex) {
             throw new IllegalArgumentException("Communications port " + portName + " not found or connected.");
         }
+        this.transport = new SerialTransport(this);
+    }
+
+    /**
+     * Constructor for a board behind a TCP bridge.
+     * @param host host name or address of the bridge.
+     * @param port TCP port of the bridge.
+     */
+    public DeviceConfiguration(String host, int port) {
+        this(new NetworkTransport(host, port));
+    }
+
+    /**
+     * Constructor.
+     * @param transport transport the device communicates through. Serial port
+     * parameters of the configuration are not used by non-serial transports.
+     */
+    public DeviceConfiguration(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.commPortIdentifier = null;
+        this.transport = transport;
     }
 
     /**
@@ -91,6 +147,20 @@ public class DeviceConfiguration {
         this.initializationTimeout = initializationTimeout;
         return this;
     }
+
+    /**
+     * Set the time (in milliseconds) the board has to confirm the modes
+     * applied by {@link IODevice#configure(java.util.Map)}.
+     * @param modeConfirmationTimeout
+     * @return 
+     */
+    public DeviceConfiguration setModeConfirmationTimeout(long modeConfirmationTimeout) {
+        if (modeConfirmationTimeout <= 0) {
+            throw new IllegalArgumentException("Mode confirmation timeout must be positive");
+        }
+        this.modeConfirmationTimeout = modeConfirmationTimeout;
+        return this;
+    }
     
     /**
      * Set stop bits.
@@ -118,10 +188,241 @@ public class DeviceConfiguration {
         return this;
     }
 
+    /**
+     * Set capacity of the queue of received data waiting for the parser.
+     * @param inboundQueueCapacity number of chunks, rounded up to a power of two.
+     * @return 
+     */
+    public DeviceConfiguration setInboundQueueCapacity(int inboundQueueCapacity) {
+        if (inboundQueueCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.inboundQueueCapacity = inboundQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Set size of chunks the received data is read into.
+     * @param inboundChunkSize size of a chunk in bytes.
+     * @return 
+     */
+    public DeviceConfiguration setInboundChunkSize(int inboundChunkSize) {
+        if (inboundChunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.inboundChunkSize = inboundChunkSize;
+        return this;
+    }
+
+    /**
+     * Set whether received data is read into direct buffers. Direct buffers
+     * save a copy when reading from network channels.
+     * @param inboundDirectBuffers
+     * @return 
+     */
+    public DeviceConfiguration setInboundDirectBuffers(boolean inboundDirectBuffers) {
+        this.inboundDirectBuffers = inboundDirectBuffers;
+        return this;
+    }
+
+    /**
+     * Set what happens to received data when the parser falls behind and the
+     * inbound queue is full.
+     * @param inboundOverflowPolicy
+     * @return 
+     */
+    public DeviceConfiguration setInboundOverflowPolicy(OverflowPolicy inboundOverflowPolicy) {
+        if (inboundOverflowPolicy == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.inboundOverflowPolicy = inboundOverflowPolicy;
+        return this;
+    }
+
+    /**
+     * Set how the parser waits for received data (and the reader for free
+     * space with {@link OverflowPolicy#BLOCK}).
+     * @param inboundWaitStrategy
+     * @return 
+     */
+    public DeviceConfiguration setInboundWaitStrategy(WaitStrategy inboundWaitStrategy) {
+        if (inboundWaitStrategy == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.inboundWaitStrategy = inboundWaitStrategy;
+        return this;
+    }
+
+    /**
+     * Set maximum number of bytes of outbound messages packed into a single
+     * write.
+     * @param outboundBufferSize size of the buffer in bytes.
+     * @return 
+     */
+    public DeviceConfiguration setOutboundBufferSize(int outboundBufferSize) {
+        if (outboundBufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.outboundBufferSize = outboundBufferSize;
+        return this;
+    }
+
+    /**
+     * Set how long the writer may hold outbound messages back to pack more of
+     * them into a single write. 0 means that pending messages are written as
+     * soon as the writer gets to them.
+     * @param outboundMaxLatency maximum latency in microseconds.
+     * @return 
+     */
+    public DeviceConfiguration setOutboundMaxLatency(long outboundMaxLatency) {
+        if (outboundMaxLatency < 0) {
+            throw new IllegalArgumentException("Latency must not be negative");
+        }
+        this.outboundMaxLatency = outboundMaxLatency;
+        return this;
+    }
+
+    /**
+     * Set whether outbound data is paced so that the receive buffer of the
+     * board does not overflow. The rate is estimated from the baud rate, the
+     * size of the board's receive buffer and the sampling interval.
+     * @param outboundPacing
+     * @return 
+     */
+    public DeviceConfiguration setOutboundPacing(boolean outboundPacing) {
+        this.outboundPacing = outboundPacing;
+        return this;
+    }
+
+    /**
+     * Set size of the serial receive buffer of the board.
+     * @param boardReceiveBufferSize size of the buffer in bytes (64 for standard Firmata boards).
+     * @return 
+     */
+    public DeviceConfiguration setBoardReceiveBufferSize(int boardReceiveBufferSize) {
+        if (boardReceiveBufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.boardReceiveBufferSize = boardReceiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Set sampling interval of the board. The interval is sent to the board
+     * during initialization when it differs from
+     * {@link #DEFAULT_SAMPLING_INTERVAL}.
+     * @param samplingInterval interval in milliseconds (10 - 100).
+     * @return 
+     */
+    public DeviceConfiguration setSamplingInterval(int samplingInterval) {
+        if (samplingInterval < MIN_SAMPLING_INTERVAL || samplingInterval > MAX_SAMPLING_INTERVAL) {
+            throw new IllegalArgumentException("Sampling interval out of range");
+        }
+        this.samplingInterval = samplingInterval;
+        return this;
+    }
+
+    /**
+     * Set number of threads delivering events to listeners. With 0 threads
+     * the listeners are invoked by the parsing thread, so a slow listener
+     * delays parsing of received data.
+     * @param dispatchThreads number of threads.
+     * @return 
+     */
+    public DeviceConfiguration setDispatchThreads(int dispatchThreads) {
+        if (dispatchThreads < 0) {
+            throw new IllegalArgumentException("Number of threads must not be negative");
+        }
+        this.dispatchThreads = dispatchThreads;
+        return this;
+    }
+
+    /**
+     * Set capacity of the queue of events waiting for a dispatch thread.
+     * @param dispatchQueueCapacity number of events, rounded up to a power of two.
+     * @return 
+     */
+    public DeviceConfiguration setDispatchQueueCapacity(int dispatchQueueCapacity) {
+        if (dispatchQueueCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.dispatchQueueCapacity = dispatchQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Set how long the thread firing a change of a value or a port waits for
+     * a dispatch thread to make room in its full queue. The change is dropped
+     * when the time is up and it is counted in
+     * {@link ListenerStatistics#getDroppedCount()} of the listener. 0 means
+     * that the change is dropped right away. Other events, e.g. the start and
+     * stop of the device, are never dropped.
+     * @param dispatchTimeout timeout in microseconds.
+     * @return 
+     */
+    public DeviceConfiguration setDispatchTimeout(long dispatchTimeout) {
+        if (dispatchTimeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.dispatchTimeout = dispatchTimeout;
+        return this;
+    }
+
+    /**
+     * Set maximum number of events a dispatch thread delivers at once.
+     * @param dispatchBatchSize number of events.
+     * @return 
+     */
+    public DeviceConfiguration setDispatchBatchSize(int dispatchBatchSize) {
+        if (dispatchBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.dispatchBatchSize = dispatchBatchSize;
+        return this;
+    }
+
+    /**
+     * Set capacity of the queue of a listener registered with
+     * {@link DeliveryPolicy#ASYNC_DROP_OLDEST}. It also bounds the events that
+     * do not belong to a pin queued for a listener registered with
+     * {@link DeliveryPolicy#CONFLATING}.
+     * @param listenerQueueCapacity number of events.
+     * @return 
+     */
+    public DeviceConfiguration setListenerQueueCapacity(int listenerQueueCapacity) {
+        if (listenerQueueCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.listenerQueueCapacity = listenerQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Set recorder capturing raw data received from and sent to the board.
+     * The recorder is not closed by the device.
+     * @param trafficRecorder
+     * @return 
+     */
+    public DeviceConfiguration setTrafficRecorder(TrafficRecorder trafficRecorder) {
+        if (trafficRecorder == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.trafficRecorder = trafficRecorder;
+        return this;
+    }
+
+    /**
+     * @return comm port identifier or null when the configuration was not
+     * constructed for a serial port.
+     */
     public CommPortIdentifier getCommPortIdentifier() {
         return commPortIdentifier;
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
     public int getSerialPortBaudRate() {
         return serialPortBaudRate;
     }
@@ -142,6 +443,77 @@ public class DeviceConfiguration {
         return initializationTimeout;
     }
 
+    public long getModeConfirmationTimeout() {
+        return modeConfirmationTimeout;
+    }
+
+    public int getInboundQueueCapacity() {
+        return inboundQueueCapacity;
+    }
+
+    public int getInboundChunkSize() {
+        return inboundChunkSize;
+    }
+
+    public boolean isInboundDirectBuffers() {
+        return inboundDirectBuffers;
+    }
+
+    public OverflowPolicy getInboundOverflowPolicy() {
+        return inboundOverflowPolicy;
+    }
+
+    public WaitStrategy getInboundWaitStrategy() {
+        return inboundWaitStrategy;
+    }
+
+    public int getOutboundBufferSize() {
+        return outboundBufferSize;
+    }
+
+    public long getOutboundMaxLatency() {
+        return outboundMaxLatency;
+    }
+
+    public boolean isOutboundPacing() {
+        return outboundPacing;
+    }
+
+    public int getBoardReceiveBufferSize() {
+        return boardReceiveBufferSize;
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    public int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    public long getDispatchTimeout() {
+        return dispatchTimeout;
+    }
+
+    public int getDispatchBatchSize() {
+        return dispatchBatchSize;
+    }
+
+    public int getListenerQueueCapacity() {
+        return listenerQueueCapacity;
+    }
+
+    /**
+     * @return traffic recorder or null when the traffic is not captured.
+     */
+    public TrafficRecorder getTrafficRecorder() {
+        return trafficRecorder;
+    }
+
     public Class<? extends State> getCustomSysexState(byte b) {
         return customSysexStates.get(b);
     }
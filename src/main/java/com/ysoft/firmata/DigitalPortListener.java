@@ -0,0 +1,25 @@
+package com.ysoft.firmata;
+
+/**
+ * The listener interface for receiving changes of digital ports of
+ * {@link IODevice}.<br/>
+ * A port is a set of 8 pins whose states are reported by the board together.
+ * The state of every pin is represented by a bit of the mask (0 - low, 1 -
+ * high), the lowest bit stands for the pin with index of {@code portId * 8}.
+ * The listener receives a whole port change in a single call, which is cheaper
+ * than receiving an event for every pin of boards with many digital inputs.
+ */
+public interface DigitalPortListener {
+
+    /**
+     * Invoked when the board reports a port state that differs from the
+     * previous report of the port. The mask of a port is 0 before its first
+     * report.
+     *
+     * @param portId index of the port
+     * @param oldMask previously reported states of the pins
+     * @param newMask currently reported states of the pins
+     */
+    public void onPortChange(int portId, int oldMask, int newMask);
+
+}
@@ -0,0 +1,25 @@
+package com.ysoft.firmata;
+
+/**
+ * Ordering of events delivered to a listener by dispatch threads (see
+ * {@link DeviceConfiguration#setDispatchThreads(int)}). When the listeners are
+ * invoked by the parsing thread, every listener receives all its events in
+ * order regardless of the ordering.
+ */
+public enum EventOrdering {
+
+    /**
+     * The listener receives its events in the order they have occurred. All
+     * the events of the listener are delivered by the same dispatch thread.
+     */
+    LISTENER,
+    /**
+     * The listener receives events of the same pin in the order they have
+     * occurred. Events of different pins are spread over the dispatch threads
+     * by the index of the pin, so the listener may be invoked concurrently
+     * and has to be thread-safe. Events that do not belong to a pin are
+     * ordered as with {@link #LISTENER}.
+     */
+    PIN
+
+}
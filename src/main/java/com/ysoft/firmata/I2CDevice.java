@@ -23,6 +23,8 @@
  */
 package com.ysoft.firmata;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Represents an I2C device and encapsulates logic to communicate to it.
  *
@@ -53,6 +55,26 @@ public interface I2CDevice {
      */
     public void tell(byte... data) throws DeviceCommunicationException;
 
+    /**
+     * Sends data to the I2C device without blocking the caller.
+     *
+     * @param data data to send
+     * @return future completed when the data has been handed over to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when sending fails
+     */
+    default CompletableFuture<Void> tellAsync(byte... data) {
+        // blocks in tell(byte...) unless the implementation knows better
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            tell(data);
+            result.complete(null);
+        } catch (DeviceCommunicationException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
     /**
      * Registers a listener as a receiver of regular updates from I2C device (on all registers).
      *
@@ -25,7 +25,10 @@
 package com.ysoft.firmata;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This interface describes a device which is able to receive and transmit
@@ -103,6 +106,169 @@ public interface IODevice {
      * @return the pin
      */
     public Pin getPin(int index);
+
+    /**
+     * Sets the values of the pins of a digital port selected by the mask in a
+     * single message. The lowest bit of the mask and the values stands for
+     * the pin with index of {@code portId * 8}. Other pins of the port keep
+     * their values, even when they are being set by other threads at the same
+     * time.<br/>
+     * The default implementation sets the pins one by one by
+     * {@link Pin#setValue(long)}.
+     *
+     * @param portId index of the port
+     * @param mask the pins to be set
+     * @param values the new values of the pins (0 - low, 1 - high)
+     * @throws IllegalArgumentException when the port or a selected pin does
+     * not exist
+     * @throws IllegalStateException when a selected pin is not in
+     * {@link Pin.Mode#OUTPUT} mode
+     * @throws DeviceCommunicationException when sending of the message fails
+     */
+    default void setDigitalPortValue(int portId, int mask, int values) throws DeviceCommunicationException {
+        // sets the pins one by one unless the implementation knows better
+        if (portId < 0 || portId * 8 >= getPinsCount()) {
+            throw new IllegalArgumentException(String.format("Port %d does not exist", portId));
+        }
+        for (int bit = 0; bit < 8; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                int pinIndex = portId * 8 + bit;
+                if (pinIndex >= getPinsCount()) {
+                    throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+                }
+                if (getPin(pinIndex).getMode() != Pin.Mode.OUTPUT) {
+                    throw new IllegalStateException(String.format("Pin %d is not in OUTPUT mode", pinIndex));
+                }
+            }
+        }
+        for (int bit = 0; bit < 8; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                getPin(portId * 8 + bit).setValue((values >> bit) & 1);
+            }
+        }
+    }
+
+    /**
+     * Sets the values of all the pins of a digital port that are in
+     * {@link Pin.Mode#OUTPUT} mode in a single message. Bits of the other pins
+     * are ignored.
+     *
+     * @param portId index of the port
+     * @param values the new values of the pins (0 - low, 1 - high)
+     * @throws IllegalArgumentException when the port does not exist
+     * @throws DeviceCommunicationException when sending of the message fails
+     */
+    default void setDigitalPortValue(int portId, int values) throws DeviceCommunicationException {
+        if (portId < 0 || portId * 8 >= getPinsCount()) {
+            throw new IllegalArgumentException(String.format("Port %d does not exist", portId));
+        }
+        int mask = 0;
+        for (int bit = 0; bit < 8 && portId * 8 + bit < getPinsCount(); bit++) {
+            if (getPin(portId * 8 + bit).getMode() == Pin.Mode.OUTPUT) {
+                mask |= 1 << bit;
+            }
+        }
+        setDigitalPortValue(portId, mask, values);
+    }
+
+    /**
+     * Creates a batch of changes of pins that are sent to the board together.<br/>
+     * The default batch sends the changes pin by pin when it is
+     * committed, so the pins changed before a failure keep their new state.
+     *
+     * @return an empty batch
+     */
+    default OutputBatch batch() {
+        return new PinByPinOutputBatch(this);
+    }
+
+    /**
+     * Sets modes of many pins at once.<br/>
+     * The mode changes are sent to the board back-to-back, followed by
+     * queries of the states of the pins. The modes of the pins are changed
+     * and the listeners are notified right away. Pins which are in the
+     * requested mode already are skipped. When the messages cannot be sent,
+     * the pins that have not been changed since return to their previous
+     * modes.<br/>
+     * The responses to the queries sent earlier, e.g. by
+     * {@link Pin#setMode(Pin.Mode)}, do not count as the confirmation.<br/>
+     * The default implementation sets the modes one by one by
+     * {@link Pin#setMode(Pin.Mode)} and does not wait for a confirmation.
+     *
+     * @param modes the new modes by indexes of pins
+     * @return future completed when the board has reported the new mode of
+     * every changed pin, completed exceptionally with
+     * {@link IllegalStateException} when a pin reports another mode, with
+     * {@link java.util.concurrent.TimeoutException} when the board does not
+     * confirm the modes within
+     * {@link DeviceConfiguration#getModeConfirmationTimeout()} or with
+     * {@link DeviceCommunicationException} when the messages cannot be sent
+     * or the device is stopped before the confirmation
+     * @throws IllegalArgumentException when a pin does not exist or does not
+     * support its mode
+     */
+    default CompletableFuture<Void> configure(Map<Integer, Pin.Mode> modes) {
+        for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+            int pinIndex = entry.getKey();
+            if (pinIndex < 0 || pinIndex >= getPinsCount()) {
+                throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+            }
+            if (!getPin(pinIndex).supports(entry.getValue())) {
+                throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinIndex, entry.getValue()));
+            }
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+                getPin(entry.getKey()).setMode(entry.getValue());
+            }
+            result.complete(null);
+        } catch (DeviceCommunicationException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the analog channels the board is asked to report. A channel is
+     * reported while its pin is in ANALOG mode.
+     *
+     * @return indexes of the reported analog channels
+     */
+    default Set<Integer> getReportedAnalogChannels() {
+        Set<Integer> channels = new TreeSet<>();
+        int channel = 0;
+        for (int i = 0; i < getPinsCount(); i++) {
+            Pin pin = getPin(i);
+            if (pin.supports(Pin.Mode.ANALOG)) {
+                if (pin.getMode() == Pin.Mode.ANALOG) {
+                    channels.add(channel);
+                }
+                channel++;
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Returns the digital ports the board is asked to report. A port is
+     * reported while at least one of its pins is in {@link Pin.Mode#INPUT} or
+     * {@link Pin.Mode#PULLUP} mode. Listeners do not affect reporting, a
+     * {@link DigitalPortListener} receives the changes of the reported ports
+     * only.
+     *
+     * @return indexes of the reported digital ports
+     */
+    default Set<Integer> getReportedDigitalPorts() {
+        Set<Integer> ports = new TreeSet<>();
+        for (int i = 0; i < getPinsCount(); i++) {
+            Pin.Mode mode = getPin(i).getMode();
+            if (mode == Pin.Mode.INPUT || mode == Pin.Mode.PULLUP) {
+                ports.add(i / 8);
+            }
+        }
+        return ports;
+    }
     
     /**
      * Returns I2C device by its address.
@@ -120,6 +286,37 @@ public interface IODevice {
      */
     public void addEventListener(IODeviceEventListener listener);
 
+    /**
+     * Adds the specified listener to receive events from this device in the
+     * specified order when the events are delivered by dispatch threads.<br/>
+     * The default implementation adds the listener by
+     * {@link #addEventListener(IODeviceEventListener)} and ignores the
+     * ordering.
+     *
+     * @param listener the listener
+     * @param ordering ordering of the events
+     */
+    default void addEventListener(IODeviceEventListener listener, EventOrdering ordering) {
+        addEventListener(listener);
+    }
+
+    /**
+     * Adds the specified listener to receive events from this device in the
+     * way determined by the specified policy. If the listener has already been
+     * added, its policy is replaced.<br/>
+     * The default implementation adds the listener by
+     * {@link #addEventListener(IODeviceEventListener)}, ignores the policy and
+     * does not count the delivered events.
+     *
+     * @param listener the listener
+     * @param policy the way the events are delivered to the listener
+     * @return statistics of delivery of the events to the listener
+     */
+    default ListenerStatistics addEventListener(IODeviceEventListener listener, DeliveryPolicy policy) {
+        addEventListener(listener);
+        return new UntrackedStatistics(policy);
+    }
+
     /**
      * Removes the specified listener so that it no longer receives events from
      * this device.
@@ -128,6 +325,85 @@ public interface IODevice {
      */
     public void removeEventListener(IODeviceEventListener listener);
 
+    /**
+     * Adds the specified listener to receive changes of digital ports of this
+     * device.<br/>
+     * The default implementation derives the changes of the ports from
+     * the events of the device.
+     *
+     * @param listener the listener
+     */
+    default void addDigitalPortListener(DigitalPortListener listener) {
+        addEventListener(new PinEventAdapter.ForPorts(listener, this));
+    }
+
+    /**
+     * Removes the specified listener so that it no longer receives changes of
+     * digital ports of this device.
+     *
+     * @param listener the listener
+     */
+    default void removeDigitalPortListener(DigitalPortListener listener) {
+        removeEventListener(new PinEventAdapter.ForPorts(listener));
+    }
+
+    /**
+     * Adds the specified listener to receive changes of values of all pins of
+     * this device.<br/>
+     * The default implementation derives the changes from the events
+     * of the device.
+     *
+     * @param listener the listener
+     */
+    default void addPinValueListener(PinValueListener listener) {
+        addEventListener(new PinEventAdapter.ForValues(listener));
+    }
+
+    /**
+     * Adds the specified listener to receive changes of values of all pins of
+     * this device in the way determined by the specified policy. If the
+     * listener has already been added, its policy is replaced.
+     *
+     * @param listener the listener
+     * @param policy the way the changes are delivered to the listener
+     * @return statistics of delivery of the changes to the listener
+     */
+    default ListenerStatistics addPinValueListener(PinValueListener listener, DeliveryPolicy policy) {
+        return addEventListener(new PinEventAdapter.ForValues(listener), policy);
+    }
+
+    /**
+     * Removes the specified listener so that it no longer receives changes of
+     * values of pins of this device.
+     *
+     * @param listener the listener
+     */
+    default void removePinValueListener(PinValueListener listener) {
+        removeEventListener(new PinEventAdapter.ForValues(listener));
+    }
+
+    /**
+     * Adds the specified listener to receive changes of values of pins caused
+     * by data received from the board, a batch per received chunk of data.<br/>
+     * The default implementation passes every change of a pin in a
+     * batch of its own.
+     *
+     * @param listener the listener
+     */
+    default void addPinBatchListener(PinBatchListener listener) {
+        addEventListener(new PinEventAdapter.ForBatches(listener));
+    }
+
+    /**
+     * Removes the specified listener so that it no longer receives batches of
+     * changes of values of pins.
+     *
+     * @param listener the listener
+     */
+    default void removePinBatchListener(PinBatchListener listener) {
+        removeEventListener(new PinEventAdapter.ForBatches(listener));
+    }
+
     /**
      * Returns the name of a protocol that the device uses.
      *
@@ -142,6 +418,24 @@ public interface IODevice {
      * @throws DeviceCommunicationException when sending a message fails
      */
     public void sendMessage(String message) throws DeviceCommunicationException;
+
+    /**
+     * Sends raw message to device without blocking the caller.<br/>
+     * The message must not be modified after the call.<br/>
+     * The default implementation cannot send raw messages and returns a
+     * future completed exceptionally with
+     * {@link UnsupportedOperationException}.
+     *
+     * @param message the message encoded for the device's protocol
+     * @return future completed when the message has been handed over to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when sending fails
+     */
+    default CompletableFuture<Void> sendAsync(byte[] message) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("Raw messages are not supported by " + getProtocol()));
+        return result;
+    }
     
     /**
      * Send custom sysex message.
@@ -68,6 +68,21 @@ public class IOEvent {
         this.value = pin.getValue();
         this.timestamp = System.currentTimeMillis();
     }
+
+    /**
+     * Constructs the event about a new value of a particular {@link Pin}.
+     * The value is given rather than read from the pin, so the event keeps
+     * it even when the pin changes again before the event is delivered.
+     *
+     * @param pin the pin that originated the event
+     * @param value the value the pin received
+     */
+    public IOEvent(Pin pin, long value) {
+        this.device = pin.getDevice();
+        this.pin = pin;
+        this.value = value;
+        this.timestamp = System.currentTimeMillis();
+    }
     
 
     /**
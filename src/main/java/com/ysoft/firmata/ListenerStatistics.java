@@ -0,0 +1,37 @@
+package com.ysoft.firmata;
+
+/**
+ * Statistics of delivery of events to a listener.
+ */
+public interface ListenerStatistics {
+
+    /**
+     * Returns the policy the listener has been registered with.
+     *
+     * @return the delivery policy
+     */
+    DeliveryPolicy getDeliveryPolicy();
+
+    /**
+     * Returns the number of events waiting for the listener.
+     *
+     * @return the number of events, always 0 for {@link DeliveryPolicy#SYNC}
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the number of events handed to the listener so far.
+     *
+     * @return the number of events
+     */
+    long getDeliveredCount();
+
+    /**
+     * Returns the number of events dropped or replaced by a newer one before
+     * they could be delivered.
+     *
+     * @return the number of events
+     */
+    long getDroppedCount();
+
+}
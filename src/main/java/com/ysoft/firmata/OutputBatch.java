@@ -0,0 +1,71 @@
+package com.ysoft.firmata;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Changes of modes and values of pins of an {@link IODevice} that are sent to
+ * the board together.<br/>
+ * The changes are only recorded until {@link #commit()}. Then every changed
+ * digital port is sent by a single message, every other pin by a message of
+ * its own, and all the messages are handed to the transport by a single
+ * write when they fit in. Listeners are notified once for every pin that has
+ * changed. A later change of a pin in the batch replaces an earlier one.<br/>
+ * When the messages cannot be sent, the pins get back the modes and values
+ * they had before the commit, unless they have been changed since.<br/>
+ * The batch can be reused after it has been committed. It is not thread-safe.
+ */
+public interface OutputBatch {
+
+    /**
+     * Records a change of the mode of a pin.
+     *
+     * @param pinIndex index of the pin
+     * @param mode the new mode
+     * @return this batch
+     * @throws IllegalArgumentException when the pin does not exist or does not
+     * support the mode
+     */
+    public OutputBatch setMode(int pinIndex, Pin.Mode mode);
+
+    /**
+     * Records a change of the value of a pin. The pin must be in a mode that
+     * allows setting its value at the moment of commit.
+     *
+     * @param pinIndex index of the pin
+     * @param value the new value
+     * @return this batch
+     * @throws IllegalArgumentException when the pin does not exist
+     */
+    public OutputBatch setValue(int pinIndex, long value);
+
+    /**
+     * Returns whether the batch has no changes recorded.
+     *
+     * @return true when there is nothing to commit
+     */
+    public boolean isEmpty();
+
+    /**
+     * Sends the recorded changes to the board and clears the batch.
+     *
+     * @throws IllegalStateException when a value is set to a pin in a mode that
+     * does not allow it, nothing is sent then
+     * @throws DeviceCommunicationException when sending fails, the pins are
+     * not changed then
+     */
+    public void commit() throws IllegalStateException, DeviceCommunicationException;
+
+    /**
+     * Sends the recorded changes to the board without blocking the caller and
+     * clears the batch.
+     *
+     * @return future completed when the messages have been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when they cannot be sent, the pins
+     * are reverted and their listeners notified then
+     * @throws IllegalStateException when a value is set to a pin in a mode that
+     * does not allow it, nothing is sent then
+     */
+    public CompletableFuture<Void> commitAsync() throws IllegalStateException;
+
+}
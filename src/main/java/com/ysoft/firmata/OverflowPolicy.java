@@ -0,0 +1,23 @@
+package com.ysoft.firmata;
+
+/**
+ * Describes what the inbound queue of a device does with a new chunk of
+ * received data when the queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The producer waits until the consumer frees a slot.
+     */
+    BLOCK,
+    /**
+     * The oldest chunk that has not been taken by the consumer yet is
+     * discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The new chunk is rejected immediately.
+     */
+    FAIL_FAST
+
+}
@@ -25,6 +25,7 @@
 package com.ysoft.firmata;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import com.ysoft.firmata.impl.parser.FirmataToken;
 
 /**
@@ -179,6 +180,30 @@ public interface Pin {
      * {@link Mode#INPUT} or {@link Mode#ANALOG}.
      */
     public void setValue(long value) throws IllegalStateException;
+
+    /**
+     * Sets the value to the pin without blocking the caller. It is impossible
+     * to set a value to a pin in input mode such as {@link Mode#INPUT} or
+     * {@link Mode#ANALOG}.
+     *
+     * @param value the value to be assigned to the pin
+     * @return future completed when the message has been handed over to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when sending fails
+     * @throws IllegalStateException when the pin is in input mode such as
+     * {@link Mode#INPUT} or {@link Mode#ANALOG}.
+     */
+    default CompletableFuture<Void> setValueAsync(long value) throws IllegalStateException {
+        // blocks in setValue(long) unless the implementation knows better
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            setValue(value);
+            result.complete(null);
+        } catch (DeviceCommunicationException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
     
     /**
      * Adds the specified listener to receive events from this pin.
@@ -187,6 +212,36 @@ public interface Pin {
      */
     public void addEventListener(PinEventListener listener);
 
+    /**
+     * Adds the specified listener to receive events from this pin in the
+     * specified order when the events are delivered by dispatch threads.<br/>
+     * The default implementation adds the listener by
+     * {@link #addEventListener(PinEventListener)} and ignores the ordering.
+     *
+     * @param listener the listener
+     * @param ordering ordering of the events
+     */
+    default void addEventListener(PinEventListener listener, EventOrdering ordering) {
+        addEventListener(listener);
+    }
+
+    /**
+     * Adds the specified listener to receive events from this pin in the way
+     * determined by the specified policy. If the listener has already been
+     * added, its policy is replaced.<br/>
+     * The default implementation adds the listener by
+     * {@link #addEventListener(PinEventListener)}, ignores the policy and does
+     * not count the delivered events.
+     *
+     * @param listener the listener
+     * @param policy the way the events are delivered to the listener
+     * @return statistics of delivery of the events to the listener
+     */
+    default ListenerStatistics addEventListener(PinEventListener listener, DeliveryPolicy policy) {
+        addEventListener(listener);
+        return new UntrackedStatistics(policy);
+    }
+
     /**
      * Removes the specified listener so that it no longer receives events from
      * this pin.
@@ -0,0 +1,25 @@
+package com.ysoft.firmata;
+
+/**
+ * The listener interface for receiving changes of values of pins of
+ * {@link IODevice} in batches.<br/>
+ * The listener is invoked once per chunk of data received from the board with
+ * all the changes the chunk has caused. Consumers that forward the changes to
+ * a storage or over a network can so spread their costs per call over many
+ * changes. Changes made by the program, like
+ * {@link Pin#setValue(long)}, are not included.<br/>
+ * The listener is invoked by the thread parsing data from the board even when
+ * the device has dispatch threads, because the batch is reused for the next
+ * chunk.
+ */
+public interface PinBatchListener {
+
+    /**
+     * Invoked after a chunk of received data has been processed, when the
+     * chunk has changed a value of at least one pin.
+     *
+     * @param batch the changes, valid only until the method returns
+     */
+    public void onPinBatch(PinChangeBatch batch);
+
+}
@@ -0,0 +1,89 @@
+package com.ysoft.firmata;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link OutputBatch} that applies the recorded changes pin by pin through
+ * {@link Pin#setMode(Pin.Mode)} and {@link Pin#setValue(long)}, returned by
+ * the default {@link IODevice#batch()}.<br/>
+ * The changes are sent by separate messages and the pins changed before a
+ * failure keep their new modes and values.
+ */
+final class PinByPinOutputBatch implements OutputBatch {
+
+    private static final Set<Pin.Mode> INPUT_MODES = EnumSet.of(Pin.Mode.INPUT, Pin.Mode.PULLUP, Pin.Mode.ANALOG);
+
+    private final IODevice device;
+    private final Map<Integer, Pin.Mode> modes = new LinkedHashMap<>();
+    private final Map<Integer, Long> values = new LinkedHashMap<>();
+
+    PinByPinOutputBatch(IODevice device) {
+        this.device = device;
+    }
+
+    @Override
+    public OutputBatch setMode(int pinIndex, Pin.Mode mode) {
+        if (!pin(pinIndex).supports(mode)) {
+            throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinIndex, mode));
+        }
+        modes.put(pinIndex, mode);
+        return this;
+    }
+
+    @Override
+    public OutputBatch setValue(int pinIndex, long value) {
+        pin(pinIndex);
+        values.put(pinIndex, value);
+        return this;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return modes.isEmpty() && values.isEmpty();
+    }
+
+    @Override
+    public void commit() throws IllegalStateException, DeviceCommunicationException {
+        for (Integer pinIndex : values.keySet()) {
+            Pin.Mode mode = modes.getOrDefault(pinIndex, pin(pinIndex).getMode());
+            if (INPUT_MODES.contains(mode)) {
+                throw new IllegalStateException(String.format("Pin %d is in %s mode and its value cannot be set.", pinIndex, mode));
+            }
+        }
+        try {
+            for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+                pin(entry.getKey()).setMode(entry.getValue());
+            }
+            for (Map.Entry<Integer, Long> entry : values.entrySet()) {
+                pin(entry.getKey()).setValue(entry.getValue());
+            }
+        } finally {
+            modes.clear();
+            values.clear();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync() throws IllegalStateException {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            commit();
+            result.complete(null);
+        } catch (DeviceCommunicationException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    private Pin pin(int pinIndex) {
+        if (pinIndex < 0 || pinIndex >= device.getPinsCount()) {
+            throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+        }
+        return device.getPin(pinIndex);
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.ysoft.firmata;
+
+import java.util.Arrays;
+
+/**
+ * Changes of values of pins received from the board in a single chunk of
+ * data.<br/>
+ * The changes are kept in primitive arrays in the order they have been
+ * received. The device reuses a single instance for all the chunks, so the
+ * batch is valid only during {@link PinBatchListener#onPinBatch(PinChangeBatch)}.
+ * Use {@link #copy()} to keep the changes longer.
+ */
+public class PinChangeBatch {
+
+    private int[] pins;
+    private long[] values;
+    private long[] timestamps;
+    private int size;
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param capacity initial number of changes the batch can hold without
+     * growing
+     */
+    public PinChangeBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        pins = new int[capacity];
+        values = new long[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Returns the number of changes in the batch.
+     *
+     * @return the number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the batch has no changes.
+     *
+     * @return true when the batch is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the index of the pin of a change.
+     *
+     * @param i position of the change in the batch
+     * @return index of the pin
+     */
+    public int getPinIndex(int i) {
+        checkIndex(i);
+        return pins[i];
+    }
+
+    /**
+     * Returns the new value of the pin of a change.
+     *
+     * @param i position of the change in the batch
+     * @return the value
+     */
+    public long getValue(int i) {
+        checkIndex(i);
+        return values[i];
+    }
+
+    /**
+     * Returns the moment of a change.
+     *
+     * @param i position of the change in the batch
+     * @return the moment as returned by {@link System#nanoTime()}
+     */
+    public long getTimestamp(int i) {
+        checkIndex(i);
+        return timestamps[i];
+    }
+
+    /**
+     * Creates a copy of the batch which stays the same when this batch is
+     * reused.
+     *
+     * @return the copy
+     */
+    public PinChangeBatch copy() {
+        PinChangeBatch result = new PinChangeBatch(Math.max(size, 1));
+        System.arraycopy(pins, 0, result.pins, 0, size);
+        System.arraycopy(values, 0, result.values, 0, size);
+        System.arraycopy(timestamps, 0, result.timestamps, 0, size);
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * Appends a change to the batch. The arrays grow when they are full.
+     *
+     * @param pinIndex index of the pin
+     * @param value the new value
+     * @param timestamp the moment of the change
+     */
+    public void add(int pinIndex, long value, long timestamp) {
+        if (size == pins.length) {
+            int capacity = pins.length * 2;
+            pins = Arrays.copyOf(pins, capacity);
+            values = Arrays.copyOf(values, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        pins[size] = pinIndex;
+        values[size] = value;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    /**
+     * Removes all the changes from the batch.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+    }
+
+}
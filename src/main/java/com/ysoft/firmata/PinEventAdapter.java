@@ -0,0 +1,147 @@
+package com.ysoft.firmata;
+
+import java.util.Objects;
+
+/**
+ * Delivers changes of pins reported to an {@link IODeviceEventListener} to a
+ * listener of another kind. Used by the default methods of {@link IODevice}.
+ * <br/>
+ * Adapters are equal when they adapt the same listener, so an adapter
+ * created for removal finds the registered one in implementations that
+ * compare listeners by {@link Object#equals(Object)}.
+ */
+abstract class PinEventAdapter implements IODeviceEventListener {
+
+    private final Object listener;
+
+    PinEventAdapter(Object listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    @Override
+    public void onStart(IOEvent event) {
+    }
+
+    @Override
+    public void onStop(IOEvent event) {
+    }
+
+    @Override
+    public void onMessageReceive(IOEvent event, String message) {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass() && ((PinEventAdapter) obj).listener.equals(listener);
+    }
+
+    @Override
+    public int hashCode() {
+        return listener.hashCode();
+    }
+
+    /**
+     * Passes every change of a pin to a {@link PinValueListener}.
+     */
+    static final class ForValues extends PinEventAdapter {
+
+        private final PinValueListener listener;
+
+        ForValues(PinValueListener listener) {
+            super(listener);
+            this.listener = listener;
+        }
+
+        @Override
+        public void onPinChange(IOEvent event) {
+            listener.onPinValue(event.getPin().getIndex(), event.getValue(), System.nanoTime());
+        }
+
+    }
+
+    /**
+     * Passes every change of a pin to a {@link PinBatchListener} as a batch
+     * of its own.
+     */
+    static final class ForBatches extends PinEventAdapter {
+
+        private final PinBatchListener listener;
+        private final PinChangeBatch batch = new PinChangeBatch(1);
+
+        ForBatches(PinBatchListener listener) {
+            super(listener);
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void onPinChange(IOEvent event) {
+            batch.clear();
+            batch.add(event.getPin().getIndex(), event.getValue(), System.nanoTime());
+            listener.onPinBatch(batch);
+        }
+
+    }
+
+    /**
+     * Keeps the states of the input pins of every digital port and passes
+     * changes of the states to a {@link DigitalPortListener}.
+     */
+    static final class ForPorts extends PinEventAdapter {
+
+        private final DigitalPortListener listener;
+        private final int[] masks;
+
+        /**
+         * Constructs the adapter for removal.
+         */
+        ForPorts(DigitalPortListener listener) {
+            super(listener);
+            this.listener = listener;
+            this.masks = null;
+        }
+
+        /**
+         * Constructs the adapter to be registered, starting with the current
+         * states of the input pins of the device.
+         */
+        ForPorts(DigitalPortListener listener, IODevice device) {
+            super(listener);
+            this.listener = listener;
+            int pinCount = device.getPinsCount();
+            masks = new int[(pinCount + 7) / 8];
+            for (int i = 0; i < pinCount; i++) {
+                Pin pin = device.getPin(i);
+                if (isInput(pin) && pin.getValue() != 0) {
+                    masks[i / 8] |= 1 << (i % 8);
+                }
+            }
+        }
+
+        @Override
+        public void onPinChange(IOEvent event) {
+            Pin pin = event.getPin();
+            int index = pin.getIndex();
+            if (masks == null || !isInput(pin) || index / 8 >= masks.length) {
+                return;
+            }
+            int portId = index / 8;
+            int bit = 1 << (index % 8);
+            int oldMask;
+            int newMask;
+            synchronized (this) {
+                oldMask = masks[portId];
+                newMask = event.getValue() != 0 ? oldMask | bit : oldMask & ~bit;
+                masks[portId] = newMask;
+            }
+            if (newMask != oldMask) {
+                listener.onPortChange(portId, oldMask, newMask);
+            }
+        }
+
+        private static boolean isInput(Pin pin) {
+            return pin.getMode() == Pin.Mode.INPUT || pin.getMode() == Pin.Mode.PULLUP;
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.ysoft.firmata;
+
+/**
+ * The low-level listener interface for receiving changes of values of pins of
+ * {@link IODevice}.<br/>
+ * Unlike {@link IODeviceEventListener} and {@link PinEventListener}, the
+ * listener receives the change in primitive arguments. No object is created
+ * to deliver the change unless the listener is registered with an
+ * asynchronous {@link DeliveryPolicy}, which makes the listener suitable for
+ * consumers of tens of thousands of changes per second.
+ */
+public interface PinValueListener {
+
+    /**
+     * Invoked when a value of a pin has changed.
+     *
+     * @param pinIndex index of the pin
+     * @param value the new value of the pin
+     * @param nanoTimestamp the moment of the change as returned by
+     * {@link System#nanoTime()}
+     */
+    public void onPinValue(int pinIndex, long value, long nanoTimestamp);
+
+}
@@ -0,0 +1,36 @@
+package com.ysoft.firmata;
+
+/**
+ * Statistics of a listener whose delivery is not tracked, returned by the
+ * default methods of {@link IODevice} and {@link Pin} that add the listener
+ * the way the implementation always does.
+ */
+final class UntrackedStatistics implements ListenerStatistics {
+
+    private final DeliveryPolicy policy;
+
+    UntrackedStatistics(DeliveryPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public DeliveryPolicy getDeliveryPolicy() {
+        return policy;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return 0;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+
+}
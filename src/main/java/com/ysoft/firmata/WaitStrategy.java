@@ -0,0 +1,28 @@
+package com.ysoft.firmata;
+
+/**
+ * Describes how a party of the inbound queue of a device waits for the other
+ * one: the parsing thread for data and the receiving thread for a free slot
+ * (when {@link OverflowPolicy#BLOCK} is used).
+ */
+public enum WaitStrategy {
+
+    /**
+     * Spins on the CPU. Lowest latency, burns a core while waiting.
+     */
+    BUSY_SPIN,
+    /**
+     * Spins for a while, then yields the CPU to other threads.
+     */
+    YIELDING,
+    /**
+     * Spins and yields for a while, then parks the thread for short periods.
+     */
+    SLEEPING,
+    /**
+     * Waits on a lock condition until the other party signals. Lowest CPU
+     * usage.
+     */
+    BLOCKING
+
+}
@@ -0,0 +1,190 @@
+package com.ysoft.firmata.capture;
+
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Transport} feeding inbound data of a session captured by
+ * {@link TrafficRecorder} back to a device.<br/>
+ * When opened, the transport starts a thread that replays the inbound records
+ * keeping their original spacing scaled by the speed factor: 1 replays in
+ * real time, N replays N times faster and {@link #MAX_SPEED} replays as fast
+ * as the device consumes the data. Data written by the device is
+ * discarded.<br/>
+ * Replaying a session gives reproducible benchmarks of parsing and listeners
+ * with real device traffic.
+ */
+public class ReplayTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayTransport.class);
+
+    /**
+     * Speed factor replaying the records without any delays.
+     */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final Path file;
+    private final double speed;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicLong replayedBytes = new AtomicLong();
+    private volatile TransportListener listener;
+    private volatile Thread replayer;
+    private volatile boolean open;
+    // data of the record being replayed, read by the listener in the replaying thread
+    private volatile ByteBuffer pending = ByteBuffer.allocate(0);
+
+    /**
+     * Constructs the transport replaying at the real time.
+     *
+     * @param file the captured session
+     */
+    public ReplayTransport(Path file) {
+        this(file, 1);
+    }
+
+    /**
+     * Constructs the transport.
+     *
+     * @param file the captured session
+     * @param speed speed factor, 1 for real time, {@link #MAX_SPEED} for no
+     * delays
+     */
+    public ReplayTransport(Path file, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        this.file = file;
+        this.speed = speed;
+    }
+
+    @Override
+    public void open() throws IOException {
+        TrafficReader reader = new TrafficReader(file);
+        open = true;
+        Thread t = new Thread(() -> replay(reader), "firmata-replay-thread");
+        t.setDaemon(true);
+        replayer = t;
+        t.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        Thread t = replayer;
+        if (t != null && t != Thread.currentThread()) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+        ByteBuffer source = pending;
+        int count = Math.min(source.remaining(), buffer.remaining());
+        if (count == 0) {
+            return 0;
+        }
+        int limit = source.limit();
+        source.limit(source.position() + count);
+        buffer.put(source);
+        source.limit(limit);
+        return count;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public void setTransportListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Waits until all the inbound records have been replayed.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if the replay has finished, false if the timeout has elapsed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Returns the number of bytes replayed so far.
+     *
+     * @return the number of bytes
+     */
+    public long getReplayedBytes() {
+        return replayedBytes.get();
+    }
+
+    private void replay(TrafficReader reader) {
+        try {
+            long first = -1;
+            long start = System.nanoTime();
+            while (open && reader.next()) {
+                if (reader.getDirection() != TrafficRecorder.Direction.INBOUND) {
+                    continue;
+                }
+                if (first < 0) {
+                    first = reader.getTimestamp();
+                }
+                if (speed != MAX_SPEED) {
+                    long due = start + (long) ((reader.getTimestamp() - first) / speed);
+                    long delay;
+                    while ((delay = due - System.nanoTime()) > 0 && open) {
+                        LockSupport.parkNanos(this, delay);
+                    }
+                }
+                pending = ByteBuffer.wrap(reader.getData(), 0, reader.getLength());
+                TransportListener l = listener;
+                if (l != null && open) {
+                    l.onDataAvailable(this);
+                }
+                replayedBytes.addAndGet(reader.getLength() - pending.remaining());
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Cannot replay captured session", ex);
+        } finally {
+            pending = ByteBuffer.allocate(0);
+            finished.countDown();
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Cannot close captured session", ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.ysoft.firmata.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads records of a session captured by {@link TrafficRecorder}.<br/>
+ * The reader moves through the records by {@link #next()} and exposes the
+ * current one by its getters. The data array of the reader is reused, so it
+ * is valid until the next call of {@link #next()}.<br/>
+ * The reader stops at the end of the recorded data given by the header of the
+ * file. A session whose recorder has not been closed appears empty.
+ */
+public class TrafficReader implements Closeable {
+
+    private static final TrafficRecorder.Direction[] DIRECTIONS = TrafficRecorder.Direction.values();
+
+    private final DataInputStream in;
+    private long timestamp;
+    private TrafficRecorder.Direction direction;
+    private byte[] data = new byte[256];
+    private int length;
+    // bytes of the file behind the current record
+    private long remaining;
+
+    /**
+     * Opens the captured session.
+     *
+     * @param file the file written by {@link TrafficRecorder}
+     * @throws IOException when the file cannot be opened or it is not a
+     * captured session
+     */
+    public TrafficReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != TrafficRecorder.MAGIC) {
+                throw new IOException("File " + file + " is not a captured session");
+            }
+            int version = in.readInt();
+            if (version != TrafficRecorder.VERSION) {
+                throw new IOException("Unsupported version " + version + " of captured session");
+            }
+            long size = in.readLong();
+            if (size != 0 && (size < TrafficRecorder.HEADER_SIZE || size > Files.size(file))) {
+                throw new IOException("Invalid size " + size + " of captured session");
+            }
+            remaining = Math.max(0, size - TrafficRecorder.HEADER_SIZE);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return true if there is a record, false at the end of the session
+     * @throws IOException when the file cannot be read or the record is
+     * corrupted
+     */
+    public boolean next() throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining -= TrafficRecorder.RECORD_HEADER_SIZE;
+        if (remaining < 0) {
+            throw new IOException("Truncated record of captured session");
+        }
+        timestamp = in.readLong();
+        int directionIndex = in.readByte();
+        if (directionIndex < 0 || directionIndex >= DIRECTIONS.length) {
+            throw new IOException("Unknown direction " + directionIndex + " of captured record");
+        }
+        direction = DIRECTIONS[directionIndex];
+        length = in.readInt();
+        if (length < 0 || length > remaining) {
+            throw new IOException("Invalid length " + length + " of captured record");
+        }
+        remaining -= length;
+        if (data.length < length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        in.readFully(data, 0, length);
+        return true;
+    }
+
+    /**
+     * Returns the moment the current record has been captured.
+     *
+     * @return the value of {@link System#nanoTime()} at the moment of capture
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public TrafficRecorder.Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the array holding the data of the current record.
+     *
+     * @return the array, the data occupies it from 0 to {@link #getLength()}
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.ysoft.firmata.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records raw traffic between a device and a board into a memory-mapped
+ * file.<br/>
+ * The file starts with a header (magic number, version and the size of the
+ * recorded data as long) followed by records of the form: timestamp from
+ * {@link System#nanoTime()} (long), direction (byte), length (int) and the
+ * bytes. The file is mapped in regions which are added as the recording
+ * grows, so appending a record mostly costs a copy into memory. When the
+ * recorder is closed, the size is written to the header and the unused rest
+ * of the last region is cut off. Platforms that cannot truncate a mapped file
+ * keep the rest, the size in the header still tells where the recorded data
+ * ends.<br/>
+ * Recorded sessions can be read by {@link TrafficReader} and fed back to a
+ * device by {@link ReplayTransport}.<br/>
+ * The recorder is thread-safe, so it can be shared by the reading and the
+ * writing thread of a device.
+ */
+public class TrafficRecorder implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    static final int MAGIC = 0x46524d54; // "FRMT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // position of the size of the recorded data in the header
+    static final int SIZE_OFFSET = 8;
+    static final int RECORD_HEADER_SIZE = 13;
+
+    private static final int DEFAULT_REGION_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int regionSize;
+    private MappedByteBuffer region;
+    // position of the region in the file
+    private long regionStart;
+    private long records;
+    private boolean closed;
+
+    /**
+     * Creates a recorder writing to the file. An existing file is
+     * overwritten.
+     *
+     * @param file the file
+     * @throws IOException when the file cannot be opened
+     */
+    public TrafficRecorder(Path file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Creates a recorder writing to the file. An existing file is
+     * overwritten.
+     *
+     * @param file the file
+     * @param regionSize size of the regions the file is mapped in
+     * @throws IOException when the file cannot be opened
+     */
+    public TrafficRecorder(Path file, int regionSize) throws IOException {
+        if (regionSize < HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Region size is too small");
+        }
+        this.regionSize = regionSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+        region.putLong(0);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param direction direction of the data
+     * @param data array holding the data
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @throws IOException when the file cannot be extended
+     */
+    public synchronized void record(Direction direction, byte[] data, int offset, int length) throws IOException {
+        if (prepare(direction, length)) {
+            region.put(data, offset, length);
+        } else {
+            channel.write(ByteBuffer.wrap(data, offset, length), regionStart + region.position());
+            skipOversized(length);
+        }
+    }
+
+    /**
+     * Appends a record. The position of the buffer is not changed.
+     *
+     * @param direction direction of the data
+     * @param data buffer holding the data
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @throws IOException when the file cannot be extended
+     */
+    public synchronized void record(Direction direction, ByteBuffer data, int offset, int length) throws IOException {
+        if (data.hasArray()) {
+            record(direction, data.array(), data.arrayOffset() + offset, length);
+            return;
+        }
+        if (prepare(direction, length)) {
+            for (int i = offset; i < offset + length; i++) {
+                region.put(data.get(i));
+            }
+        } else {
+            ByteBuffer view = data.duplicate();
+            view.limit(offset + length).position(offset);
+            channel.write(view, regionStart + region.position());
+            skipOversized(length);
+        }
+    }
+
+    /**
+     * Returns the number of records appended so far.
+     *
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            long size = regionStart + region.position();
+            region.force();
+            region = null;
+            try {
+                channel.truncate(size);
+            } catch (IOException ex) {
+                LOGGER.debug("Cannot cut off unused part of captured session", ex);
+            }
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            header.putLong(0, size);
+            channel.write(header, SIZE_OFFSET);
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the header of a record and makes sure the data fits into the
+     * current region.
+     *
+     * @return true when the data fits into the region, false when it is larger
+     * than a region and has to be written to the file directly
+     */
+    private boolean prepare(Direction direction, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Recorder is closed");
+        }
+        if (region.remaining() < RECORD_HEADER_SIZE + length) {
+            remap();
+        }
+        region.putLong(System.nanoTime());
+        region.put((byte) direction.ordinal());
+        region.putInt(length);
+        records++;
+        return region.remaining() >= length;
+    }
+
+    /**
+     * Maps the next region starting right after the recorded data.
+     */
+    private void remap() throws IOException {
+        regionStart += region.position();
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+    }
+
+    private void skipOversized(int length) throws IOException {
+        regionStart += region.position() + length;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+    }
+
+    /**
+     * Direction of recorded data.
+     */
+    public enum Direction {
+
+        /**
+         * Data received from the board.
+         */
+        INBOUND,
+        /**
+         * Data sent to the board.
+         */
+        OUTBOUND
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.ysoft.firmata.impl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.DIGITAL_MESSAGE;
+
+/**
+ * Shadow registers of digital output ports of a device.<br/>
+ * A register holds the states of the output pins of a port (bit 0 stands for
+ * the pin with index of {@code portId * 8}), so a single pin can be written
+ * without looking at the other pins of its port. Registers are updated by
+ * compare-and-set, so concurrent writers of pins of the same port do not
+ * clobber each other's bits.<br/>
+ * A message carrying a port to the board takes the state of the register
+ * when it is put into its lane of the writer, so it never carries a change
+ * made after a later message of the lane has been enqueued. A write of a port
+ * is merged into the last message of the lane instead when that message
+ * carries ports and the writer has not taken it yet.
+ */
+class DigitalOutputPorts {
+
+    static final int PORT_COUNT = 16;
+    static final int MESSAGE_LENGTH = 3;
+
+    private final AtomicIntegerArray masks = new AtomicIntegerArray(PORT_COUNT);
+
+    /**
+     * Sets the bits of the port selected by the mask to the values.
+     *
+     * @param portId index of the port
+     * @param mask the bits to be changed
+     * @param values new values of the bits
+     * @return the previous state of the port
+     */
+    int update(int portId, int mask, int values) {
+        while (true) {
+            int current = masks.get(portId);
+            int updated = (current & ~mask) | (values & mask);
+            if (current == updated || masks.compareAndSet(portId, current, updated)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Returns the state of the port.
+     *
+     * @param portId index of the port
+     * @return the states of the output pins
+     */
+    int get(int portId) {
+        return masks.get(portId);
+    }
+
+    /**
+     * Encodes the message setting the port to the state.
+     *
+     * @param portId index of the port
+     * @param value the state of the port
+     * @param buffer the buffer to encode the message to
+     * @param offset where the message starts in the buffer
+     * @return number of bytes written
+     */
+    static int encode(int portId, int value, byte[] buffer, int offset) {
+        buffer[offset] = (byte) (DIGITAL_MESSAGE | portId);
+        buffer[offset + 1] = (byte) (value & 0x7F);
+        buffer[offset + 2] = (byte) ((value >>> 7) & 0x7F);
+        return MESSAGE_LENGTH;
+    }
+
+}
@@ -0,0 +1,708 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.AbstractCustomSysexEvent;
+import com.ysoft.firmata.CustomSysexEventListener;
+import com.ysoft.firmata.DeliveryPolicy;
+import com.ysoft.firmata.DigitalPortListener;
+import com.ysoft.firmata.EventOrdering;
+import com.ysoft.firmata.I2CEvent;
+import com.ysoft.firmata.I2CListener;
+import com.ysoft.firmata.IODeviceEventListener;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.PinEventListener;
+import com.ysoft.firmata.PinValueListener;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers events of a device to its listeners.<br/>
+ * Without dispatch threads the listeners are invoked right in the thread that
+ * fires the event, which is the parsing thread for the events coming from the
+ * board. With dispatch threads, the events are put to preallocated rings, one
+ * per thread, and the threads invoke the listeners. The parsing thread then
+ * does not wait for the listeners. A slow listener delays the events of its
+ * ring only and fills the ring up at worst, then the firing thread waits for
+ * free space. The wait for a change of a value or a port is bounded, such an
+ * event that still does not fit is dropped and counted in the
+ * {@link com.ysoft.firmata.ListenerStatistics} of its listener, so a stuck
+ * listener cannot stall the parsing thread with the changes. Other events,
+ * such as the start and stop of the device or received messages, are never
+ * dropped and the firing thread waits for them as long as it takes.<br/>
+ * The ring an event is put to is chosen by the {@link EventOrdering} of the
+ * listener. Dispatch threads take events from their rings in batches and park
+ * when there is nothing to deliver.<br/>
+ * Listeners registered with an asynchronous {@link DeliveryPolicy} bypass the
+ * rings. Each of them has its own mailbox which a listener thread empties, so
+ * such listener neither delays nor is delayed by the others. Listener threads
+ * are pooled and created only when a mailbox needs one.
+ */
+class EventDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDispatcher.class);
+    // how long a firing thread waits for free space in a full ring
+    private static final long STALL_NANOS = 50_000;
+
+    private final Lane[] lanes;
+    private final long dispatchTimeout;
+    private final int batchSize;
+    private final int mailboxCapacity;
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running;
+    private ExecutorService listenerThreads;
+    private boolean stopped;
+
+    /**
+     * Constructs the dispatcher.
+     *
+     * @param threads number of dispatch threads, 0 to invoke the listeners in
+     * the firing thread
+     * @param capacity number of events each ring can hold, rounded up to a
+     * power of two
+     * @param dispatchTimeout how long a firing thread waits for free space in
+     * a full ring before it drops a change of a value or a port, in
+     * nanoseconds
+     * @param batchSize maximum number of events a dispatch thread delivers
+     * before it looks for new ones
+     * @param mailboxCapacity number of events a mailbox of a listener with
+     * {@link DeliveryPolicy#ASYNC_DROP_OLDEST} holds, also the number of
+     * events of no pin a mailbox of a {@link DeliveryPolicy#CONFLATING}
+     * listener holds
+     */
+    EventDispatcher(int threads, int capacity, long dispatchTimeout, int batchSize, int mailboxCapacity) {
+        lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane(ceilingPowerOfTwo(capacity));
+        }
+        this.dispatchTimeout = dispatchTimeout;
+        this.batchSize = batchSize;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    /**
+     * Starts the dispatch threads.
+     */
+    void start() {
+        if (lanes.length > 0 && !running) {
+            running = true;
+            for (int i = 0; i < lanes.length; i++) {
+                Thread t = new Thread(lanes[i], "firmata-dispatch-thread-" + i);
+                t.setDaemon(true);
+                lanes[i].thread = t;
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the dispatch and listener threads. The events fired so far are
+     * delivered before the threads finish. Events fired later are delivered in
+     * the firing thread.
+     *
+     * @throws InterruptedException when interrupted while waiting for the
+     * threads
+     */
+    void stop() throws InterruptedException {
+        stopDispatchThreads();
+        ExecutorService executor;
+        synchronized (this) {
+            stopped = true;
+            executor = listenerThreads;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            if (!(Thread.currentThread() instanceof ListenerThread)) {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void stopDispatchThreads() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+        for (Lane lane : lanes) {
+            Thread t = lane.thread;
+            if (t != Thread.currentThread()) {
+                t.join();
+                // events put to the ring while the thread was finishing
+                lane.drain(Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener.
+     *
+     * @param <L> type of the listener
+     * @param listener the listener
+     * @param ordering ordering of the events delivered to the listener
+     * @return the subscription to be used for firing events to the listener
+     */
+    <L> Subscription<L> subscribe(L listener, EventOrdering ordering) {
+        int lane = lanes.length == 0 ? 0 : Math.floorMod(subscriptions.getAndIncrement(), lanes.length);
+        return new Subscription<>(listener, ordering, lane);
+    }
+
+    /**
+     * Registers a listener.
+     *
+     * @param <L> type of the listener
+     * @param listener the listener
+     * @param policy the way the events are delivered to the listener
+     * @return the subscription to be used for firing events to the listener
+     */
+    <L> Subscription<L> subscribe(L listener, DeliveryPolicy policy) {
+        if (policy == DeliveryPolicy.SYNC) {
+            return subscribe(listener, EventOrdering.LISTENER);
+        }
+        Mailbox mailbox = new Mailbox(policy);
+        Subscription<L> subscription = new Subscription<>(listener, EventOrdering.LISTENER, 0, policy, mailbox);
+        mailbox.subscription = subscription;
+        return subscription;
+    }
+
+    /**
+     * Fires an event to a listener.
+     *
+     * @param subscription the subscription of the listener
+     * @param kind kind of the event
+     * @param pin index of the pin the event belongs to or -1
+     * @param event the event
+     */
+    void dispatch(Subscription<?> subscription, Kind kind, int pin, Object event) {
+        dispatch(subscription, kind, pin, event, null, 0, 0, 0);
+    }
+
+    /**
+     * Fires an event to a listener.
+     *
+     * @param subscription the subscription of the listener
+     * @param kind kind of the event
+     * @param pin index of the pin the event belongs to or -1
+     * @param event the event
+     * @param extra additional object argument of the listener method
+     * @param a first primitive argument of the listener method
+     * @param b second primitive argument of the listener method
+     * @param c third primitive argument of the listener method
+     */
+    void dispatch(Subscription<?> subscription, Kind kind, int pin, Object event, Object extra, long a, long b, long c) {
+        Mailbox mailbox = subscription.getMailbox();
+        if (mailbox != null) {
+            mailbox.offer(kind, pin, event, extra, a, b, c);
+            return;
+        }
+        if (!running) {
+            kind.deliver(subscription.getListener(), event, extra, a, b, c);
+            subscription.delivered();
+            return;
+        }
+        int index = subscription.getOrdering() == EventOrdering.PIN && pin >= 0
+                ? pin % lanes.length
+                : subscription.getLane();
+        Lane lane = lanes[index];
+        long deadline = 0;
+        while (!lane.offer(subscription, kind, event, extra, a, b, c)) {
+            if (!running || lane.thread == Thread.currentThread()) {
+                // a listener firing to its own full ring would wait forever
+                kind.deliver(subscription.getListener(), event, extra, a, b, c);
+                subscription.delivered();
+                return;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + dispatchTimeout;
+                stalls.incrementAndGet();
+            }
+            if (!kind.droppable) {
+                LockSupport.parkNanos(this, STALL_NANOS);
+                continue;
+            }
+            if (now - deadline >= 0) {
+                subscription.dropped();
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(STALL_NANOS, deadline - now));
+        }
+    }
+
+    /**
+     * Returns the number of events delivered by the dispatch threads.
+     *
+     * @return the number of events
+     */
+    long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * Returns how many times a firing thread had to wait for a full ring.
+     *
+     * @return the number of waits
+     */
+    long getStallCount() {
+        return stalls.get();
+    }
+
+    /**
+     * Returns the number of changes of values and ports dropped because their
+     * ring stayed full longer than the dispatch timeout.
+     *
+     * @return the number of events
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Hands a mailbox over to a listener thread. The mailbox is emptied in the
+     * calling thread once the dispatcher has been stopped.
+     *
+     * @param mailbox the mailbox to be emptied
+     */
+    private void schedule(Mailbox mailbox) {
+        ExecutorService executor;
+        synchronized (this) {
+            if (listenerThreads == null && !stopped) {
+                AtomicInteger counter = new AtomicInteger();
+                listenerThreads = Executors.newCachedThreadPool(r -> {
+                    Thread t = new ListenerThread(r, "firmata-listener-thread-" + counter.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            executor = listenerThreads;
+        }
+        try {
+            if (executor != null) {
+                executor.execute(mailbox);
+                return;
+            }
+        } catch (RejectedExecutionException ex) {
+            // the dispatcher has been stopped meanwhile
+        }
+        mailbox.run();
+    }
+
+    /**
+     * Kinds of events with the way they are handed to the listener. Only the
+     * changes of values and ports may be dropped when their ring stays full,
+     * a newer change of the same pin or port follows them sooner or later.
+     */
+    enum Kind {
+
+        DEVICE_START {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((IODeviceEventListener) listener).onStart((IOEvent) event);
+            }
+        },
+        DEVICE_STOP {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((IODeviceEventListener) listener).onStop((IOEvent) event);
+            }
+        },
+        PIN_CHANGE(true) {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((IODeviceEventListener) listener).onPinChange((IOEvent) event);
+            }
+        },
+        MESSAGE {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((IODeviceEventListener) listener).onMessageReceive((IOEvent) event, (String) extra);
+            }
+        },
+        MODE_CHANGE {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((PinEventListener) listener).onModeChange((IOEvent) event);
+            }
+        },
+        VALUE_CHANGE(true) {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((PinEventListener) listener).onValueChange((IOEvent) event);
+            }
+        },
+        I2C_MESSAGE {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((I2CListener) listener).onReceive((I2CEvent) event);
+            }
+        },
+        CUSTOM_SYSEX {
+            @Override
+            @SuppressWarnings("unchecked")
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((CustomSysexEventListener) listener).onCustomSysexMessage((byte) a, (AbstractCustomSysexEvent) event);
+            }
+        },
+        PORT_CHANGE(true) {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((DigitalPortListener) listener).onPortChange((int) a, (int) b, (int) c);
+            }
+        },
+        PIN_VALUE(true) {
+            @Override
+            void deliver(Object listener, Object event, Object extra, long a, long b, long c) {
+                ((PinValueListener) listener).onPinValue((int) a, b, c);
+            }
+        };
+
+        private final boolean droppable;
+
+        Kind() {
+            this(false);
+        }
+
+        Kind(boolean droppable) {
+            this.droppable = droppable;
+        }
+
+        abstract void deliver(Object listener, Object event, Object extra, long a, long b, long c);
+
+    }
+
+    /**
+     * Slot of a ring holding an event waiting for delivery.
+     */
+    private static class Delivery {
+
+        // sequence + 1 when the slot holds an event of the sequence, the sequence of the next round when it is free
+        private volatile long sequence;
+        private Subscription<?> subscription;
+        private Kind kind;
+        private Object event;
+        private Object extra;
+        private long a, b, c;
+
+        void deliver() {
+            kind.deliver(subscription.getListener(), event, extra, a, b, c);
+            subscription.delivered();
+        }
+
+        void clear() {
+            subscription = null;
+            kind = null;
+            event = null;
+            extra = null;
+        }
+    }
+
+    /**
+     * Ring of events delivered by a single dispatch thread. Any thread may put
+     * an event to the ring.
+     */
+    private class Lane implements Runnable {
+
+        private final Delivery[] slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        // accessed from the dispatch thread only, or after it has finished
+        private long head;
+        private volatile Thread thread;
+        private volatile boolean waiting;
+
+        Lane(int capacity) {
+            slots = new Delivery[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Delivery();
+                slots[i].sequence = i;
+            }
+            mask = capacity - 1;
+        }
+
+        boolean offer(Subscription<?> subscription, Kind kind, Object event, Object extra, long a, long b, long c) {
+            while (true) {
+                long position = tail.get();
+                Delivery slot = slots[(int) position & mask];
+                long difference = slot.sequence - position;
+                if (difference < 0) {
+                    return false;
+                }
+                if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                    slot.subscription = subscription;
+                    slot.kind = kind;
+                    slot.event = event;
+                    slot.extra = extra;
+                    slot.a = a;
+                    slot.b = b;
+                    slot.c = c;
+                    slot.sequence = position + 1;
+                    if (waiting) {
+                        LockSupport.unpark(thread);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return slots[(int) head & mask].sequence != head + 1;
+        }
+
+        int drain(int max) {
+            int count = 0;
+            while (count < max) {
+                Delivery slot = slots[(int) head & mask];
+                if (slot.sequence != head + 1) {
+                    break;
+                }
+                try {
+                    slot.deliver();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Listener has failed to process an event", ex);
+                } finally {
+                    slot.clear();
+                    slot.sequence = head + slots.length;
+                    head++;
+                }
+                count++;
+            }
+            if (count > 0) {
+                dispatched.addAndGet(count);
+            }
+            return count;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (drain(batchSize) > 0) {
+                    continue;
+                }
+                if (!running) {
+                    // deliver what has been fired before stopping
+                    if (drain(Integer.MAX_VALUE) == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                waiting = true;
+                if (isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+
+    /**
+     * Event waiting in a mailbox.
+     */
+    private static class PendingEvent {
+
+        private final Kind kind;
+        private final int pin;
+        private final Object event;
+        private final Object extra;
+        private final long a, b, c;
+
+        PendingEvent(Kind kind, int pin, Object event, Object extra, long a, long b, long c) {
+            this.kind = kind;
+            this.pin = pin;
+            this.event = event;
+            this.extra = extra;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+    /**
+     * Events waiting for a listener registered with an asynchronous
+     * {@link DeliveryPolicy}. At most one thread empties the mailbox at a time,
+     * so the listener gets the events in order.<br/>
+     * Unlike the rings of the dispatch threads, a mailbox is not
+     * allocation-free: every offered event costs a {@link PendingEvent}, and a
+     * boxed key in a conflating mailbox.<br/>
+     * When the listener is registered again with another policy, the mailbox
+     * is retired and hands its events over to the new subscription.
+     */
+    class Mailbox implements Runnable {
+
+        private final DeliveryPolicy policy;
+        // ASYNC_UNBOUNDED and ASYNC_DROP_OLDEST
+        private final ArrayDeque<PendingEvent> queue;
+        // CONFLATING, the latest event per kind and pin in order of the first change
+        private final Map<Long, PendingEvent> latest;
+        private Subscription<?> subscription;
+        // a listener thread has been asked to empty the mailbox
+        private boolean scheduled;
+        // the thread delivering an event taken from the mailbox
+        private Thread deliverer;
+        // no more events are taken from the mailbox
+        private boolean retired;
+        // the subscription that receives the events once the mailbox is retired
+        private Subscription<?> successor;
+        // distinguishes events of no pin that must not be conflated, they are numbered from 1
+        private long unkeyed;
+        // number of the oldest event of no pin in a conflating mailbox
+        private long oldestUnkeyed = 1;
+        private final AtomicLong dropped = new AtomicLong();
+
+        Mailbox(DeliveryPolicy policy) {
+            this.policy = policy;
+            if (policy == DeliveryPolicy.CONFLATING) {
+                queue = null;
+                latest = new LinkedHashMap<>();
+            } else {
+                queue = new ArrayDeque<>();
+                latest = null;
+            }
+        }
+
+        void offer(Kind kind, int pin, Object event, Object extra, long a, long b, long c) {
+            PendingEvent pending = new PendingEvent(kind, pin, event, extra, a, b, c);
+            boolean schedule;
+            synchronized (this) {
+                if (successor != null) {
+                    // fired from a snapshot of listeners taken before the retirement
+                    dispatch(successor, kind, pin, event, extra, a, b, c);
+                    return;
+                }
+                if (latest != null) {
+                    long key = pin >= 0 ? (long) kind.ordinal() << 32 | pin : -(++unkeyed);
+                    if (latest.put(key, pending) != null) {
+                        dropped.incrementAndGet();
+                    }
+                    // events of no pin are never replaced, so they are bounded like ASYNC_DROP_OLDEST
+                    if (key < 0 && unkeyed - oldestUnkeyed >= mailboxCapacity) {
+                        latest.remove(-oldestUnkeyed++);
+                        dropped.incrementAndGet();
+                    }
+                } else {
+                    if (policy == DeliveryPolicy.ASYNC_DROP_OLDEST && queue.size() >= mailboxCapacity) {
+                        queue.poll();
+                        dropped.incrementAndGet();
+                    }
+                    queue.add(pending);
+                }
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                schedule(this);
+            }
+        }
+
+        /**
+         * Retires the mailbox. The events waiting in the mailbox and the ones
+         * offered to it later are passed to the successor. The delivery in
+         * progress is finished first, so the listener is never invoked by the
+         * old and the new subscription at once.
+         *
+         * @param successor the new subscription of the listener
+         */
+        synchronized void retire(Subscription<?> successor) {
+            if (retired) {
+                return;
+            }
+            retired = true;
+            while (deliverer != null && deliverer != Thread.currentThread()) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            this.successor = successor;
+            PendingEvent pending;
+            while ((pending = take()) != null) {
+                dispatch(successor, pending.kind, pending.pin, pending.event, pending.extra, pending.a, pending.b, pending.c);
+            }
+        }
+
+        private synchronized PendingEvent poll() {
+            PendingEvent pending = retired ? null : take();
+            if (pending == null) {
+                scheduled = false;
+                deliverer = null;
+                notifyAll();
+            } else {
+                deliverer = Thread.currentThread();
+            }
+            return pending;
+        }
+
+        private PendingEvent take() {
+            PendingEvent pending;
+            if (latest != null) {
+                pending = null;
+                Iterator<Map.Entry<Long, PendingEvent>> it = latest.entrySet().iterator();
+                if (it.hasNext()) {
+                    Map.Entry<Long, PendingEvent> entry = it.next();
+                    pending = entry.getValue();
+                    it.remove();
+                    if (entry.getKey() < 0) {
+                        // events of no pin leave in the order they have come
+                        oldestUnkeyed++;
+                    }
+                }
+            } else {
+                pending = queue.poll();
+            }
+            return pending;
+        }
+
+        synchronized int size() {
+            return latest != null ? latest.size() : queue.size();
+        }
+
+        long getDroppedCount() {
+            return dropped.get();
+        }
+
+        @Override
+        public void run() {
+            PendingEvent pending;
+            while ((pending = poll()) != null) {
+                try {
+                    pending.kind.deliver(subscription.getListener(), pending.event, pending.extra, pending.a, pending.b, pending.c);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Listener has failed to process an event", ex);
+                }
+                subscription.delivered();
+            }
+        }
+    }
+
+    /**
+     * Thread emptying mailboxes.
+     */
+    private static class ListenerThread extends Thread {
+
+        ListenerThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+
+}
@@ -23,67 +23,112 @@
  */
 package com.ysoft.firmata.impl;
 
+import com.ysoft.firmata.DeliveryPolicy;
 import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.EventOrdering;
 import com.ysoft.firmata.I2CDevice;
 import com.ysoft.firmata.IODevice;
 import com.ysoft.firmata.IODeviceEventListener;
 import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.ListenerStatistics;
+import com.ysoft.firmata.OutputBatch;
 import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.PinBatchListener;
+import com.ysoft.firmata.PinChangeBatch;
+import com.ysoft.firmata.PinValueListener;
 import com.ysoft.firmata.impl.parser.WaitingForMessageState;
+import com.ysoft.firmata.impl.parser.AnalogMessageEvent;
+import com.ysoft.firmata.impl.parser.DigitalPortEvent;
+import com.ysoft.firmata.impl.parser.I2CReplyEvent;
+import com.ysoft.firmata.impl.parser.PinStateEvent;
+import com.ysoft.firmata.impl.parser.StringMessageEvent;
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TooManyListenersException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.codec.binary.Hex;
 import com.ysoft.firmata.AbstractCustomSysexEvent;
 import com.ysoft.firmata.CustomSysexEventListener;
+import com.ysoft.firmata.DigitalPortListener;
 import com.ysoft.firmata.DeviceCommunicationException;
 import com.ysoft.firmata.impl.parser.FirmataToken;
+import com.ysoft.firmata.impl.queue.ByteChunk;
+import com.ysoft.firmata.impl.queue.ByteChunkRing;
+import com.ysoft.firmata.capture.TrafficRecorder;
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import purejavacomm.CommPortIdentifier;
-import purejavacomm.PortInUseException;
-import purejavacomm.PureJavaSerialPort;
-import purejavacomm.SerialPortEvent;
-import purejavacomm.SerialPortEventListener;
-import purejavacomm.UnsupportedCommOperationException;
 
 /**
  * Implements {@link IODevice} that is using Firmata protocol.
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class FirmataDevice implements IODevice, SerialPortEventListener {
+public class FirmataDevice implements IODevice, TransportListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FirmataDevice.class);
 
-    private final BlockingQueue<byte[]> byteQueue = new ArrayBlockingQueue<>(128);
+    private final ByteChunkRing inboundQueue;
     private final FirmataParser parser;
-    private final Thread parserExecutor;
-    private final Set<IODeviceEventListener> listeners = Collections.synchronizedSet(new LinkedHashSet<IODeviceEventListener>());
-    private final Set<CustomSysexEventListener> customSysexListeners = Collections.synchronizedSet(new LinkedHashSet<CustomSysexEventListener>());
+    private final FirmataWriter writer;
+    private volatile Thread parserExecutor;
+    private final EventDispatcher dispatcher;
+    private final ListenerRegistry<IODeviceEventListener> listeners = new ListenerRegistry<>();
+    private final ListenerRegistry<CustomSysexEventListener> customSysexListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<DigitalPortListener> portListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<PinValueListener> valueListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<PinBatchListener> batchListeners = new ListenerRegistry<>();
     private final List<FirmataPin> pins = Collections.synchronizedList(new ArrayList<FirmataPin>());
+    private final DigitalOutputPorts outputPorts = new DigitalOutputPorts();
+    // last reported masks of digital ports, accessed from the parsing thread only
+    private final int[] digitalPorts = new int[16];
+    private int reportedPorts;
+    // ports whose reporting has been switched on again, their next report is taken as the first one
+    private final AtomicInteger restartedPorts = new AtomicInteger(0);
+    // changes caused by the chunk being parsed, accessed from the parsing thread only
+    private final PinChangeBatch pinChangeBatch = new PinChangeBatch(64);
+    private long chunkTimestamp;
+    private boolean batching;
     private final AtomicBoolean started = new AtomicBoolean(false);
     private final AtomicBoolean ready = new AtomicBoolean(false);
     private final AtomicInteger initializedPins = new AtomicInteger(0);
     private final AtomicInteger longestI2CDelay = new AtomicInteger(0);
     private final Map<Byte, FirmataI2CDevice> i2cDevices = new HashMap<>();
-    protected PureJavaSerialPort commPort;
+    private final List<ModeConfiguration> pendingConfigurations = new CopyOnWriteArrayList<>();
+    // pin state queries that have been sent and not answered yet, by pin indexes, guarded by stateQueryLock
+    private final Object stateQueryLock = new Object();
+    private final int[] stateQueries = new int[128];
+    // channels and ports the board has been asked to report, guarded by reportingLock
+    private final Object reportingLock = new Object();
+    private boolean reporting;
+    private int reportedAnalogChannels;
+    private int reportedDigitalPorts;
+    // toggles of reporting waiting to be sent in order and whether a thread is sending them, guarded by reportingLock
+    private final ByteArrayOutputStream pendingToggles = new ByteArrayOutputStream();
+    private boolean sendingToggles;
+    private final ByteBuffer readBuffer;
+    private final TrafficRecorder recorder;
+    protected final Transport transport;
     private DeviceConfiguration deviceConfiguration;
 
     private volatile Map<String, Object> firmwareInfo;
@@ -96,14 +141,46 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      */
     public FirmataDevice(DeviceConfiguration deviceConfiguration) {
         this.deviceConfiguration = deviceConfiguration;
-        this.parser = new FirmataParser(byteQueue, deviceConfiguration);
-        this.parserExecutor = new Thread(parser, "firmata-parser-thread");
+        this.transport = deviceConfiguration.getTransport();
+        this.recorder = deviceConfiguration.getTrafficRecorder();
+        this.readBuffer = deviceConfiguration.isInboundDirectBuffers()
+                ? ByteBuffer.allocateDirect(deviceConfiguration.getInboundChunkSize())
+                : ByteBuffer.allocate(deviceConfiguration.getInboundChunkSize());
+        this.inboundQueue = new ByteChunkRing(
+                deviceConfiguration.getInboundQueueCapacity(),
+                deviceConfiguration.getInboundChunkSize(),
+                deviceConfiguration.isInboundDirectBuffers(),
+                deviceConfiguration.getInboundOverflowPolicy(),
+                deviceConfiguration.getInboundWaitStrategy());
+        this.parser = new FirmataParser(inboundQueue, deviceConfiguration);
+        TokenBucket pacer = null;
+        if (deviceConfiguration.isOutboundPacing()) {
+            pacer = TokenBucket.forBoard(deviceConfiguration.getSerialPortBaudRate(),
+                    deviceConfiguration.getBoardReceiveBufferSize(),
+                    deviceConfiguration.getSamplingInterval());
+        }
+        this.writer = new FirmataWriter(transport,
+                deviceConfiguration.getOutboundBufferSize(),
+                deviceConfiguration.getOutboundMaxLatency(),
+                pacer,
+                recorder,
+                transport.getWriteExecutor());
+        this.dispatcher = new EventDispatcher(deviceConfiguration.getDispatchThreads(),
+                deviceConfiguration.getDispatchQueueCapacity(),
+                TimeUnit.MICROSECONDS.toNanos(deviceConfiguration.getDispatchTimeout()),
+                deviceConfiguration.getDispatchBatchSize(),
+                deviceConfiguration.getListenerQueueCapacity());
     }
 
     @Override
     public void start() throws IOException {
         if (!started.getAndSet(true)) {
-            parserExecutor.start();
+            dispatcher.start();
+            // transports that notify on their own threads get data parsed inline
+            if (!transport.supportsInlineParsing()) {
+                parserExecutor = new Thread(parser, "firmata-parser-thread");
+                parserExecutor.start();
+            }
             /*
             The startup strategy is to open the port and immediately
             send the REPORT_FIRMWARE message.  When we receive the
@@ -124,33 +201,9 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
             Either way, when we hear the REPORT_FIRMWARE reply, we
             know the board is alive and ready to communicate.
              */
-            CommPortIdentifier commPortIdentifier = deviceConfiguration.getCommPortIdentifier();
-            try {
-                commPort = (PureJavaSerialPort) commPortIdentifier.open(
-                        FirmataDevice.class.getName(),
-                        2000);
-            } catch (PortInUseException e) {
-                LOGGER.error("Cannot open communications port {}. Cannot obtain ownership!", commPortIdentifier.getName());
-                throw new IOException("Cannot start firmata device", e);
-            }
-
-            try {
-                commPort.setSerialPortParams(deviceConfiguration.getSerialPortBaudRate(),
-                        deviceConfiguration.getSerialPortDataBits().getValue(),
-                        deviceConfiguration.getSerialPortStopBits().getValue(),
-                        deviceConfiguration.getSerialPortParity().getValue());
-            } catch (UnsupportedCommOperationException e) {
-                LOGGER.error("Unable to configure communications port {} to baud rate {}.", commPortIdentifier.getName(),
-                        deviceConfiguration.getSerialPortBaudRate());
-                throw new IOException("Unable to configure communications port", e);
-            }
-            commPort.notifyOnDataAvailable(true);
-            commPort.notifyOnOutputEmpty(true);
-            try {
-                commPort.addEventListener(this);
-            } catch (TooManyListenersException ex) {
-                throw new IllegalStateException(ex);
-            }
+            transport.setTransportListener(this);
+            transport.open();
+            writer.start();
 
             sendMessage(FirmataMessageFactory.REQUEST_FIRMWARE);
         }
@@ -159,15 +212,22 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
     @Override
     public void stop() throws IOException {
         shutdown();
-        parserExecutor.interrupt();
+        Thread executor = parserExecutor;
         try {
-            parserExecutor.join();
+            if (executor != null) {
+                executor.interrupt();
+                executor.join();
+            }
         } catch (InterruptedException ex) {
             LOGGER.warn("Cannot stop parser thread", ex);
         } finally {
+            failPendingConfigurations("Device has been stopped before confirming pin modes");
             IOEvent event = new IOEvent(this);
-            for (IODeviceEventListener l : listeners) {
-                l.onStop(event);
+            listeners.fire(dispatcher, EventDispatcher.Kind.DEVICE_STOP, -1, event);
+            try {
+                dispatcher.stop();
+            } catch (InterruptedException ex) {
+                LOGGER.warn("Cannot stop dispatch threads", ex);
             }
         }
     }
@@ -199,11 +259,23 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
 
     @Override
     public void addEventListener(IODeviceEventListener listener) {
-        listeners.add(listener);
+        addEventListener(listener, EventOrdering.LISTENER);
+    }
+
+    @Override
+    public void addEventListener(IODeviceEventListener listener, EventOrdering ordering) {
+        listeners.add(dispatcher.subscribe(listener, ordering));
+    }
+
+    @Override
+    public ListenerStatistics addEventListener(IODeviceEventListener listener, DeliveryPolicy policy) {
+        Subscription<IODeviceEventListener> subscription = dispatcher.subscribe(listener, policy);
+        listeners.put(subscription);
+        return subscription;
     }
 
     public void addCustomSysexEventListener(CustomSysexEventListener listener) {
-        customSysexListeners.add(listener);
+        customSysexListeners.add(dispatcher.subscribe(listener, EventOrdering.LISTENER));
     }
 
     @Override
@@ -215,6 +287,43 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         customSysexListeners.remove(listener);
     }
 
+    @Override
+    public void addDigitalPortListener(DigitalPortListener listener) {
+        portListeners.add(dispatcher.subscribe(listener, EventOrdering.LISTENER));
+    }
+
+    @Override
+    public void removeDigitalPortListener(DigitalPortListener listener) {
+        portListeners.remove(listener);
+    }
+
+    @Override
+    public void addPinValueListener(PinValueListener listener) {
+        addPinValueListener(listener, DeliveryPolicy.SYNC);
+    }
+
+    @Override
+    public ListenerStatistics addPinValueListener(PinValueListener listener, DeliveryPolicy policy) {
+        Subscription<PinValueListener> subscription = dispatcher.subscribe(listener, policy);
+        valueListeners.put(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void removePinValueListener(PinValueListener listener) {
+        valueListeners.remove(listener);
+    }
+
+    @Override
+    public void addPinBatchListener(PinBatchListener listener) {
+        batchListeners.add(dispatcher.subscribe(listener, DeliveryPolicy.SYNC));
+    }
+
+    @Override
+    public void removePinBatchListener(PinBatchListener listener) {
+        batchListeners.remove(listener);
+    }
+
     @Override
     public Set<Pin> getPins() {
         return new HashSet<>(pins);
@@ -230,6 +339,309 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         return pins.get(index);
     }
 
+    @Override
+    public void setDigitalPortValue(int portId, int mask, int values) throws DeviceCommunicationException {
+        checkPort(portId);
+        mask &= 0xFF;
+        int firstPin = portId * 8;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            int pinId = firstPin + Integer.numberOfTrailingZeros(bits);
+            if (pinId >= pins.size()) {
+                throw new IllegalArgumentException(String.format("Pin %d does not exist", pinId));
+            }
+            if (pins.get(pinId).getMode() != Pin.Mode.OUTPUT) {
+                throw new IllegalStateException(String.format("Pin %d is in %s mode and its value cannot be set.", pinId, pins.get(pinId).getMode()));
+            }
+        }
+        writeDigitalPort(portId, mask, values);
+    }
+
+    @Override
+    public void setDigitalPortValue(int portId, int values) throws DeviceCommunicationException {
+        checkPort(portId);
+        int firstPin = portId * 8;
+        int mask = 0;
+        for (int i = 0; i < 8 && firstPin + i < pins.size(); i++) {
+            if (pins.get(firstPin + i).getMode() == Pin.Mode.OUTPUT) {
+                mask |= 1 << i;
+            }
+        }
+        writeDigitalPort(portId, mask, values);
+    }
+
+    @Override
+    public OutputBatch batch() {
+        return new FirmataOutputBatch(this);
+    }
+
+    @Override
+    public CompletableFuture<Void> configure(Map<Integer, Pin.Mode> modes) {
+        if (modes == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+            Integer pinIndex = entry.getKey();
+            Pin.Mode mode = entry.getValue();
+            if (pinIndex == null || mode == null) {
+                throw new IllegalArgumentException("null value not allowed");
+            }
+            if (pinIndex < 0 || pinIndex >= pins.size()) {
+                throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+            }
+            if (!pins.get(pinIndex).supports(mode)) {
+                throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinIndex, mode));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<Integer, Pin.Mode> changed = new LinkedHashMap<>();
+        Map<Integer, Pin.Mode> previousModes = new HashMap<>();
+        Map<Integer, Long> values = new HashMap<>();
+        for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+            FirmataPin pin = pins.get(entry.getKey());
+            Pin.Mode mode = entry.getValue();
+            synchronized (pin) {
+                Pin.Mode previous = pin.getMode();
+                if (!pin.applyMode(mode)) {
+                    continue;
+                }
+                previousModes.put(entry.getKey(), previous);
+                values.put(entry.getKey(), pin.getValue());
+            }
+            if (mode == Pin.Mode.SERVO) {
+                write(out, FirmataMessageFactory.servoConfig(pin.getIndex(), 0, 180));
+            }
+            write(out, FirmataMessageFactory.setMode(pin.getIndex(), mode));
+            changed.put(entry.getKey(), mode);
+        }
+        if (changed.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<Integer, Integer> earlierQueries = new HashMap<>();
+        for (Integer pinIndex : changed.keySet()) {
+            write(out, FirmataMessageFactory.pinStateRequest(pinIndex.byteValue()));
+        }
+        ModeConfiguration configuration;
+        // registered before sending so that no response can pass unnoticed
+        synchronized (stateQueryLock) {
+            for (Integer pinIndex : changed.keySet()) {
+                earlierQueries.put(pinIndex, countStateQuery(pinIndex));
+            }
+            configuration = new ModeConfiguration(changed, earlierQueries);
+            pendingConfigurations.add(configuration);
+        }
+        CompletableFuture<Void> result = configuration.getFuture();
+        result.whenComplete((done, ex) -> pendingConfigurations.remove(configuration));
+        CompletableFuture<Void> sent = sendBatchAsync(out.toByteArray(), 0, null);
+        if (sent.isCompletedExceptionally()) {
+            revertModes(changed, previousModes, values, false);
+            sent.whenComplete((done, ex) -> result.completeExceptionally(ex));
+            return result;
+        }
+        configuration.expireAfter(deviceConfiguration.getModeConfirmationTimeout());
+        updateReporting();
+        for (Integer pinIndex : changed.keySet()) {
+            pins.get(pinIndex).fireModeChange();
+        }
+        sent.whenComplete((done, ex) -> {
+            if (ex != null) {
+                revertModes(changed, previousModes, values, true);
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Takes back the modes applied by {@link #configure(Map)} when they
+     * cannot be sent. The pins that have been changed since are left as they
+     * are.
+     *
+     * @param applied the applied modes by pin indexes
+     * @param previousModes the modes to return to by pin indexes
+     * @param values the values of the pins by pin indexes
+     * @param notify whether the listeners of the reverted pins are notified
+     */
+    private void revertModes(Map<Integer, Pin.Mode> applied, Map<Integer, Pin.Mode> previousModes, Map<Integer, Long> values, boolean notify) {
+        boolean reverted = false;
+        for (Map.Entry<Integer, Pin.Mode> entry : applied.entrySet()) {
+            FirmataPin pin = pins.get(entry.getKey());
+            long value = values.get(entry.getKey());
+            uncountStateQuery(entry.getKey());
+            if (pin.revert(entry.getValue(), value, previousModes.get(entry.getKey()), value) && notify) {
+                reverted = true;
+                pin.fireModeChange();
+            }
+        }
+        if (reverted) {
+            updateReporting();
+        }
+    }
+
+    /**
+     * Counts a pin state query that is about to be sent. The board answers
+     * the queries of a pin in order, so the count tells how many responses
+     * precede the response to the query.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}
+     * and {@link FirmataOutputBatch}.
+     *
+     * @param pinId index of the pin
+     * @return the number of queries of the pin that have not been answered yet
+     */
+    int countStateQuery(int pinId) {
+        synchronized (stateQueryLock) {
+            return stateQueries[pinId]++;
+        }
+    }
+
+    /**
+     * Takes back the count of a pin state query that has not been sent.
+     *
+     * @param pinId index of the pin
+     */
+    void uncountStateQuery(int pinId) {
+        synchronized (stateQueryLock) {
+            if (stateQueries[pinId] > 0) {
+                stateQueries[pinId]--;
+            }
+        }
+    }
+
+    @Override
+    public Set<Integer> getReportedAnalogChannels() {
+        synchronized (reportingLock) {
+            return toSet(reportedAnalogChannels);
+        }
+    }
+
+    @Override
+    public Set<Integer> getReportedDigitalPorts() {
+        synchronized (reportingLock) {
+            return toSet(reportedDigitalPorts);
+        }
+    }
+
+    private static Set<Integer> toSet(int mask) {
+        Set<Integer> result = new TreeSet<>();
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            result.add(Integer.numberOfTrailingZeros(bits));
+        }
+        return result;
+    }
+
+    /**
+     * Asks the board to report the analog channels and digital ports whose
+     * values are needed and to stop reporting the others. A digital port is
+     * needed when one of its pins is in INPUT or PULLUP mode. Only the
+     * channels and ports whose reporting changes are sent.<br/>
+     * The toggles are computed under the reporting lock but sent after it has
+     * been released, in the order they have been computed. A thread that
+     * finds another one sending leaves its toggles to it.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}
+     * and {@link FirmataOutputBatch} after they change modes of pins.
+     */
+    void updateReporting() {
+        synchronized (reportingLock) {
+            if (!reporting) {
+                return;
+            }
+            int analog = 0;
+            Map<Integer, Integer> mapping = analogMapping;
+            for (Map.Entry<Integer, Integer> entry : mapping.entrySet()) {
+                int channel = entry.getKey();
+                int pinId = entry.getValue();
+                if (channel < 16 && pinId < pins.size() && pins.get(pinId).getMode() == Pin.Mode.ANALOG) {
+                    analog |= 1 << channel;
+                }
+            }
+            int digital = 0;
+            int pinCount = Math.min(pins.size(), DigitalOutputPorts.PORT_COUNT * 8);
+            for (int pinId = 0; pinId < pinCount; pinId++) {
+                Pin.Mode mode = pins.get(pinId).getMode();
+                if (mode == Pin.Mode.INPUT || mode == Pin.Mode.PULLUP) {
+                    digital |= 1 << (pinId / 8);
+                }
+            }
+            int toggledAnalog = analog ^ reportedAnalogChannels;
+            int toggledDigital = digital ^ reportedDigitalPorts;
+            for (int bits = toggledAnalog; bits != 0; bits &= bits - 1) {
+                int channel = Integer.numberOfTrailingZeros(bits);
+                write(pendingToggles, FirmataMessageFactory.analogReport(channel, (analog & (1 << channel)) != 0));
+            }
+            for (int bits = toggledDigital; bits != 0; bits &= bits - 1) {
+                int portId = Integer.numberOfTrailingZeros(bits);
+                write(pendingToggles, FirmataMessageFactory.digitalReport(portId, (digital & (1 << portId)) != 0));
+            }
+            // the masks of the ports have been stale while they were not reported
+            restartedPorts.getAndAccumulate(digital & ~reportedDigitalPorts, (a, b) -> a | b);
+            reportedAnalogChannels = analog;
+            reportedDigitalPorts = digital;
+            if (sendingToggles || pendingToggles.size() == 0) {
+                return;
+            }
+            sendingToggles = true;
+        }
+        sendToggles();
+    }
+
+    /**
+     * Sends the pending toggles of reporting until there are none left.
+     */
+    private void sendToggles() {
+        while (true) {
+            byte[] toggles;
+            synchronized (reportingLock) {
+                if (pendingToggles.size() == 0) {
+                    sendingToggles = false;
+                    return;
+                }
+                toggles = pendingToggles.toByteArray();
+                pendingToggles.reset();
+            }
+            try {
+                sendMessage(toggles);
+            } catch (DeviceCommunicationException ex) {
+                synchronized (reportingLock) {
+                    pendingToggles.reset();
+                    sendingToggles = false;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] message) {
+        out.write(message, 0, message.length);
+    }
+
+    private void checkPort(int portId) {
+        if (portId < 0 || portId >= DigitalOutputPorts.PORT_COUNT || portId * 8 >= pins.size()) {
+            throw new IllegalArgumentException(String.format("Port %d does not exist", portId));
+        }
+    }
+
+    /**
+     * Updates the shadow register of the port, sends the port to the board
+     * and notifies listeners of the pins that have changed. The register is
+     * restored when the port cannot be sent.
+     */
+    private void writeDigitalPort(int portId, int mask, int values) {
+        if (mask == 0) {
+            return;
+        }
+        int previous = outputPorts.update(portId, mask, values);
+        try {
+            sendPort(portId, MessagePriority.REALTIME);
+        } catch (DeviceCommunicationException ex) {
+            outputPorts.update(portId, mask, previous);
+            throw ex;
+        }
+        int firstPin = portId * 8;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            int bit = Integer.numberOfTrailingZeros(bits);
+            pins.get(firstPin + bit).assignOutputValue((values >>> bit) & 0x01);
+        }
+    }
+
     @Override
     public synchronized I2CDevice getI2CDevice(byte address) throws DeviceCommunicationException {
         if (!i2cDevices.containsKey(address)) {
@@ -257,24 +669,59 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
     }
 
     @Override
-    public void serialEvent(SerialPortEvent event) {
+    public void onDataAvailable(Transport transport) {
+        if (transport.supportsInlineParsing()) {
+            parseInline(transport);
+            return;
+        }
         // queueing data from input buffer to processing by FSM logic
-        if (event.getEventType() == SerialPortEvent.DATA_AVAILABLE && event.getNewValue()) {
-            try {
-                int available = commPort.getInputStream().available();
-                final byte[] readBytes = new byte[available];
+        try {
+            int read;
+            do {
+                ByteChunk chunk = inboundQueue.acquire();
+                read = transport.read(chunk.getBuffer());
+                if (read > 0) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Recieved data:'{}'", toHex(chunk.getBuffer(), read));
+                    }
+                    record(chunk.getBuffer(), read);
+                    if (!inboundQueue.publish(chunk)) {
+                        LOGGER.debug("Inbound queue is full, {} bytes have been dropped", read);
+                    }
+                }
+            } while (read > 0);
+        } catch (IOException ex) {
+            logReadFailure(ex);
+        }
+    }
+
+    @Override
+    public void onDisconnect(Transport transport) {
+        LOGGER.warn("Device has closed the connection");
+        ready.set(false);
+        failPendingConfigurations("Device has closed the connection before confirming pin modes");
+    }
 
-                commPort.getInputStream().read(readBytes);
+    /**
+     * Reads available data and hands it to the parser in the current thread.
+     *
+     * @param transport the transport to read from
+     */
+    private void parseInline(Transport transport) {
+        try {
+            int read;
+            while ((read = transport.read(readBuffer)) > 0) {
                 if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Recieved serial event:'{}'", Hex.encodeHexString(readBytes));
-                }
-//                System.out.println("Recieved serial event:"+ Hex.encodeHexString(readBytes));
-                while (!byteQueue.offer(readBytes)) {
-                    // trying to place bytes to queue until it succeeds
+                    LOGGER.debug("Recieved data:'{}'", toHex(readBuffer, read));
                 }
-            } catch (IOException ex) {
-                LOGGER.error("Cannot read from device", ex);
+                record(readBuffer, read);
+                parser.processChunk(readBuffer, read);
+                readBuffer.clear();
             }
+        } catch (IOException ex) {
+            logReadFailure(ex);
+        } finally {
+            readBuffer.clear();
         }
     }
 
@@ -283,27 +730,239 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         sendMessage(FirmataMessageFactory.customSysex(sysex, FirmataUtils.encodeBytes(data)));
     }
 
+    @Override
+    public CompletableFuture<Void> sendAsync(byte[] message) {
+        return sendMessageAsync(message, MessagePriority.CONTROL);
+    }
+
     @Override
     public void sendCustomSysex(byte sysex, String stringMessage) throws DeviceCommunicationException {
         sendCustomSysex(sysex, stringMessage == null ? null : stringMessage.getBytes());
     }
 
+    /**
+     * Returns the queue that hands received data over to the parser thread.
+     * Its counters show whether the parser keeps up with the device.<br/>
+     * The queue is not used when the transport supports inline parsing.
+     *
+     * @return the inbound queue
+     */
+    public ByteChunkRing getInboundQueue() {
+        return inboundQueue;
+    }
+
+    /**
+     * Returns the number of messages written to the device so far.
+     *
+     * @return the number of messages
+     */
+    public long getSentMessageCount() {
+        return writer.getMessageCount();
+    }
+
+    /**
+     * Returns the number of writes issued to the transport so far. Pending
+     * messages are packed into a single write, so this is usually lower than
+     * {@link #getSentMessageCount()}.
+     *
+     * @return the number of writes
+     */
+    public long getWriteCount() {
+        return writer.getWriteCount();
+    }
+
+    /**
+     * Returns the total time outbound data has been held back to keep the
+     * receive buffer of the board from overflowing.
+     *
+     * @return the time in nanoseconds, 0 when pacing is not enabled
+     * @see DeviceConfiguration#setOutboundPacing(boolean)
+     */
+    public long getPacingDelay() {
+        return writer.getPacingDelay();
+    }
+
+    /**
+     * Returns the number of events delivered to listeners by dispatch
+     * threads.
+     *
+     * @return the number of events, 0 when there are no dispatch threads
+     * @see DeviceConfiguration#setDispatchThreads(int)
+     */
+    public long getDispatchedEventCount() {
+        return dispatcher.getDispatchedCount();
+    }
+
+    /**
+     * Returns how many times an event had to wait for a dispatch thread to
+     * make room in its queue. A growing number points to a slow listener.
+     *
+     * @return the number of waits
+     */
+    public long getDispatchStallCount() {
+        return dispatcher.getStallCount();
+    }
+
+    /**
+     * Returns the number of changes of values and ports dropped because a
+     * dispatch thread has not made room in its queue within the dispatch
+     * timeout.
+     *
+     * @return the number of events
+     * @see DeviceConfiguration#setDispatchTimeout(long)
+     */
+    public long getDispatchDroppedCount() {
+        return dispatcher.getDroppedCount();
+    }
+
     /**
      * Sends the message to connected Firmata device using open port.<br/>
+     * The message is sent as {@link MessagePriority#CONTROL}.<br/>
      * This method is package-wide accessible to be used by {@link FirmataPin}.
      *
      * @param msg the Firmata message
-     * @throws DeviceCommunicationException when writing fails
+     * @throws DeviceCommunicationException when the device is not started or
+     * writing of previous messages has failed
      */
     void sendMessage(byte[] msg) throws DeviceCommunicationException {
-        try {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Sending message: '{}'", Hex.encodeHexString(msg));
-            }
-            commPort.getOutputStream().write(msg);
-        } catch (IOException ex) {
-            throw new DeviceCommunicationException("Cannot send message to device", ex);
+        sendMessage(msg, MessagePriority.CONTROL);
+    }
+
+    /**
+     * Sends the message to connected Firmata device using open port.<br/>
+     * The message is enqueued for the writer thread which packs pending
+     * messages into a single write. The message must not be modified
+     * afterwards.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}
+     * and {@link FirmataI2CDevice}.
+     *
+     * @param msg the Firmata message
+     * @param priority priority class of the message
+     * @throws DeviceCommunicationException when the device is not started or
+     * writing of previous messages has failed
+     */
+    void sendMessage(byte[] msg, MessagePriority priority) throws DeviceCommunicationException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending message: '{}'", Hex.encodeHexString(msg));
+        }
+        writer.send(msg, priority);
+    }
+
+    /**
+     * Sends the message to connected Firmata device without blocking the
+     * caller. The message must not be modified afterwards.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}
+     * and {@link FirmataI2CDevice}.
+     *
+     * @param msg the Firmata message
+     * @param priority priority class of the message
+     * @return future completed when the message has been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when it cannot be sent
+     */
+    CompletableFuture<Void> sendMessageAsync(byte[] msg, MessagePriority priority) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending message: '{}'", Hex.encodeHexString(msg));
         }
+        return writer.sendAsync(msg, priority);
+    }
+
+    /**
+     * Sends the state of the shadow register of a digital port to the board.
+     * The message is encoded when the writer thread packs it.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}.
+     *
+     * @param portId index of the port
+     * @param priority priority class of the message
+     * @throws DeviceCommunicationException when the device is not started or
+     * writing of previous messages has failed
+     */
+    void sendPort(int portId, MessagePriority priority) throws DeviceCommunicationException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending port {}: {}", portId, Integer.toBinaryString(outputPorts.get(portId)));
+        }
+        writer.sendPort(outputPorts, portId, priority);
+    }
+
+    /**
+     * Sends the state of the shadow register of a digital port to the board
+     * without blocking the caller.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}.
+     *
+     * @param portId index of the port
+     * @param priority priority class of the message
+     * @return future completed when the message has been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when it cannot be sent
+     */
+    CompletableFuture<Void> sendPortAsync(int portId, MessagePriority priority) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending port {}: {}", portId, Integer.toBinaryString(outputPorts.get(portId)));
+        }
+        return writer.sendPortAsync(outputPorts, portId, priority);
+    }
+
+    /**
+     * Sends the messages of an {@link OutputBatch} followed by the states of
+     * the shadow registers of the ports and by the trailing messages, all by
+     * a single write when they fit in.<br/>
+     * This method is package-wide accessible to be used by
+     * {@link FirmataOutputBatch}.
+     *
+     * @param data the messages or null
+     * @param portMask the ports to be sent, bit 0 stands for port 0
+     * @param trailer the messages following the ports or null
+     * @throws DeviceCommunicationException when the device is not started or
+     * writing of previous messages has failed
+     */
+    void sendBatch(byte[] data, int portMask, byte[] trailer) throws DeviceCommunicationException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending batch: '{}', ports: {}, then: '{}'", data == null ? "" : Hex.encodeHexString(data),
+                    Integer.toBinaryString(portMask), trailer == null ? "" : Hex.encodeHexString(trailer));
+        }
+        writer.send(data, outputPorts, portMask, trailer, MessagePriority.REALTIME);
+    }
+
+    /**
+     * Sends the messages of an {@link OutputBatch} followed by the states of
+     * the shadow registers of the ports and by the trailing messages without
+     * blocking the caller.<br/>
+     * This method is package-wide accessible to be used by
+     * {@link FirmataOutputBatch}.
+     *
+     * @param data the messages or null
+     * @param portMask the ports to be sent, bit 0 stands for port 0
+     * @param trailer the messages following the ports or null
+     * @return future completed when the messages have been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when they cannot be sent
+     */
+    CompletableFuture<Void> sendBatchAsync(byte[] data, int portMask, byte[] trailer) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending batch: '{}', ports: {}, then: '{}'", data == null ? "" : Hex.encodeHexString(data),
+                    Integer.toBinaryString(portMask), trailer == null ? "" : Hex.encodeHexString(trailer));
+        }
+        return writer.sendAsync(data, outputPorts, portMask, trailer, MessagePriority.REALTIME);
+    }
+
+    /**
+     * Returns the shadow registers of the digital output ports.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}.
+     *
+     * @return the shadow registers
+     */
+    DigitalOutputPorts getOutputPorts() {
+        return outputPorts;
+    }
+
+    /**
+     * Returns the dispatcher delivering events of the device and its pins.<br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin} and {@link FirmataI2CDevice}.
+     *
+     * @return the dispatcher
+     */
+    EventDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     /**
@@ -313,7 +972,34 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      * @param event the event to be send to the listeners
      */
     void pinChanged(IOEvent event) {
-        listeners.forEach(listener -> listener.onPinChange(event));
+        int pinId = event.getPin().getIndex();
+        listeners.fire(dispatcher, EventDispatcher.Kind.PIN_CHANGE, pinId, event);
+    }
+
+    /**
+     * Returns whether {@link #pinChanged(IOEvent)} has any listener to notify.
+     * <br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}.
+     *
+     * @return true when there is at least one device listener
+     */
+    boolean hasPinChangeListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Notifies the pin value listeners that a value of a pin has changed. No
+     * object is created unless a listener has an asynchronous delivery policy.
+     * <br/>
+     * This method is package-wide accessible to be used by {@link FirmataPin}.
+     *
+     * @param pinId index of the pin
+     * @param value the new value
+     */
+    void pinValueChanged(int pinId, long value) {
+        if (!valueListeners.isEmpty()) {
+            valueListeners.fire(dispatcher, EventDispatcher.Kind.PIN_VALUE, pinId, null, null, pinId, value, System.nanoTime());
+        }
     }
 
     /**
@@ -342,9 +1028,89 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      */
     private void shutdown() throws DeviceCommunicationException {
         ready.set(false);
-        sendMessage(FirmataMessageFactory.analogReport(false));
-        sendMessage(FirmataMessageFactory.digitalReport(false));
-        commPort.close();
+        synchronized (reportingLock) {
+            reporting = false;
+            reportedAnalogChannels = 0;
+            reportedDigitalPorts = 0;
+            pendingToggles.reset();
+        }
+        try {
+            sendMessage(FirmataMessageFactory.analogReport(false));
+            sendMessage(FirmataMessageFactory.digitalReport(false));
+        } finally {
+            try {
+                writer.stop();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("Interrupted while writing pending messages", ex);
+            }
+            try {
+                transport.close();
+            } catch (IOException ex) {
+                throw new DeviceCommunicationException("Cannot close connection to device", ex);
+            }
+        }
+    }
+
+    /**
+     * Fails the configurations of pin modes that wait for confirmation. The
+     * counts of unanswered pin state queries are dropped as well, since the
+     * board is not going to answer them.
+     *
+     * @param reason the message of the exception the configurations fail with
+     */
+    private void failPendingConfigurations(String reason) {
+        synchronized (stateQueryLock) {
+            Arrays.fill(stateQueries, 0);
+        }
+        for (ModeConfiguration configuration : pendingConfigurations) {
+            configuration.getFuture().completeExceptionally(new DeviceCommunicationException(reason, null));
+        }
+    }
+
+    /**
+     * Logs failed reading. A read that races with closing of the transport is
+     * not an error.
+     *
+     * @param ex the cause
+     */
+    private void logReadFailure(IOException ex) {
+        if (transport.isOpen()) {
+            LOGGER.error("Cannot read from device", ex);
+        } else {
+            LOGGER.debug("Transport has been closed while reading", ex);
+        }
+    }
+
+    /**
+     * Captures received data when a traffic recorder is configured.
+     *
+     * @param buffer the buffer holding the data from its beginning
+     * @param length number of received bytes
+     */
+    private void record(ByteBuffer buffer, int length) {
+        if (recorder != null) {
+            try {
+                recorder.record(TrafficRecorder.Direction.INBOUND, buffer, 0, length);
+            } catch (IOException ex) {
+                LOGGER.warn("Cannot record received data", ex);
+            }
+        }
+    }
+
+    /**
+     * Encodes the beginning of the buffer for logging.
+     *
+     * @param buffer the buffer
+     * @param length number of bytes to encode
+     * @return hex representation of the bytes
+     */
+    private static String toHex(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(i);
+        }
+        return Hex.encodeHexString(bytes);
     }
 
     /**
@@ -405,8 +1171,10 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         } else {
             // if the pin supports some modes, we ask for its current mode and value
             try {
+                countStateQuery(pinId);
                 sendMessage(FirmataMessageFactory.pinStateRequest(pinId));
             } catch (DeviceCommunicationException ex) {
+                uncountStateQuery(pinId);
                 LOGGER.error(String.format("Error requesting state of pin %d", pin.getIndex()), ex);
             }
         }
@@ -417,14 +1185,28 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      *
      * @param event the event of receiving pin state data
      */
-    private void onPinStateRecieve(Event event) {
-        byte pinId = (Byte) event.getBodyItem(PIN_ID);
-        FirmataPin pin = pins.get(pinId);
+    private void onPinStateRecieve(PinStateEvent event) {
+        FirmataPin pin = pins.get(event.getPinId());
+        List<ModeConfiguration> confirmed = new ArrayList<>();
+        synchronized (stateQueryLock) {
+            uncountStateQuery(event.getPinId());
+            for (ModeConfiguration configuration : pendingConfigurations) {
+                if (configuration.accepts(event.getPinId())) {
+                    confirmed.add(configuration);
+                }
+            }
+        }
         if (pin.getMode() == null) {
-            pin.initMode(Pin.Mode.resolve((Byte) event.getBodyItem(PIN_MODE)));
-            pin.initValue((Long) event.getBodyItem(PIN_VALUE));
+            pin.initMode(Pin.Mode.resolve(event.getMode()));
+            pin.initValue(event.getValue());
         } else {
-            pin.updateValue((Long) event.getBodyItem(PIN_VALUE));
+            updateReceivedValue(pin, event.getValue());
+        }
+        if (!confirmed.isEmpty()) {
+            Pin.Mode mode = Pin.Mode.resolve(event.getMode());
+            for (ModeConfiguration configuration : confirmed) {
+                configuration.onPinState(event.getPinId(), mode);
+            }
         }
         if (initializedPins.incrementAndGet() == pins.size()) {
             try {
@@ -444,15 +1226,20 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
     private void onAnalogMappingReceive(Event event) {
         analogMapping = (Map<Integer, Integer>) event.getBodyItem(ANALOG_MAPPING);
         try {
-            sendMessage(FirmataMessageFactory.analogReport(true));
-            sendMessage(FirmataMessageFactory.digitalReport(true));
+            if (deviceConfiguration.getSamplingInterval() != DeviceConfiguration.DEFAULT_SAMPLING_INTERVAL) {
+                sendMessage(FirmataMessageFactory.setSamplingInterval(deviceConfiguration.getSamplingInterval()));
+            }
+            synchronized (reportingLock) {
+                reporting = true;
+            }
+            updateReporting();
         } catch (DeviceCommunicationException ex) {
             LOGGER.error("Cannot enable reporting from device", ex);
         }
         ready.set(true);
         // all the pins are initialized so notification is sent to listeners
         IOEvent initIsDone = new IOEvent(this);
-        listeners.forEach(l -> l.onStart(initIsDone));
+        listeners.fire(dispatcher, EventDispatcher.Kind.DEVICE_START, -1, initIsDone);
     }
 
     /**
@@ -460,15 +1247,12 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      *
      * @param event the event of receiving analog message data
      */
-    private void onAnalogMessageReceive(Event event) {
-        int analogId = (Integer) event.getBodyItem(PIN_ID);
-        if (analogMapping != null && analogMapping.get(analogId) != null) {
-            int pinId = analogMapping.get(analogId);
-            if (pinId < pins.size()) {
-                FirmataPin pin = pins.get(pinId);
-                if (Pin.Mode.ANALOG.equals(pin.getMode())) {
-                    pin.updateValue((Integer) event.getBodyItem(PIN_VALUE));
-                }
+    private void onAnalogMessageReceive(AnalogMessageEvent event) {
+        Integer pinId = analogMapping == null ? null : analogMapping.get(event.getPinId());
+        if (pinId != null && pinId < pins.size()) {
+            FirmataPin pin = pins.get(pinId);
+            if (Pin.Mode.ANALOG.equals(pin.getMode())) {
+                updateReceivedValue(pin, event.getValue());
             }
         }
     }
@@ -478,24 +1262,55 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
      *
      * @param event the event of receiving digital message data
      */
-    private void onDigitalMessageReceive(Event event) {
-        int pinId = (Integer) event.getBodyItem(PIN_ID);
-        if (pinId < pins.size()) {
+    private void onDigitalMessageReceive(DigitalPortEvent event) {
+        int portId = event.getPortId();
+        if ((restartedPorts.get() & (1 << portId)) != 0) {
+            restartedPorts.getAndAccumulate(~(1 << portId), (a, b) -> a & b);
+            reportedPorts &= ~(1 << portId);
+            digitalPorts[portId] = 0;
+        }
+        int oldMask = digitalPorts[portId];
+        int newMask = event.getValue() & 0xFF;
+        digitalPorts[portId] = newMask;
+        // pins of a port reported for the first time may differ from their initial values
+        int changed = (reportedPorts & (1 << portId)) == 0 ? 0xFF : oldMask ^ newMask;
+        reportedPorts |= 1 << portId;
+        int firstPin = portId * 8;
+        while (changed != 0) {
+            int bit = Integer.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            int pinId = firstPin + bit;
+            if (pinId >= pins.size()) {
+                break;
+            }
             FirmataPin pin = pins.get(pinId);
             if (Pin.Mode.INPUT.equals(pin.getMode())
                     || Pin.Mode.PULLUP.equals(pin.getMode())) {
-                pin.updateValue((Integer) event.getBodyItem(PIN_VALUE));
+                updateReceivedValue(pin, (newMask >>> bit) & 0x01);
             }
         }
+        if (oldMask != newMask) {
+            portListeners.fire(dispatcher, EventDispatcher.Kind.PORT_CHANGE, -1, null, null, portId, oldMask, newMask);
+        }
+    }
+
+    /**
+     * Updates the value of a pin reported by the board and adds the change to
+     * the batch of the chunk being parsed.
+     *
+     * @param pin the pin
+     * @param value the reported value
+     */
+    private void updateReceivedValue(FirmataPin pin, long value) {
+        if (pin.updateValue(value) && batching) {
+            pinChangeBatch.add(pin.getIndex(), value, chunkTimestamp);
+        }
     }
 
-    private void onI2cMessageReceive(Event event) {
-        byte address = (Byte) event.getBodyItem(I2C_ADDRESS);
-        byte register = (Byte) event.getBodyItem(I2C_REGISTER);
-        byte[] message = (byte[]) event.getBodyItem(I2C_MESSAGE);
-        FirmataI2CDevice device = i2cDevices.get(address);
+    private void onI2cMessageReceive(I2CReplyEvent event) {
+        FirmataI2CDevice device = i2cDevices.get(event.getAddress());
         if (device != null) {
-            device.onReceive(register, message);
+            device.onReceive(event.getRegister(), event.getData());
         }
     }
 
@@ -505,27 +1320,55 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         try {
             AbstractCustomSysexEvent newEvent = eventClass.newInstance();
             newEvent.loadContent(event);
-            customSysexListeners.forEach(l -> l.onCustomSysexMessage(b, newEvent));
+            customSysexListeners.fire(dispatcher, EventDispatcher.Kind.CUSTOM_SYSEX, -1, newEvent, null, b, 0, 0);
         } catch (Exception ex) {
             throw new IllegalStateException(ex);
         }
     }
 
-    private void onStringMessageReceive(Event event) {
-        String message = (String) event.getBodyItem(STRING_MESSAGE);
+    private void onStringMessageReceive(StringMessageEvent event) {
+        String message = event.getMessage();
         IOEvent evt = new IOEvent(this);
-        listeners.forEach(listener -> listener.onMessageReceive(evt, message));
+        listeners.fire(dispatcher, EventDispatcher.Kind.MESSAGE, -1, evt, message, 0, 0, 0);
     }
 
     private class FirmataParser extends FiniteStateMachine implements Runnable {
 
-        private final BlockingQueue<byte[]> queue;
+        private final ByteChunkRing queue;
 
-        public FirmataParser(BlockingQueue<byte[]> queue, DeviceConfiguration configuration) {
+        public FirmataParser(ByteChunkRing queue, DeviceConfiguration configuration) {
             super(WaitingForMessageState.class, configuration);
             this.queue = queue;
         }
 
+        /**
+         * Parses a chunk of received data and notifies the batch listeners
+         * about the changes of pins the chunk has caused.
+         *
+         * @param buffer the buffer holding the data from its beginning
+         * @param length number of received bytes
+         */
+        void processChunk(ByteBuffer buffer, int length) {
+            Subscription<PinBatchListener>[] batchSubscribers = batchListeners.snapshot();
+            batching = batchSubscribers.length > 0;
+            if (batching) {
+                chunkTimestamp = System.nanoTime();
+            }
+            process(buffer, 0, length);
+            if (batching && !pinChangeBatch.isEmpty()) {
+                for (Subscription<PinBatchListener> s : batchSubscribers) {
+                    try {
+                        s.getListener().onPinBatch(pinChangeBatch);
+                        s.delivered();
+                    } catch (RuntimeException ex) {
+                        LOGGER.error("Listener has failed to process a batch", ex);
+                    }
+                }
+            }
+            pinChangeBatch.clear();
+            batching = false;
+        }
+
         @Override
         public void onEvent(Event event) {
             if (LOGGER.isDebugEnabled()) {
@@ -547,22 +1390,22 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
                     onCapabilitiesReceive(event);
                     break;
                 case PIN_STATE:
-                    onPinStateRecieve(event);
+                    onPinStateRecieve((PinStateEvent) event);
                     break;
                 case ANALOG_MAPPING_MESSAGE:
                     onAnalogMappingReceive(event);
                     break;
                 case ANALOG_MESSAGE_RESPONSE:
-                    onAnalogMessageReceive(event);
+                    onAnalogMessageReceive((AnalogMessageEvent) event);
                     break;
                 case DIGITAL_MESSAGE_RESPONSE:
-                    onDigitalMessageReceive(event);
+                    onDigitalMessageReceive((DigitalPortEvent) event);
                     break;
                 case STRING_MESSAGE:
-                    onStringMessageReceive(event);
+                    onStringMessageReceive((StringMessageEvent) event);
                     break;
                 case I2C_MESSAGE:
-                    onI2cMessageReceive(event);
+                    onI2cMessageReceive((I2CReplyEvent) event);
                     break;
                 case CUSTOM_SYSEX_MESSAGE:
                     onCustomSysexMessage(event);
@@ -577,7 +1420,12 @@ public class FirmataDevice implements IODevice, SerialPortEventListener {
         public void run() {
             while (!Thread.interrupted()) {
                 try {
-                    process(queue.take());
+                    ByteChunk chunk = queue.take();
+                    try {
+                        processChunk(chunk.getBuffer(), chunk.getLength());
+                    } finally {
+                        queue.release(chunk);
+                    }
                 } catch (InterruptedException ex) {
                     LOGGER.info("FirmataParser has stopped");
                     return;
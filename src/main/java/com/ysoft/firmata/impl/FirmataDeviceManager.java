@@ -0,0 +1,149 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IODevice;
+import com.ysoft.firmata.transport.EventLoopGroup;
+import com.ysoft.firmata.transport.NetworkTransport;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves many network connected {@link IODevice}s from a small number of
+ * threads.<br/>
+ * Transports created by the manager share an {@link EventLoopGroup}. Each
+ * device is bound to one loop and its data is parsed on that loop's thread,
+ * so the order of messages of every device is kept. The outbound messages of
+ * the devices are written by the writer threads of the group. So the number
+ * of threads does not grow with the number of devices.
+ * <p>
+ * Example:
+ * <blockquote><pre>
+ *   FirmataDeviceManager manager = new FirmataDeviceManager(4);
+ *   for (InetSocketAddress bridge : bridges) {
+ *       manager.createDevice(bridge);
+ *   }
+ *   manager.startAll();
+ *   // work with manager.getDevices()
+ *   manager.close(); // stops the devices and the loops
+ * </pre></blockquote>
+ * </p>
+ */
+public class FirmataDeviceManager implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FirmataDeviceManager.class);
+
+    private final EventLoopGroup eventLoopGroup;
+    private final List<FirmataDevice> devices = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs the manager.
+     *
+     * @param threads number of event loop threads
+     * @throws IOException when the event loops cannot be started
+     */
+    public FirmataDeviceManager(int threads) throws IOException {
+        this.eventLoopGroup = new EventLoopGroup(threads);
+    }
+
+    /**
+     * Creates a transport served by the loops of the manager. Use it to build
+     * a {@link DeviceConfiguration} for {@link #createDevice(DeviceConfiguration)}
+     * when the transport or the device needs tuning.
+     *
+     * @param address address of the bridge
+     * @return the transport
+     */
+    public NetworkTransport createTransport(InetSocketAddress address) {
+        return new NetworkTransport(address, eventLoopGroup);
+    }
+
+    /**
+     * Creates a device connected through a transport served by the loops of
+     * the manager. The device is not started.
+     *
+     * @param address address of the bridge
+     * @return the device
+     */
+    public FirmataDevice createDevice(InetSocketAddress address) {
+        return createDevice(new DeviceConfiguration(createTransport(address)));
+    }
+
+    /**
+     * Creates a device managed by the manager. The device is not started.
+     *
+     * @param configuration configuration of the device, its transport should
+     * be created with {@link #createTransport(InetSocketAddress)}
+     * @return the device
+     */
+    public FirmataDevice createDevice(DeviceConfiguration configuration) {
+        FirmataDevice device = new FirmataDevice(configuration);
+        devices.add(device);
+        return device;
+    }
+
+    /**
+     * Returns the managed devices.
+     *
+     * @return list of devices
+     */
+    public List<FirmataDevice> getDevices() {
+        return new ArrayList<>(devices);
+    }
+
+    /**
+     * Starts all the managed devices.
+     *
+     * @throws IOException when a device cannot be started
+     */
+    public void startAll() throws IOException {
+        for (FirmataDevice device : devices) {
+            device.start();
+        }
+    }
+
+    /**
+     * Stops the device and removes it from the manager.
+     *
+     * @param device the device
+     * @throws IOException when the device cannot be properly stopped
+     */
+    public void remove(FirmataDevice device) throws IOException {
+        if (devices.remove(device)) {
+            device.stop();
+        }
+    }
+
+    /**
+     * Returns the event loops the devices are served by.
+     *
+     * @return the event loop group
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * Stops all the devices and the event loops.
+     *
+     * @throws IOException when the event loops cannot be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        for (FirmataDevice device : devices) {
+            try {
+                device.stop();
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Cannot stop device", ex);
+            }
+        }
+        devices.clear();
+        eventLoopGroup.close();
+    }
+
+}
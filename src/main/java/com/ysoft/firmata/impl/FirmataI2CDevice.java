@@ -23,12 +23,11 @@
  */
 package com.ysoft.firmata.impl;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.EventOrdering;
 import com.ysoft.firmata.I2CDevice;
 import com.ysoft.firmata.I2CEvent;
 import com.ysoft.firmata.I2CListener;
@@ -44,8 +43,8 @@ public class FirmataI2CDevice implements I2CDevice {
 
     private final byte address;
 
-    private Map<Byte, Set<I2CListener>> registerSubscribers = Collections.synchronizedMap(new HashMap<>());
-    private final Set<I2CListener> subscribers = Collections.synchronizedSet(new HashSet<I2CListener>());
+    private final Map<Byte, ListenerRegistry<I2CListener>> registerSubscribers = new ConcurrentHashMap<>();
+    private final ListenerRegistry<I2CListener> subscribers = new ListenerRegistry<>();
 
     FirmataI2CDevice(FirmataDevice masterDevice, byte address) {
         this.masterDevice = masterDevice;
@@ -64,12 +63,17 @@ public class FirmataI2CDevice implements I2CDevice {
 
     @Override
     public void tell(byte... data) throws DeviceCommunicationException {
-        masterDevice.sendMessage(FirmataMessageFactory.i2cWriteRequest(address, data));
+        masterDevice.sendMessage(FirmataMessageFactory.i2cWriteRequest(address, data), MessagePriority.BULK);
+    }
+
+    @Override
+    public CompletableFuture<Void> tellAsync(byte... data) {
+        return masterDevice.sendMessageAsync(FirmataMessageFactory.i2cWriteRequest(address, data), MessagePriority.BULK);
     }
 
     @Override
     public void ask(byte register, byte responseLength, boolean continuous) throws DeviceCommunicationException {
-        masterDevice.sendMessage(FirmataMessageFactory.i2cReadRequest(address, register, responseLength, continuous));
+        masterDevice.sendMessage(FirmataMessageFactory.i2cReadRequest(address, register, responseLength, continuous), MessagePriority.BULK);
     }
 
     @Override
@@ -79,17 +83,13 @@ public class FirmataI2CDevice implements I2CDevice {
 
     @Override
     public void subscribe(byte register, I2CListener listener) {
-        Set<I2CListener> l = registerSubscribers.get(register);
-        if (l == null) {
-            l = Collections.synchronizedSet(new HashSet<>());
-            registerSubscribers.put(register, l);
-        }
-        l.add(listener);
+        registerSubscribers.computeIfAbsent(register, r -> new ListenerRegistry<>())
+                .add(masterDevice.getDispatcher().subscribe(listener, EventOrdering.LISTENER));
     }
 
     @Override
     public void subscribe(I2CListener listener) {
-        subscribers.add(listener);
+        subscribers.add(masterDevice.getDispatcher().subscribe(listener, EventOrdering.LISTENER));
     }
 
     @Override
@@ -99,7 +99,7 @@ public class FirmataI2CDevice implements I2CDevice {
 
     @Override
     public void unsubscribe(byte register, I2CListener listener) {
-        Set<I2CListener> listeners = registerSubscribers.get(register);
+        ListenerRegistry<I2CListener> listeners = registerSubscribers.get(register);
         if (listeners != null) {
             listeners.remove(listener);
         }
@@ -112,7 +112,7 @@ public class FirmataI2CDevice implements I2CDevice {
 
     @Override
     public void stopReceivingUpdates(byte register) throws DeviceCommunicationException {
-        masterDevice.sendMessage(FirmataMessageFactory.i2cStopContinuousRequest(address, register));
+        masterDevice.sendMessage(FirmataMessageFactory.i2cStopContinuousRequest(address, register), MessagePriority.BULK);
     }
 
     /**
@@ -124,11 +124,12 @@ public class FirmataI2CDevice implements I2CDevice {
      */
     void onReceive(byte register, byte[] message) {
         I2CEvent evt = new I2CEvent(this, register, message);
-        Set<I2CListener> registerSubscriber = registerSubscribers.get(register);
+        EventDispatcher dispatcher = masterDevice.getDispatcher();
+        ListenerRegistry<I2CListener> registerSubscriber = registerSubscribers.get(register);
         if (registerSubscriber != null) {
-            registerSubscriber.forEach(listener -> listener.onReceive(evt));
+            registerSubscriber.fire(dispatcher, EventDispatcher.Kind.I2C_MESSAGE, -1, evt);
         }
-        subscribers.forEach(listener -> listener.onReceive(evt));
+        subscribers.fire(dispatcher, EventDispatcher.Kind.I2C_MESSAGE, -1, evt);
     }
 
 }
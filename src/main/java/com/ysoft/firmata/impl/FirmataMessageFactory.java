@@ -217,6 +217,29 @@ public class FirmataMessageFactory {
         return result;
     }
 
+    /**
+     * Builds message to enable or disable reporting of a single analog
+     * channel.
+     *
+     * @param channel index of the analog channel (0 - 15)
+     * @param enable message enables reporting if true and disables if false
+     * @return message that enables or disables reporting of the channel
+     */
+    public static byte[] analogReport(int channel, boolean enable) {
+        return new byte[]{(byte) (REPORT_ANALOG | (channel & 0x0F)), (byte) (enable ? 1 : 0)};
+    }
+
+    /**
+     * Builds message to enable or disable reporting of a single digital port.
+     *
+     * @param portId index of the port (0 - 15)
+     * @param enable message enables reporting if true and disables if false
+     * @return message that enables or disables reporting of the port
+     */
+    public static byte[] digitalReport(int portId, boolean enable) {
+        return new byte[]{(byte) (REPORT_DIGITAL | (portId & 0x0F)), (byte) (enable ? 1 : 0)};
+    }
+
     /**
      * Creates the message that assigns particular mode to specified pin.
      *
@@ -0,0 +1,264 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.OutputBatch;
+import com.ysoft.firmata.Pin;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementation of {@link OutputBatch} for {@link FirmataDevice}.<br/>
+ * On commit, the modes are set first, then the values. Values of output pins
+ * are written to the shadow registers of their ports and every changed port is
+ * appended to the message when it is enqueued. As {@link FirmataPin#setMode}
+ * does, a pin state is requested for every pin whose mode has changed. The
+ * requests follow the ports, so that the reply cannot bring back the previous
+ * value of a pin that has got a new value too.<br/>
+ * The pins are changed before the message is enqueued, so that the shadow
+ * registers hold the new values. When the message cannot be sent, the changes
+ * are taken back.
+ */
+class FirmataOutputBatch implements OutputBatch {
+
+    private final FirmataDevice device;
+    private final Map<Integer, Pin.Mode> modes = new LinkedHashMap<>();
+    private final Map<Integer, Long> values = new LinkedHashMap<>();
+    // filled by prepare(), notified after sending
+    private final List<FirmataPin> changedModes = new ArrayList<>();
+    private final List<FirmataPin> changedValues = new ArrayList<>();
+    private final List<Change> changes = new ArrayList<>();
+    private final List<FirmataPin> stateRequests = new ArrayList<>();
+    private byte[] data;
+    private int portMask;
+    private byte[] queries;
+
+    FirmataOutputBatch(FirmataDevice device) {
+        this.device = device;
+    }
+
+    @Override
+    public OutputBatch setMode(int pinIndex, Pin.Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        FirmataPin pin = pin(pinIndex);
+        if (!pin.supports(mode)) {
+            throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinIndex, mode));
+        }
+        modes.put(pinIndex, mode);
+        return this;
+    }
+
+    @Override
+    public OutputBatch setValue(int pinIndex, long value) {
+        pin(pinIndex);
+        values.put(pinIndex, value);
+        return this;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return modes.isEmpty() && values.isEmpty();
+    }
+
+    @Override
+    public void commit() throws IllegalStateException, DeviceCommunicationException {
+        try {
+            if (prepare()) {
+                try {
+                    device.sendBatch(data, portMask, queries);
+                } catch (DeviceCommunicationException ex) {
+                    revert(changes, stateRequests, false);
+                    throw ex;
+                }
+            }
+            fire();
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync() throws IllegalStateException {
+        try {
+            if (!prepare()) {
+                fire();
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> result = device.sendBatchAsync(data, portMask, queries);
+            if (result.isCompletedExceptionally()) {
+                revert(changes, stateRequests, false);
+                return result;
+            }
+            fire();
+            List<Change> sent = new ArrayList<>(changes);
+            List<FirmataPin> queried = new ArrayList<>(stateRequests);
+            result.whenComplete((done, ex) -> {
+                if (ex != null) {
+                    revert(sent, queried, true);
+                }
+            });
+            return result;
+        } finally {
+            clear();
+        }
+    }
+
+    private FirmataPin pin(int pinIndex) {
+        if (pinIndex < 0 || pinIndex >= device.getPinsCount()) {
+            throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+        }
+        return (FirmataPin) device.getPin(pinIndex);
+    }
+
+    /**
+     * Applies the recorded changes to the pins and builds the message.
+     *
+     * @return true when there is something to send
+     * @throws IllegalStateException when a value cannot be set in the mode
+     * of its pin, no pin is changed then
+     */
+    private boolean prepare() throws IllegalStateException {
+        Map<Integer, Long> adjusted = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> entry : values.entrySet()) {
+            FirmataPin pin = pin(entry.getKey());
+            Pin.Mode mode = modes.getOrDefault(entry.getKey(), pin.getMode());
+            adjusted.put(entry.getKey(), pin.newValue(mode, entry.getValue()));
+        }
+        for (Integer pinIndex : modes.keySet()) {
+            changes.add(new Change(pin(pinIndex)));
+        }
+        for (Integer pinIndex : adjusted.keySet()) {
+            if (!modes.containsKey(pinIndex)) {
+                changes.add(new Change(pin(pinIndex)));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<Integer, Pin.Mode> entry : modes.entrySet()) {
+            FirmataPin pin = pin(entry.getKey());
+            Pin.Mode mode = entry.getValue();
+            if (pin.applyMode(mode)) {
+                if (mode == Pin.Mode.SERVO) {
+                    write(out, FirmataMessageFactory.servoConfig(pin.getIndex(), 0, 180));
+                }
+                write(out, FirmataMessageFactory.setMode(pin.getIndex(), mode));
+                changedModes.add(pin);
+                stateRequests.add(pin);
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : adjusted.entrySet()) {
+            FirmataPin pin = pin(entry.getKey());
+            long value = entry.getValue();
+            if (pin.applyValue(value)) {
+                if (pin.getMode() == Pin.Mode.OUTPUT) {
+                    portMask |= 1 << pin.getPortId();
+                } else {
+                    write(out, FirmataMessageFactory.setAnalogPinValue(pin.getIndex(), value));
+                }
+                changedValues.add(pin);
+            }
+        }
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        for (FirmataPin pin : stateRequests) {
+            device.countStateQuery(pin.getIndex());
+            write(requests, FirmataMessageFactory.pinStateRequest(pin.getIndex()));
+        }
+        for (Change change : changes) {
+            change.applied();
+        }
+        data = out.size() == 0 ? null : out.toByteArray();
+        queries = requests.size() == 0 ? null : requests.toByteArray();
+        return data != null || portMask != 0;
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] message) {
+        out.write(message, 0, message.length);
+    }
+
+    /**
+     * Updates reporting of the board when a mode has changed and notifies the
+     * listeners of the changed pins, each once.
+     */
+    private void fire() {
+        if (!changedModes.isEmpty()) {
+            device.updateReporting();
+        }
+        for (FirmataPin pin : changedModes) {
+            pin.fireModeChange();
+        }
+        for (FirmataPin pin : changedValues) {
+            pin.fireValueChange(pin.getValue());
+        }
+    }
+
+    /**
+     * Takes back the changes the pins still hold and the pin state queries
+     * that have not been sent.
+     *
+     * @param changes the changes
+     * @param queried the pins whose state has been queried
+     * @param notify whether the listeners of the reverted pins are notified
+     */
+    private void revert(List<Change> changes, List<FirmataPin> queried, boolean notify) {
+        for (FirmataPin pin : queried) {
+            device.uncountStateQuery(pin.getIndex());
+        }
+        boolean modeReverted = false;
+        for (Change change : changes) {
+            FirmataPin pin = change.pin;
+            if (pin.revert(change.appliedMode, change.appliedValue, change.mode, change.value) && notify) {
+                if (change.mode != change.appliedMode) {
+                    modeReverted = true;
+                    pin.fireModeChange();
+                }
+                if (change.value != change.appliedValue) {
+                    pin.fireValueChange(change.value);
+                }
+            }
+        }
+        if (modeReverted) {
+            device.updateReporting();
+        }
+    }
+
+    private void clear() {
+        modes.clear();
+        values.clear();
+        changedModes.clear();
+        changedValues.clear();
+        changes.clear();
+        stateRequests.clear();
+        data = null;
+        portMask = 0;
+        queries = null;
+    }
+
+    /**
+     * The state of a pin before and after it has been changed by the batch.
+     */
+    private static class Change {
+
+        private final FirmataPin pin;
+        private final Pin.Mode mode;
+        private final long value;
+        private Pin.Mode appliedMode;
+        private long appliedValue;
+
+        Change(FirmataPin pin) {
+            this.pin = pin;
+            this.mode = pin.getMode();
+            this.value = pin.getValue();
+        }
+
+        void applied() {
+            appliedMode = pin.getMode();
+            appliedValue = pin.getValue();
+        }
+
+    }
+
+}
@@ -26,9 +26,13 @@ package com.ysoft.firmata.impl;
 
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import com.ysoft.firmata.DeliveryPolicy;
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.EventOrdering;
 import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.ListenerStatistics;
 import com.ysoft.firmata.Pin;
 import com.ysoft.firmata.PinEventListener;
 
@@ -42,7 +46,7 @@ public class FirmataPin implements Pin {
     private final FirmataDevice device;
     private final byte pinId;
     private final Set<Mode> supportedModes = Collections.synchronizedSet(EnumSet.noneOf(Mode.class));
-    private final Set<PinEventListener> listeners = Collections.synchronizedSet(new HashSet<PinEventListener>());
+    private final ListenerRegistry<PinEventListener> listeners = new ListenerRegistry<>();
     private volatile Mode currentMode;
     private volatile long currentValue;
 
@@ -73,23 +77,40 @@ public class FirmataPin implements Pin {
     }
 
     @Override
-    public synchronized void setMode(Mode mode) {
-        if (supports(mode)) {
-            if (currentMode != mode) {
+    public void setMode(Mode mode) {
+        if (!supports(mode)) {
+            throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinId, mode));
+        }
+        boolean changed = false;
+        try {
+            synchronized (this) {
+                if (currentMode == mode) {
+                    return;
+                }
                 if (mode == Mode.SERVO) {
                     getDevice().sendMessage(FirmataMessageFactory.servoConfig(pinId, 0, 180));
                 }
                 getDevice().sendMessage(FirmataMessageFactory.setMode(pinId, mode));
                 currentMode = mode;
-                IOEvent evt = new IOEvent(this);
-                getDevice().pinChanged(evt);
-                for (PinEventListener listener : listeners) {
-                    listener.onModeChange(evt);
+                syncOutputBit();
+                changed = true;
+                getDevice().countStateQuery(pinId);
+                try {
+                    getDevice().sendMessage(FirmataMessageFactory.pinStateRequest(pinId));
+                } catch (DeviceCommunicationException ex) {
+                    getDevice().uncountStateQuery(pinId);
+                    throw ex;
+                }
+            }
+        } finally {
+            // the mode has been sent even when the state request has failed
+            if (changed) {
+                try {
+                    getDevice().updateReporting();
+                } finally {
+                    fireModeChange();
                 }
-                getDevice().sendMessage(FirmataMessageFactory.pinStateRequest(pinId));
             }
-        } else {
-            throw new IllegalArgumentException(String.format("Pin %d does not support mode %s", pinId, mode));
         }
     }
 
@@ -114,44 +135,72 @@ public class FirmataPin implements Pin {
     }
 
     @Override
-    public synchronized void setValue(long value) throws IllegalStateException {
-        byte[] message;
+    public void setValue(long value) throws IllegalStateException {
         long newValue;
-        if (currentMode == Mode.OUTPUT) {
-            //have to calculate the value of whole port (8-pin set) the pin sits in
-            byte portId = (byte) (pinId / 8);
-            byte pinInPort = (byte) (pinId % 8);
-            byte portValue = 0;
-            for (int i = 0; i < 8; i++) {
-                Pin p = device.getPin(portId * 8 + i);
-                if (p.getMode() == Mode.OUTPUT && p.getValue() > 0) {
-                    portValue |= 1 << i;
-                }
+        synchronized (this) {
+            newValue = newValue(value);
+            if (newValue == currentValue) {
+                return;
             }
-            byte bitmask = (byte) (1 << pinInPort);
-            boolean val = value > 0;
-            if (val) {
-                portValue |= bitmask;
+            if (currentMode == Mode.OUTPUT) {
+                writeOutputBit(newValue);
+                try {
+                    device.sendPort(getPortId(), MessagePriority.REALTIME);
+                } catch (DeviceCommunicationException ex) {
+                    // the bit must not ride along with the next write of the port
+                    writeOutputBit(currentValue);
+                    throw ex;
+                }
             } else {
-                portValue &= ((byte) ~bitmask);
+                device.sendMessage(FirmataMessageFactory.setAnalogPinValue(pinId, value), MessagePriority.REALTIME);
             }
-            message = FirmataMessageFactory.setDigitalPinValue(portId, portValue);
-            newValue = val ? 1 : 0;
-        } else if (currentMode == Mode.ANALOG || currentMode == Mode.PWM || currentMode == Mode.SERVO) {
-            message = FirmataMessageFactory.setAnalogPinValue(pinId, value);
-            newValue = value;
-        } else {
-            throw new IllegalStateException(String.format("Port %d is in %s mode and its value cannot be set.", pinId, currentMode));
+            currentValue = newValue;
         }
-        if (currentValue != newValue) {
-            device.sendMessage(message);
-            updateValue(value);
+        fireValueChange(newValue);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValueAsync(long value) throws IllegalStateException {
+        long newValue;
+        CompletableFuture<Void> result;
+        synchronized (this) {
+            newValue = newValue(value);
+            if (newValue == currentValue) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (currentMode == Mode.OUTPUT) {
+                writeOutputBit(newValue);
+                result = device.sendPortAsync(getPortId(), MessagePriority.REALTIME);
+            } else {
+                result = device.sendMessageAsync(FirmataMessageFactory.setAnalogPinValue(pinId, value), MessagePriority.REALTIME);
+            }
+            if (result.isCompletedExceptionally()) {
+                if (currentMode == Mode.OUTPUT) {
+                    writeOutputBit(currentValue);
+                }
+                return result;
+            }
+            currentValue = newValue;
         }
+        fireValueChange(newValue);
+        return result;
     }
 
     @Override
     public void addEventListener(PinEventListener listener) {
-        listeners.add(listener);
+        addEventListener(listener, EventOrdering.LISTENER);
+    }
+
+    @Override
+    public void addEventListener(PinEventListener listener, EventOrdering ordering) {
+        listeners.add(device.getDispatcher().subscribe(listener, ordering));
+    }
+
+    @Override
+    public ListenerStatistics addEventListener(PinEventListener listener, DeliveryPolicy policy) {
+        Subscription<PinEventListener> subscription = device.getDispatcher().subscribe(listener, policy);
+        listeners.put(subscription);
+        return subscription;
     }
 
     @Override
@@ -159,6 +208,61 @@ public class FirmataPin implements Pin {
         listeners.remove(listener);
     }
 
+    /**
+     * Returns the value the pin gets when the value is assigned to it in the
+     * current mode.
+     *
+     * @param value the value to be assigned to the pin
+     * @return 0 or 1 in output mode, the value itself in other modes
+     * @throws IllegalStateException when the pin is in input mode
+     */
+    private long newValue(long value) throws IllegalStateException {
+        return newValue(currentMode, value);
+    }
+
+    /**
+     * Returns the value the pin gets when the value is assigned to it in the
+     * specified mode.
+     *
+     * @param mode the mode of the pin
+     * @param value the value to be assigned to the pin
+     * @return 0 or 1 in output mode, the value itself in other modes
+     * @throws IllegalStateException when the value of a pin cannot be set in
+     * the mode
+     */
+    long newValue(Mode mode, long value) throws IllegalStateException {
+        if (mode == Mode.OUTPUT) {
+            return value > 0 ? 1 : 0;
+        } else if (mode == Mode.ANALOG || mode == Mode.PWM || mode == Mode.SERVO) {
+            return value;
+        } else {
+            throw new IllegalStateException(String.format("Port %d is in %s mode and its value cannot be set.", pinId, mode));
+        }
+    }
+
+    int getPortId() {
+        return (pinId & 0xFF) >>> 3;
+    }
+
+    /**
+     * Sets the bit of the pin in the shadow register of its port. Other bits
+     * of the port are left intact even when they change concurrently.
+     *
+     * @param value the value of the pin
+     */
+    private void writeOutputBit(long value) {
+        int bit = 1 << (pinId & 0x07);
+        device.getOutputPorts().update(getPortId(), bit, value > 0 ? bit : 0);
+    }
+
+    /**
+     * Brings the shadow register of the port in line with the mode and the
+     * value of the pin. Only pins in output mode have their bit set.
+     */
+    private void syncOutputBit() {
+        writeOutputBit(currentMode == Mode.OUTPUT ? currentValue : 0);
+    }
+
     /**
      * Adds supported mode to the pin.
      *
@@ -177,6 +281,7 @@ public class FirmataPin implements Pin {
      */
     synchronized void initMode(Mode mode) {
         currentMode = mode;
+        syncOutputBit();
     }
 
     /**
@@ -187,21 +292,127 @@ public class FirmataPin implements Pin {
      */
     synchronized void initValue(long value) {
         currentValue = value;
+        syncOutputBit();
     }
 
     /**
      * Permits the {@link FirmataDevice} to update input pin value.
      *
      * @param value the new value
+     * @return true when the value differs from the previous one
      */
-    synchronized void updateValue(long value) {
-        if (value != currentValue) {
+    boolean updateValue(long value) {
+        synchronized (this) {
+            if (value == currentValue) {
+                return false;
+            }
             currentValue = value;
-            IOEvent evt = new IOEvent(this);
-            getDevice().pinChanged(evt); // the device listeners receive the event first
-            for (PinEventListener listener : listeners) { // then pin listeners receive the event
-                listener.onValueChange(evt);
+            if (currentMode == Mode.OUTPUT) {
+                syncOutputBit();
+            }
+        }
+        fireValueChange(value);
+        return true;
+    }
+
+    /**
+     * Permits the {@link FirmataDevice} to set the value of an output pin
+     * whose port it has written. The shadow register of the port already
+     * holds the value.
+     *
+     * @param value the new value
+     */
+    void assignOutputValue(long value) {
+        synchronized (this) {
+            if (value == currentValue) {
+                return;
             }
+            currentValue = value;
+        }
+        fireValueChange(value);
+    }
+
+    /**
+     * Permits {@link FirmataOutputBatch} and {@link FirmataDevice} to change
+     * the mode of the pin whose message they send themselves. The listeners
+     * are not notified.
+     *
+     * @param mode the new mode
+     * @return true when the mode differs from the previous one
+     */
+    synchronized boolean applyMode(Mode mode) {
+        if (currentMode == mode) {
+            return false;
+        }
+        currentMode = mode;
+        syncOutputBit();
+        return true;
+    }
+
+    /**
+     * Permits {@link FirmataOutputBatch} to change the value of the pin whose
+     * message it sends itself. The value of an output pin is written to the
+     * shadow register of its port. The listeners are not notified.
+     *
+     * @param value the new value, already adjusted to the mode of the pin
+     * @return true when the value differs from the previous one
+     */
+    synchronized boolean applyValue(long value) {
+        if (currentValue == value) {
+            return false;
+        }
+        currentValue = value;
+        if (currentMode == Mode.OUTPUT) {
+            writeOutputBit(value);
+        }
+        return true;
+    }
+
+    /**
+     * Permits {@link FirmataOutputBatch} and {@link FirmataDevice} to take
+     * back a mode and a value they have applied when their message cannot be
+     * sent. Nothing is changed when the pin has been changed since. The
+     * listeners are not notified.
+     *
+     * @param appliedMode the mode that has been applied
+     * @param appliedValue the value that has been applied
+     * @param mode the mode to return to
+     * @param value the value to return to
+     * @return true when the pin has been reverted
+     */
+    synchronized boolean revert(Mode appliedMode, long appliedValue, Mode mode, long value) {
+        if (currentMode != appliedMode || currentValue != appliedValue) {
+            return false;
+        }
+        currentMode = mode;
+        currentValue = value;
+        syncOutputBit();
+        return true;
+    }
+
+    /**
+     * Notifies the listeners about a new mode of the pin. Invoked out of the
+     * monitor of the pin, so that a listener can use other pins freely.
+     */
+    void fireModeChange() {
+        IOEvent evt = new IOEvent(this);
+        getDevice().pinChanged(evt);
+        listeners.fire(device.getDispatcher(), EventDispatcher.Kind.MODE_CHANGE, pinId, evt);
+    }
+
+    /**
+     * Notifies the listeners about a new value of the pin. Invoked out of the
+     * monitor of the pin, so that a listener can change other pins without
+     * risking a deadlock.
+     *
+     * @param value the new value
+     */
+    void fireValueChange(long value) {
+        device.pinValueChanged(pinId, value);
+        if (device.hasPinChangeListeners() || !listeners.isEmpty()) {
+            IOEvent evt = new IOEvent(this, value);
+            getDevice().pinChanged(evt); // the device listeners receive the event first
+            listeners.fire(device.getDispatcher(), EventDispatcher.Kind.VALUE_CHANGE, pinId, evt); // then pin listeners receive the event
         }
     }
     
@@ -0,0 +1,914 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.capture.TrafficRecorder;
+import com.ysoft.firmata.transport.Transport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends outbound messages of a {@link FirmataDevice} from a single writer
+ * thread.<br/>
+ * The writer either runs a thread of its own or, when it is given an
+ * executor shared by many devices, drains its lanes in a task submitted
+ * whenever a message arrives to idle lanes. At most one task of a writer
+ * runs at a time and it never parks the shared thread: when the writer has to
+ * wait, the task is scheduled again for the end of the wait.<br/>
+ * Any thread may enqueue a message without locking. The writer drains all
+ * pending messages, packs them into one buffer and hands the buffer to the
+ * transport by a single write, so bursts of small messages do not cost a write
+ * (and a USB packet) each.<br/>
+ * When a maximum latency is configured, the writer lingers for up to that
+ * time after the first message of a batch to collect more messages, unless
+ * the buffer fills up earlier or a {@link MessagePriority#REALTIME} message is
+ * packed.<br/>
+ * Messages of {@link MessagePriority#REALTIME} and
+ * {@link MessagePriority#CONTROL} classes share one lane and are packed first.
+ * {@link MessagePriority#BULK} messages have their own lane and a single write
+ * carries at most one of them, so other messages never wait behind more than
+ * one bulk message.<br/>
+ * A failure of the transport is sticky: pending messages are discarded and
+ * every following attempt to send a message throws
+ * {@link DeviceCommunicationException}.<br/>
+ * When a {@link TokenBucket} is given, the written bytes are paced so that
+ * the receive buffer of the board does not overflow. A batch is then no larger
+ * than the capacity of the bucket and larger messages are written in pieces.
+ * While the writer waits for the bucket to refill, the data it is writing
+ * stays in its place and nothing else is written.<br/>
+ * Messages sent by {@link #sendAsync(byte[], MessagePriority)} carry a future
+ * which is completed when the message has been handed to the transport or
+ * completed exceptionally when it cannot be.<br/>
+ * Writes of digital ports carry the states of {@link DigitalOutputPorts} at
+ * the moment they are enqueued, see
+ * {@link #sendPort(DigitalOutputPorts, int, MessagePriority)}. A message may
+ * also consist of fixed bytes followed by writes of several ports and another
+ * fixed bytes, which are then packed together. The states are taken after
+ * the last message of the lane has been sealed and before the message takes
+ * its place, so they follow the order of the lane.
+ */
+class FirmataWriter implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FirmataWriter.class);
+
+    // states of the drain task of a writer with a shared executor
+    private static final int IDLE = 0;
+    private static final int DRAINING = 1;
+    private static final int LINGERING = 2;
+    private static final int PACING = 3;
+
+    private final Transport transport;
+    private final Lane urgent = new Lane();
+    private final Lane bulk = new Lane();
+    private final byte[] buffer;
+    private final long maxLatency;
+    private final TokenBucket pacer;
+    private final TrafficRecorder recorder;
+    // maximum number of bytes in a batch
+    private final int limit;
+    // shared threads the lanes are drained on, null when the writer runs a thread of its own
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger drainState = new AtomicInteger(IDLE);
+    private int length;
+    // when the batch in the buffer has to be written at the latest
+    private long deadline;
+    private boolean bulkPacked;
+    private boolean realtimePacked;
+    // message taken from a lane which did not fit in the batch
+    private OutboundMessage carried;
+    // data being written, the buffer or a message larger than a batch
+    private byte[] pending;
+    private int pendingOffset;
+    private int pendingCount;
+    // whether the writer waits for the pacer rather than for more messages
+    private boolean pacing;
+    // futures of the messages packed in the buffer
+    private final List<CompletableFuture<Void>> packedFutures = new ArrayList<>();
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean waiting;
+    private volatile IOException failure;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * Constructs the writer.
+     *
+     * @param transport transport the messages are written to
+     * @param bufferSize maximum number of bytes packed into a single write
+     * @param maxLatency how long the writer may wait for more messages before
+     * writing a batch, in microseconds
+     * @param pacer meters the written bytes or null when the output is not
+     * paced
+     * @param recorder captures the written bytes or null
+     * @param executor threads shared with other writers or null to run a
+     * thread of its own
+     */
+    FirmataWriter(Transport transport, int bufferSize, long maxLatency, TokenBucket pacer,
+            TrafficRecorder recorder, ScheduledExecutorService executor) {
+        this.transport = transport;
+        this.buffer = new byte[bufferSize];
+        this.maxLatency = TimeUnit.MICROSECONDS.toNanos(maxLatency);
+        this.pacer = pacer;
+        this.recorder = recorder;
+        this.limit = pacer == null ? bufferSize : Math.min(bufferSize, pacer.getCapacity());
+        this.executor = executor;
+    }
+
+    /**
+     * Starts the writer thread. A writer with a shared executor only starts
+     * accepting messages.
+     */
+    void start() {
+        failure = null;
+        running = true;
+        if (executor != null) {
+            return;
+        }
+        Thread t = new Thread(this, "firmata-writer-thread");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Writes the pending messages and stops the writer thread.
+     *
+     * @throws InterruptedException when interrupted while waiting for the
+     * writer thread
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        if (executor != null) {
+            // a lingering drain task writes its batch right away
+            schedule(true);
+            synchronized (drainState) {
+                while (drainState.get() != IDLE || (failure == null && !isEmpty())) {
+                    drainState.wait();
+                }
+            }
+            return;
+        }
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            t.join();
+            thread = null;
+        }
+    }
+
+    /**
+     * Enqueues the message to be sent. The message must not be modified
+     * afterwards.
+     *
+     * @param message the Firmata message
+     * @param priority priority class of the message
+     * @throws DeviceCommunicationException when the writer is not running or
+     * writing of previous messages has failed
+     */
+    void send(byte[] message, MessagePriority priority) throws DeviceCommunicationException {
+        IOException ex = enqueue(new OutboundMessage(message, priority, null));
+        if (ex != null) {
+            throw new DeviceCommunicationException("Cannot send message to device", ex);
+        }
+    }
+
+    /**
+     * Enqueues the message to be sent. The message must not be modified
+     * afterwards.
+     *
+     * @param message the Firmata message
+     * @param priority priority class of the message
+     * @return future completed when the message has been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when the message cannot be sent
+     */
+    CompletableFuture<Void> sendAsync(byte[] message, MessagePriority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        IOException ex = enqueue(new OutboundMessage(message, priority, future));
+        if (ex != null) {
+            future.completeExceptionally(new DeviceCommunicationException("Cannot send message to device", ex));
+        }
+        return future;
+    }
+
+    /**
+     * Enqueues a message setting the digital port to the current state of its
+     * shadow register. When the last message of the lane carries ports and
+     * the writer has not taken it yet, the port is merged into that message
+     * instead, so nothing that has been enqueued before is overtaken.
+     *
+     * @param ports the shadow registers
+     * @param portId index of the port
+     * @param priority priority class of the message
+     * @throws DeviceCommunicationException when the writer is not running or
+     * writing of previous messages has failed
+     */
+    void sendPort(DigitalOutputPorts ports, int portId, MessagePriority priority) throws DeviceCommunicationException {
+        IOException ex = checkRunning();
+        if (ex == null && !merge(ports, portId, priority)) {
+            ex = enqueue(new OutboundMessage(null, ports, 1 << portId, null, priority, null));
+        }
+        if (ex != null) {
+            throw new DeviceCommunicationException("Cannot send message to device", ex);
+        }
+    }
+
+    /**
+     * Enqueues a message setting the digital port to the current state of its
+     * shadow register.
+     *
+     * @param ports the shadow registers
+     * @param portId index of the port
+     * @param priority priority class of the message
+     * @return future completed when the message has been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when the message cannot be sent
+     */
+    CompletableFuture<Void> sendPortAsync(DigitalOutputPorts ports, int portId, MessagePriority priority) {
+        return sendAsync(null, ports, 1 << portId, null, priority);
+    }
+
+    /**
+     * Enqueues a message consisting of the fixed bytes followed by messages
+     * setting the digital ports to the current states of their shadow
+     * registers and by the trailing bytes. The whole message is handed to the
+     * transport by a single write when it fits in a batch.
+     *
+     * @param data the fixed bytes or null
+     * @param ports the shadow registers
+     * @param portMask the ports to be written, bit 0 stands for port 0
+     * @param trailer the bytes following the ports or null
+     * @param priority priority class of the message
+     * @throws DeviceCommunicationException when the writer is not running or
+     * writing of previous messages has failed
+     */
+    void send(byte[] data, DigitalOutputPorts ports, int portMask, byte[] trailer, MessagePriority priority) throws DeviceCommunicationException {
+        IOException ex = enqueue(new OutboundMessage(data, ports, portMask, trailer, priority, null));
+        if (ex != null) {
+            throw new DeviceCommunicationException("Cannot send message to device", ex);
+        }
+    }
+
+    /**
+     * Enqueues a message consisting of the fixed bytes followed by messages
+     * setting the digital ports to the current states of their shadow
+     * registers and by the trailing bytes. The whole message is handed to the
+     * transport by a single write when it fits in a batch.
+     *
+     * @param data the fixed bytes or null
+     * @param ports the shadow registers
+     * @param portMask the ports to be written, bit 0 stands for port 0
+     * @param trailer the bytes following the ports or null
+     * @param priority priority class of the message
+     * @return future completed when the message has been handed to the
+     * transport or completed exceptionally with
+     * {@link DeviceCommunicationException} when the message cannot be sent
+     */
+    CompletableFuture<Void> sendAsync(byte[] data, DigitalOutputPorts ports, int portMask, byte[] trailer, MessagePriority priority) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        IOException ex = enqueue(new OutboundMessage(data, ports, portMask, trailer, priority, future));
+        if (ex != null) {
+            future.completeExceptionally(new DeviceCommunicationException("Cannot send message to device", ex));
+        }
+        return future;
+    }
+
+    /**
+     * Merges the write of the port into the last message of its lane.
+     *
+     * @return false when the last message does not carry ports or has been
+     * taken by the writer already
+     */
+    private boolean merge(DigitalOutputPorts ports, int portId, MessagePriority priority) {
+        return (priority == MessagePriority.BULK ? bulk : urgent).merge(ports, portId);
+    }
+
+    /**
+     * Puts the message into its lane.
+     *
+     * @return the reason why the message cannot be sent or null when it has
+     * been enqueued
+     */
+    private IOException enqueue(OutboundMessage m) {
+        IOException ex = checkRunning();
+        if (ex != null) {
+            return ex;
+        }
+        (m.priority == MessagePriority.BULK ? bulk : urgent).offer(m);
+        if (executor != null) {
+            // a realtime message ends the lingering of the batch
+            schedule(m.priority == MessagePriority.REALTIME);
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+        // the writer may have stopped in the meantime, take the message back unless it has got it
+        ex = checkRunning();
+        if (ex != null && m.takeBack()) {
+            return ex;
+        }
+        return null;
+    }
+
+    private IOException checkRunning() {
+        IOException ex = failure;
+        if (ex != null) {
+            return ex;
+        }
+        if (!running) {
+            return new IOException("Device is not started");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of messages sent so far.
+     *
+     * @return the number of messages
+     */
+    long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * Returns the number of writes issued to the transport so far. Compared to
+     * {@link #getMessageCount()} it shows how well messages are coalesced.
+     *
+     * @return the number of writes
+     */
+    long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the total time the writer has held data back to keep the
+     * receive buffer of the board from overflowing.
+     *
+     * @return the time in nanoseconds
+     */
+    long getPacingDelay() {
+        return pacer == null ? 0 : pacer.getDelay();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long wait = writeAvailable();
+                if (wait == 0 && !running && isEmpty()) {
+                    break;
+                }
+                if (pacing) {
+                    // new messages cannot be written before the pacer lets them through
+                    LockSupport.parkNanos(this, wait);
+                } else {
+                    await(wait, wait == 0 || !bulkPacked);
+                }
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Submits a drain task to the shared executor unless one is pending.
+     *
+     * @param wakeUp whether a lingering task should write its batch right
+     * away
+     */
+    private void schedule(boolean wakeUp) {
+        if (failure == null && (drainState.compareAndSet(IDLE, DRAINING)
+                || (wakeUp && drainState.compareAndSet(LINGERING, DRAINING)))) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                fail(new IOException("Writer threads have been shut down", ex));
+                finishDrain();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending messages, runs on the shared executor. Instead of
+     * lingering or waiting for the pacer, the task is scheduled again for the
+     * end of the wait.
+     */
+    private void drain() {
+        while (true) {
+            long wait;
+            try {
+                wait = failure == null ? writeAvailable() : 0;
+            } catch (IOException ex) {
+                fail(ex);
+                wait = 0;
+            }
+            if (wait == 0) {
+                break;
+            }
+            if (pacing) {
+                // neither new messages nor stopping can shorten the wait
+                drainState.set(PACING);
+                try {
+                    executor.schedule(this::resume, wait, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException ex) {
+                    fail(new IOException("Writer threads have been shut down", ex));
+                    break;
+                }
+                return;
+            }
+            drainState.set(LINGERING);
+            // the writer may have been stopped or got messages while the batch was packed
+            if ((running && !hasPackable()) || !drainState.compareAndSet(LINGERING, DRAINING)) {
+                try {
+                    executor.schedule(this::resume, wait, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException ex) {
+                    fail(new IOException("Writer threads have been shut down", ex));
+                    break;
+                }
+                return;
+            }
+        }
+        finishDrain();
+        // a message may have arrived after the lanes have been found empty
+        if (!isEmpty()) {
+            schedule(false);
+        }
+    }
+
+    /**
+     * Continues a drain task whose wait is over. Does nothing when the task
+     * has been woken up earlier.
+     */
+    private void resume() {
+        if (drainState.compareAndSet(LINGERING, DRAINING) || drainState.compareAndSet(PACING, DRAINING)) {
+            drain();
+        }
+    }
+
+    private void finishDrain() {
+        synchronized (drainState) {
+            drainState.set(IDLE);
+            drainState.notifyAll();
+        }
+    }
+
+    /**
+     * Makes the failure sticky and discards pending messages.
+     */
+    private void fail(IOException ex) {
+        LOGGER.error("Cannot send message to device", ex);
+        failure = ex;
+        running = false;
+        length = 0;
+        pending = null;
+        DeviceCommunicationException cause = new DeviceCommunicationException("Cannot send message to device", ex);
+        packedFutures.forEach(f -> f.completeExceptionally(cause));
+        packedFutures.clear();
+        if (carried != null) {
+            if (carried.future != null) {
+                carried.future.completeExceptionally(cause);
+            }
+            carried = null;
+        }
+        discard(urgent, cause);
+        discard(bulk, cause);
+    }
+
+    /**
+     * Packs pending messages into the buffer and writes it, without waiting.
+     *
+     * @return 0 when all messages have been written or how long to wait, in
+     * nanoseconds, before the writing can continue; {@link #pacing} tells
+     * whether the writer lingers or waits for the pacer
+     */
+    private long writeAvailable() throws IOException {
+        while (true) {
+            long wait = writePending();
+            pacing = wait > 0;
+            if (pacing) {
+                return wait;
+            }
+            if (length == 0) {
+                bulkPacked = false;
+                realtimePacked = false;
+            }
+            while (length < limit) {
+                OutboundMessage next = carried;
+                carried = null;
+                if (next == null) {
+                    next = urgent.poll();
+                    if (next == null && !bulkPacked) {
+                        next = bulk.poll();
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                if (length > 0 && length + next.length() > limit) {
+                    // the message starts the next batch
+                    carried = next;
+                    break;
+                }
+                if (length == 0) {
+                    deadline = System.nanoTime() + maxLatency;
+                }
+                pack(next);
+                bulkPacked |= next.priority == MessagePriority.BULK;
+                realtimePacked |= next.priority == MessagePriority.REALTIME;
+                if (pending != null) {
+                    break;
+                }
+            }
+            if (pending != null) {
+                continue;
+            }
+            if (length == 0) {
+                if (isEmpty()) {
+                    return 0;
+                }
+                continue;
+            }
+            if (carried == null && length < limit && running && maxLatency > 0 && !realtimePacked) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    return remaining;
+                }
+            }
+            transmit(buffer, length);
+        }
+    }
+
+    private boolean isEmpty() {
+        return carried == null && urgent.isEmpty() && bulk.isEmpty();
+    }
+
+    /**
+     * Tells whether a message that can join the batch in the buffer is
+     * pending.
+     */
+    private boolean hasPackable() {
+        return carried != null || !urgent.isEmpty() || (!bulkPacked && !bulk.isEmpty());
+    }
+
+    /**
+     * Parks the writer until a message arrives.
+     *
+     * @param nanos maximum time to wait or 0 for no limit
+     * @param includeBulk whether a bulk message ends the waiting
+     */
+    private void await(long nanos, boolean includeBulk) {
+        waiting = true;
+        if (urgent.isEmpty() && (!includeBulk || bulk.isEmpty()) && running) {
+            if (nanos > 0) {
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+        waiting = false;
+    }
+
+    /**
+     * Appends the message to the buffer, which has room for it. Messages
+     * larger than a batch are written directly, the buffer is empty then.
+     */
+    private void pack(OutboundMessage message) throws IOException {
+        messages.incrementAndGet();
+        if (message.future != null) {
+            packedFutures.add(message.future);
+        }
+        byte[] data = message.data;
+        if (message.ports != null) {
+            int size = message.length();
+            if (length + size <= limit) {
+                length += message.encode(buffer, length);
+                return;
+            }
+            data = new byte[size];
+            message.encode(data, 0);
+        }
+        if (data.length > limit) {
+            transmit(data, data.length);
+        } else {
+            System.arraycopy(data, 0, buffer, length, data.length);
+            length += data.length;
+        }
+    }
+
+    /**
+     * Starts writing the data, the buffer or a message larger than a batch.
+     * The writing is finished by {@link #writePending()}.
+     */
+    private void transmit(byte[] data, int count) throws IOException {
+        pending = data;
+        pendingOffset = 0;
+        pendingCount = count;
+        writePending();
+    }
+
+    /**
+     * Writes the data being written, in pieces the pacer lets through.
+     *
+     * @return 0 when all the data has been written or how long to wait, in
+     * nanoseconds, before the pacer lets the next piece through
+     */
+    private long writePending() throws IOException {
+        while (pending != null) {
+            int piece = pendingCount - pendingOffset;
+            if (pacer != null) {
+                piece = Math.min(piece, pacer.getCapacity());
+                long wait = pacer.tryAcquire(piece);
+                if (wait > 0) {
+                    return wait;
+                }
+            }
+            transport.write(pending, pendingOffset, piece);
+            record(pending, pendingOffset, piece);
+            pendingOffset += piece;
+            if (pendingOffset == pendingCount) {
+                pending = null;
+                length = 0;
+                writes.incrementAndGet();
+                completePacked();
+                transport.flush();
+            }
+        }
+        return 0;
+    }
+
+    private void record(byte[] data, int offset, int count) {
+        if (recorder != null) {
+            try {
+                recorder.record(TrafficRecorder.Direction.OUTBOUND, data, offset, count);
+            } catch (IOException ex) {
+                LOGGER.warn("Cannot record sent data", ex);
+            }
+        }
+    }
+
+    private void completePacked() {
+        if (!packedFutures.isEmpty()) {
+            for (CompletableFuture<Void> future : packedFutures) {
+                future.complete(null);
+            }
+            packedFutures.clear();
+        }
+    }
+
+    private static void discard(Lane lane, Throwable cause) {
+        OutboundMessage m;
+        while ((m = lane.poll()) != null) {
+            if (m.future != null) {
+                m.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Messages of a priority class in the order they have been enqueued. Any
+     * thread may append a message, only the writer takes them.<br/>
+     * The lane is a linked list whose last message is replaced by
+     * compare-and-set. The last message is sealed before it gets a successor,
+     * so ports are merged into the last message only, and the states of the
+     * ports of the new message are taken after that.
+     */
+    private static final class Lane {
+
+        // the message taken last, its successor is the next one to be taken
+        private volatile OutboundMessage head = new OutboundMessage(null, null, null);
+        private final AtomicReference<OutboundMessage> tail = new AtomicReference<>(head);
+
+        void offer(OutboundMessage m) {
+            while (true) {
+                OutboundMessage last = tail.get();
+                last.seal();
+                m.takePortStates();
+                if (tail.compareAndSet(last, m)) {
+                    last.next = m;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Merges the write of the port into the last message.
+         *
+         * @return false when the last message does not carry ports or has
+         * been sealed already
+         */
+        boolean merge(DigitalOutputPorts ports, int portId) {
+            return tail.get().merge(ports, portId);
+        }
+
+        /**
+         * Takes the next message and seals it. Messages taken back by their
+         * senders are skipped.
+         *
+         * @return the message or null when the lane is empty
+         */
+        OutboundMessage poll() {
+            while (true) {
+                OutboundMessage next = head.next;
+                if (next == null) {
+                    return null;
+                }
+                head = next;
+                if (next.claim()) {
+                    next.seal();
+                    return next;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return head.next == null;
+        }
+
+    }
+
+    /**
+     * A message waiting in a lane.
+     */
+    private static final class OutboundMessage {
+
+        // ports can be merged into the message
+        private static final int OPEN = 0;
+        // a port is being merged into the message
+        private static final int MERGING = 1;
+        // the ports of the message are final
+        private static final int SEALED = 2;
+
+        private static final AtomicIntegerFieldUpdater<OutboundMessage> STATE
+                = AtomicIntegerFieldUpdater.newUpdater(OutboundMessage.class, "state");
+        private static final AtomicIntegerFieldUpdater<OutboundMessage> CLAIMED
+                = AtomicIntegerFieldUpdater.newUpdater(OutboundMessage.class, "claimed");
+
+        // may be null when the message consists of writes of ports only
+        private final byte[] data;
+        private final DigitalOutputPorts ports;
+        // bytes following the ports, may be null
+        private final byte[] trailer;
+        private final MessagePriority priority;
+        private final CompletableFuture<Void> future;
+        // ports to be written, bit 0 stands for port 0, and their states,
+        // written by the merging thread and published by the state
+        private int portMask;
+        private int[] portStates;
+        // messages without ports are never merged into, so they start sealed
+        private volatile int state;
+        // whether the message has been taken by the writer or back by its sender
+        private volatile int claimed;
+        private volatile OutboundMessage next;
+
+        OutboundMessage(byte[] data, MessagePriority priority, CompletableFuture<Void> future) {
+            this(data, null, 0, null, priority, future);
+        }
+
+        OutboundMessage(byte[] data, DigitalOutputPorts ports, int portMask, byte[] trailer, MessagePriority priority, CompletableFuture<Void> future) {
+            this.data = data;
+            this.ports = ports;
+            this.portMask = portMask;
+            this.trailer = trailer;
+            this.priority = priority;
+            this.future = future;
+            this.state = ports == null ? SEALED : OPEN;
+        }
+
+        /**
+         * Takes the states of the ports from their shadow registers. Invoked
+         * before the message is put into its lane.
+         */
+        void takePortStates() {
+            if (portMask != 0) {
+                portStates = new int[Integer.bitCount(portMask)];
+                int i = 0;
+                for (int bits = portMask; bits != 0; bits &= bits - 1) {
+                    portStates[i++] = ports.get(Integer.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+
+        /**
+         * Adds the port to the message or takes its current state when the
+         * message carries it already. Invoked when the message is the last
+         * one of its lane, the message cannot get a successor meanwhile.
+         *
+         * @return false when the message does not carry ports or has been
+         * sealed already
+         */
+        boolean merge(DigitalOutputPorts ports, int portId) {
+            if (this.ports != ports || !beginMerge()) {
+                return false;
+            }
+            try {
+                int bit = 1 << portId;
+                if ((portMask & bit) == 0) {
+                    portMask |= bit;
+                    takePortStates();
+                } else {
+                    portStates[Integer.bitCount(portMask & (bit - 1))] = ports.get(portId);
+                }
+            } finally {
+                state = OPEN;
+            }
+            return true;
+        }
+
+        private boolean beginMerge() {
+            while (true) {
+                int current = state;
+                if (current == SEALED) {
+                    return false;
+                }
+                if (current == OPEN && STATE.compareAndSet(this, OPEN, MERGING)) {
+                    return true;
+                }
+                // another thread merges a port, which takes a moment
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Prevents further merging, invoked before the message gets a
+         * successor and when it leaves its lane. Waits for a port being merged.
+         */
+        void seal() {
+            while (true) {
+                int current = state;
+                if (current == SEALED || (current == OPEN && STATE.compareAndSet(this, OPEN, SEALED))) {
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Claims the message for the writer or for its sender taking it back.
+         *
+         * @return false when the message has been claimed already
+         */
+        boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        /**
+         * Takes the message back unless the writer has taken it. The message
+         * stays in its lane and the writer skips it.
+         *
+         * @return true when the message has been taken back
+         */
+        boolean takeBack() {
+            if (!claim()) {
+                return false;
+            }
+            seal();
+            return true;
+        }
+
+        /**
+         * Returns the length of the encoded message, invoked once the
+         * message has been sealed.
+         */
+        int length() {
+            return (data == null ? 0 : data.length) + Integer.bitCount(portMask) * DigitalOutputPorts.MESSAGE_LENGTH
+                    + (trailer == null ? 0 : trailer.length);
+        }
+
+        /**
+         * Encodes the message into the buffer, invoked once the message has
+         * been sealed.
+         */
+        int encode(byte[] buffer, int offset) {
+            int position = offset;
+            if (data != null) {
+                System.arraycopy(data, 0, buffer, position, data.length);
+                position += data.length;
+            }
+            int i = 0;
+            for (int bits = portMask; bits != 0; bits &= bits - 1) {
+                position += DigitalOutputPorts.encode(Integer.numberOfTrailingZeros(bits), portStates[i++], buffer, position);
+            }
+            if (trailer != null) {
+                System.arraycopy(trailer, 0, buffer, position, trailer.length);
+                position += trailer.length;
+            }
+            return position - offset;
+        }
+
+    }
+
+}
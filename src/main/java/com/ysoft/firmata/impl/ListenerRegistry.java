@@ -0,0 +1,145 @@
+package com.ysoft.firmata.impl;
+
+import java.util.Arrays;
+
+/**
+ * Listeners of a kind of events of a device, a pin or an I2C device.<br/>
+ * The subscriptions are kept in an array that is replaced on every change, so
+ * firing events neither takes a lock nor creates an iterator, and it is not
+ * affected by listeners being added or removed meanwhile. Changes are
+ * serialized by the monitor of the registry. Listeners are kept in the order
+ * they have been added.
+ *
+ * @param <L> type of the listeners
+ */
+class ListenerRegistry<L> {
+
+    private static final Subscription<?>[] EMPTY = new Subscription<?>[0];
+
+    private volatile Subscription<?>[] subscriptions = EMPTY;
+
+    /**
+     * Adds the subscription unless its listener is already registered.
+     *
+     * @param subscription the subscription
+     * @return true when the subscription has been added
+     */
+    synchronized boolean add(Subscription<L> subscription) {
+        if (indexOf(subscription.getListener()) >= 0) {
+            return false;
+        }
+        Subscription<?>[] current = subscriptions;
+        Subscription<?>[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+        return true;
+    }
+
+    /**
+     * Adds the subscription. A subscription of the same listener is replaced
+     * in place and its mailbox, if any, is retired first, so the events
+     * waiting in it are delivered through the new subscription before the
+     * events fired later.
+     *
+     * @param subscription the subscription
+     */
+    void put(Subscription<L> subscription) {
+        // the delivery in progress is awaited outside the monitor, the listener may be adding listeners
+        for (Subscription<?> s : subscriptions) {
+            if (s.getListener().equals(subscription.getListener()) && s.getMailbox() != null) {
+                s.getMailbox().retire(subscription);
+            }
+        }
+        synchronized (this) {
+            int index = indexOf(subscription.getListener());
+            if (index < 0) {
+                add(subscription);
+            } else {
+                Subscription<?>[] updated = subscriptions.clone();
+                updated[index] = subscription;
+                subscriptions = updated;
+            }
+        }
+    }
+
+    /**
+     * Removes the subscription of the listener.
+     *
+     * @param listener the listener
+     * @return true when the listener has been registered
+     */
+    synchronized boolean remove(Object listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return false;
+        }
+        Subscription<?>[] current = subscriptions;
+        if (current.length == 1) {
+            subscriptions = EMPTY;
+        } else {
+            Subscription<?>[] updated = new Subscription<?>[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            subscriptions = updated;
+        }
+        return true;
+    }
+
+    boolean isEmpty() {
+        return subscriptions.length == 0;
+    }
+
+    /**
+     * Returns the subscriptions registered at the moment. The array must not
+     * be modified.
+     *
+     * @return the subscriptions
+     */
+    @SuppressWarnings("unchecked")
+    Subscription<L>[] snapshot() {
+        return (Subscription<L>[]) subscriptions;
+    }
+
+    /**
+     * Fires an event to all the listeners.
+     *
+     * @param dispatcher the dispatcher delivering the event
+     * @param kind kind of the event
+     * @param pin index of the pin the event belongs to or -1
+     * @param event the event
+     */
+    void fire(EventDispatcher dispatcher, EventDispatcher.Kind kind, int pin, Object event) {
+        for (Subscription<?> s : subscriptions) {
+            dispatcher.dispatch(s, kind, pin, event);
+        }
+    }
+
+    /**
+     * Fires an event to all the listeners.
+     *
+     * @param dispatcher the dispatcher delivering the event
+     * @param kind kind of the event
+     * @param pin index of the pin the event belongs to or -1
+     * @param event the event
+     * @param extra additional object argument of the listener method
+     * @param a first primitive argument of the listener method
+     * @param b second primitive argument of the listener method
+     * @param c third primitive argument of the listener method
+     */
+    void fire(EventDispatcher dispatcher, EventDispatcher.Kind kind, int pin, Object event, Object extra, long a, long b, long c) {
+        for (Subscription<?> s : subscriptions) {
+            dispatcher.dispatch(s, kind, pin, event, extra, a, b, c);
+        }
+    }
+
+    private int indexOf(Object listener) {
+        Subscription<?>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].getListener().equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
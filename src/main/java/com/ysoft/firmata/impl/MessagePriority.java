@@ -0,0 +1,28 @@
+package com.ysoft.firmata.impl;
+
+/**
+ * Priority class of an outbound message. The writer of a
+ * {@link FirmataDevice} interleaves the classes at message boundaries:
+ * messages of {@link #REALTIME} and {@link #CONTROL} classes never wait behind
+ * more than one {@link #BULK} message.<br/>
+ * {@link #REALTIME} and {@link #CONTROL} messages are sent in the order they
+ * have been enqueued, so a pin write never overtakes the configuration of the
+ * pin. {@link #BULK} messages keep their order among themselves.
+ */
+public enum MessagePriority {
+
+    /**
+     * Pin writes. They are written as soon as possible, the writer does not
+     * wait for more messages to pack with them.
+     */
+    REALTIME,
+    /**
+     * Configuration and queries.
+     */
+    CONTROL,
+    /**
+     * Large transfers such as I2C traffic. They yield to the other classes.
+     */
+    BULK
+
+}
@@ -0,0 +1,105 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.Pin;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Modes of pins that have been sent to the board and wait for confirmation by
+ * pin state responses.<br/>
+ * The board answers pin state queries in order, so the responses to queries
+ * sent before the configuration are skipped. The future is completed when
+ * every pin has reported its new mode, or completed exceptionally when a pin
+ * reports another mode or the confirmation does not come in time.
+ */
+class ModeConfiguration {
+
+    // a single thread failing the configurations that time out, shared by all the devices
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "firmata-timeout-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Map<Integer, Pin.Mode> unconfirmed;
+    private final Map<Integer, Integer> skipped;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    /**
+     * Constructs the configuration.
+     *
+     * @param modes the modes to be confirmed by pin indexes
+     * @param earlierQueries the numbers of queries that have been sent before
+     * the configuration and have not been answered yet, by pin indexes
+     */
+    ModeConfiguration(Map<Integer, Pin.Mode> modes, Map<Integer, Integer> earlierQueries) {
+        this.unconfirmed = new HashMap<>(modes);
+        this.skipped = new HashMap<>(earlierQueries);
+    }
+
+    CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /**
+     * Fails the configuration when it has not been confirmed in time.
+     *
+     * @param timeout the time limit in milliseconds
+     */
+    void expireAfter(long timeout) {
+        ScheduledFuture<?> expiration = TIMER.schedule(() -> {
+            future.completeExceptionally(new TimeoutException(
+                    String.format("Pin modes have not been confirmed in %d ms", timeout)));
+        }, timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((done, ex) -> expiration.cancel(false));
+    }
+
+    /**
+     * Decides whether a pin state response confirms the configuration. The
+     * responses to the queries sent before the configuration are passed by.
+     *
+     * @param pinId index of the pin
+     * @return true when the response is to be processed by
+     * {@link #onPinState(int, Pin.Mode)}
+     */
+    synchronized boolean accepts(int pinId) {
+        if (!unconfirmed.containsKey(pinId)) {
+            return false;
+        }
+        int earlier = skipped.getOrDefault(pinId, 0);
+        if (earlier > 0) {
+            skipped.put(pinId, earlier - 1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Processes a pin state response accepted by {@link #accepts(int)}.
+     *
+     * @param pinId index of the pin
+     * @param mode the mode the pin has reported
+     */
+    synchronized void onPinState(int pinId, Pin.Mode mode) {
+        Pin.Mode expected = unconfirmed.get(pinId);
+        if (expected == mode) {
+            unconfirmed.remove(pinId);
+            if (unconfirmed.isEmpty()) {
+                future.complete(null);
+            }
+        } else if (expected != null) {
+            future.completeExceptionally(new IllegalStateException(
+                    String.format("Pin %d has reported mode %s instead of %s", pinId, mode, expected)));
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeliveryPolicy;
+import com.ysoft.firmata.EventOrdering;
+import com.ysoft.firmata.ListenerStatistics;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registration of a listener to events dispatched by {@link EventDispatcher}.
+ * Subscriptions are equal when their listeners are equal, so a set of them
+ * keeps a listener once.
+ *
+ * @param <L> type of the listener
+ */
+class Subscription<L> implements ListenerStatistics {
+
+    private final L listener;
+    private final EventOrdering ordering;
+    // the dispatch lane of the events that are not ordered by pin
+    private final int lane;
+    private final DeliveryPolicy policy;
+    // queue of the listener's own events, null for DeliveryPolicy.SYNC
+    private final EventDispatcher.Mailbox mailbox;
+    private final AtomicLong delivered = new AtomicLong();
+    // events that have not fit to a full dispatch ring in time
+    private final AtomicLong dropped = new AtomicLong();
+
+    Subscription(L listener, EventOrdering ordering, int lane) {
+        this(listener, ordering, lane, DeliveryPolicy.SYNC, null);
+    }
+
+    Subscription(L listener, EventOrdering ordering, int lane, DeliveryPolicy policy, EventDispatcher.Mailbox mailbox) {
+        this.listener = listener;
+        this.ordering = ordering;
+        this.lane = lane;
+        this.policy = policy;
+        this.mailbox = mailbox;
+    }
+
+    L getListener() {
+        return listener;
+    }
+
+    EventOrdering getOrdering() {
+        return ordering;
+    }
+
+    int getLane() {
+        return lane;
+    }
+
+    EventDispatcher.Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    void delivered() {
+        delivered.incrementAndGet();
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    @Override
+    public DeliveryPolicy getDeliveryPolicy() {
+        return policy;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return mailbox == null ? dropped.get() : mailbox.getDroppedCount();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Subscription && listener.equals(((Subscription<?>) obj).listener);
+    }
+
+    @Override
+    public int hashCode() {
+        return listener.hashCode();
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.ysoft.firmata.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters outbound bytes so that the receive buffer of the board does not
+ * overflow.<br/>
+ * The bucket holds as many tokens as the board's buffer holds bytes and it is
+ * refilled at the rate the board drains its buffer. Every byte written costs
+ * one token. The bucket does not wait for tokens itself, it tells how long
+ * the caller has to wait. The bucket is used by the writer only, so it is not
+ * thread-safe.
+ */
+class TokenBucket {
+
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+    // when the first of the current unsuccessful attempts has been made
+    private long waitingSince;
+    private boolean waiting;
+    private volatile long delayed;
+
+    /**
+     * Constructs a full bucket.
+     *
+     * @param capacity maximum number of tokens
+     * @param tokensPerSecond refill rate
+     */
+    TokenBucket(int capacity, double tokensPerSecond) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Creates a bucket that models the receive buffer of a board connected by
+     * a serial line. The board drains its buffer no faster than the line
+     * delivers the bytes (10 bits per byte) and at least once per sampling
+     * interval.
+     *
+     * @param baudRate speed of the line
+     * @param bufferSize size of the board's receive buffer in bytes
+     * @param samplingInterval sampling interval of the board in milliseconds
+     * @return the bucket
+     */
+    static TokenBucket forBoard(int baudRate, int bufferSize, int samplingInterval) {
+        double lineRate = baudRate / 10.0;
+        double drainRate = bufferSize * 1000.0 / samplingInterval;
+        return new TokenBucket(bufferSize, Math.min(lineRate, drainRate));
+    }
+
+    /**
+     * Takes tokens from the bucket if enough of them are available.
+     *
+     * @param count number of tokens, not more than the capacity
+     * @return 0 when the tokens have been taken or how long to wait, in
+     * nanoseconds, before enough tokens are available
+     */
+    long tryAcquire(int count) {
+        refill();
+        if (tokens < count) {
+            if (!waiting) {
+                waiting = true;
+                waitingSince = lastRefill;
+            }
+            return Math.max(MIN_WAIT_NANOS, (long) ((count - tokens) / tokensPerNano));
+        }
+        tokens -= count;
+        if (waiting) {
+            waiting = false;
+            delayed += lastRefill - waitingSince;
+        }
+        return 0;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the total time spent waiting for tokens.
+     *
+     * @return the time in nanoseconds
+     */
+    long getDelay() {
+        return delayed;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+}
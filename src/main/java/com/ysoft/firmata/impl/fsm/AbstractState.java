@@ -104,6 +104,43 @@ public abstract class AbstractState implements State {
         return result;
     }
 
+    /**
+     * Returns the number of bytes collected so far.
+     *
+     * @return the number of buffered bytes
+     */
+    protected int getBufferLength() {
+        return index;
+    }
+
+    /**
+     * Returns a byte collected so far without copying the buffer.
+     *
+     * @param i the index of the byte, less than {@link #getBufferLength()}
+     * @return the buffered byte
+     */
+    protected byte getBufferedByte(int i) {
+        return buffer[i];
+    }
+
+    /**
+     * Discards the data collected so far. The buffer is kept to be filled
+     * again.
+     */
+    protected void clearBuffer() {
+        index = 0;
+    }
+
+    /**
+     * Brings the state to the condition of a newly created instance.<br/>
+     * States implementing {@link ReusableState} override the method to reset
+     * their own fields too.
+     */
+    public void reset() {
+        clearBuffer();
+        transitionByte = null;
+    }
+
     protected DeviceConfiguration getDeviceConfiguration() {
         return deviceConfiguration;
     }
@@ -0,0 +1,25 @@
+package com.ysoft.firmata.impl.fsm;
+
+/**
+ * A state that is able to process a run of input bytes at once.<br/>
+ * When the FSM processes a buffer and its current state implements this
+ * interface, the rest of the buffer is offered to the state first. The state
+ * consumes as many bytes as it can handle without leaving itself and the FSM
+ * processes the remaining bytes one by one. This avoids a call of
+ * {@link State#process(byte)} for every byte of frequent short messages.
+ */
+public interface BulkState extends State {
+
+    /**
+     * Processes the leading bytes of the buffer that the state can handle
+     * entirely. The state must stay the current state of the FSM.
+     *
+     * @param buffer the bytes to be processed
+     * @param offset the index of the first byte to process
+     * @param length the number of the bytes available
+     * @return the number of bytes processed, 0 if the first byte has to be
+     * processed by {@link State#process(byte)}
+     */
+    int process(byte[] buffer, int offset, int length);
+
+}
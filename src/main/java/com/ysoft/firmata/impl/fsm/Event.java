@@ -28,16 +28,19 @@ import java.util.Map;
 
 /**
  * The event of very loose structure. It provides possibility to build an event of structure that meets the needs of a
- * particular FSM application.
+ * particular FSM application.<br/>
+ * Frequent events are better represented by subclasses with typed fields. Such subclasses expose their fields through
+ * the body as well, so the map view stays available to the code that does not know them. The body map is not
+ * allocated until an item is set.
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
 public class Event {
 
-    private final long timestamp;
+    private long timestamp;
     private final String name;
     private final EventType type;
-    private final Map<String, Object> body = new HashMap<>();
+    private Map<String, Object> body;
 
 
     /**
@@ -67,6 +70,14 @@ public class Event {
         return timestamp;
     }
 
+    /**
+     * Sets the timestamp of the event to the current time. Events reused for
+     * several occurrences invoke it every time they are fired.
+     */
+    protected void updateTimestamp() {
+        timestamp = System.currentTimeMillis();
+    }
+
     /**
      * Returns the type of the event.
      */
@@ -78,7 +89,7 @@ public class Event {
      * Returns the body of the event.
      */
     public Map<String, Object> getBody() {
-        return new HashMap<String, Object>(body);
+        return body == null ? new HashMap<String, Object>() : new HashMap<String, Object>(body);
     }
 
     /**
@@ -88,7 +99,7 @@ public class Event {
      * @return the event item
      */
     public Object getBodyItem(String key) {
-        return body.get(key);
+        return body == null ? null : body.get(key);
     }
 
     /**
@@ -98,6 +109,9 @@ public class Event {
      * @param value the event item
      */
     public void setBodyItem(String key, Object value) {
+        if (body == null) {
+            body = new HashMap<>();
+        }
         body.put(key, value);
     }
 }
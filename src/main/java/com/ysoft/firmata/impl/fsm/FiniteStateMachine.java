@@ -24,6 +24,7 @@
 package com.ysoft.firmata.impl.fsm;
 
 import com.ysoft.firmata.DeviceConfiguration;
+import java.nio.ByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +44,8 @@ public abstract class FiniteStateMachine {
     private State currentState;
     private DeviceConfiguration deviceConfiguration;
     private StateFactory stateFactory;
+    private static final int SCRATCH_SIZE = 512;
+    private byte[] scratch;
 
     /**
      * Constructs the finite state machine in the state of the specified class.
@@ -71,7 +74,9 @@ public abstract class FiniteStateMachine {
     /**
      * Transfers the FSM to the new state of the specified class.<br/>
      * This method takes only classes that provide a constructor taking a {@link FiniteStateMachine} instance as a
-     * parameter. The {@link IllegalArgumentException} is thrown otherwise.
+     * parameter. The {@link IllegalArgumentException} is thrown otherwise.<br/>
+     * States implementing {@link ReusableState} are not created again, the instance created by the first transition is
+     * reset and reused.
      *
      * @param stateClass the state class
      * @throw IllegalArgumentException when the state class does not provide a constructor taking
@@ -122,7 +127,8 @@ public abstract class FiniteStateMachine {
     }
 
     /**
-     * Hands bytes from the buffer to be processed by the current state sequentially.
+     * Hands bytes from the buffer to be processed by the current state sequentially.<br/>
+     * When the current state is a {@link BulkState}, it gets a chance to process a run of bytes at once.
      *
      * @param buffer the bytes to be processed
      * @param offset the index of the first byte to process
@@ -130,8 +136,43 @@ public abstract class FiniteStateMachine {
      */
     public void process(byte[] buffer, int offset, int length) {
         int finalIndex = offset + length;
-        for (int i = offset; i < finalIndex; i++) {
-            process(buffer[i]);
+        int i = offset;
+        while (i < finalIndex) {
+            if (currentState instanceof BulkState) {
+                int processed = ((BulkState) currentState).process(buffer, i, finalIndex - i);
+                if (processed > 0) {
+                    i += processed;
+                    continue;
+                }
+            }
+            process(buffer[i++]);
+        }
+    }
+
+    /**
+     * Hands bytes from the buffer to be processed by the current state sequentially. The bytes are read in place, the
+     * position of the buffer is not changed. Both heap and direct buffers are supported.
+     *
+     * @param buffer the bytes to be processed
+     * @param offset the index of the first byte to process
+     * @param length the number of the bytes to be processed
+     */
+    public void process(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            process(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            // direct buffers are copied by parts to take advantage of bulk processing
+            if (scratch == null) {
+                scratch = new byte[SCRATCH_SIZE];
+            }
+            int finalIndex = offset + length;
+            for (int i = offset; i < finalIndex; i += scratch.length) {
+                int count = Math.min(finalIndex - i, scratch.length);
+                for (int j = 0; j < count; j++) {
+                    scratch[j] = buffer.get(i + j);
+                }
+                process(scratch, 0, count);
+            }
         }
     }
 
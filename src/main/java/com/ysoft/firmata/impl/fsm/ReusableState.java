@@ -0,0 +1,19 @@
+package com.ysoft.firmata.impl.fsm;
+
+/**
+ * A state that can be entered repeatedly.<br/>
+ * {@link StateFactory} creates a single instance of such state per
+ * {@link FiniteStateMachine} and resets it on every transition instead of
+ * creating a new one. The state must not keep anything between its entries
+ * except what {@link #reset()} restores.<br/>
+ * States that do not implement the interface are created on every transition.
+ */
+public interface ReusableState extends State {
+
+    /**
+     * Brings the state to the condition of a newly created instance. Invoked
+     * before the FSM enters the state.
+     */
+    void reset();
+
+}
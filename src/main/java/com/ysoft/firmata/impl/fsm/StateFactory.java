@@ -2,8 +2,14 @@
 package com.ysoft.firmata.impl.fsm;
 
 import com.ysoft.firmata.DeviceConfiguration;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
+ * Provides states for transitions of a {@link FiniteStateMachine}.<br/>
+ * Instances of {@link ReusableState} are created once and reset on every
+ * transition, so parsing of regular messages does not allocate states. Other
+ * states are created on every transition.
  *
  * @author Stepan Novacek &lt;stepan.novacek@ysoft.com&gt;
  */
@@ -11,6 +17,8 @@ public class StateFactory {
     
     private DeviceConfiguration deviceConfiguration;
     private FiniteStateMachine finiteStateMachine;
+    // accessed from the parsing thread only
+    private final Map<Class<? extends State>, ReusableState> reusableStates = new IdentityHashMap<>();
 
     StateFactory(DeviceConfiguration deviceConfiguration, FiniteStateMachine finiteStateMachine) {
         this.deviceConfiguration = deviceConfiguration;
@@ -18,16 +26,30 @@ public class StateFactory {
     }
     
     public <T extends State> T createState(Class<T> stateClass, Byte transitionByte) {
+        T state;
+        ReusableState reusable = reusableStates.get(stateClass);
+        if (reusable != null) {
+            reusable.reset();
+            state = stateClass.cast(reusable);
+        } else {
+            state = newState(stateClass);
+            if (state instanceof ReusableState) {
+                reusableStates.put(stateClass, (ReusableState) state);
+            }
+        }
+        state.setTransitionByte(transitionByte);
+        return state;
+    }
+
+    private <T extends State> T newState(Class<T> stateClass) {
         try {
             T state = stateClass.newInstance();
             state.setDeviceConfiguration(deviceConfiguration);
             state.setFiniteStateMashine(finiteStateMachine);
-            state.setTransitionByte(transitionByte);
             return state;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         } 
     }
-    
 
 }
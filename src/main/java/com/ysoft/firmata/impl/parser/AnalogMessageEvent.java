@@ -0,0 +1,68 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.EventType;
+import java.util.Map;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Event of receiving a value of an analog input.<br/>
+ * The parser fires the same instance for every analog message, so the event
+ * is valid only while it is being handled.<br/>
+ * The body keeps the items of the former generic event: {@code PIN_VALUE} is
+ * an {@link Integer} for analog messages and a {@link Long} for extended
+ * analog messages.
+ */
+public class AnalogMessageEvent extends Event {
+
+    private int pinId;
+    private long value;
+    private boolean extended;
+
+    public AnalogMessageEvent() {
+        super(ANALOG_MESSAGE_RESPONSE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
+    }
+
+    void update(int pinId, long value, boolean extended) {
+        this.pinId = pinId;
+        this.value = value;
+        this.extended = extended;
+        updateTimestamp();
+    }
+
+    /**
+     * Returns the index of the analog input for analog messages or the index
+     * of the pin for extended analog messages.
+     *
+     * @return the index
+     */
+    public int getPinId() {
+        return pinId;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> getBody() {
+        Map<String, Object> body = super.getBody();
+        body.put(PIN_ID, pinId);
+        body.put(PIN_VALUE, getBodyItem(PIN_VALUE));
+        return body;
+    }
+
+    @Override
+    public Object getBodyItem(String key) {
+        switch (key) {
+            case PIN_ID:
+                return pinId;
+            case PIN_VALUE:
+                return extended ? (Object) value : (Object) (int) value;
+            default:
+                return super.getBodyItem(key);
+        }
+    }
+
+}
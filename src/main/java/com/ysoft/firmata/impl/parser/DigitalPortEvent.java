@@ -0,0 +1,68 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.EventType;
+import java.util.Map;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Event of receiving a state of a digital port.<br/>
+ * A port is a set of 8 pins, the state of every pin is represented by a bit of
+ * the value (0 - low, 1 - high). The parser fires the same instance for every
+ * digital message, so the event is valid only while it is being handled.<br/>
+ * The event replaces the eight generic events with {@code PIN_ID} and
+ * {@code PIN_VALUE} items that used to be fired for every pin of the port.
+ * Its body holds {@code PORT_ID} and {@code PORT_VALUE} instead, so a handler
+ * reading the former items has to take the pins from the port value.
+ */
+public class DigitalPortEvent extends Event {
+
+    private int portId;
+    private int value;
+
+    public DigitalPortEvent() {
+        super(DIGITAL_MESSAGE_RESPONSE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
+    }
+
+    void update(int portId, int value) {
+        this.portId = portId;
+        this.value = value;
+        updateTimestamp();
+    }
+
+    public int getPortId() {
+        return portId;
+    }
+
+    /**
+     * Returns states of the pins of the port. The lowest bit stands for the
+     * pin with index of {@code portId * 8}.
+     *
+     * @return the bit mask of pin states
+     */
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> getBody() {
+        Map<String, Object> body = super.getBody();
+        body.put(PORT_ID, portId);
+        body.put(PORT_VALUE, value);
+        return body;
+    }
+
+    @Override
+    public Object getBodyItem(String key) {
+        switch (key) {
+            case PORT_ID:
+                return portId;
+            case PORT_VALUE:
+                return value;
+            default:
+                return super.getBodyItem(key);
+        }
+    }
+
+}
@@ -160,6 +160,8 @@ public interface FirmataToken {
     
     public static final String ANALOG_MESSAGE_RESPONSE = "analogMessage";
     public static final String DIGITAL_MESSAGE_RESPONSE = "digitalMessage";
+    public static final String PORT_ID = "portId";
+    public static final String PORT_VALUE = "portValue";
     public static final String I2C_MESSAGE = "i2cMessage";
     public static final String I2C_ADDRESS = "i2cAddress";
     public static final String I2C_REGISTER = "i2cRegister";
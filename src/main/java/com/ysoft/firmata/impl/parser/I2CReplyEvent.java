@@ -0,0 +1,67 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.EventType;
+import java.util.Map;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Event of receiving a reply of an I2C device.<br/>
+ * The parser fires the same instance for every reply, so the event is valid
+ * only while it is being handled. The data array is allocated for every reply
+ * and can be kept.
+ */
+public class I2CReplyEvent extends Event {
+
+    private byte address;
+    private byte register;
+    private byte[] data;
+
+    public I2CReplyEvent() {
+        super(I2C_MESSAGE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
+    }
+
+    void update(byte address, byte register, byte[] data) {
+        this.address = address;
+        this.register = register;
+        this.data = data;
+        updateTimestamp();
+    }
+
+    public byte getAddress() {
+        return address;
+    }
+
+    public byte getRegister() {
+        return register;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public Map<String, Object> getBody() {
+        Map<String, Object> body = super.getBody();
+        body.put(I2C_ADDRESS, address);
+        body.put(I2C_REGISTER, register);
+        body.put(I2C_MESSAGE, data);
+        return body;
+    }
+
+    @Override
+    public Object getBodyItem(String key) {
+        switch (key) {
+            case I2C_ADDRESS:
+                return address;
+            case I2C_REGISTER:
+                return register;
+            case I2C_MESSAGE:
+                return data;
+            default:
+                return super.getBodyItem(key);
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -38,10 +39,18 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingAnalogMappingState extends AbstractState {
+public class ParsingAnalogMappingState extends AbstractState implements ReusableState {
 
     private int portId;
-    private final Map<Integer, Integer> mapping = new ConcurrentHashMap<Integer, Integer>();
+    private Map<Integer, Integer> mapping = new ConcurrentHashMap<Integer, Integer>();
+
+    @Override
+    public void reset() {
+        super.reset();
+        portId = 0;
+        // the map of previous message has been handed over with the event
+        mapping = new ConcurrentHashMap<Integer, Integer>();
+    }
 
     @Override
     public void process(byte b) {
@@ -24,12 +24,11 @@
 
 package com.ysoft.firmata.impl.parser;
 
-import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
  * This state parses the analog message that points an analog input has
@@ -42,14 +41,22 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingAnalogMessageState extends AbstractState {
+public class ParsingAnalogMessageState extends AbstractState implements ReusableState {
 
     private int counter, value;
+    private final AnalogMessageEvent event = new AnalogMessageEvent();
 
     private int getPortId() {
         return getTransitionByte() & 0x0F;
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        counter = 0;
+        value = 0;
+    }
+
     @Override
     public void process(byte b) {
         switch (counter) {
@@ -59,10 +66,8 @@ public class ParsingAnalogMessageState extends AbstractState {
                 break;
             case 1:
                 value |= b << 7;
-                Event evt = new Event(ANALOG_MESSAGE_RESPONSE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-                evt.setBodyItem(PIN_ID, getPortId());
-                evt.setBodyItem(PIN_VALUE, value);
-                publish(evt);
+                event.update(getPortId(), value, false);
+                publish(event);
                 transitTo(WaitingForMessageState.class, b);
                 break;
         }
@@ -25,11 +25,11 @@ package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
 import com.ysoft.firmata.impl.fsm.EventType;
-import com.ysoft.firmata.impl.fsm.StateFactory;
 
 /**
  * This state parses capability response and fires an event that contains information about pins and their supported
@@ -38,10 +38,16 @@ import com.ysoft.firmata.impl.fsm.StateFactory;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingCapabilityResponseState extends AbstractState {
+public class ParsingCapabilityResponseState extends AbstractState implements ReusableState {
 
     private byte pinId;
 
+    @Override
+    public void reset() {
+        super.reset();
+        pinId = 0;
+    }
+
     @Override
     public void process(byte b) {
         if (b == END_SYSEX) {
@@ -57,10 +63,9 @@ public class ParsingCapabilityResponseState extends AbstractState {
             evt.setBodyItem(PIN_ID, pinId);
             evt.setBodyItem(PIN_SUPPORTED_MODES, supportedModes);
             publish(evt);
-            StateFactory stateFactory = getFiniteStateMashine().getStateFactory();
-            ParsingCapabilityResponseState nextState = stateFactory.createState(ParsingCapabilityResponseState.class, b);
-            nextState.setPinId(++pinId);
-            transitTo(nextState);
+            // capabilities of the next pin follow in the same state
+            clearBuffer();
+            pinId++;
         } else {
             bufferize(b);
         }
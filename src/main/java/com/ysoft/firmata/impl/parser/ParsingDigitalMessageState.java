@@ -24,17 +24,16 @@
 
 package com.ysoft.firmata.impl.parser;
 
-import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
- * This state parses digital message and fires an event that contains
- * information about the state of each pin of the port where state of at least
- * one pin has changed.<br/>
+ * This state parses digital message and fires a single
+ * {@link DigitalPortEvent} that contains information about the state of each
+ * pin of the port where state of at least one pin has changed.<br/>
  * After receiving the last byte, the state transfers FSM to
  * {@link WaitingForMessageState}.<br/>
  * When digital input of particular pin has been changed, Firmata transmits
@@ -44,14 +43,22 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingDigitalMessageState extends AbstractState {
+public class ParsingDigitalMessageState extends AbstractState implements ReusableState {
 
     private int  counter, value;
+    private final DigitalPortEvent event = new DigitalPortEvent();
 
     private int getPortId() {
         return getTransitionByte() & 0x0F;
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        counter = 0;
+        value = 0;
+    }
+
     @Override
     public void process(byte b) {
         switch (counter) {
@@ -61,13 +68,8 @@ public class ParsingDigitalMessageState extends AbstractState {
                 break;
             case 1:
                 value |= b << 7;
-                int pinId = getPortId() * 8;
-                for (int i = 0; i < 8; i++) {
-                    Event evt = new Event(DIGITAL_MESSAGE_RESPONSE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-                    evt.setBodyItem(PIN_ID, pinId + i);
-                    evt.setBodyItem(PIN_VALUE, (value >>> i) & 0x01);
-                    publish(evt);
-                }
+                event.update(getPortId(), value);
+                publish(event);
                 transitTo(WaitingForMessageState.class, b);
                 break;
         }
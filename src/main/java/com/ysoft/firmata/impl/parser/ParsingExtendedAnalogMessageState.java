@@ -24,11 +24,10 @@
 
 package com.ysoft.firmata.impl.parser;
 
-import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
  * This state parses extended analog state message and fires an event that
@@ -41,21 +40,20 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingExtendedAnalogMessageState extends AbstractState {
+public class ParsingExtendedAnalogMessageState extends AbstractState implements ReusableState {
+
+    private final AnalogMessageEvent event = new AnalogMessageEvent();
 
     @Override
     public void process(byte b) {
         if (b == END_SYSEX) {
-            byte[] buffer = getBuffer();
-            int pinId = buffer[0];
-            long value = buffer[1];
-            for (int i = 2; i < buffer.length; i++) {
-                value |= buffer[i] << 7 * (i - 1);
+            int pinId = getBufferedByte(0);
+            long value = getBufferedByte(1);
+            for (int i = 2; i < getBufferLength(); i++) {
+                value |= getBufferedByte(i) << 7 * (i - 1);
             }
-            Event evt = new Event(ANALOG_MESSAGE_RESPONSE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-            evt.setBodyItem(PIN_ID, pinId);
-            evt.setBodyItem(PIN_VALUE, value);
-            publish(evt);
+            event.update(pinId, value, true);
+            publish(event);
             transitTo(WaitingForMessageState.class, b);
         } else {
             bufferize(b);
@@ -26,6 +26,7 @@ package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
 import com.ysoft.firmata.impl.fsm.EventType;
@@ -38,7 +39,7 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingFirmwareMessageState extends AbstractState {
+public class ParsingFirmwareMessageState extends AbstractState implements ReusableState {
 
     @Override
     public void process(byte b) {
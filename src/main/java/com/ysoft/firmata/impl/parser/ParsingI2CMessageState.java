@@ -24,17 +24,18 @@
 package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.AbstractState;
-import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
  * This class parses inbound I2C messages and publishes them when they are complete.
  *
  * @author William Reichardt
  */
-public class ParsingI2CMessageState extends AbstractState {
+public class ParsingI2CMessageState extends AbstractState implements ReusableState {
+
+    private final I2CReplyEvent event = new I2CReplyEvent();
 
     /*
      * /* I2C reply
@@ -58,10 +59,7 @@ public class ParsingI2CMessageState extends AbstractState {
             byte register = buffer[1];
             byte[] message = new byte[buffer.length - 2];
             System.arraycopy(buffer, 2, message, 0, buffer.length - 2);
-            Event event = new Event(I2C_MESSAGE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-            event.setBodyItem(I2C_ADDRESS, address);
-            event.setBodyItem(I2C_REGISTER, register);
-            event.setBodyItem(I2C_MESSAGE, message);
+            event.update(address, register, message);
             transitTo(WaitingForMessageState.class, b);
             publish(event);
         } else {
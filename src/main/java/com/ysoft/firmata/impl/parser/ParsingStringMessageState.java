@@ -26,22 +26,22 @@ package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.FirmataUtils;
 import com.ysoft.firmata.impl.fsm.AbstractState;
-import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingStringMessageState extends AbstractState {
+public class ParsingStringMessageState extends AbstractState implements ReusableState {
+
+    private final StringMessageEvent event = new StringMessageEvent();
 
     @Override
     public void process(byte b) {
         if (b == END_SYSEX) {
             String value = new String(FirmataUtils.decodeBytes(getBuffer()));
-            Event event = new Event(STRING_MESSAGE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-            event.setBodyItem(STRING_MESSAGE, value);
+            event.update(value);
             transitTo(WaitingForMessageState.class, b);
             publish(event);
         } else {
@@ -25,13 +25,11 @@
 package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import com.ysoft.firmata.impl.fsm.State;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
 
 /**
@@ -42,25 +40,26 @@ import static com.ysoft.firmata.impl.parser.FirmataToken.*;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingSysexMessageState extends AbstractState {
+public class ParsingSysexMessageState extends AbstractState implements ReusableState {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ParsingSysexMessageState.class);
-    private static final Map<Byte, Class<? extends State>> STATIC_STATES;
+    // states of the standard sysex commands indexed by the command byte
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends State>[] STATIC_STATES = (Class<? extends State>[]) new Class<?>[128];
     
     static {
-        STATIC_STATES = new HashMap<>();
-        STATIC_STATES.put(REPORT_FIRMWARE, ParsingFirmwareMessageState.class);
-        STATIC_STATES.put(EXTENDED_ANALOG, ParsingExtendedAnalogMessageState.class);
-        STATIC_STATES.put(CAPABILITY_RESPONSE, ParsingCapabilityResponseState.class);
-        STATIC_STATES.put(ANALOG_MAPPING_RESPONSE, ParsingAnalogMappingState.class);
-        STATIC_STATES.put(PIN_STATE_RESPONSE, PinStateParsingState.class);
-        STATIC_STATES.put(STRING_DATA, ParsingStringMessageState.class);
-        STATIC_STATES.put(I2C_REPLY,ParsingI2CMessageState.class);
+        STATIC_STATES[REPORT_FIRMWARE] = ParsingFirmwareMessageState.class;
+        STATIC_STATES[EXTENDED_ANALOG] = ParsingExtendedAnalogMessageState.class;
+        STATIC_STATES[CAPABILITY_RESPONSE] = ParsingCapabilityResponseState.class;
+        STATIC_STATES[ANALOG_MAPPING_RESPONSE] = ParsingAnalogMappingState.class;
+        STATIC_STATES[PIN_STATE_RESPONSE] = PinStateParsingState.class;
+        STATIC_STATES[STRING_DATA] = ParsingStringMessageState.class;
+        STATIC_STATES[I2C_REPLY] = ParsingI2CMessageState.class;
     }
 
     @Override
     public void process(byte b) {
-        Class<? extends State> nextState = STATIC_STATES.get(b);
+        Class<? extends State> nextState = b >= 0 ? STATIC_STATES[b] : null;
         if (nextState == null) {
             LOGGER.debug("Sysex command {} not found in static, trying custom sysex commands.", b);
             nextState = getDeviceConfiguration().getCustomSysexState(b);
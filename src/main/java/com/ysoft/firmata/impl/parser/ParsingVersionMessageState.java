@@ -26,6 +26,7 @@ package com.ysoft.firmata.impl.parser;
 
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
 import com.ysoft.firmata.impl.fsm.EventType;
@@ -37,10 +38,17 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class ParsingVersionMessageState extends AbstractState {
+public class ParsingVersionMessageState extends AbstractState implements ReusableState {
 
     private int counter, major;
 
+    @Override
+    public void reset() {
+        super.reset();
+        counter = 0;
+        major = 0;
+    }
+
     @Override
     public void process(byte b) {
         if (counter == 0) {
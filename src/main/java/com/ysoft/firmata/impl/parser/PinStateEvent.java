@@ -0,0 +1,66 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.EventType;
+import java.util.Map;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Event of receiving the current mode and value of a pin.<br/>
+ * The parser fires the same instance for every pin state response, so the
+ * event is valid only while it is being handled.
+ */
+public class PinStateEvent extends Event {
+
+    private byte pinId;
+    private byte mode;
+    private long value;
+
+    public PinStateEvent() {
+        super(PIN_STATE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
+    }
+
+    void update(byte pinId, byte mode, long value) {
+        this.pinId = pinId;
+        this.mode = mode;
+        this.value = value;
+        updateTimestamp();
+    }
+
+    public byte getPinId() {
+        return pinId;
+    }
+
+    public byte getMode() {
+        return mode;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> getBody() {
+        Map<String, Object> body = super.getBody();
+        body.put(PIN_ID, pinId);
+        body.put(PIN_MODE, mode);
+        body.put(PIN_VALUE, value);
+        return body;
+    }
+
+    @Override
+    public Object getBodyItem(String key) {
+        switch (key) {
+            case PIN_ID:
+                return pinId;
+            case PIN_MODE:
+                return mode;
+            case PIN_VALUE:
+                return value;
+            default:
+                return super.getBodyItem(key);
+        }
+    }
+
+}
@@ -24,11 +24,10 @@
 
 package com.ysoft.firmata.impl.parser;
 
-import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
-import com.ysoft.firmata.impl.fsm.EventType;
 
 /**
  * This state parses the pin state message.<br/>
@@ -37,21 +36,19 @@ import com.ysoft.firmata.impl.fsm.EventType;
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class PinStateParsingState extends AbstractState {
+public class PinStateParsingState extends AbstractState implements ReusableState {
+
+    private final PinStateEvent event = new PinStateEvent();
 
     @Override
     public void process(byte b) {
         if (b == END_SYSEX) {
-            byte[] buffer = getBuffer();
-            Event evt = new Event(PIN_STATE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
-            evt.setBodyItem(PIN_ID, buffer[0]);
-            evt.setBodyItem(PIN_MODE, buffer[1]);
             long value = 0;
-            for (int i = 2; i < buffer.length; i++) {
-                value |= (buffer[i] << ((i - 2) * 7));
+            for (int i = 2; i < getBufferLength(); i++) {
+                value |= (getBufferedByte(i) << ((i - 2) * 7));
             }
-            evt.setBodyItem(PIN_VALUE, value);
-            publish(evt);
+            event.update(getBufferedByte(0), getBufferedByte(1), value);
+            publish(event);
             transitTo(WaitingForMessageState.class, b);
         } else {
             bufferize(b);
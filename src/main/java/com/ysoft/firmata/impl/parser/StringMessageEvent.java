@@ -0,0 +1,43 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.EventType;
+import java.util.Map;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Event of receiving a text message from the board.<br/>
+ * The parser fires the same instance for every message, so the event is valid
+ * only while it is being handled.
+ */
+public class StringMessageEvent extends Event {
+
+    private String message;
+
+    public StringMessageEvent() {
+        super(STRING_MESSAGE, EventType.FIRMATA_MESSAGE_EVENT_TYPE);
+    }
+
+    void update(String message) {
+        this.message = message;
+        updateTimestamp();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public Map<String, Object> getBody() {
+        Map<String, Object> body = super.getBody();
+        body.put(STRING_MESSAGE, message);
+        return body;
+    }
+
+    @Override
+    public Object getBodyItem(String key) {
+        return STRING_MESSAGE.equals(key) ? message : super.getBodyItem(key);
+    }
+
+}
@@ -27,6 +27,8 @@ package com.ysoft.firmata.impl.parser;
 import com.ysoft.firmata.impl.FirmataDevice;
 import com.ysoft.firmata.impl.fsm.Event;
 import com.ysoft.firmata.impl.fsm.AbstractState;
+import com.ysoft.firmata.impl.fsm.BulkState;
+import com.ysoft.firmata.impl.fsm.ReusableState;
 import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
 
 import static com.ysoft.firmata.impl.parser.FirmataToken.*;
@@ -37,11 +39,46 @@ import com.ysoft.firmata.impl.fsm.EventType;
  * The state is waiting for command and determines to which state transfers to
  * parse further data. It extracts additional data from a command byte, when the
  * command contains that, and hands it to the next state.<br/>
- * The state skips unknown command bytes throwing events with error messages.
+ * The state skips unknown command bytes throwing events with error messages.<br/>
+ * Runs of complete analog and digital messages are decoded right in this state
+ * without transitions, as those make up most of the traffic of a running
+ * board.
  *
  * @author Oleg Kurbatov &lt;o.v.kurbatov@gmail.com&gt;
  */
-public class WaitingForMessageState extends AbstractState {
+public class WaitingForMessageState extends AbstractState implements ReusableState, BulkState {
+
+    private final AnalogMessageEvent analogEvent = new AnalogMessageEvent();
+    private final DigitalPortEvent digitalEvent = new DigitalPortEvent();
+
+    @Override
+    public int process(byte[] buffer, int offset, int length) {
+        int i = offset;
+        int lastMessage = offset + length - 3;
+        while (i <= lastMessage) {
+            byte command = buffer[i];
+            byte lsb = buffer[i + 1];
+            byte msb = buffer[i + 2];
+            if ((lsb | msb) < 0) {
+                break; // not a complete message, one of data bytes is a command
+            }
+            int value = lsb | (msb << 7);
+            switch (command & 0xF0) {
+                case DIGITAL_MESSAGE & 0xF0:
+                    digitalEvent.update(command & 0x0F, value);
+                    publish(digitalEvent);
+                    break;
+                case ANALOG_MESSAGE & 0xF0:
+                    analogEvent.update(command & 0x0F, value, false);
+                    publish(analogEvent);
+                    break;
+                default:
+                    return i - offset;
+            }
+            i += 3;
+        }
+        return i - offset;
+    }
 
     @Override
     public void process(byte b) {
@@ -0,0 +1,36 @@
+package com.ysoft.firmata.impl.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable piece of received data travelling through a
+ * {@link ByteChunkRing}. The data occupies the buffer from 0 to its
+ * position.
+ */
+public class ByteChunk {
+
+    private final ByteBuffer buffer;
+
+    ByteChunk(int size, boolean direct) {
+        buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Returns the buffer of the chunk.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes held by the chunk.
+     *
+     * @return number of bytes
+     */
+    public int getLength() {
+        return buffer.position();
+    }
+
+}
@@ -0,0 +1,360 @@
+package com.ysoft.firmata.impl.queue;
+
+import com.ysoft.firmata.OverflowPolicy;
+import com.ysoft.firmata.WaitStrategy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer/single-consumer ring of pooled {@link ByteChunk}s
+ * that hands received data from a reader thread over to a parser thread.<br/>
+ * The producer fills the chunk obtained by {@link #acquire()} and passes it
+ * to {@link #publish(ByteChunk)}. The consumer obtains chunks by
+ * {@link #take()} and gives them back by {@link #release(ByteChunk)} when
+ * done. Released chunks are recycled, so no memory is allocated in the steady
+ * state as long as the consumer holds one chunk at a time.<br/>
+ * When the ring is full, the producer follows the {@link OverflowPolicy}.
+ * Overflows are counted, so a slow consumer can be observed.
+ */
+public class ByteChunkRing {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int capacity;
+    private final int chunkSize;
+    private final boolean direct;
+    private final OverflowPolicy overflowPolicy;
+    private final WaitStrategy waitStrategy;
+
+    private final ByteChunk[] slots;
+    private final int mask;
+    // index of the next chunk to be taken, advanced by the consumer and by the producer dropping the oldest chunk
+    private final AtomicLong head = new AtomicLong();
+    // index of the next slot to be published, advanced by the producer only
+    private volatile long tail;
+
+    // released chunks travel back to the producer through the second ring
+    private final ByteChunk[] freeSlots;
+    private final int freeMask;
+    private volatile long freeHead;
+    private volatile long freeTail;
+    private ByteChunk spare;
+    private ByteChunk dropped;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final AtomicInteger blockedParties = new AtomicInteger();
+
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong allocatedChunks = new AtomicLong();
+    private final AtomicLong discardedChunks = new AtomicLong();
+
+    /**
+     * Constructs the ring.
+     *
+     * @param capacity the number of chunks the ring can hold, rounded up to a
+     * power of two
+     * @param chunkSize size of a chunk in bytes
+     * @param direct whether chunks use direct buffers
+     * @param overflowPolicy what to do with new chunks when the ring is full
+     * @param waitStrategy how the parties wait for each other
+     */
+    public ByteChunkRing(int capacity, int chunkSize, boolean direct, OverflowPolicy overflowPolicy, WaitStrategy waitStrategy) {
+        if (capacity < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Capacity and chunk size must be positive");
+        }
+        this.capacity = ceilingPowerOfTwo(capacity);
+        this.chunkSize = chunkSize;
+        this.direct = direct;
+        this.overflowPolicy = overflowPolicy;
+        this.waitStrategy = waitStrategy;
+        slots = new ByteChunk[this.capacity];
+        mask = this.capacity - 1;
+        // every chunk is either in a slot, with the producer, with the consumer or free, so the pool holds them all
+        int pooled = this.capacity + 2;
+        freeSlots = new ByteChunk[ceilingPowerOfTwo(pooled)];
+        freeMask = freeSlots.length - 1;
+        for (int i = 0; i < pooled; i++) {
+            freeSlots[i] = newChunk();
+        }
+        freeTail = pooled;
+    }
+
+    /**
+     * Returns an empty chunk for the producer to fill. The same chunk is
+     * returned until it is published.
+     *
+     * @return the chunk
+     */
+    public ByteChunk acquire() {
+        if (spare == null && dropped != null) {
+            spare = dropped;
+            dropped = null;
+        } else if (spare == null) {
+            long h = freeHead;
+            if (h < freeTail) {
+                spare = freeSlots[(int) (h & freeMask)];
+                freeHead = h + 1;
+            } else {
+                spare = newChunk();
+            }
+        }
+        return spare;
+    }
+
+    /**
+     * Publishes the chunk obtained by {@link #acquire()} to the consumer.
+     *
+     * @param chunk the filled chunk
+     * @return true if the chunk has been published, false if it has been
+     * rejected because the ring is full or the producer has been interrupted
+     * while waiting
+     */
+    public boolean publish(ByteChunk chunk) {
+        long t = tail;
+        if (t - head.get() >= capacity) {
+            overflows.incrementAndGet();
+        }
+        while (t - head.get() >= capacity) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    long h = head.get();
+                    ByteChunk oldest = slots[(int) (h & mask)];
+                    if (h < t && head.compareAndSet(h, h + 1)) {
+                        droppedChunks.incrementAndGet();
+                        droppedBytes.addAndGet(oldest.getLength());
+                        oldest.getBuffer().clear();
+                        recycle(oldest);
+                    }
+                    break;
+                case FAIL_FAST:
+                    droppedChunks.incrementAndGet();
+                    droppedBytes.addAndGet(chunk.getLength());
+                    chunk.getBuffer().clear();
+                    return false;
+                default:
+                    try {
+                        awaitSpace(t);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        droppedChunks.incrementAndGet();
+                        droppedBytes.addAndGet(chunk.getLength());
+                        chunk.getBuffer().clear();
+                        return false;
+                    }
+            }
+        }
+        slots[(int) (t & mask)] = chunk;
+        tail = t + 1;
+        if (spare == chunk) {
+            spare = null;
+        }
+        signal();
+        return true;
+    }
+
+    /**
+     * Takes the oldest published chunk. Waits according to the
+     * {@link WaitStrategy} when the ring is empty.
+     *
+     * @return the chunk
+     * @throws InterruptedException when the consumer is interrupted while
+     * waiting
+     */
+    public ByteChunk take() throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            long h = head.get();
+            if (h < tail) {
+                // the chunk is read before the slot is claimed, the producer reuses the slot only after that
+                ByteChunk chunk = slots[(int) (h & mask)];
+                if (head.compareAndSet(h, h + 1)) {
+                    signal();
+                    return chunk;
+                }
+            } else if (waitStrategy == WaitStrategy.BLOCKING) {
+                awaitData(h);
+            } else {
+                idle(attempt++);
+            }
+        }
+    }
+
+    /**
+     * Gives the chunk obtained by {@link #take()} back to the ring. The pool
+     * has room for every chunk the ring can have in use. A chunk that does
+     * not fit, because the consumer has held several chunks and the producer
+     * has allocated more of them meanwhile, is left to the garbage collector
+     * and counted.
+     *
+     * @param chunk the processed chunk
+     */
+    public void release(ByteChunk chunk) {
+        chunk.getBuffer().clear();
+        long t = freeTail;
+        if (t - freeHead < freeSlots.length) {
+            freeSlots[(int) (t & freeMask)] = chunk;
+            freeTail = t + 1;
+        } else {
+            discardedChunks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of chunks waiting for the consumer.
+     *
+     * @return the number of chunks in the ring
+     */
+    public int size() {
+        return (int) Math.max(0, tail - head.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Returns how many times the producer has found the ring full.
+     *
+     * @return the number of overflows
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * Returns the number of chunks discarded because of overflows.
+     *
+     * @return the number of dropped chunks
+     */
+    public long getDroppedChunkCount() {
+        return droppedChunks.get();
+    }
+
+    /**
+     * Returns the number of bytes discarded because of overflows.
+     *
+     * @return the number of dropped bytes
+     */
+    public long getDroppedByteCount() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Returns the number of chunks allocated so far. The number stays
+     * constant in the steady state.
+     *
+     * @return the number of allocated chunks
+     */
+    public long getAllocatedChunkCount() {
+        return allocatedChunks.get();
+    }
+
+    /**
+     * Returns the number of released chunks that have not fit in the pool.
+     * The number stays zero while the consumer holds one chunk at a time.
+     *
+     * @return the number of discarded chunks
+     */
+    public long getDiscardedChunkCount() {
+        return discardedChunks.get();
+    }
+
+    private ByteChunk newChunk() {
+        allocatedChunks.incrementAndGet();
+        return new ByteChunk(chunkSize, direct);
+    }
+
+    /**
+     * Keeps a chunk dropped by the producer for the next {@link #acquire()}.
+     */
+    private void recycle(ByteChunk chunk) {
+        if (dropped == null) {
+            dropped = chunk;
+        }
+    }
+
+    private void awaitSpace(long t) throws InterruptedException {
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            blockedParties.incrementAndGet();
+            lock.lock();
+            try {
+                while (t - head.get() >= capacity) {
+                    changed.await();
+                }
+            } finally {
+                lock.unlock();
+                blockedParties.decrementAndGet();
+            }
+        } else {
+            int attempt = 0;
+            while (t - head.get() >= capacity) {
+                idle(attempt++);
+            }
+        }
+    }
+
+    private void awaitData(long h) throws InterruptedException {
+        blockedParties.incrementAndGet();
+        lock.lock();
+        try {
+            while (h >= tail) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+            blockedParties.decrementAndGet();
+        }
+    }
+
+    private void signal() {
+        if (blockedParties.get() > 0) {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void idle(int attempt) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (waitStrategy == WaitStrategy.BUSY_SPIN || attempt < SPIN_TRIES) {
+            return;
+        }
+        if (waitStrategy == WaitStrategy.YIELDING || attempt < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        int result = Integer.highestOneBit(value);
+        return result == value ? value : result << 1;
+    }
+
+}
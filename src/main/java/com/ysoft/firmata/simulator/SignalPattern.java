@@ -0,0 +1,69 @@
+package com.ysoft.firmata.simulator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Shape of the values a {@link VirtualBoard} reports for its input pins.
+ */
+public enum SignalPattern {
+
+    /**
+     * The middle of the range all the time.
+     */
+    CONSTANT {
+        @Override
+        public int sample(int pin, long tick, int maxValue) {
+            return (maxValue + 1) / 2;
+        }
+    },
+    /**
+     * Rises by one every tick and wraps around. Pins are shifted against each
+     * other.
+     */
+    RAMP {
+        @Override
+        public int sample(int pin, long tick, int maxValue) {
+            return (int) ((tick + pin) % (maxValue + 1));
+        }
+    },
+    /**
+     * Alternates between the minimum and the maximum every tick. Neighbouring
+     * pins are in opposite phases.
+     */
+    SQUARE {
+        @Override
+        public int sample(int pin, long tick, int maxValue) {
+            return ((tick + pin) & 1) == 0 ? 0 : maxValue;
+        }
+    },
+    /**
+     * Sine wave with a period of 100 ticks.
+     */
+    SINE {
+        @Override
+        public int sample(int pin, long tick, int maxValue) {
+            double phase = 2 * Math.PI * ((tick + pin * 10) % 100) / 100;
+            return (int) Math.round((Math.sin(phase) + 1) * maxValue / 2);
+        }
+    },
+    /**
+     * Uniformly distributed random values.
+     */
+    RANDOM {
+        @Override
+        public int sample(int pin, long tick, int maxValue) {
+            return ThreadLocalRandom.current().nextInt(maxValue + 1);
+        }
+    };
+
+    /**
+     * Returns the value of the pin in the tick.
+     *
+     * @param pin index of the pin (or analog channel)
+     * @param tick number of the reporting tick
+     * @param maxValue the highest value the pin can have
+     * @return the value in range from 0 to maxValue
+     */
+    public abstract int sample(int pin, long tick, int maxValue);
+
+}
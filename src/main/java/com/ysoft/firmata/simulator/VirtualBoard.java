@@ -0,0 +1,598 @@
+package com.ysoft.firmata.simulator;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+import com.ysoft.firmata.transport.LoopbackTransport;
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process board speaking the device side of Firmata protocol.<br/>
+ * The board sits on one end of a {@link LoopbackTransport} pair, the other
+ * end is given to the device under test:
+ * <pre>
+ * VirtualBoard board = new VirtualBoard().setPinCount(128).setReportRate(1000);
+ * IODevice device = new FirmataDevice(new DeviceConfiguration(board.getClientTransport()));
+ * board.start();
+ * device.start();
+ * </pre>
+ * The board answers firmware, capability, pin state and analog mapping
+ * queries, keeps track of pin modes and values set by the client and echoes
+ * I2C writes back on I2C reads.<br/>
+ * When started, it streams reports of all the channels and ports the client
+ * has enabled at the configured rate: every tick, an analog message for each
+ * reported analog channel and a digital message for each reported port (with
+ * values of the pins in input modes) are written at once. The values follow
+ * the configured {@link SignalPattern}s. Reports are sent every tick, even
+ * when the values do not change, so the client can be loaded at rates no
+ * physical board produces.<br/>
+ * Pin count is limited to 128 and the number of analog channels to 16 by the
+ * protocol.
+ */
+public class VirtualBoard implements TransportListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualBoard.class);
+
+    private static final int MAX_PINS = 128;
+    private static final int MAX_ANALOG_CHANNELS = 16;
+    private static final int ANALOG_RESOLUTION = 10;
+    private static final int PWM_RESOLUTION = 8;
+
+    private final LoopbackTransport transport;
+
+    private String firmwareName = "VirtualBoard";
+    private int majorVersion = 2;
+    private int minorVersion = 5;
+    private int pinCount = 20;
+    private int analogPinCount = 6;
+    private int reportRate = 100;
+    private SignalPattern analogPattern = SignalPattern.RAMP;
+    private SignalPattern digitalPattern = SignalPattern.SQUARE;
+
+    private volatile AtomicIntegerArray pinModes;
+    private volatile AtomicIntegerArray pinValues;
+    private final AtomicLong analogReporting = new AtomicLong();
+    private final AtomicLong digitalReporting = new AtomicLong();
+    private final Set<Integer> continuousReads = ConcurrentHashMap.newKeySet();
+    private final byte[][] i2cMemory = new byte[128][];
+    private volatile int samplingInterval = 19;
+
+    // parsing of the client's messages, guarded by the board
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private byte[] message = new byte[64];
+    private int messageLength;
+    private int expectedLength;
+    private boolean inSysex;
+
+    private volatile Thread streamer;
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong reports = new AtomicLong();
+
+    /**
+     * Creates the board together with a loopback pair. The device under test
+     * connects to {@link #getClientTransport()}.
+     */
+    public VirtualBoard() {
+        this(new LoopbackTransport().getPeer());
+    }
+
+    /**
+     * Creates the board on the end of a loopback pair. The device under test
+     * connects to the peer of the end.
+     *
+     * @param transport the board's end of the pair
+     */
+    public VirtualBoard(LoopbackTransport transport) {
+        this.transport = transport;
+        transport.setTransportListener(this);
+    }
+
+    /**
+     * Returns the end of the loopback pair the device under test uses.
+     *
+     * @return the client transport
+     */
+    public Transport getClientTransport() {
+        return transport.getPeer();
+    }
+
+    /**
+     * Sets the name and the version the board reports as its firmware.
+     *
+     * @param name name of the firmware
+     * @param major major version
+     * @param minor minor version
+     * @return this board
+     */
+    public VirtualBoard setFirmware(String name, int major, int minor) {
+        this.firmwareName = name;
+        this.majorVersion = major;
+        this.minorVersion = minor;
+        return this;
+    }
+
+    /**
+     * Sets the number of pins of the board.
+     *
+     * @param pinCount number of pins, up to 128
+     * @return this board
+     */
+    public VirtualBoard setPinCount(int pinCount) {
+        if (pinCount < 1 || pinCount > MAX_PINS) {
+            throw new IllegalArgumentException("Pin count must be between 1 and " + MAX_PINS);
+        }
+        this.pinCount = pinCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of analog-capable pins. They are the last pins of the
+     * board, as on Arduino.
+     *
+     * @param analogPinCount number of analog pins, up to 16
+     * @return this board
+     */
+    public VirtualBoard setAnalogPinCount(int analogPinCount) {
+        if (analogPinCount < 0 || analogPinCount > MAX_ANALOG_CHANNELS) {
+            throw new IllegalArgumentException("Analog pin count must be between 0 and " + MAX_ANALOG_CHANNELS);
+        }
+        this.analogPinCount = analogPinCount;
+        return this;
+    }
+
+    /**
+     * Sets how many times per second the reports are sent.
+     *
+     * @param reportRate number of ticks per second, 0 stops streaming
+     * @return this board
+     */
+    public VirtualBoard setReportRate(int reportRate) {
+        if (reportRate < 0) {
+            throw new IllegalArgumentException("Report rate must not be negative");
+        }
+        this.reportRate = reportRate;
+        return this;
+    }
+
+    public VirtualBoard setAnalogPattern(SignalPattern analogPattern) {
+        if (analogPattern == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.analogPattern = analogPattern;
+        return this;
+    }
+
+    public VirtualBoard setDigitalPattern(SignalPattern digitalPattern) {
+        if (digitalPattern == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        this.digitalPattern = digitalPattern;
+        return this;
+    }
+
+    /**
+     * Opens the board's end of the transport and starts streaming reports.
+     *
+     * @throws IOException when the transport cannot be opened
+     * @throws IllegalStateException when there are more analog pins than pins
+     */
+    public synchronized void start() throws IOException {
+        if (analogPinCount > pinCount) {
+            throw new IllegalStateException("Board has more analog pins than pins");
+        }
+        int analogStart = Math.max(0, pinCount - analogPinCount);
+        AtomicIntegerArray modes = new AtomicIntegerArray(pinCount);
+        for (int i = 0; i < pinCount; i++) {
+            modes.set(i, i >= analogStart ? PIN_MODE_ANALOG : PIN_MODE_OUTPUT);
+        }
+        pinModes = modes;
+        pinValues = new AtomicIntegerArray(pinCount);
+        transport.open();
+        if (reportRate > 0) {
+            Thread t = new Thread(this::stream, "firmata-simulator-thread");
+            t.setDaemon(true);
+            streamer = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Stops streaming and closes the board's end of the transport.
+     *
+     * @throws IOException when the transport cannot be closed
+     */
+    public synchronized void stop() throws IOException {
+        Thread t = streamer;
+        streamer = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        transport.close();
+    }
+
+    /**
+     * Returns the number of reporting ticks so far.
+     *
+     * @return the number of ticks
+     */
+    public long getTickCount() {
+        return ticks.get();
+    }
+
+    /**
+     * Returns the number of analog, digital and I2C reports sent so far.
+     *
+     * @return the number of reports
+     */
+    public long getReportCount() {
+        return reports.get();
+    }
+
+    /**
+     * Returns the value the client has set to the pin.
+     *
+     * @param pin index of the pin
+     * @return the value
+     */
+    public int getPinValue(int pin) {
+        return pinValues.get(pin);
+    }
+
+    /**
+     * Returns the mode the client has set to the pin.
+     *
+     * @param pin index of the pin
+     * @return the mode token
+     */
+    public byte getPinMode(int pin) {
+        return (byte) pinModes.get(pin);
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    @Override
+    public synchronized void onDataAvailable(Transport transport) {
+        try {
+            while (transport.read(readBuffer) > 0) {
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    process(readBuffer.get());
+                }
+                readBuffer.clear();
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Board cannot read from client", ex);
+        }
+    }
+
+    private void process(byte b) throws IOException {
+        if (inSysex) {
+            if (b == END_SYSEX) {
+                inSysex = false;
+                handleSysex();
+            } else {
+                append(b);
+            }
+        } else if (b == START_SYSEX) {
+            inSysex = true;
+            messageLength = 0;
+        } else if ((b & 0x80) != 0) {
+            messageLength = 0;
+            append(b);
+            expectedLength = commandLength(b);
+            if (expectedLength == 1) {
+                handleCommand();
+            }
+        } else if (messageLength > 0 && messageLength < expectedLength) {
+            append(b);
+            if (messageLength == expectedLength) {
+                handleCommand();
+                messageLength = 0;
+            }
+        }
+    }
+
+    private static int commandLength(byte command) {
+        int c = command & 0xF0;
+        if (c == (DIGITAL_MESSAGE & 0xF0) || c == (ANALOG_MESSAGE & 0xF0)) {
+            return 3;
+        }
+        if (c == (REPORT_ANALOG & 0xF0) || c == (REPORT_DIGITAL & 0xF0)) {
+            return 2;
+        }
+        if (command == SET_PIN_MODE || command == SET_DIGITAL_PIN_VALUE) {
+            return 3;
+        }
+        return 1;
+    }
+
+    private void append(byte b) {
+        if (messageLength == message.length) {
+            message = Arrays.copyOf(message, message.length * 2);
+        }
+        message[messageLength++] = b;
+    }
+
+    private void handleCommand() throws IOException {
+        byte command = message[0];
+        int c = command & 0xF0;
+        int channel = command & 0x0F;
+        if (command == REPORT_VERSION) {
+            write(new byte[]{REPORT_VERSION, (byte) majorVersion, (byte) minorVersion});
+        } else if (command == SET_PIN_MODE) {
+            setPinMode(message[1], message[2]);
+        } else if (command == SET_DIGITAL_PIN_VALUE) {
+            setPinValue(message[1], message[2]);
+        } else if (c == (REPORT_ANALOG & 0xF0)) {
+            setFlag(analogReporting, channel, message[1] != 0);
+        } else if (c == (REPORT_DIGITAL & 0xF0)) {
+            setFlag(digitalReporting, channel, message[1] != 0);
+        } else if (c == (DIGITAL_MESSAGE & 0xF0)) {
+            int portValue = (message[1] & 0x7F) | ((message[2] & 0x7F) << 7);
+            for (int i = 0; i < 8; i++) {
+                int pin = channel * 8 + i;
+                if (pin < pinCount && pinModes.get(pin) == PIN_MODE_OUTPUT) {
+                    pinValues.set(pin, (portValue >>> i) & 1);
+                }
+            }
+        } else if (c == (ANALOG_MESSAGE & 0xF0)) {
+            setPinValue(channel, (message[1] & 0x7F) | ((message[2] & 0x7F) << 7));
+        }
+    }
+
+    private void handleSysex() throws IOException {
+        if (messageLength == 0) {
+            return;
+        }
+        switch (message[0]) {
+            case REPORT_FIRMWARE:
+                write(firmwareResponse());
+                break;
+            case CAPABILITY_QUERY:
+                write(capabilityResponse());
+                break;
+            case PIN_STATE_QUERY:
+                if (message[1] < pinCount) {
+                    write(pinStateResponse(message[1]));
+                }
+                break;
+            case ANALOG_MAPPING_QUERY:
+                write(analogMappingResponse());
+                break;
+            case EXTENDED_ANALOG:
+                int value = 0;
+                for (int i = 2; i < messageLength; i++) {
+                    value |= (message[i] & 0x7F) << (7 * (i - 2));
+                }
+                setPinValue(message[1], value);
+                break;
+            case SAMPLING_INTERVAL:
+                samplingInterval = (message[1] & 0x7F) | ((message[2] & 0x7F) << 7);
+                break;
+            case I2C_REQUEST:
+                handleI2CRequest();
+                break;
+            default:
+                // I2C config, strings and custom messages are accepted silently
+        }
+    }
+
+    private void handleI2CRequest() throws IOException {
+        int address = message[1] & 0x7F;
+        int mode = message[2] & I2C_STOP_READ_CONTINUOUS;
+        byte[] data = new byte[(messageLength - 3) / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((message[3 + i * 2] & 0x7F) | ((message[4 + i * 2] & 0x01) << 7));
+        }
+        if (mode == I2C_WRITE) {
+            if (data.length > 0) {
+                byte[] memory = i2cMemory(address);
+                int start = data[0] & 0xFF;
+                for (int i = 1; i < data.length && start + i - 1 < memory.length; i++) {
+                    memory[start + i - 1] = data[i];
+                }
+            }
+        } else if (mode == I2C_STOP_READ_CONTINUOUS) {
+            if (data.length == 0) {
+                continuousReads.removeIf(key -> (key >>> 24) == address);
+            } else {
+                int register = data[0] & 0xFF;
+                continuousReads.removeIf(key -> (key >>> 16) == ((address << 8) | register));
+            }
+        } else if (data.length > 0) {
+            // the register is omitted when it is 0
+            int register = data.length > 1 ? data[0] & 0xFF : 0;
+            int length = data[data.length - 1] & 0xFF;
+            write(i2cReply(address, register, length));
+            if (mode == I2C_READ_CONTINUOUS) {
+                continuousReads.add(readKey(address, register, length));
+            }
+        }
+    }
+
+    private synchronized byte[] i2cMemory(int address) {
+        if (i2cMemory[address] == null) {
+            i2cMemory[address] = new byte[256];
+        }
+        return i2cMemory[address];
+    }
+
+    private static int readKey(int address, int register, int length) {
+        return (address << 24) | (register << 16) | length;
+    }
+
+    private void setPinMode(byte pin, byte mode) {
+        if (pin >= 0 && pin < pinCount) {
+            pinModes.set(pin, mode);
+        }
+    }
+
+    private void setPinValue(int pin, int value) {
+        if (pin >= 0 && pin < pinCount) {
+            pinValues.set(pin, value);
+        }
+    }
+
+    private static void setFlag(AtomicLong flags, int bit, boolean enable) {
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = flags.get();
+        } while (!flags.compareAndSet(current, enable ? current | mask : current & ~mask));
+    }
+
+    private byte[] firmwareResponse() {
+        byte[] name = firmwareName.getBytes();
+        byte[] result = new byte[5 + name.length * 2];
+        result[0] = START_SYSEX;
+        result[1] = REPORT_FIRMWARE;
+        result[2] = (byte) majorVersion;
+        result[3] = (byte) minorVersion;
+        for (int i = 0; i < name.length; i++) {
+            result[4 + i * 2] = (byte) (name[i] & 0x7F);
+            result[5 + i * 2] = (byte) ((name[i] >>> 7) & 0x01);
+        }
+        result[result.length - 1] = END_SYSEX;
+        return result;
+    }
+
+    private byte[] capabilityResponse() {
+        int analogStart = pinCount - analogPinCount;
+        ByteBuffer result = ByteBuffer.allocate(3 + pinCount * 11);
+        result.put(START_SYSEX).put(CAPABILITY_RESPONSE);
+        for (int i = 0; i < pinCount; i++) {
+            result.put(PIN_MODE_INPUT).put((byte) 1);
+            result.put(PIN_MODE_OUTPUT).put((byte) 1);
+            result.put(PIN_MODE_PULLUP).put((byte) 1);
+            if (i >= analogStart) {
+                result.put(PIN_MODE_ANALOG).put((byte) ANALOG_RESOLUTION);
+            } else {
+                result.put(PIN_MODE_PWM).put((byte) PWM_RESOLUTION);
+            }
+            result.put((byte) 0x7F);
+        }
+        result.put(END_SYSEX);
+        return Arrays.copyOf(result.array(), result.position());
+    }
+
+    private byte[] pinStateResponse(byte pin) {
+        int value = pinValues.get(pin);
+        return new byte[]{START_SYSEX, PIN_STATE_RESPONSE, pin, (byte) pinModes.get(pin),
+            (byte) (value & 0x7F), (byte) ((value >>> 7) & 0x7F), END_SYSEX};
+    }
+
+    private byte[] analogMappingResponse() {
+        int analogStart = pinCount - analogPinCount;
+        byte[] result = new byte[3 + pinCount];
+        result[0] = START_SYSEX;
+        result[1] = ANALOG_MAPPING_RESPONSE;
+        for (int i = 0; i < pinCount; i++) {
+            result[2 + i] = i >= analogStart ? (byte) (i - analogStart) : (byte) 0x7F;
+        }
+        result[result.length - 1] = END_SYSEX;
+        return result;
+    }
+
+    private byte[] i2cReply(int address, int register, int length) {
+        byte[] memory = i2cMemory(address);
+        byte[] result = new byte[7 + length * 2];
+        result[0] = START_SYSEX;
+        result[1] = I2C_REPLY;
+        result[2] = (byte) (address & 0x7F);
+        result[3] = (byte) ((address >>> 7) & 0x7F);
+        result[4] = (byte) (register & 0x7F);
+        result[5] = (byte) ((register >>> 7) & 0x7F);
+        for (int i = 0; i < length; i++) {
+            byte b = memory[(register + i) & 0xFF];
+            result[6 + i * 2] = (byte) (b & 0x7F);
+            result[7 + i * 2] = (byte) ((b >>> 7) & 0x01);
+        }
+        result[result.length - 1] = END_SYSEX;
+        return result;
+    }
+
+    private void write(byte[] data) throws IOException {
+        transport.write(data);
+    }
+
+    /**
+     * Sends reports every tick until interrupted.
+     */
+    private void stream() {
+        long period = TimeUnit.SECONDS.toNanos(1) / reportRate;
+        long next = System.nanoTime();
+        byte[] buffer = new byte[MAX_ANALOG_CHANNELS * 3 + MAX_PINS / 8 * 3];
+        int analogStart = pinCount - analogPinCount;
+        int maxAnalog = (1 << ANALOG_RESOLUTION) - 1;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long tick = ticks.getAndIncrement();
+                int length = 0;
+                int count = 0;
+                long analog = analogReporting.get();
+                for (int channel = 0; channel < analogPinCount; channel++) {
+                    if ((analog & (1L << channel)) != 0 && pinModes.get(analogStart + channel) == PIN_MODE_ANALOG) {
+                        int value = analogPattern.sample(channel, tick, maxAnalog);
+                        buffer[length++] = (byte) (ANALOG_MESSAGE | channel);
+                        buffer[length++] = (byte) (value & 0x7F);
+                        buffer[length++] = (byte) ((value >>> 7) & 0x7F);
+                        count++;
+                    }
+                }
+                long digital = digitalReporting.get();
+                for (int port = 0; port * 8 < pinCount; port++) {
+                    if ((digital & (1L << port)) != 0) {
+                        int value = 0;
+                        for (int i = 0; i < 8 && port * 8 + i < pinCount; i++) {
+                            int pin = port * 8 + i;
+                            int mode = pinModes.get(pin);
+                            if ((mode == PIN_MODE_INPUT || mode == PIN_MODE_PULLUP) && digitalPattern.sample(pin, tick, 1) > 0) {
+                                value |= 1 << i;
+                            }
+                        }
+                        buffer[length++] = (byte) (DIGITAL_MESSAGE | port);
+                        buffer[length++] = (byte) (value & 0x7F);
+                        buffer[length++] = (byte) ((value >>> 7) & 0x7F);
+                        count++;
+                    }
+                }
+                if (length > 0) {
+                    transport.write(buffer, 0, length);
+                }
+                for (int key : continuousReads) {
+                    write(i2cReply(key >>> 24, (key >>> 16) & 0xFF, key & 0xFFFF));
+                    count++;
+                }
+                reports.addAndGet(count);
+                next += period;
+                long delay = next - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        } catch (IOException ex) {
+            if (transport.isOpen()) {
+                LOGGER.error("Board cannot send reports", ex);
+            }
+        }
+    }
+
+}
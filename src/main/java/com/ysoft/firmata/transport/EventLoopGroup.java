@@ -0,0 +1,84 @@
+package com.ysoft.firmata.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of {@link SelectorEventLoop}s that channels are spread over in
+ * round-robin fashion.<br/>
+ * The group also holds as many writer threads as loops. Writing may block or
+ * be paced, so it runs on these threads rather than on the loops, yet their
+ * number does not grow with the number of channels either. A writer that
+ * waits does not hold a thread, it is scheduled again for the end of the wait.
+ * A write to a bridge that has stopped reading gives up after the write
+ * timeout of its transport, so it cannot hold a thread forever either.
+ */
+public class EventLoopGroup implements Closeable {
+
+    private final SelectorEventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor writers;
+
+    /**
+     * Constructs and starts the loops.
+     *
+     * @param threads number of loops (threads)
+     * @throws IOException when a loop cannot be started
+     */
+    public EventLoopGroup(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        loops = new SelectorEventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new SelectorEventLoop("firmata-event-loop-" + i);
+        }
+        AtomicInteger writerCount = new AtomicInteger();
+        writers = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "firmata-writer-" + writerCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the loop that should take the next channel.
+     *
+     * @return the event loop
+     */
+    public SelectorEventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Returns the number of loops.
+     *
+     * @return the number of loops
+     */
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * Returns the threads that write outbound data of the devices whose
+     * transports are served by the group.
+     *
+     * @return the executor of the writer threads
+     */
+    public ScheduledExecutorService getWriteExecutor() {
+        return writers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SelectorEventLoop loop : loops) {
+            loop.close();
+        }
+        // writes that have been submitted already are finished
+        writers.shutdown();
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.ysoft.firmata.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory {@link Transport}. Loopback transports come in connected pairs:
+ * bytes written to one end become available for reading on the other end
+ * (see {@link #getPeer()}).<br/>
+ * The listener of the receiving end is notified in the thread that writes the
+ * data, so both ends run at memory speed rather than at a baud rate. That
+ * makes the pair useful for benchmarking and soak-testing the client without
+ * hardware.<br/>
+ * Closing an open end closes the other end as well and notifies its listener
+ * of the disconnection, like a peer closing a network connection.
+ */
+public class LoopbackTransport implements Transport {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private final LoopbackTransport peer;
+    private final Object lock = new Object();
+    // several threads may write to the peer, the listener is notified by one at a time
+    private final Object notificationLock = new Object();
+    private byte[] inbound;
+    private int head, size;
+    private volatile boolean open;
+    private volatile TransportListener listener;
+
+    /**
+     * Constructs an end of a loopback pair. The other end is obtained with
+     * {@link #getPeer()}.
+     */
+    public LoopbackTransport() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an end of a loopback pair. The other end is obtained with
+     * {@link #getPeer()}.
+     *
+     * @param initialCapacity initial capacity of the inbound buffer of each end
+     */
+    public LoopbackTransport(int initialCapacity) {
+        inbound = new byte[initialCapacity];
+        peer = new LoopbackTransport(this, initialCapacity);
+    }
+
+    private LoopbackTransport(LoopbackTransport peer, int initialCapacity) {
+        inbound = new byte[initialCapacity];
+        this.peer = peer;
+    }
+
+    /**
+     * Returns the other end of the pair.
+     *
+     * @return the peer transport
+     */
+    public LoopbackTransport getPeer() {
+        return peer;
+    }
+
+    @Override
+    public void open() throws IOException {
+        open = true;
+        if (available() > 0) {
+            notifyListener();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean wasOpen = open;
+        open = false;
+        if (wasOpen) {
+            peer.disconnect();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Returns the number of bytes that can be read from this end.
+     *
+     * @return the number of bytes available
+     */
+    public int available() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+        synchronized (lock) {
+            int length = Math.min(size, buffer.remaining());
+            int first = Math.min(length, inbound.length - head);
+            buffer.put(inbound, head, first);
+            buffer.put(inbound, 0, length - first);
+            head = (head + length) % inbound.length;
+            size -= length;
+            return length;
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+        peer.receive(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // bytes are handed to the peer on write
+    }
+
+    @Override
+    public void setTransportListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    private void receive(byte[] data, int offset, int length) {
+        synchronized (lock) {
+            if (size + length > inbound.length) {
+                int capacity = inbound.length * 2;
+                while (capacity < size + length) {
+                    capacity *= 2;
+                }
+                byte[] grown = new byte[capacity];
+                int first = Math.min(size, inbound.length - head);
+                System.arraycopy(inbound, head, grown, 0, first);
+                System.arraycopy(inbound, 0, grown, first, size - first);
+                inbound = grown;
+                head = 0;
+            }
+            int tail = (head + size) % inbound.length;
+            int first = Math.min(length, inbound.length - tail);
+            System.arraycopy(data, offset, inbound, tail, first);
+            System.arraycopy(data, offset + first, inbound, 0, length - first);
+            size += length;
+        }
+        if (open) {
+            notifyListener();
+        }
+    }
+
+    private void disconnect() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        TransportListener l = listener;
+        if (l != null) {
+            l.onDisconnect(this);
+        }
+    }
+
+    private void notifyListener() {
+        TransportListener l = listener;
+        if (l != null) {
+            synchronized (notificationLock) {
+                l.onDataAvailable(this);
+            }
+        }
+    }
+
+}
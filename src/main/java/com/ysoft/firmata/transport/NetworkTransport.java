@@ -0,0 +1,329 @@
+package com.ysoft.firmata.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Transport} over TCP, for boards that sit behind a network bridge
+ * (ESP8266, Ethernet shield...).<br/>
+ * The transport uses a non-blocking {@link SocketChannel} watched by a
+ * {@link SelectorEventLoop}. Unless the transport is constructed with an
+ * {@link EventLoopGroup} shared by many devices, it runs a loop of its own.
+ * With a group, the device also writes from the writer threads of the group.
+ * Received data is read straight into the caller's buffer, so the device
+ * parses it on the loop thread without handing it over to a parser thread.
+ */
+public class NetworkTransport implements Transport {
+
+    private final InetSocketAddress address;
+    private final EventLoopGroup eventLoopGroup;
+    private final Object writeLock = new Object();
+    // after reopening, the handler of the old channel may still run on another loop of the group
+    private final Object notificationLock = new Object();
+    private boolean tcpNoDelay = true;
+    private int receiveBufferSize;
+    private int sendBufferSize;
+    private int connectTimeout = 5000;
+    private int writeTimeout = 5000;
+    private volatile SocketChannel channel;
+    private volatile SelectionKey readKey;
+    private SelectorEventLoop eventLoop;
+    private Selector writeSelector;
+    private volatile TransportListener listener;
+    // set by a read that has hit the end of stream or failed or by a stalled write, guarded by notificationLock
+    private boolean disconnected;
+
+    /**
+     * Constructs the transport for the specified host and port.
+     *
+     * @param host host name or address of the bridge
+     * @param port TCP port of the bridge
+     */
+    public NetworkTransport(String host, int port) {
+        this(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Constructs the transport for the specified address.
+     *
+     * @param address address of the bridge
+     */
+    public NetworkTransport(InetSocketAddress address) {
+        this(address, null);
+    }
+
+    /**
+     * Constructs the transport for the specified address. The channel is
+     * served by one of the loops of the group.
+     *
+     * @param address address of the bridge
+     * @param eventLoopGroup loops shared with other transports, null to run
+     * a loop of its own
+     */
+    public NetworkTransport(InetSocketAddress address, EventLoopGroup eventLoopGroup) {
+        this.address = address;
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * Enables or disables Nagle's algorithm. TCP_NODELAY is on by default
+     * because Firmata messages are a few bytes long.
+     *
+     * @param tcpNoDelay true to send small messages immediately
+     * @return this transport
+     */
+    public NetworkTransport setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Sets SO_RCVBUF of the socket. Non-positive value keeps the system
+     * default.
+     *
+     * @param receiveBufferSize size of the receive buffer in bytes
+     * @return this transport
+     */
+    public NetworkTransport setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets SO_SNDBUF of the socket. Non-positive value keeps the system
+     * default.
+     *
+     * @param sendBufferSize size of the send buffer in bytes
+     * @return this transport
+     */
+    public NetworkTransport setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets timeout of establishing the connection.
+     *
+     * @param connectTimeout timeout in milliseconds, 0 means infinite
+     * @return this transport
+     */
+    public NetworkTransport setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Sets how long a write may wait for the bridge to take any data. When
+     * the bridge stops reading for longer, the connection is closed and the
+     * listener is told about the disconnection, so that a writer thread
+     * shared with other transports is not held up forever.
+     *
+     * @param writeTimeout timeout in milliseconds, 0 means infinite
+     * @return this transport
+     */
+    public NetworkTransport setWriteTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+        return this;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            if (receiveBufferSize > 0) {
+                ch.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            if (sendBufferSize > 0) {
+                ch.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+            ch.socket().connect(address, connectTimeout);
+            ch.configureBlocking(false);
+            synchronized (notificationLock) {
+                disconnected = false;
+            }
+            if (eventLoopGroup == null) {
+                eventLoop = new SelectorEventLoop("firmata-network-thread");
+            } else {
+                eventLoop = eventLoopGroup.next();
+            }
+            readKey = eventLoop.register(ch, SelectionKey.OP_READ, this::onReadable);
+        } catch (IOException ex) {
+            ch.close();
+            if (eventLoop != null && eventLoopGroup == null) {
+                eventLoop.close();
+            }
+            eventLoop = null;
+            throw new IOException("Cannot connect to " + address, ex);
+        }
+        channel = ch;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        SocketChannel ch = channel;
+        channel = null;
+        if (ch == null) {
+            return;
+        }
+        readKey.cancel();
+        try {
+            if (eventLoopGroup == null) {
+                eventLoop.close();
+            }
+            synchronized (writeLock) {
+                if (writeSelector != null) {
+                    writeSelector.close();
+                    writeSelector = null;
+                }
+            }
+        } finally {
+            eventLoop = null;
+            ch.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        int read;
+        try {
+            read = getChannel().read(buffer);
+        } catch (IOException ex) {
+            disconnect();
+            throw ex;
+        }
+        if (read < 0) {
+            disconnect();
+        }
+        return read;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        SocketChannel ch = getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        long timeout = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+        synchronized (writeLock) {
+            long lastProgress = System.nanoTime();
+            while (buffer.hasRemaining()) {
+                if (ch.write(buffer) > 0) {
+                    lastProgress = System.nanoTime();
+                } else if (timeout > 0 && System.nanoTime() - lastProgress >= timeout) {
+                    break;
+                } else {
+                    awaitWritable(ch);
+                }
+            }
+        }
+        if (buffer.hasRemaining()) {
+            abandon(ch);
+            throw new IOException("Bridge has not taken any data for " + writeTimeout + " ms");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // the channel writes directly to the socket
+    }
+
+    @Override
+    public void setTransportListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean supportsInlineParsing() {
+        return true;
+    }
+
+    @Override
+    public ScheduledExecutorService getWriteExecutor() {
+        return eventLoopGroup == null ? null : eventLoopGroup.getWriteExecutor();
+    }
+
+    /**
+     * Waits until the socket's send buffer has room. Invoked with write lock
+     * held.
+     */
+    private void awaitWritable(SocketChannel ch) throws IOException {
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            ch.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        writeSelector.select(100);
+        writeSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Closes the channel the bridge does not read from and tells the listener
+     * that the connection has been lost. The transport stays open until
+     * {@link #close()} is called.
+     */
+    private void abandon(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ex) {
+            // the connection is given up anyway
+        }
+        TransportListener l = listener;
+        synchronized (notificationLock) {
+            if (disconnected) {
+                return;
+            }
+            disconnected = true;
+            if (l != null && channel == ch) {
+                l.onDisconnect(this);
+            }
+        }
+    }
+
+    private void onReadable() {
+        TransportListener l = listener;
+        if (l != null) {
+            synchronized (notificationLock) {
+                boolean notified = disconnected;
+                l.onDataAvailable(this);
+                if (disconnected && !notified && channel != null) {
+                    l.onDisconnect(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops selecting the channel which is always readable at the end of
+     * stream. The listener is notified once it has processed what has been
+     * read.
+     */
+    private void disconnect() {
+        if (!disconnected) {
+            disconnected = true;
+            readKey.cancel();
+        }
+    }
+
+    private SocketChannel getChannel() throws IOException {
+        SocketChannel ch = channel;
+        if (ch == null) {
+            throw new IOException("Network transport is not open");
+        }
+        return ch;
+    }
+
+}
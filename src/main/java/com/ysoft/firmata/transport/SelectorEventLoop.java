@@ -0,0 +1,181 @@
+package com.ysoft.firmata.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread that watches any number of channels with a single
+ * {@link Selector}.<br/>
+ * Handlers of ready channels run one by one on the loop thread. So everything
+ * a handler does for its channel (e.g. parsing of the received data) keeps the
+ * order in which the data has arrived.
+ */
+public class SelectorEventLoop implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SelectorEventLoop.class);
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs and starts the event loop.
+     *
+     * @param name name of the loop thread
+     * @throws IOException when the selector cannot be opened
+     */
+    public SelectorEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers the channel with the loop. The handler is invoked on the loop
+     * thread every time the channel is ready for any of the operations.<br/>
+     * The method may be called from any thread. It returns when the
+     * registration is done.
+     *
+     * @param channel non-blocking channel
+     * @param ops interest set of the channel
+     * @param handler handler of channel readiness
+     * @return the selection key of the channel
+     * @throws IOException when the channel cannot be registered
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Runnable handler) throws IOException {
+        if (inEventLoop()) {
+            return channel.register(selector, ops, handler);
+        }
+        CompletableFuture<SelectionKey> result = new CompletableFuture<>();
+        try {
+            // a task left over by a closed loop fails on the closed selector
+            execute(() -> {
+                try {
+                    result.complete(channel.register(selector, ops, handler));
+                } catch (ClosedChannelException | RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (IllegalStateException ex) {
+            throw new IOException("Cannot register channel", ex);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Registration of channel has been interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Cannot register channel", ex.getCause());
+        }
+    }
+
+    /**
+     * Runs the task on the loop thread. Tasks that are pending when the loop
+     * is closed run after its selector is closed.
+     *
+     * @param task the task
+     * @throws IllegalStateException when the loop has been closed
+     */
+    public void execute(Runnable task) {
+        if (!running) {
+            throw new IllegalStateException("Event loop has been closed");
+        }
+        tasks.add(task);
+        // the loop may have been closed and have run its last tasks meanwhile
+        if (!running && tasks.remove(task)) {
+            throw new IllegalStateException("Event loop has been closed");
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Checks whether the current thread is the loop thread.
+     *
+     * @return true if called from the loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Returns the number of channels registered with the loop.
+     *
+     * @return the number of channels
+     */
+    public int getChannelCount() {
+        return selector.keys().size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (!inEventLoop()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid()) {
+                        try {
+                            ((Runnable) key.attachment()).run();
+                        } catch (RuntimeException ex) {
+                            LOGGER.error("Handling of channel failed", ex);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Selecting of channels failed", ex);
+        } finally {
+            running = false;
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Cannot close selector", ex);
+            }
+            runPendingTasks();
+        }
+    }
+
+    /**
+     * Runs the tasks that have not been taken by the loop, so that nobody
+     * waits for them forever.
+     */
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Pending task of closed event loop failed", ex);
+            }
+        }
+    }
+
+}
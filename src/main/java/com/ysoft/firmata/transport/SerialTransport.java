@@ -0,0 +1,152 @@
+package com.ysoft.firmata.transport;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.TooManyListenersException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import purejavacomm.CommPortIdentifier;
+import purejavacomm.PortInUseException;
+import purejavacomm.PureJavaSerialPort;
+import purejavacomm.SerialPortEvent;
+import purejavacomm.SerialPortEventListener;
+import purejavacomm.UnsupportedCommOperationException;
+
+/**
+ * {@link Transport} over a serial port provided by purejavacomm.<br/>
+ * Parameters of the port are taken from {@link DeviceConfiguration} at the
+ * moment the transport is opened.
+ */
+public class SerialTransport implements Transport, SerialPortEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SerialTransport.class);
+
+    private final DeviceConfiguration configuration;
+    private volatile PureJavaSerialPort commPort;
+    private volatile TransportListener listener;
+    // purejavacomm does not promise to deliver events from a single thread
+    private final Object notificationLock = new Object();
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Constructs the transport for the port of the configuration.
+     *
+     * @param configuration configuration holding the port and its parameters
+     */
+    public SerialTransport(DeviceConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void open() throws IOException {
+        CommPortIdentifier commPortIdentifier = configuration.getCommPortIdentifier();
+        PureJavaSerialPort port;
+        try {
+            port = (PureJavaSerialPort) commPortIdentifier.open(
+                    SerialTransport.class.getName(),
+                    2000);
+        } catch (PortInUseException e) {
+            LOGGER.error("Cannot open communications port {}. Cannot obtain ownership!", commPortIdentifier.getName());
+            throw new IOException("Cannot start firmata device", e);
+        }
+
+        try {
+            port.setSerialPortParams(configuration.getSerialPortBaudRate(),
+                    configuration.getSerialPortDataBits().getValue(),
+                    configuration.getSerialPortStopBits().getValue(),
+                    configuration.getSerialPortParity().getValue());
+        } catch (UnsupportedCommOperationException e) {
+            LOGGER.error("Unable to configure communications port {} to baud rate {}.", commPortIdentifier.getName(),
+                    configuration.getSerialPortBaudRate());
+            port.close();
+            throw new IOException("Unable to configure communications port", e);
+        }
+        port.notifyOnDataAvailable(true);
+        port.notifyOnOutputEmpty(true);
+        try {
+            port.addEventListener(this);
+        } catch (TooManyListenersException ex) {
+            port.close();
+            throw new IllegalStateException(ex);
+        }
+        commPort = port;
+    }
+
+    @Override
+    public void close() throws IOException {
+        PureJavaSerialPort port = commPort;
+        commPort = null;
+        if (port != null) {
+            port.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return commPort != null;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        InputStream in = getPort().getInputStream();
+        int length = Math.min(in.available(), buffer.remaining());
+        if (length <= 0) {
+            return 0;
+        }
+        int read;
+        if (buffer.hasArray()) {
+            read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+            }
+        } else {
+            // direct buffers are filled through a reusable array
+            if (scratch.length < length) {
+                scratch = new byte[buffer.capacity()];
+            }
+            read = in.read(scratch, 0, length);
+            if (read > 0) {
+                buffer.put(scratch, 0, read);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        getPort().getOutputStream().write(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        getPort().getOutputStream().flush();
+    }
+
+    @Override
+    public void setTransportListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void serialEvent(SerialPortEvent event) {
+        if (event.getEventType() == SerialPortEvent.DATA_AVAILABLE && event.getNewValue()) {
+            TransportListener l = listener;
+            if (l != null) {
+                synchronized (notificationLock) {
+                    l.onDataAvailable(this);
+                }
+            }
+        }
+    }
+
+    private PureJavaSerialPort getPort() throws IOException {
+        PureJavaSerialPort port = commPort;
+        if (port == null) {
+            throw new IOException("Serial port is not open");
+        }
+        return port;
+    }
+
+}
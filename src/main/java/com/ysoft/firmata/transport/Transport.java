@@ -0,0 +1,106 @@
+package com.ysoft.firmata.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Byte channel between the client and a Firmata board.<br/>
+ * A transport hides the details of the underlying link (serial port, socket,
+ * in-memory pipe...) from {@link com.ysoft.firmata.impl.FirmataDevice}. It
+ * notifies its {@link TransportListener} when new data can be read and never
+ * blocks on reading.
+ */
+public interface Transport {
+
+    /**
+     * Opens the link to the board.
+     *
+     * @throws IOException when the link cannot be established
+     */
+    void open() throws IOException;
+
+    /**
+     * Closes the link to the board and releases its resources.
+     *
+     * @throws IOException when the link cannot be properly closed
+     */
+    void close() throws IOException;
+
+    /**
+     * Checks whether the transport is open.
+     *
+     * @return true if the transport is open, false otherwise
+     */
+    boolean isOpen();
+
+    /**
+     * Reads bytes that are already available into the buffer without
+     * blocking. The bytes are put at the current position of the buffer which
+     * is advanced by the number of bytes read.
+     *
+     * @param buffer the buffer to read into
+     * @return the number of bytes read (possibly 0) or -1 when the end of the
+     * stream has been reached
+     * @throws IOException when reading fails
+     */
+    int read(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Writes bytes to the board.
+     *
+     * @param data the data to write
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     * @throws IOException when writing fails
+     */
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Writes all the bytes of the array to the board.
+     *
+     * @param data the data to write
+     * @throws IOException when writing fails
+     */
+    default void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Pushes the written bytes out to the board.
+     *
+     * @throws IOException when flushing fails
+     */
+    void flush() throws IOException;
+
+    /**
+     * Sets the listener that is notified when data is available for reading.
+     *
+     * @param listener the listener
+     */
+    void setTransportListener(TransportListener listener);
+
+    /**
+     * Tells whether the listener is notified on a thread owned by the
+     * transport which may be used for parsing of received data. When false,
+     * the device hands received data over to its own parser thread so that
+     * the notifying thread is never held up.
+     *
+     * @return true if received data may be parsed in the notifying thread
+     */
+    default boolean supportsInlineParsing() {
+        return false;
+    }
+
+    /**
+     * Returns the threads the device should write outbound data from when
+     * they are shared with other transports. When null, the device writes
+     * from a thread of its own.
+     *
+     * @return the executor of shared writer threads or null
+     */
+    default ScheduledExecutorService getWriteExecutor() {
+        return null;
+    }
+
+}
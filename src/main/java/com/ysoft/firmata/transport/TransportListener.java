@@ -0,0 +1,27 @@
+package com.ysoft.firmata.transport;
+
+/**
+ * Receives notifications from a {@link Transport}.
+ */
+public interface TransportListener {
+
+    /**
+     * Invoked when data can be read from the transport without blocking.<br/>
+     * A transport never invokes the method from several threads at the same
+     * time, so the listener may hand the data to a single-producer queue.
+     *
+     * @param transport the transport that has data available
+     */
+    void onDataAvailable(Transport transport);
+
+    /**
+     * Invoked when the transport has lost its link to the board, e.g. when
+     * the peer has closed the connection. Nothing can be read from the
+     * transport afterwards.
+     *
+     * @param transport the transport that has been disconnected
+     */
+    default void onDisconnect(Transport transport) {
+    }
+
+}
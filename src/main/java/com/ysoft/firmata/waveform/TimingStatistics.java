@@ -0,0 +1,101 @@
+package com.ysoft.firmata.waveform;
+
+/**
+ * Snapshot of timing statistics of a {@link WaveformScheduler}.<br/>
+ * Jitter is the delay between the moment a tick was due and the moment the
+ * scheduler woke up to process it.
+ */
+public final class TimingStatistics {
+
+    private final long tickCount;
+    private final long missedTickCount;
+    private final long writeCount;
+    private final long failedWriteCount;
+    private final long suppressedCount;
+    private final long totalJitter;
+    private final long maxJitter;
+
+    TimingStatistics(long tickCount, long missedTickCount, long writeCount, long failedWriteCount, long suppressedCount, long totalJitter, long maxJitter) {
+        this.tickCount = tickCount;
+        this.missedTickCount = missedTickCount;
+        this.writeCount = writeCount;
+        this.failedWriteCount = failedWriteCount;
+        this.suppressedCount = suppressedCount;
+        this.totalJitter = totalJitter;
+        this.maxJitter = maxJitter;
+    }
+
+    /**
+     * Returns the number of processed ticks.
+     *
+     * @return the number of ticks
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Returns the number of ticks that were skipped because the scheduler
+     * woke up after the next tick was due already. The waveforms skip the
+     * samples of such ticks to stay in time.
+     *
+     * @return the number of missed ticks
+     */
+    public long getMissedTickCount() {
+        return missedTickCount;
+    }
+
+    /**
+     * Returns the number of ticks whose values have been handed to the
+     * transport.
+     *
+     * @return the number of writes
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Returns the number of ticks whose values could not be sent.
+     *
+     * @return the number of failed writes
+     */
+    public long getFailedWriteCount() {
+        return failedWriteCount;
+    }
+
+    /**
+     * Returns the number of samples that were not sent because the pin
+     * already had the value.
+     *
+     * @return the number of suppressed samples
+     */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Returns the mean jitter of the processed ticks.
+     *
+     * @return the mean jitter in nanoseconds
+     */
+    public long getMeanJitterNanos() {
+        return tickCount == 0 ? 0 : totalJitter / tickCount;
+    }
+
+    /**
+     * Returns the largest jitter of the processed ticks.
+     *
+     * @return the maximal jitter in nanoseconds
+     */
+    public long getMaxJitterNanos() {
+        return maxJitter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimingStatistics{ticks=%d, missed=%d, writes=%d, failedWrites=%d, suppressed=%d, meanJitter=%dns, maxJitter=%dns}",
+                tickCount, missedTickCount, writeCount, failedWriteCount, suppressedCount, getMeanJitterNanos(), maxJitter);
+    }
+
+}
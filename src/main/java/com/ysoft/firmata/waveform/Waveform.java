@@ -0,0 +1,33 @@
+package com.ysoft.firmata.waveform;
+
+/**
+ * Values of a pin as a function of time, played by {@link WaveformScheduler}.
+ */
+@FunctionalInterface
+public interface Waveform {
+
+    /**
+     * Returns the value of the pin at the specified tick.
+     *
+     * @param tick number of ticks since the waveform has begun playing
+     * @return the value
+     */
+    long valueAt(long tick);
+
+    /**
+     * Creates a linear ramp. The value stays at the target after the ramp
+     * ends.
+     *
+     * @param from the value at tick 0
+     * @param to the value at the last tick of the ramp
+     * @param ticks length of the ramp in ticks
+     * @return the ramp
+     */
+    static Waveform ramp(long from, long to, long ticks) {
+        if (ticks <= 1) {
+            return tick -> to;
+        }
+        return tick -> tick >= ticks - 1 ? to : from + Math.round((double) (to - from) * tick / (ticks - 1));
+    }
+
+}
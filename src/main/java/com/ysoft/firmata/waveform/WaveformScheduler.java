@@ -0,0 +1,331 @@
+package com.ysoft.firmata.waveform;
+
+import com.ysoft.firmata.IODevice;
+import com.ysoft.firmata.OutputBatch;
+import com.ysoft.firmata.Pin;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plays values on PWM and servo pins of a device from a single timing
+ * thread:
+ * <pre>
+ * WaveformScheduler scheduler = new WaveformScheduler(device, 20, TimeUnit.MILLISECONDS);
+ * scheduler.start();
+ * scheduler.play(9, Waveform.ramp(0, 255, 50), 50); // one second fade in
+ * scheduler.play(10, new long[]{0, 90, 180, 90}, true); // servo sweep
+ * </pre>
+ * Every tick, the next sample of each playing pin is taken. Samples equal to
+ * the current value of their pin are suppressed, the others are sent to the
+ * board in a single {@link OutputBatch} without waiting for the write. A write
+ * is counted once it has been handed to the transport, a write that fails is
+ * logged and counted apart.<br/>
+ * Ticks are due at fixed times counted from the start of the scheduler, so
+ * a late tick does not delay the following ones. When the scheduler wakes
+ * up after the next tick is due already, the missed ticks are skipped and
+ * the waveforms advance by all of them.<br/>
+ * The thread sleeps while nothing is playing.
+ */
+public class WaveformScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WaveformScheduler.class);
+
+    private final IODevice device;
+    private final long period;
+    private final Map<Integer, Track> tracks = new ConcurrentHashMap<>();
+    private volatile Thread timer;
+
+    // statistics, guarded by statisticsLock
+    private final Object statisticsLock = new Object();
+    private long tickCount;
+    private long missedTickCount;
+    private long writeCount;
+    private long failedWriteCount;
+    private long suppressedCount;
+    private long totalJitter;
+    private long maxJitter;
+
+    /**
+     * Constructs the scheduler.
+     *
+     * @param device the device whose pins are driven
+     * @param period period of the ticks
+     * @param unit unit of the period
+     * @throws IllegalArgumentException when the period is not positive
+     */
+    public WaveformScheduler(IODevice device, long period, TimeUnit unit) {
+        if (device == null || unit == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        this.device = device;
+        this.period = unit.toNanos(period);
+    }
+
+    /**
+     * Starts the timing thread.
+     */
+    public synchronized void start() {
+        if (timer == null) {
+            Thread t = new Thread(this::run, "firmata-waveform-thread");
+            t.setDaemon(true);
+            timer = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Stops the timing thread. The pins keep their last values, the waveforms
+     * that have not finished continue when the scheduler is started again.
+     */
+    public synchronized void stop() {
+        Thread t = timer;
+        timer = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Plays precomputed samples on the pin, one per tick. Replaces what the
+     * pin has been playing.
+     *
+     * @param pinIndex index of the pin
+     * @param samples the values
+     * @param repeat whether the samples are played again and again
+     * @throws IllegalArgumentException when the pin does not exist or there
+     * are no samples
+     * @throws IllegalStateException when the pin is not in PWM or SERVO mode
+     */
+    public void play(int pinIndex, long[] samples, boolean repeat) {
+        if (samples == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("No samples to play");
+        }
+        long[] copy = samples.clone();
+        if (repeat) {
+            play(pinIndex, new Track(pin(pinIndex), tick -> copy[(int) (tick % copy.length)], -1));
+        } else {
+            play(pinIndex, new Track(pin(pinIndex), tick -> copy[(int) tick], copy.length));
+        }
+    }
+
+    /**
+     * Plays the waveform on the pin. Replaces what the pin has been playing.
+     *
+     * @param pinIndex index of the pin
+     * @param waveform the values of the pin
+     * @param ticks number of ticks to play the waveform for, a negative
+     * number stands for playing until cancelled
+     * @throws IllegalArgumentException when the pin does not exist
+     * @throws IllegalStateException when the pin is not in PWM or SERVO mode
+     */
+    public void play(int pinIndex, Waveform waveform, long ticks) {
+        if (waveform == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+        play(pinIndex, new Track(pin(pinIndex), waveform, ticks));
+    }
+
+    /**
+     * Stops playing on the pin. The pin keeps its last value.
+     *
+     * @param pinIndex index of the pin
+     */
+    public void cancel(int pinIndex) {
+        tracks.remove(pinIndex);
+    }
+
+    /**
+     * Checks whether the pin is playing.
+     *
+     * @param pinIndex index of the pin
+     * @return true when a waveform is playing on the pin
+     */
+    public boolean isPlaying(int pinIndex) {
+        return tracks.containsKey(pinIndex);
+    }
+
+    /**
+     * Returns timing statistics collected since the construction or the last
+     * reset.
+     *
+     * @return the statistics
+     */
+    public TimingStatistics getStatistics() {
+        synchronized (statisticsLock) {
+            return new TimingStatistics(tickCount, missedTickCount, writeCount, failedWriteCount, suppressedCount, totalJitter, maxJitter);
+        }
+    }
+
+    /**
+     * Resets the timing statistics.
+     */
+    public void resetStatistics() {
+        synchronized (statisticsLock) {
+            tickCount = 0;
+            missedTickCount = 0;
+            writeCount = 0;
+            failedWriteCount = 0;
+            suppressedCount = 0;
+            totalJitter = 0;
+            maxJitter = 0;
+        }
+    }
+
+    private Pin pin(int pinIndex) {
+        if (pinIndex < 0 || pinIndex >= device.getPinsCount()) {
+            throw new IllegalArgumentException(String.format("Pin %d does not exist", pinIndex));
+        }
+        Pin pin = device.getPin(pinIndex);
+        if (!isDriven(pin)) {
+            throw new IllegalStateException(String.format("Pin %d is in mode %s, PWM or SERVO expected", pinIndex, pin.getMode()));
+        }
+        return pin;
+    }
+
+    private static boolean isDriven(Pin pin) {
+        return pin.getMode() == Pin.Mode.PWM || pin.getMode() == Pin.Mode.SERVO;
+    }
+
+    private void play(int pinIndex, Track track) {
+        tracks.put(pinIndex, track);
+        Thread t = timer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            if (tracks.isEmpty()) {
+                LockSupport.park(this);
+                next = System.nanoTime();
+                continue;
+            }
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+                continue;
+            }
+            long missed = -delay / period;
+            next += missed * period;
+            long jitter = -delay - missed * period;
+            tick(missed + 1);
+            synchronized (statisticsLock) {
+                tickCount++;
+                missedTickCount += missed;
+                totalJitter += jitter;
+                maxJitter = Math.max(maxJitter, jitter);
+            }
+            next += period;
+        }
+    }
+
+    /**
+     * Advances all the tracks and sends the new values.
+     *
+     * @param steps the number of ticks that have passed since the previous
+     * one
+     */
+    private void tick(long steps) {
+        OutputBatch batch = device.batch();
+        long suppressed = 0;
+        for (Map.Entry<Integer, Track> entry : tracks.entrySet()) {
+            Track track = entry.getValue();
+            if (!isDriven(track.pin)) {
+                LOGGER.warn("Pin {} has left PWM and SERVO mode, its waveform is cancelled", entry.getKey());
+                tracks.remove(entry.getKey(), track);
+                continue;
+            }
+            if (!track.advance(steps)) {
+                tracks.remove(entry.getKey(), track);
+                continue;
+            }
+            long value = track.waveform.valueAt(track.position);
+            if (value == track.pin.getValue()) {
+                suppressed++;
+            } else {
+                batch.setValue(entry.getKey(), value);
+            }
+        }
+        if (suppressed > 0) {
+            synchronized (statisticsLock) {
+                suppressedCount += suppressed;
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> sent;
+        try {
+            sent = batch.commitAsync();
+        } catch (RuntimeException ex) {
+            written(ex);
+            return;
+        }
+        sent.whenComplete((done, ex) -> written(ex));
+    }
+
+    /**
+     * Counts a write of the values of a tick.
+     *
+     * @param ex the reason why the write has failed or null
+     */
+    private void written(Throwable ex) {
+        synchronized (statisticsLock) {
+            if (ex == null) {
+                writeCount++;
+                return;
+            }
+            failedWriteCount++;
+        }
+        LOGGER.error("Cannot send waveform values", ex);
+    }
+
+    /**
+     * A waveform playing on a pin.
+     */
+    private static class Track {
+
+        private final Pin pin;
+        private final Waveform waveform;
+        private final long length;
+        // accessed from the timing thread only
+        private long position = -1;
+
+        Track(Pin pin, Waveform waveform, long length) {
+            this.pin = pin;
+            this.waveform = waveform;
+            this.length = length;
+        }
+
+        /**
+         * Moves the track forward. The first call moves it to its first tick.
+         *
+         * @param steps the number of ticks to move forward
+         * @return false when the track has ended
+         */
+        boolean advance(long steps) {
+            position = position < 0 ? 0 : position + steps;
+            return length < 0 || position < length;
+        }
+
+    }
+
+}
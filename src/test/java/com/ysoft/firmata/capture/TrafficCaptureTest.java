@@ -0,0 +1,140 @@
+package com.ysoft.firmata.capture;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.impl.FirmataDevice;
+import com.ysoft.firmata.simulator.SignalPattern;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Records sessions with {@link TrafficRecorder} and reads them back with
+ * {@link TrafficReader} and {@link ReplayTransport}.
+ */
+public class TrafficCaptureTest {
+
+    private static final int PIN_COUNT = 8;
+    private static final int ANALOG_PIN_COUNT = 3;
+
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = Files.createTempFile("firmata-session", ".capture");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testRecordsAreReadBack() throws Exception {
+        int regionSize = 64;
+        byte[] small = {1, 2, 3};
+        byte[] oversized = new byte[regionSize * 3];
+        for (int i = 0; i < oversized.length; i++) {
+            oversized[i] = (byte) i;
+        }
+        long size = TrafficRecorder.HEADER_SIZE;
+        try (TrafficRecorder recorder = new TrafficRecorder(file, regionSize)) {
+            // the records cross the boundaries of the regions
+            for (int i = 0; i < 10; i++) {
+                recorder.record(TrafficRecorder.Direction.INBOUND, small, 0, small.length);
+                size += TrafficRecorder.RECORD_HEADER_SIZE + small.length;
+            }
+            recorder.record(TrafficRecorder.Direction.OUTBOUND, oversized, 0, oversized.length);
+            size += TrafficRecorder.RECORD_HEADER_SIZE + oversized.length;
+            recorder.record(TrafficRecorder.Direction.INBOUND, small, 1, 2);
+            size += TrafficRecorder.RECORD_HEADER_SIZE + 2;
+            assertEquals(recorder.getRecordCount(), 12);
+        }
+        assertEquals(Files.size(file), size, "Unused part of the last region should be cut off");
+
+        try (TrafficReader reader = new TrafficReader(file)) {
+            long previous = Long.MIN_VALUE;
+            for (int i = 0; i < 10; i++) {
+                assertTrue(reader.next());
+                assertEquals(reader.getDirection(), TrafficRecorder.Direction.INBOUND);
+                assertEquals(reader.getLength(), small.length);
+                assertEquals(copy(reader), small);
+                assertTrue(reader.getTimestamp() >= previous);
+                previous = reader.getTimestamp();
+            }
+            assertTrue(reader.next());
+            assertEquals(reader.getDirection(), TrafficRecorder.Direction.OUTBOUND);
+            assertEquals(copy(reader), oversized);
+            assertTrue(reader.next());
+            assertEquals(copy(reader), new byte[]{2, 3});
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testReplayedSessionRestoresDevice() throws Exception {
+        VirtualBoard board = new VirtualBoard()
+                .setPinCount(PIN_COUNT)
+                .setAnalogPinCount(ANALOG_PIN_COUNT)
+                .setReportRate(500)
+                .setAnalogPattern(SignalPattern.RAMP);
+        FirmataDevice recorded;
+        try (TrafficRecorder recorder = new TrafficRecorder(file)) {
+            recorded = new FirmataDevice(new DeviceConfiguration(board.getClientTransport())
+                    .setTrafficRecorder(recorder));
+            board.start();
+            recorded.start();
+            try {
+                recorded.ensureInitializationIsDone();
+                while (board.getTickCount() < 50) {
+                    Thread.sleep(10);
+                }
+            } finally {
+                recorded.stop();
+                board.stop();
+            }
+        }
+        long inbound = 0;
+        try (TrafficReader reader = new TrafficReader(file)) {
+            while (reader.next()) {
+                if (reader.getDirection() == TrafficRecorder.Direction.INBOUND) {
+                    inbound += reader.getLength();
+                }
+            }
+        }
+
+        ReplayTransport replay = new ReplayTransport(file, ReplayTransport.MAX_SPEED);
+        FirmataDevice replayed = new FirmataDevice(new DeviceConfiguration(replay));
+        replayed.start();
+        try {
+            replayed.ensureInitializationIsDone();
+            assertTrue(replay.awaitEnd(10, TimeUnit.SECONDS), "Replay has not finished");
+            assertEquals(replay.getReplayedBytes(), inbound);
+            assertEquals(replayed.getPinsCount(), PIN_COUNT);
+            assertEquals(replayed.getProtocol(), recorded.getProtocol());
+            for (int i = PIN_COUNT - ANALOG_PIN_COUNT; i < PIN_COUNT; i++) {
+                Pin pin = replayed.getPin(i);
+                assertEquals(pin.getMode(), Pin.Mode.ANALOG);
+                // the parser thread may still be working through the replayed data
+                while (pin.getValue() != recorded.getPin(i).getValue()) {
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            replayed.stop();
+        }
+    }
+
+    private static byte[] copy(TrafficReader reader) {
+        byte[] data = new byte[reader.getLength()];
+        System.arraycopy(reader.getData(), 0, data, 0, data.length);
+        return data;
+    }
+
+}
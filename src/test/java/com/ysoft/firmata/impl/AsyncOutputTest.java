@@ -0,0 +1,112 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.I2CDevice;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.binary.Hex;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.DIGITAL_MESSAGE;
+import static com.ysoft.firmata.impl.parser.FirmataToken.START_SYSEX;
+import static org.testng.Assert.*;
+
+/**
+ * Checks that the futures of {@link Pin#setValueAsync(long)},
+ * {@link I2CDevice#tellAsync(byte...)} and
+ * {@link FirmataDevice#sendAsync(byte[])} complete once the message has been
+ * written and fail when the transport fails.
+ */
+public class AsyncOutputTest {
+
+    private VirtualBoard board;
+    private RecordingTransport transport;
+    private FirmataDevice device;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        transport = new RecordingTransport(board.getClientTransport());
+        device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        try {
+            device.stop();
+        } catch (DeviceCommunicationException ex) {
+            // the writer has failed already
+        }
+        board.stop();
+        transport.shutdown();
+    }
+
+    @Test(timeOut = 10000)
+    public void testPinValueIsWrittenBeforeFutureCompletes() throws Exception {
+        Pin pin = device.getPin(2);
+        pin.setMode(Pin.Mode.OUTPUT);
+        transport.takeWrites();
+        pin.setValueAsync(1).get(5, TimeUnit.SECONDS);
+        assertTrue(transport.takeWrites().contains("900400"));
+        assertEquals(pin.getValue(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testPinValueFutureFailsWithTransport() throws Exception {
+        Pin pin = device.getPin(2);
+        pin.setMode(Pin.Mode.OUTPUT);
+        transport.failOn = DIGITAL_MESSAGE & 0xFF;
+        assertFailed(pin.setValueAsync(1));
+        assertEquals(pin.getValue(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testI2CWriteIsWrittenBeforeFutureCompletes() throws Exception {
+        I2CDevice i2c = device.getI2CDevice((byte) 0x20);
+        transport.takeWrites();
+        i2c.tellAsync((byte) 1, (byte) 2).get(5, TimeUnit.SECONDS);
+        String expected = Hex.encodeHexString(FirmataMessageFactory.i2cWriteRequest((byte) 0x20, (byte) 1, (byte) 2));
+        assertTrue(transport.takeWrites().stream().anyMatch(w -> w.contains(expected)));
+    }
+
+    @Test(timeOut = 10000)
+    public void testI2CWriteFutureFailsWithTransport() throws Exception {
+        I2CDevice i2c = device.getI2CDevice((byte) 0x20);
+        transport.failOn = START_SYSEX & 0xFF;
+        assertFailed(i2c.tellAsync((byte) 1, (byte) 2));
+    }
+
+    @Test(timeOut = 10000)
+    public void testRawMessageIsWrittenBeforeFutureCompletes() throws Exception {
+        byte[] message = FirmataMessageFactory.customSysex((byte) 0x01, new byte[]{0x10, 0x20});
+        transport.takeWrites();
+        device.sendAsync(message).get(5, TimeUnit.SECONDS);
+        String expected = Hex.encodeHexString(message);
+        assertTrue(transport.takeWrites().stream().anyMatch(w -> w.contains(expected)));
+    }
+
+    @Test(timeOut = 10000)
+    public void testRawMessageFutureFailsWithTransport() throws Exception {
+        transport.failOn = START_SYSEX & 0xFF;
+        assertFailed(device.sendAsync(FirmataMessageFactory.customSysex((byte) 0x01, new byte[]{0x10, 0x20})));
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("The failure of the transport should be reported");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeviceCommunicationException, String.valueOf(ex.getCause()));
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.PinEventListener;
+import com.ysoft.firmata.transport.NetworkTransport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Measures the threads and the CPU time that devices take when they are
+ * served by {@link FirmataDeviceManager} and when every device runs its own
+ * loop. 10, 100 and 1000 boards are simulated by one thread that accepts
+ * connections on a local {@link ServerSocketChannel}, answers the handshake
+ * and then sends a digital report to every board each
+ * {@value #REPORT_PERIOD_MILLIS} ms.<br/>
+ * The CPU time is taken from the threads that have been started by the
+ * devices, so the simulated boards are not counted.<br/>
+ * The benchmark is in the {@code benchmark} group which the regular test run
+ * excludes. All benchmarks are run by {@code mvn test -Pbenchmark}, this one by
+ * {@code mvn test -Dtest=DeviceManagerBenchmark -Dorg.slf4j.simpleLogger.defaultLogLevel=info}.
+ * Debug logging of every message would be measured otherwise.
+ */
+public class DeviceManagerBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceManagerBenchmark.class);
+
+    private static final int[] BOARDS = {10, 100, 1000};
+    private static final int LOOP_THREADS = 4;
+    private static final int PIN_COUNT = 4;
+    private static final long REPORT_PERIOD_MILLIS = 20;
+    private static final long WARM_UP_MILLIS = 1000;
+    private static final long MEASUREMENT_MILLIS = 3000;
+
+    @Test(groups = "benchmark")
+    public void benchmarkSharedLoops() throws Exception {
+        for (int boards : BOARDS) {
+            run(boards, true);
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkOwnLoops() throws Exception {
+        for (int boards : BOARDS) {
+            run(boards, false);
+        }
+    }
+
+    private void run(int boards, boolean shared) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeSupported()) {
+            throw new SkipException("CPU time of threads cannot be measured");
+        }
+        threads.setThreadCpuTimeEnabled(true);
+        try (StandInBoards standIn = new StandInBoards()) {
+            standIn.start();
+            Set<Long> before = threadIds(threads);
+            FirmataDeviceManager manager = shared ? new FirmataDeviceManager(LOOP_THREADS) : null;
+            List<FirmataDevice> devices = new ArrayList<>();
+            AtomicLong updates = new AtomicLong();
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < boards; i++) {
+                    FirmataDevice device = shared
+                            ? manager.createDevice(standIn.getAddress())
+                            : new FirmataDevice(new DeviceConfiguration(new NetworkTransport(standIn.getAddress())));
+                    devices.add(device);
+                    device.start();
+                }
+                for (FirmataDevice device : devices) {
+                    device.ensureInitializationIsDone();
+                    device.getPin(2).addEventListener(new PinEventListener() {
+                        @Override
+                        public void onModeChange(IOEvent event) {
+                        }
+
+                        @Override
+                        public void onValueChange(IOEvent event) {
+                            updates.incrementAndGet();
+                        }
+                    });
+                }
+                long handshake = System.nanoTime() - start;
+                Set<Long> added = threadIds(threads);
+                added.removeAll(before);
+                Thread.sleep(WARM_UP_MILLIS);
+                long cpu = cpuTime(threads, added);
+                long received = updates.get();
+                long measurementStart = System.nanoTime();
+                Thread.sleep(MEASUREMENT_MILLIS);
+                long elapsed = System.nanoTime() - measurementStart;
+                cpu = cpuTime(threads, added) - cpu;
+                received = updates.get() - received;
+                LOGGER.info("{} boards, {}: {} threads, handshake {} ms, {} updates/s, CPU {} us per device per second",
+                        boards, shared ? LOOP_THREADS + " shared loops" : "own loops",
+                        added.size(), TimeUnit.NANOSECONDS.toMillis(handshake),
+                        received * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                        String.format("%.1f", cpu / 1000.0 / boards / (elapsed / 1e9)));
+            } finally {
+                if (shared) {
+                    manager.close();
+                } else {
+                    for (FirmataDevice device : devices) {
+                        device.stop();
+                    }
+                }
+            }
+        }
+    }
+
+    private static Set<Long> threadIds(ThreadMXBean threads) {
+        Set<Long> ids = new HashSet<>();
+        for (long id : threads.getAllThreadIds()) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static long cpuTime(ThreadMXBean threads, Set<Long> ids) {
+        long total = 0;
+        for (long id : ids) {
+            long time = threads.getThreadCpuTime(id);
+            if (time > 0) {
+                total += time;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Plays any number of boards with {@link #PIN_COUNT} digital input pins
+     * from a single thread.
+     */
+    private static class StandInBoards implements AutoCloseable {
+
+        private final ServerSocketChannel server;
+        private final Selector selector;
+        private final Thread thread;
+        private final List<SocketChannel> reporting = new ArrayList<>();
+
+        StandInBoards() throws IOException {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2048);
+            server.configureBlocking(false);
+            selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            thread = new Thread(this::run, "stand-in-boards");
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() throws IOException {
+            return (InetSocketAddress) server.getLocalAddress();
+        }
+
+        @Override
+        public void close() throws Exception {
+            // the selection is woken up by the interruption
+            thread.interrupt();
+            thread.join();
+            selector.close();
+            server.close();
+            for (SocketChannel channel : reporting) {
+                channel.close();
+            }
+        }
+
+        private void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long nextReport = System.nanoTime();
+            int value = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    selector.select(REPORT_PERIOD_MILLIS);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (key.isAcceptable()) {
+                            SocketChannel channel = server.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.register(selector, SelectionKey.OP_READ, new ByteArrayOutputStream());
+                            }
+                        } else if (key.isReadable()) {
+                            buffer.clear();
+                            SocketChannel channel = (SocketChannel) key.channel();
+                            int read;
+                            try {
+                                read = channel.read(buffer);
+                            } catch (IOException ex) {
+                                // the device has reset the connection
+                                read = -1;
+                            }
+                            if (read < 0) {
+                                key.cancel();
+                                channel.close();
+                                reporting.remove(channel);
+                            } else {
+                                receive(channel, (ByteArrayOutputStream) key.attachment(), buffer);
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    if (System.nanoTime() - nextReport >= 0) {
+                        nextReport += TimeUnit.MILLISECONDS.toNanos(REPORT_PERIOD_MILLIS);
+                        value ^= 0x04;
+                        byte[] report = {DIGITAL_MESSAGE, (byte) value, 0};
+                        for (SocketChannel channel : new ArrayList<>(reporting)) {
+                            try {
+                                send(channel, report);
+                            } catch (IOException ex) {
+                                // the device has gone
+                                reporting.remove(channel);
+                                channel.close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.error("Stand-in boards have failed", ex);
+            }
+        }
+
+        private void receive(SocketChannel channel, ByteArrayOutputStream sysex, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == START_SYSEX) {
+                    sysex.reset();
+                    sysex.write(b);
+                } else if (b == END_SYSEX && sysex.size() > 0) {
+                    answer(channel, sysex.toByteArray());
+                    sysex.reset();
+                } else if (sysex.size() > 0) {
+                    sysex.write(b);
+                }
+            }
+        }
+
+        private void answer(SocketChannel channel, byte[] query) throws IOException {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            response.write(START_SYSEX);
+            switch (query[1]) {
+                case REPORT_FIRMWARE:
+                    response.write(REPORT_FIRMWARE);
+                    response.write(2);
+                    response.write(5);
+                    for (char c : "Stand-in".toCharArray()) {
+                        response.write(c & 0x7F);
+                        response.write(c >> 7);
+                    }
+                    break;
+                case CAPABILITY_QUERY:
+                    response.write(CAPABILITY_RESPONSE);
+                    for (int i = 0; i < PIN_COUNT; i++) {
+                        response.write(PIN_MODE_INPUT);
+                        response.write(1);
+                        response.write(0x7F);
+                    }
+                    break;
+                case PIN_STATE_QUERY:
+                    response.write(PIN_STATE_RESPONSE);
+                    response.write(query[2]);
+                    response.write(PIN_MODE_INPUT);
+                    response.write(0);
+                    break;
+                case ANALOG_MAPPING_QUERY:
+                    response.write(ANALOG_MAPPING_RESPONSE);
+                    for (int i = 0; i < PIN_COUNT; i++) {
+                        response.write(0x7F);
+                    }
+                    reporting.add(channel);
+                    break;
+                default:
+                    return;
+            }
+            response.write(END_SYSEX);
+            send(channel, response.toByteArray());
+        }
+
+        private static void send(SocketChannel channel, byte[] data) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            // the messages are short, a full socket buffer is not expected on loopback
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+    }
+
+}
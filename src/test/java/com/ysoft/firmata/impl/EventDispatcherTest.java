@@ -0,0 +1,217 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeliveryPolicy;
+import com.ysoft.firmata.EventOrdering;
+import com.ysoft.firmata.IODeviceEventListener;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.PinValueListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks delivery of events by {@link EventDispatcher}.
+ */
+public class EventDispatcherTest {
+
+    @Test(timeOut = 10000)
+    public void testEventIsDroppedWhenRingStaysFull() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(1, 2, TimeUnit.MILLISECONDS.toNanos(5), 64, 16);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> values = new CopyOnWriteArrayList<>();
+        PinValueListener listener = (pin, value, timestamp) -> {
+            values.add(value);
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        Subscription<PinValueListener> subscription = dispatcher.subscribe(listener, EventOrdering.LISTENER);
+        dispatcher.start();
+        try {
+            // the first event blocks the dispatch thread, the second one fills the ring
+            for (int i = 1; i <= 3; i++) {
+                dispatcher.dispatch(subscription, EventDispatcher.Kind.PIN_VALUE, 0, null, null, 0, i, 0);
+            }
+            assertEquals(subscription.getDroppedCount(), 1);
+            assertEquals(dispatcher.getDroppedCount(), 1);
+            assertEquals(dispatcher.getStallCount(), 1);
+        } finally {
+            release.countDown();
+            dispatcher.stop();
+        }
+        assertEquals(values.toString(), "[1, 2]");
+        assertEquals(subscription.getDeliveredCount(), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void testStopIsNotDroppedWhenRingStaysFull() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(1, 2, TimeUnit.MILLISECONDS.toNanos(5), 64, 16);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = new CopyOnWriteArrayList<>();
+        IODeviceEventListener listener = new IODeviceEventListener() {
+            @Override
+            public void onStart(IOEvent event) {
+            }
+
+            @Override
+            public void onPinChange(IOEvent event) {
+                events.add("change");
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onStop(IOEvent event) {
+                events.add("stop");
+            }
+
+            @Override
+            public void onMessageReceive(IOEvent event, String message) {
+            }
+        };
+        Subscription<IODeviceEventListener> subscription = dispatcher.subscribe(listener, EventOrdering.LISTENER);
+        dispatcher.start();
+        Thread stopping = new Thread(() -> dispatcher.dispatch(subscription, EventDispatcher.Kind.DEVICE_STOP, -1, new IOEvent()));
+        try {
+            // the first change blocks the dispatch thread, the second one fills the ring and the third one is dropped
+            for (int i = 0; i < 3; i++) {
+                dispatcher.dispatch(subscription, EventDispatcher.Kind.PIN_CHANGE, 0, new IOEvent());
+            }
+            assertEquals(subscription.getDroppedCount(), 1);
+            stopping.start();
+            // the stop waits for the listener far longer than the dispatch timeout
+            stopping.join(100);
+            assertTrue(stopping.isAlive(), "The stop should wait for free space");
+        } finally {
+            release.countDown();
+            stopping.join();
+            dispatcher.stop();
+        }
+        assertEquals(events.toString(), "[change, change, stop]");
+        assertEquals(subscription.getDroppedCount(), 1);
+        assertEquals(dispatcher.getDroppedCount(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testConflatingListenerGetsLastValueOfPin() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(0, 16, 0, 64, 16);
+        BlockingListener listener = new BlockingListener();
+        Subscription<PinValueListener> subscription = dispatcher.subscribe(listener, DeliveryPolicy.CONFLATING);
+        fire(dispatcher, subscription, 0, 0);
+        listener.entered.await();
+        fire(dispatcher, subscription, 0, 1);
+        fire(dispatcher, subscription, 1, 10);
+        fire(dispatcher, subscription, 0, 2);
+        fire(dispatcher, subscription, 1, 11);
+        fire(dispatcher, subscription, 0, 3);
+        assertEquals(subscription.getQueueDepth(), 2);
+        listener.release.countDown();
+        dispatcher.stop();
+        // the pins leave in order of their first change
+        assertEquals(listener.values, Arrays.asList("0=0", "0=3", "1=11"));
+        assertEquals(subscription.getDeliveredCount(), 3);
+        assertEquals(subscription.getDroppedCount(), 3);
+        assertEquals(subscription.getQueueDepth(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testDropOldestListenerKeepsNewestEvents() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(0, 16, 0, 64, 2);
+        BlockingListener listener = new BlockingListener();
+        Subscription<PinValueListener> subscription = dispatcher.subscribe(listener, DeliveryPolicy.ASYNC_DROP_OLDEST);
+        fire(dispatcher, subscription, 0, 0);
+        listener.entered.await();
+        for (int i = 1; i <= 5; i++) {
+            fire(dispatcher, subscription, 0, i);
+        }
+        assertEquals(subscription.getQueueDepth(), 2);
+        assertEquals(subscription.getDroppedCount(), 3);
+        listener.release.countDown();
+        dispatcher.stop();
+        assertEquals(listener.values, Arrays.asList("0=0", "0=4", "0=5"));
+        assertEquals(subscription.getDeliveredCount(), 3);
+        assertEquals(subscription.getDeliveryPolicy(), DeliveryPolicy.ASYNC_DROP_OLDEST);
+    }
+
+    @Test(timeOut = 10000)
+    public void testPinOrderingSpreadsPinsOverThreads() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(2, 1024, TimeUnit.SECONDS.toNanos(1), 64, 16);
+        Map<Integer, List<Long>> pinValues = new ConcurrentHashMap<>();
+        Map<Integer, String> pinThreads = new ConcurrentHashMap<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        List<Long> values = new CopyOnWriteArrayList<>();
+        PinValueListener byPin = (pin, value, timestamp) -> {
+            pinThreads.merge(pin, Thread.currentThread().getName(), (a, b) -> a.equals(b) ? a : "several");
+            pinValues.computeIfAbsent(pin, p -> new CopyOnWriteArrayList<>()).add(value);
+        };
+        PinValueListener byListener = (pin, value, timestamp) -> {
+            threads.add(Thread.currentThread().getName());
+            values.add(value);
+        };
+        Subscription<PinValueListener> pinSubscription = dispatcher.subscribe(byPin, EventOrdering.PIN);
+        Subscription<PinValueListener> listenerSubscription = dispatcher.subscribe(byListener, EventOrdering.LISTENER);
+        dispatcher.start();
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            fire(dispatcher, pinSubscription, (int) (i % 4), i);
+            fire(dispatcher, listenerSubscription, (int) (i % 4), i);
+            expected.add(i);
+        }
+        dispatcher.stop();
+        // every pin is delivered in order by a single thread, neighbouring pins by different threads
+        for (int pin = 0; pin < 4; pin++) {
+            List<Long> pinExpected = new ArrayList<>();
+            for (long i = pin; i < 100; i += 4) {
+                pinExpected.add(i);
+            }
+            assertEquals(pinValues.get(pin), pinExpected, "Values of pin " + pin);
+            assertNotEquals(pinThreads.get(pin), "several", "Threads of pin " + pin);
+        }
+        assertEquals(pinThreads.get(0), pinThreads.get(2));
+        assertNotEquals(pinThreads.get(0), pinThreads.get(1));
+        // all the events of the listener are delivered in order by a single thread
+        assertEquals(values, expected);
+        assertEquals(threads.stream().distinct().count(), 1);
+        assertEquals(dispatcher.getDispatchedCount(), 200);
+    }
+
+    private static void fire(EventDispatcher dispatcher, Subscription<PinValueListener> subscription, int pin, long value) {
+        dispatcher.dispatch(subscription, EventDispatcher.Kind.PIN_VALUE, pin, null, null, pin, value, 0);
+    }
+
+    /**
+     * Records values as "pin=value" and holds the first delivery until
+     * released.
+     */
+    private static class BlockingListener implements PinValueListener {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> values = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onPinValue(int pinIndex, long value, long nanoTimestamp) {
+            values.add(pinIndex + "=" + value);
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
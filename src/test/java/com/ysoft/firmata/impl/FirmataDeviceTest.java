@@ -0,0 +1,205 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IODeviceEventListener;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.PinChangeBatch;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import com.ysoft.firmata.transport.LoopbackTransport;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+import static org.testng.Assert.*;
+
+/**
+ * Feeds a {@link FirmataDevice} with reports of a board and checks the events
+ * fired to its listeners. A {@link VirtualBoard} that does not stream takes
+ * care of the handshake, the reports are written to its end of the loopback
+ * pair by the tests.
+ */
+public class FirmataDeviceTest {
+
+    private static final int PIN_COUNT = 10;
+    private static final int ANALOG_PIN_COUNT = 3;
+    private static final int FIRST_ANALOG_PIN = PIN_COUNT - ANALOG_PIN_COUNT;
+
+    private LoopbackTransport boardEnd;
+    private VirtualBoard board;
+    private FirmataDevice device;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        boardEnd = new LoopbackTransport().getPeer();
+        board = new VirtualBoard(boardEnd)
+                .setPinCount(PIN_COUNT)
+                .setAnalogPinCount(ANALOG_PIN_COUNT)
+                .setReportRate(0);
+        device = new FirmataDevice(new DeviceConfiguration(boardEnd.getPeer()));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+        Map<Integer, Pin.Mode> inputs = new HashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            inputs.put(i, Pin.Mode.INPUT);
+        }
+        // the future completes once the board has answered the pin state queries
+        device.configure(inputs).get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        device.stop();
+        board.stop();
+    }
+
+    @Test(timeOut = 10000)
+    public void testOnlyChangedPinsOfPortAreReported() throws Exception {
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        BlockingQueue<String> ports = new LinkedBlockingQueue<>();
+        device.addEventListener(new PinChangeListener(changes));
+        device.addDigitalPortListener((portId, oldMask, newMask) -> ports.add(portId + ":" + oldMask + "->" + newMask));
+
+        receive(digitalMessage(0, 0x02));
+        assertEquals(take(changes), "1=1");
+        assertEquals(take(ports), "0:0->2");
+        receive(digitalMessage(0, 0x06));
+        assertEquals(take(changes), "2=1");
+        assertEquals(take(ports), "0:2->6");
+        receive(digitalMessage(0, 0x04));
+        assertEquals(take(changes), "1=0");
+        assertEquals(take(ports), "0:6->4");
+        // a repeated report changes nothing
+        receive(digitalMessage(0, 0x04));
+        receive(digitalMessage(0, 0x00));
+        assertEquals(take(changes), "2=0");
+        assertEquals(take(ports), "0:4->0");
+        assertTrue(changes.isEmpty());
+        assertTrue(ports.isEmpty());
+    }
+
+    @Test(timeOut = 10000)
+    public void testOutputPinsOfReportedPortAreIgnored() throws Exception {
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        device.addEventListener(new PinChangeListener(changes));
+
+        // pins 0 and 4 are outputs
+        receive(digitalMessage(0, 0x13));
+        assertEquals(take(changes), "1=1");
+        receive(digitalMessage(0, 0x00));
+        assertEquals(take(changes), "1=0");
+        assertTrue(changes.isEmpty());
+        assertEquals(device.getPin(0).getValue(), 0);
+        assertEquals(device.getPin(4).getValue(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testBatchListenerIsCalledOncePerChunk() throws Exception {
+        BlockingQueue<PinChangeBatch> batches = new LinkedBlockingQueue<>();
+        device.addPinBatchListener(batch -> batches.add(batch.copy()));
+
+        receive(concat(digitalMessage(0, 0x0A), analogMessage(0, 100), analogMessage(1, 200), analogMessage(1, 300)));
+        PinChangeBatch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        List<String> changes = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            changes.add(batch.getPinIndex(i) + "=" + batch.getValue(i));
+        }
+        assertEquals(changes, Arrays.asList("1=1", "3=1",
+                FIRST_ANALOG_PIN + "=100", (FIRST_ANALOG_PIN + 1) + "=200", (FIRST_ANALOG_PIN + 1) + "=300"));
+
+        receive(analogMessage(2, 400));
+        batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(batch.size(), 1);
+        assertEquals(batch.getPinIndex(0), FIRST_ANALOG_PIN + 2);
+        assertEquals(batch.getValue(0), 400);
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test(timeOut = 10000)
+    public void testPinValueListenerGetsChanges() throws Exception {
+        BlockingQueue<String> values = new LinkedBlockingQueue<>();
+        device.addPinValueListener((pinIndex, value, nanoTimestamp) -> values.add(pinIndex + "=" + value));
+
+        receive(analogMessage(0, 512));
+        assertEquals(take(values), FIRST_ANALOG_PIN + "=512");
+        receive(analogMessage(0, 512));
+        receive(digitalMessage(0, 0x08));
+        assertEquals(take(values), "3=1");
+        assertTrue(values.isEmpty());
+        assertEquals(device.getPin(FIRST_ANALOG_PIN).getValue(), 512);
+    }
+
+    private void receive(byte[] data) throws Exception {
+        boardEnd.write(data, 0, data.length);
+    }
+
+    private static String take(BlockingQueue<String> queue) throws InterruptedException {
+        String value = queue.poll(5, TimeUnit.SECONDS);
+        assertNotNull(value, "No event has been fired");
+        return value;
+    }
+
+    private static byte[] digitalMessage(int port, int mask) {
+        return new byte[]{(byte) (DIGITAL_MESSAGE | port), (byte) (mask & 0x7F), (byte) ((mask >>> 7) & 0x7F)};
+    }
+
+    private static byte[] analogMessage(int channel, int value) {
+        return new byte[]{(byte) (ANALOG_MESSAGE | channel), (byte) (value & 0x7F), (byte) ((value >>> 7) & 0x7F)};
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * Records changes of pins as "pin=value".
+     */
+    private static class PinChangeListener implements IODeviceEventListener {
+
+        private final BlockingQueue<String> changes;
+
+        PinChangeListener(BlockingQueue<String> changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public void onStart(IOEvent event) {
+        }
+
+        @Override
+        public void onStop(IOEvent event) {
+        }
+
+        @Override
+        public void onPinChange(IOEvent event) {
+            changes.add(event.getPin().getIndex() + "=" + event.getValue());
+        }
+
+        @Override
+        public void onMessageReceive(IOEvent event, String message) {
+        }
+    }
+
+}
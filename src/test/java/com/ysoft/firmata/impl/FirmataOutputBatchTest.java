@@ -0,0 +1,164 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.OutputBatch;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.PinEventListener;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.DIGITAL_MESSAGE;
+import static org.testng.Assert.*;
+
+/**
+ * Checks the messages sent by {@link FirmataOutputBatch} and the state of the
+ * pins after commit.
+ */
+public class FirmataOutputBatchTest {
+
+    private VirtualBoard board;
+    private RecordingTransport transport;
+    private FirmataDevice device;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        transport = new RecordingTransport(board.getClientTransport());
+        device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+        transport.takeWrites();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        try {
+            device.stop();
+        } catch (DeviceCommunicationException ex) {
+            // the writer has failed already
+        }
+        board.stop();
+        transport.shutdown();
+    }
+
+    @Test(timeOut = 10000)
+    public void testOneDigitalMessagePerDirtyPort() throws Exception {
+        device.batch()
+                .setValue(2, 1)
+                .setValue(3, 1)
+                .setValue(4, 0)
+                .setValue(9, 1)
+                .commit();
+        // pin 4 keeps its value, port 2 is not touched at all
+        assertEquals(transport.takeWrites(), Arrays.asList("900c00" + "910200"));
+        assertEquals(device.getOutputPorts().get(0), 0x0C);
+        assertEquals(device.getOutputPorts().get(1), 0x02);
+    }
+
+    @Test(timeOut = 10000)
+    public void testOneAnalogMessagePerChangedPin() throws Exception {
+        device.batch()
+                .setMode(5, Pin.Mode.PWM)
+                .setValue(5, 100)
+                .setMode(6, Pin.Mode.PWM)
+                .setValue(6, 20)
+                .setValue(6, 30)
+                .setMode(7, Pin.Mode.PWM)
+                .commit();
+        // the modes, the values and the state queries of every pin with a new mode
+        assertEquals(transport.takeWrites(), Arrays.asList("f40503" + "f40603" + "f40703" + "e56400" + "e61e00"
+                + "f06d05f7" + "f06d06f7" + "f06d07f7"));
+        assertEquals(device.getPin(5).getValue(), 100);
+        assertEquals(device.getPin(6).getValue(), 30);
+        device.batch().setValue(5, 100).setValue(6, 31).commit();
+        assertEquals(transport.takeWrites(), Arrays.asList("e61f00"));
+    }
+
+    @Test(timeOut = 10000)
+    public void testStateIsQueriedAfterNewValueOfPort() throws Exception {
+        device.configure(Collections.singletonMap(7, Pin.Mode.PWM)).get(5, TimeUnit.SECONDS);
+        transport.takeWrites();
+        device.batch().setMode(7, Pin.Mode.OUTPUT).setValue(7, 1).commit();
+        assertEquals(transport.takeWrites(), Arrays.asList("f40701" + "900001" + "f06d07f7"));
+        // the board answers in order, so the reply for pin 7 has been processed once pin 8 is confirmed
+        device.configure(Collections.singletonMap(8, Pin.Mode.PWM)).get(5, TimeUnit.SECONDS);
+        assertEquals(board.getPinValue(7), 1);
+        assertEquals(device.getPin(7).getValue(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testEventsAreFiredOnceAfterCommit() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        List<String> values = new CopyOnWriteArrayList<>();
+        device.getPin(2).addEventListener(new PinEventListener() {
+            @Override
+            public void onModeChange(IOEvent event) {
+                events.add("mode " + event.getPin().getMode());
+            }
+
+            @Override
+            public void onValueChange(IOEvent event) {
+                events.add("value " + event.getValue());
+            }
+        });
+        device.addPinValueListener((pinIndex, value, nanoTimestamp) -> values.add(pinIndex + "=" + value));
+        OutputBatch batch = device.batch()
+                .setMode(2, Pin.Mode.PWM)
+                .setValue(2, 10)
+                .setValue(2, 20)
+                .setValue(3, 1);
+        assertTrue(events.isEmpty());
+        batch.commit();
+        assertEquals(events, Arrays.asList("mode PWM", "value 20"));
+        assertEquals(values, Arrays.asList("2=20", "3=1"));
+        assertTrue(batch.isEmpty());
+        batch.commit();
+        assertEquals(events.size(), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void testPinsAreRevertedWhenSendFails() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        device.addPinValueListener((pinIndex, value, nanoTimestamp) -> events.add(pinIndex + "=" + value));
+        transport.failOn = DIGITAL_MESSAGE & 0xFF;
+        CompletableFuture<Void> sent = device.batch()
+                .setValue(2, 1)
+                .setMode(5, Pin.Mode.PWM)
+                .setValue(5, 50)
+                .commitAsync();
+        try {
+            sent.get();
+            fail("The failure of the transport should be reported");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeviceCommunicationException);
+        }
+        assertEquals(device.getPin(2).getValue(), 0);
+        assertEquals(device.getPin(5).getMode(), Pin.Mode.OUTPUT);
+        assertEquals(device.getPin(5).getValue(), 0);
+        assertEquals(device.getOutputPorts().get(0), 0);
+        assertTrue(events.isEmpty());
+        // the writer has failed for good, a blocking commit throws right away
+        try {
+            device.batch().setValue(3, 1).commit();
+            fail("The failure of the transport should be reported");
+        } catch (DeviceCommunicationException ex) {
+            // expected
+        }
+        assertEquals(device.getPin(3).getValue(), 0);
+        assertEquals(device.getOutputPorts().get(0), 0);
+        assertTrue(events.isEmpty());
+    }
+
+}
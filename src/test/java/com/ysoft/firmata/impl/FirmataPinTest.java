@@ -0,0 +1,307 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.PinEventListener;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.SET_PIN_MODE;
+import static org.testng.Assert.*;
+
+/**
+ * Checks how {@link FirmataPin} behaves when the transport fails, which
+ * values its events carry and which channels and ports the board is asked
+ * to report as modes of pins change.
+ */
+public class FirmataPinTest {
+
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    public void setUp() {
+        // writes the messages in the sending thread, so a failure of the transport shows up right away
+        executor = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test(timeOut = 10000)
+    public void testModeChangeIsReportedWhenStateRequestFails() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        FailingTransport transport = new FailingTransport(board.getClientTransport(), executor);
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+        Pin pin = device.getPin(2);
+        pin.setMode(Pin.Mode.OUTPUT);
+        CountDownLatch modeChanged = new CountDownLatch(1);
+        pin.addEventListener(new PinEventListener() {
+            @Override
+            public void onModeChange(IOEvent event) {
+                modeChanged.countDown();
+            }
+
+            @Override
+            public void onValueChange(IOEvent event) {
+            }
+        });
+        // the mode message is accepted, its failure makes the state request throw
+        transport.failOn = SET_PIN_MODE & 0xFF;
+        try {
+            pin.setMode(Pin.Mode.INPUT);
+            fail("The failure of the transport should be reported");
+        } catch (DeviceCommunicationException ex) {
+            // expected
+        }
+        assertEquals(pin.getMode(), Pin.Mode.INPUT);
+        assertTrue(modeChanged.await(5, TimeUnit.SECONDS), "Listener has not been notified of the mode change");
+        try {
+            device.stop();
+        } catch (DeviceCommunicationException ex) {
+            // the writer has failed already
+        }
+        board.stop();
+    }
+
+    @Test(timeOut = 10000)
+    public void testValueEventCarriesFiredValue() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            Pin pin = device.getPin(2);
+            pin.setMode(Pin.Mode.OUTPUT);
+            List<Long> values = new CopyOnWriteArrayList<>();
+            pin.addEventListener(new IgnoringListener() {
+                @Override
+                public void onValueChange(IOEvent event) {
+                    values.add(event.getValue());
+                }
+            });
+            // the pin changes again before the event of the first change is built
+            device.addPinValueListener((pinIndex, value, timestamp) -> {
+                if (value == 1) {
+                    pin.setValue(0);
+                }
+            });
+            pin.setValue(1);
+            assertEquals(values, Arrays.asList(0L, 1L));
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testModeChangesToggleAnalogReporting() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(6).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            transport.takeWrites();
+            assertEquals(device.getReportedAnalogChannels(), set(0, 1, 2, 3, 4, 5));
+            // pin 14 is analog channel 0
+            device.getPin(14).setMode(Pin.Mode.OUTPUT);
+            assertEquals(toggles(transport), Arrays.asList("c000"));
+            assertEquals(device.getReportedAnalogChannels(), set(1, 2, 3, 4, 5));
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+            device.getPin(14).setMode(Pin.Mode.ANALOG);
+            assertEquals(toggles(transport), Arrays.asList("c001"));
+            assertEquals(device.getReportedAnalogChannels(), set(0, 1, 2, 3, 4, 5));
+            // a listener of an analog input does not enable its digital port
+            device.getPin(15).addEventListener(new IgnoringListener());
+            assertEquals(toggles(transport), Collections.emptyList());
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testModeChangesToggleDigitalReporting() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            transport.takeWrites();
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+            device.getPin(2).setMode(Pin.Mode.INPUT);
+            assertEquals(toggles(transport), Arrays.asList("d001"));
+            // the port is reported already
+            device.getPin(3).setMode(Pin.Mode.PULLUP);
+            assertEquals(toggles(transport), Collections.emptyList());
+            device.getPin(9).setMode(Pin.Mode.INPUT);
+            assertEquals(toggles(transport), Arrays.asList("d101"));
+            assertEquals(device.getReportedDigitalPorts(), set(0, 1));
+            device.getPin(2).setMode(Pin.Mode.OUTPUT);
+            assertEquals(toggles(transport), Collections.emptyList());
+            device.getPin(3).setMode(Pin.Mode.OUTPUT);
+            assertEquals(toggles(transport), Arrays.asList("d000"));
+            assertEquals(device.getReportedDigitalPorts(), set(1));
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testListenersDoNotChangeReporting() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setOutboundMaxLatency(0));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            transport.takeWrites();
+            device.addDigitalPortListener((portId, oldMask, newMask) -> { });
+            assertEquals(toggles(transport), Collections.emptyList());
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+            // a listener of an output pin does not enable its port
+            PinEventListener listener = new IgnoringListener();
+            device.getPin(17).addEventListener(listener);
+            assertEquals(toggles(transport), Collections.emptyList());
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+            device.getPin(17).setMode(Pin.Mode.INPUT);
+            assertEquals(toggles(transport), Arrays.asList("d201"));
+            // nor does removing the listener of an input pin disable it
+            device.getPin(17).removeEventListener(listener);
+            assertEquals(toggles(transport), Collections.emptyList());
+            assertEquals(device.getReportedDigitalPorts(), set(2));
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    /**
+     * Takes the recorded writes and keeps the REPORT_ANALOG and
+     * REPORT_DIGITAL messages.
+     */
+    private static List<String> toggles(RecordingTransport transport) {
+        return transport.takeWrites().stream()
+                .filter(write -> write.startsWith("c") || write.startsWith("d"))
+                .collect(Collectors.toList());
+    }
+
+    private static Set<Integer> set(Integer... values) {
+        return new TreeSet<>(Arrays.asList(values));
+    }
+
+    private static class IgnoringListener implements PinEventListener {
+
+        @Override
+        public void onModeChange(IOEvent event) {
+        }
+
+        @Override
+        public void onValueChange(IOEvent event) {
+        }
+    }
+
+    /**
+     * Passes the data to another transport. Writes containing the command
+     * set by {@link #failOn} fail.
+     */
+    private static class FailingTransport implements Transport {
+
+        private final Transport delegate;
+        private final ScheduledExecutorService executor;
+        private volatile int failOn = -1;
+
+        FailingTransport(Transport delegate, ScheduledExecutorService executor) {
+            this.delegate = delegate;
+            this.executor = executor;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                if ((data[i] & 0xFF) == failOn) {
+                    throw new IOException("Broken link");
+                }
+            }
+            delegate.write(data, offset, length);
+        }
+
+        @Override
+        public void open() throws IOException {
+            delegate.open();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            return delegate.read(buffer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void setTransportListener(TransportListener listener) {
+            delegate.setTransportListener(listener);
+        }
+
+        @Override
+        public ScheduledExecutorService getWriteExecutor() {
+            return executor;
+        }
+
+    }
+
+}
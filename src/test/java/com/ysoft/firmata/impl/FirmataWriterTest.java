@@ -0,0 +1,389 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.DIGITAL_MESSAGE;
+import static org.testng.Assert.*;
+
+/**
+ * Checks the order of the messages written by {@link FirmataWriter}, the
+ * states of the ports they carry and how they are packed into writes.
+ */
+public class FirmataWriterTest {
+
+    private static final byte[] FIRST = {(byte) 0xF9};
+
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @DataProvider
+    public Object[][] executors() {
+        return new Object[][]{{false}, {true}};
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testPortWriteIsNotReorderedWithModeChange(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(true);
+        FirmataWriter writer = newWriter(transport, shared);
+        DigitalOutputPorts ports = new DigitalOutputPorts();
+        byte[] setMode = FirmataMessageFactory.setMode((byte) 1, Pin.Mode.OUTPUT);
+        writer.start();
+        // the writer is held in the first write, the following messages wait in the lane
+        writer.send(FIRST, MessagePriority.REALTIME);
+        transport.awaitWrite();
+        ports.update(0, 0x01, 0x01);
+        writer.sendPort(ports, 0, MessagePriority.REALTIME);
+        writer.send(setMode, MessagePriority.REALTIME);
+        ports.update(0, 0x02, 0x02);
+        writer.sendPort(ports, 0, MessagePriority.REALTIME);
+        // merged into the previous write of the port, which follows the mode change
+        ports.update(0, 0x01, 0x00);
+        writer.sendPort(ports, 0, MessagePriority.REALTIME);
+        transport.release();
+        writer.stop();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FIRST);
+        expected.write(port(0, 0x01));
+        expected.write(setMode);
+        expected.write(port(0, 0x02));
+        assertEquals(transport.getData(), expected.toByteArray());
+        assertEquals(writer.getMessageCount(), 4);
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testQueuedPortWriteKeepsItsState(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(true);
+        FirmataWriter writer = newWriter(transport, shared);
+        DigitalOutputPorts ports = new DigitalOutputPorts();
+        writer.start();
+        writer.send(FIRST, MessagePriority.REALTIME);
+        transport.awaitWrite();
+        ports.update(1, 0x01, 0x01);
+        CompletableFuture<Void> sent = writer.sendPortAsync(ports, 1, MessagePriority.REALTIME);
+        writer.send(FirmataMessageFactory.pinStateRequest((byte) 8), MessagePriority.REALTIME);
+        // a later state of the port must not leak into the message queued before
+        ports.update(1, 0x01, 0x00);
+        writer.sendPort(ports, 1, MessagePriority.REALTIME);
+        transport.release();
+        writer.stop();
+        sent.get();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FIRST);
+        expected.write(port(1, 0x01));
+        expected.write(FirmataMessageFactory.pinStateRequest((byte) 8));
+        expected.write(port(1, 0x00));
+        assertEquals(transport.getData(), expected.toByteArray());
+    }
+
+    @Test(dataProvider = "executors", timeOut = 10000)
+    public void testMessagesOfEveryThreadKeepTheirOrder(boolean shared) throws Exception {
+        int threads = 4;
+        int count = 2000;
+        RecordingTransport transport = new RecordingTransport(false);
+        FirmataWriter writer = newWriter(transport, shared);
+        writer.start();
+        Thread[] senders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            senders[t] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    byte[] message = {(byte) (0xE0 | thread), (byte) (i & 0x7F), (byte) (i >>> 7)};
+                    writer.send(message, i % 2 == 0 ? MessagePriority.REALTIME : MessagePriority.CONTROL);
+                }
+            });
+            senders[t].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        writer.stop();
+
+        byte[] data = transport.getData();
+        assertEquals(data.length, threads * count * 3);
+        int[] next = new int[threads];
+        for (int i = 0; i < data.length; i += 3) {
+            int thread = data[i] & 0x0F;
+            assertEquals(data[i + 1] | (data[i + 2] << 7), next[thread]++);
+        }
+        assertEquals(writer.getMessageCount(), threads * count);
+        assertTrue(writer.getWriteCount() <= writer.getMessageCount());
+    }
+
+    @Test(dataProvider = "executors", timeOut = 10000)
+    public void testConcurrentPortWritesEndInLatestState(boolean shared) throws Exception {
+        int threads = 4;
+        int count = 2000;
+        RecordingTransport transport = new RecordingTransport(false);
+        FirmataWriter writer = newWriter(transport, shared);
+        DigitalOutputPorts ports = new DigitalOutputPorts();
+        writer.start();
+        Thread[] senders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int bit = 1 << t;
+            senders[t] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    int portId = i % 2;
+                    ports.update(portId, bit, i % 4 < 2 ? 0 : bit);
+                    writer.sendPort(ports, portId, MessagePriority.REALTIME);
+                    if (i % 7 == 0) {
+                        // a message without ports ends merging into the last message
+                        writer.send(FirmataMessageFactory.pinStateRequest((byte) 0), MessagePriority.REALTIME);
+                    }
+                }
+            });
+            senders[t].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        writer.stop();
+
+        // the last write of every port carries the state of its shadow register
+        byte[] data = transport.getData();
+        int[] written = {-1, -1};
+        for (int i = 0; i < data.length; ) {
+            if ((data[i] & 0xF0) == (DIGITAL_MESSAGE & 0xFF)) {
+                written[data[i] & 0x0F] = data[i + 1] | (data[i + 2] << 7);
+                i += DigitalOutputPorts.MESSAGE_LENGTH;
+            } else {
+                i += FirmataMessageFactory.pinStateRequest((byte) 0).length;
+            }
+        }
+        assertEquals(ports.get(0), 0x0F);
+        assertEquals(ports.get(1), 0x0F);
+        assertEquals(written[0], ports.get(0));
+        assertEquals(written[1], ports.get(1));
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testFailureIsSticky(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(false);
+        transport.failure = new IOException("Broken link");
+        FirmataWriter writer = newWriter(transport, shared);
+        writer.start();
+        CompletableFuture<Void> sent = writer.sendAsync(FIRST, MessagePriority.REALTIME);
+        try {
+            sent.get();
+            fail("The message should not be sent");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeviceCommunicationException);
+        }
+        try {
+            writer.send(FIRST, MessagePriority.REALTIME);
+            fail("The writer should refuse messages after a failure");
+        } catch (DeviceCommunicationException ex) {
+            assertSame(ex.getCause(), transport.failure);
+        }
+        writer.stop();
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testBurstIsWrittenAtOnce(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(true);
+        FirmataWriter writer = newWriter(transport, shared);
+        writer.start();
+        writer.send(FIRST, MessagePriority.REALTIME);
+        transport.awaitWrite();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FIRST);
+        for (byte pin = 0; pin < 8; pin++) {
+            byte[] message = FirmataMessageFactory.pinStateRequest(pin);
+            writer.send(message, MessagePriority.CONTROL);
+            expected.write(message);
+        }
+        transport.release();
+        writer.stop();
+
+        assertEquals(transport.getData(), expected.toByteArray());
+        assertEquals(transport.getWriteCalls(), 2);
+        assertEquals(writer.getWriteCount(), 2);
+        assertEquals(writer.getMessageCount(), 9);
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testBatchLingersForMoreMessages(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(false);
+        // long enough for the messages to be enqueued before the batch is written
+        FirmataWriter writer = new FirmataWriter(transport, 64, 500_000, null, null, shared ? executor : null);
+        writer.start();
+        for (byte pin = 0; pin < 4; pin++) {
+            writer.send(FirmataMessageFactory.pinStateRequest(pin), MessagePriority.CONTROL);
+        }
+        writer.stop();
+
+        assertEquals(transport.getWriteCalls(), 1);
+        assertEquals(writer.getMessageCount(), 4);
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testBulkMessagesYieldToOtherClasses(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(true);
+        FirmataWriter writer = newWriter(transport, shared);
+        byte[] bulk1 = FirmataMessageFactory.i2cWriteRequest((byte) 0x3C, new byte[]{1, 2, 3});
+        byte[] bulk2 = FirmataMessageFactory.i2cWriteRequest((byte) 0x3C, new byte[]{4, 5, 6});
+        byte[] control = FirmataMessageFactory.pinStateRequest((byte) 2);
+        byte[] realtime = FirmataMessageFactory.setAnalogPinValue((byte) 3, 100);
+        writer.start();
+        writer.send(FIRST, MessagePriority.REALTIME);
+        transport.awaitWrite();
+        writer.send(bulk1, MessagePriority.BULK);
+        writer.send(bulk2, MessagePriority.BULK);
+        writer.send(control, MessagePriority.CONTROL);
+        writer.send(realtime, MessagePriority.REALTIME);
+        transport.release();
+        writer.stop();
+
+        // the urgent lane goes first and a write carries one bulk message at most
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FIRST);
+        expected.write(control);
+        expected.write(realtime);
+        expected.write(bulk1);
+        expected.write(bulk2);
+        assertEquals(transport.getData(), expected.toByteArray());
+        assertEquals(transport.getWriteCalls(), 3);
+    }
+
+    @Test(dataProvider = "executors", timeOut = 5000)
+    public void testFailureCompletesPendingMessages(boolean shared) throws Exception {
+        RecordingTransport transport = new RecordingTransport(true);
+        FirmataWriter writer = newWriter(transport, shared);
+        writer.start();
+        writer.send(FIRST, MessagePriority.REALTIME);
+        transport.awaitWrite();
+        CompletableFuture<Void> control = writer.sendAsync(FirmataMessageFactory.pinStateRequest((byte) 1), MessagePriority.CONTROL);
+        CompletableFuture<Void> bulk = writer.sendAsync(FirmataMessageFactory.i2cWriteRequest((byte) 0x3C, new byte[]{1}), MessagePriority.BULK);
+        // the write holding the writer fails
+        transport.failure = new IOException("Broken link");
+        transport.release();
+        for (CompletableFuture<Void> pending : Arrays.asList(control, bulk)) {
+            try {
+                pending.get();
+                fail("The pending message should not be sent");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof DeviceCommunicationException);
+                assertSame(ex.getCause().getCause(), transport.failure);
+            }
+        }
+        writer.stop();
+    }
+
+    private FirmataWriter newWriter(Transport transport, boolean shared) {
+        return new FirmataWriter(transport, 64, 0, null, null, shared ? executor : null);
+    }
+
+    private static byte[] port(int portId, int value) {
+        byte[] message = new byte[DigitalOutputPorts.MESSAGE_LENGTH];
+        DigitalOutputPorts.encode(portId, value, message, 0);
+        return message;
+    }
+
+    /**
+     * Keeps the written bytes. It may hold the writer in the first write
+     * until released.
+     */
+    private static class RecordingTransport implements Transport {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final CountDownLatch written = new CountDownLatch(1);
+        private final CountDownLatch released;
+        private volatile IOException failure;
+        private int writeCalls;
+
+        RecordingTransport(boolean holdFirstWrite) {
+            released = new CountDownLatch(holdFirstWrite ? 1 : 0);
+        }
+
+        void awaitWrite() throws InterruptedException {
+            written.await();
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        synchronized byte[] getData() {
+            return data.toByteArray();
+        }
+
+        synchronized int getWriteCalls() {
+            return writeCalls;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            synchronized (this) {
+                data.write(bytes, offset, length);
+                writeCalls++;
+            }
+            written.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            return 0;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void setTransportListener(TransportListener listener) {
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.IODeviceEventListener;
+import com.ysoft.firmata.IOEvent;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.PinEventListener;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Measures how fast several threads set values of pins while listeners are
+ * notified of the changes.<br/>
+ * Every writing thread sets its own PWM pin which has a listener. The
+ * scenarios add threads that keep adding and removing listeners of the
+ * device and of the pins, and a listener that copies every change of a pin
+ * to its partner pin, which is set by another thread. A scenario whose
+ * writes stop is reported as deadlocked.<br/>
+ * The benchmark is in the {@code benchmark} group which the regular test run
+ * excludes. All benchmarks are run by {@code mvn test -Pbenchmark}, this one by
+ * {@code mvn test -Dtest=ListenerContentionBenchmark}.
+ */
+public class ListenerContentionBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerContentionBenchmark.class);
+
+    private static final int WRITERS = 4;
+    private static final int FIRST_PIN = 2;
+    private static final int CHURNERS = 2;
+    private static final long WARM_UP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 3000;
+
+    @Test(groups = "benchmark")
+    public void benchmarkWithoutChurn() throws Exception {
+        run("Without churn", false, false);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkWithChurn() throws Exception {
+        run("With churn", true, false);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkMirrorWithChurn() throws Exception {
+        run("Mirror with churn", true, true);
+    }
+
+    private static void run(String name, boolean churn, boolean mirror) throws Exception {
+        VirtualBoard board = new VirtualBoard()
+                .setPinCount(20)
+                .setAnalogPinCount(6)
+                .setReportRate(0);
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(board.getClientTransport()));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+        LongAdder writes = new LongAdder();
+        LongAdder registrations = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            Pin pin = device.getPin(FIRST_PIN + i);
+            pin.setMode(Pin.Mode.PWM);
+            // pins are paired, a mirroring listener of a pin sets the other pin of the pair
+            Pin partner = device.getPin(FIRST_PIN + (i ^ 1));
+            pin.addEventListener(new PinListener(mirror ? partner : null));
+            threads.add(new Thread(() -> {
+                long value = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    pin.setValue(++value & 0xFF);
+                    writes.increment();
+                }
+            }, "writer-" + i));
+        }
+        for (int i = 0; churn && i < CHURNERS; i++) {
+            Pin pin = device.getPin(FIRST_PIN + i);
+            threads.add(new Thread(() -> {
+                IODeviceEventListener deviceListener = new DeviceListener();
+                PinEventListener pinListener = new PinListener(null);
+                while (!Thread.currentThread().isInterrupted()) {
+                    device.addEventListener(deviceListener);
+                    pin.addEventListener(pinListener);
+                    device.removeEventListener(deviceListener);
+                    pin.removeEventListener(pinListener);
+                    registrations.add(2);
+                }
+            }, "churner-" + i));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread.sleep(WARM_UP_MILLIS);
+        long writesBefore = writes.sum();
+        long registrationsBefore = registrations.sum();
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MILLIS);
+        long elapsed = System.nanoTime() - start;
+        long written = writes.sum() - writesBefore;
+        long registered = registrations.sum() - registrationsBefore;
+        Thread.sleep(500);
+        boolean deadlocked = writes.sum() == writesBefore + written;
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        if (deadlocked) {
+            // the stuck threads keep the pins locked, the device is left behind
+            LOGGER.info("{}: deadlocked", name);
+            return;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        device.stop();
+        board.stop();
+        LOGGER.info("{}: {} writes/s, {} registrations/s", name,
+                written * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                registered * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+
+    private static class PinListener implements PinEventListener {
+
+        private final Pin partner;
+
+        PinListener(Pin partner) {
+            this.partner = partner;
+        }
+
+        @Override
+        public void onModeChange(IOEvent event) {
+        }
+
+        @Override
+        public void onValueChange(IOEvent event) {
+            if (partner != null) {
+                partner.setValue(event.getValue());
+            }
+        }
+    }
+
+    private static class DeviceListener implements IODeviceEventListener {
+
+        @Override
+        public void onStart(IOEvent event) {
+        }
+
+        @Override
+        public void onStop(IOEvent event) {
+        }
+
+        @Override
+        public void onPinChange(IOEvent event) {
+        }
+
+        @Override
+        public void onMessageReceive(IOEvent event, String message) {
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeliveryPolicy;
+import com.ysoft.firmata.EventOrdering;
+import com.ysoft.firmata.PinValueListener;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks the copy-on-write registry of listeners and the replacement of
+ * their subscriptions.
+ */
+public class ListenerRegistryTest {
+
+    @Test
+    public void testListenerIsAddedOnce() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>();
+        Runnable listener = () -> {};
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.add(subscription(listener, EventOrdering.LISTENER)));
+        assertFalse(registry.add(subscription(listener, EventOrdering.PIN)));
+        assertEquals(registry.snapshot().length, 1);
+        assertEquals(registry.snapshot()[0].getOrdering(), EventOrdering.LISTENER);
+    }
+
+    @Test
+    public void testPutReplacesSubscription() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>();
+        Runnable first = () -> {};
+        Runnable second = () -> {};
+        registry.put(subscription(first, EventOrdering.LISTENER));
+        registry.put(subscription(second, EventOrdering.LISTENER));
+        registry.put(subscription(first, EventOrdering.PIN));
+        Subscription<Runnable>[] snapshot = registry.snapshot();
+        assertEquals(snapshot.length, 2);
+        assertSame(snapshot[0].getListener(), first);
+        assertEquals(snapshot[0].getOrdering(), EventOrdering.PIN);
+        assertSame(snapshot[1].getListener(), second);
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByLaterModifications() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>();
+        Runnable first = () -> {};
+        Runnable second = () -> {};
+        registry.add(subscription(first, EventOrdering.LISTENER));
+        registry.add(subscription(second, EventOrdering.LISTENER));
+        Subscription<Runnable>[] snapshot = registry.snapshot();
+        assertTrue(registry.remove(first));
+        assertFalse(registry.remove(first));
+        registry.add(subscription(() -> {}, EventOrdering.LISTENER));
+        assertEquals(snapshot.length, 2);
+        assertSame(snapshot[0].getListener(), first);
+        assertSame(snapshot[1].getListener(), second);
+        assertEquals(registry.snapshot().length, 2);
+        assertSame(registry.snapshot()[0].getListener(), second);
+    }
+
+    @Test
+    public void testRemovingLastListenerEmptiesRegistry() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>();
+        Runnable listener = () -> {};
+        registry.add(subscription(listener, EventOrdering.LISTENER));
+        assertTrue(registry.remove(listener));
+        assertTrue(registry.isEmpty());
+        assertEquals(registry.snapshot().length, 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testReplacedMailboxHandsEventsOver() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(0, 16, 0, 64, 16);
+        ListenerRegistry<PinValueListener> registry = new ListenerRegistry<>();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        List<Long> values = new CopyOnWriteArrayList<>();
+        PinValueListener listener = (pin, value, timestamp) -> {
+            if (running.incrementAndGet() > 1) {
+                values.add(-1L);
+            }
+            values.add(value);
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        };
+        Subscription<PinValueListener> first = dispatcher.subscribe(listener, DeliveryPolicy.ASYNC_UNBOUNDED);
+        registry.put(first);
+        for (int i = 1; i <= 3; i++) {
+            registry.fire(dispatcher, EventDispatcher.Kind.PIN_VALUE, 0, null, null, 0, i, 0);
+        }
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Subscription<PinValueListener> second = dispatcher.subscribe(listener, DeliveryPolicy.ASYNC_DROP_OLDEST);
+        Thread replacing = new Thread(() -> registry.put(second));
+        replacing.start();
+        // the old mailbox finishes its delivery before it hands the rest over
+        replacing.join(100);
+        assertTrue(replacing.isAlive(), "The replacement should wait for the delivery in progress");
+        release.countDown();
+        replacing.join();
+        assertSame(registry.snapshot()[0], second);
+        assertEquals(first.getQueueDepth(), 0);
+        registry.fire(dispatcher, EventDispatcher.Kind.PIN_VALUE, 0, null, null, 0, 4, 0);
+        dispatcher.stop();
+        assertEquals(values.toString(), "[1, 2, 3, 4]");
+        assertEquals(first.getDeliveredCount(), 1);
+        assertEquals(second.getDeliveredCount(), 3);
+    }
+
+    private static Subscription<Runnable> subscription(Runnable listener, EventOrdering ordering) {
+        return new Subscription<>(listener, ordering, 0);
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.SET_PIN_MODE;
+import static org.testng.Assert.*;
+
+/**
+ * Checks confirmation of pin modes by {@link ModeConfiguration} and
+ * {@link FirmataDevice#configure(Map)}.
+ */
+public class ModeConfigurationTest {
+
+    @Test
+    public void testFutureCompletesWhenEveryPinIsConfirmed() {
+        Map<Integer, Pin.Mode> modes = new HashMap<>();
+        modes.put(2, Pin.Mode.INPUT);
+        modes.put(3, Pin.Mode.PWM);
+        ModeConfiguration configuration = new ModeConfiguration(modes, Collections.singletonMap(3, 1));
+        CompletableFuture<Void> future = configuration.getFuture();
+        assertFalse(configuration.accepts(4));
+        assertTrue(configuration.accepts(2));
+        configuration.onPinState(2, Pin.Mode.INPUT);
+        assertFalse(future.isDone());
+        // the response to the query sent before the configuration is passed by
+        assertFalse(configuration.accepts(3));
+        assertFalse(future.isDone());
+        assertTrue(configuration.accepts(3));
+        configuration.onPinState(3, Pin.Mode.PWM);
+        assertTrue(future.isDone());
+        assertFalse(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testFutureFailsWhenPinReportsAnotherMode() throws Exception {
+        ModeConfiguration configuration = new ModeConfiguration(Collections.singletonMap(2, Pin.Mode.INPUT), Collections.emptyMap());
+        assertTrue(configuration.accepts(2));
+        configuration.onPinState(2, Pin.Mode.OUTPUT);
+        try {
+            configuration.getFuture().get();
+            fail("The configuration should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testFutureFailsWhenConfirmationDoesNotCome() throws Exception {
+        ModeConfiguration configuration = new ModeConfiguration(Collections.singletonMap(2, Pin.Mode.INPUT), Collections.emptyMap());
+        configuration.expireAfter(50);
+        try {
+            configuration.getFuture().get();
+            fail("The configuration should time out");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testDeviceConfigurationIsConfirmedByBoard() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            transport.takeWrites();
+            Map<Integer, Pin.Mode> modes = new LinkedHashMap<>();
+            modes.put(2, Pin.Mode.INPUT);
+            modes.put(3, Pin.Mode.PWM);
+            modes.put(4, Pin.Mode.OUTPUT);
+            device.configure(modes).get(5, TimeUnit.SECONDS);
+            // pin 4 is an output already
+            assertEquals(transport.takeWrites().get(0), "f40200" + "f40303" + "f06d02f7" + "f06d03f7");
+            assertEquals(board.getPinMode(2), Pin.Mode.INPUT.ordinal());
+            assertEquals(board.getPinMode(3), Pin.Mode.PWM.ordinal());
+            assertEquals(device.getPin(2).getMode(), Pin.Mode.INPUT);
+            assertEquals(device.getPin(3).getMode(), Pin.Mode.PWM);
+            assertTrue(device.configure(modes).isDone());
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testDeviceConfigurationTimesOutWithoutResponse() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport).setModeConfirmationTimeout(100));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            // the board never gets the queries
+            transport.dropOn = "f06d";
+            CompletableFuture<Void> configured = device.configure(Collections.singletonMap(2, Pin.Mode.PWM));
+            assertFalse(configured.isDone());
+            try {
+                configured.get();
+                fail("The configuration should time out");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof TimeoutException);
+            }
+            // the mode has been sent, so it is not taken back
+            assertEquals(device.getPin(2).getMode(), Pin.Mode.PWM);
+        } finally {
+            device.stop();
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testDeviceConfigurationIsRevertedWhenSendFails() throws Exception {
+        VirtualBoard board = new VirtualBoard().setPinCount(20).setAnalogPinCount(0).setReportRate(0);
+        RecordingTransport transport = new RecordingTransport(board.getClientTransport());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport));
+        board.start();
+        device.start();
+        try {
+            device.ensureInitializationIsDone();
+            transport.failOn = SET_PIN_MODE & 0xFF;
+            Map<Integer, Pin.Mode> modes = new LinkedHashMap<>();
+            modes.put(2, Pin.Mode.INPUT);
+            modes.put(3, Pin.Mode.PWM);
+            CompletableFuture<Void> configured = device.configure(modes);
+            try {
+                configured.get();
+                fail("The failure of the transport should be reported");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof DeviceCommunicationException);
+            }
+            for (int pin : Arrays.asList(2, 3)) {
+                assertEquals(device.getPin(pin).getMode(), Pin.Mode.OUTPUT, "Mode of pin " + pin);
+            }
+            assertTrue(device.getReportedDigitalPorts().isEmpty());
+        } finally {
+            try {
+                device.stop();
+            } catch (DeviceCommunicationException ex) {
+                // the writer has failed already
+            }
+            board.stop();
+            transport.shutdown();
+        }
+    }
+
+}
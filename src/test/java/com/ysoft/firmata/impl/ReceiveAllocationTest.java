@@ -0,0 +1,203 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.OverflowPolicy;
+import com.ysoft.firmata.WaitStrategy;
+import com.ysoft.firmata.impl.queue.ByteChunk;
+import com.ysoft.firmata.impl.queue.ByteChunkRing;
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks that received data travels from the transport through the parser
+ * without allocating memory in the steady state. The bytes allocated by the
+ * receiving thread are taken from {@link com.sun.management.ThreadMXBean}.
+ */
+public class ReceiveAllocationTest {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    // a few objects may be allocated by the measurement itself
+    private static final long ALLOWED_BYTES_PER_MEGABYTE = 1024;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Allocated bytes of threads cannot be measured");
+        }
+        threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Allocated bytes of threads cannot be measured");
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testQueueingDoesNotAllocate() {
+        ReplayTransport transport = new ReplayTransport(false);
+        // the device is not started, so nobody takes the chunks and the oldest ones are dropped
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport)
+                .setInboundOverflowPolicy(OverflowPolicy.DROP_OLDEST));
+        assertAllocationFree(device, transport);
+    }
+
+    @Test
+    public void testQueueingToDirectBuffersDoesNotAllocate() {
+        ReplayTransport transport = new ReplayTransport(false);
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport)
+                .setInboundOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .setInboundDirectBuffers(true));
+        assertAllocationFree(device, transport);
+    }
+
+    @Test
+    public void testInlineParsingDoesNotAllocate() {
+        ReplayTransport transport = new ReplayTransport(true);
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport));
+        assertAllocationFree(device, transport);
+    }
+
+    @Test
+    public void testDirectBuffersDoNotAllocate() {
+        ReplayTransport transport = new ReplayTransport(true);
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport)
+                .setInboundDirectBuffers(true));
+        assertAllocationFree(device, transport);
+    }
+
+    @Test
+    public void testFullRingRecyclesEveryChunk() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(4, 64, false, OverflowPolicy.DROP_OLDEST, WaitStrategy.BUSY_SPIN);
+        for (int i = 0; i < ring.getCapacity(); i++) {
+            publish(ring, i);
+        }
+        cycle(ring, 100);
+        long chunks = ring.getAllocatedChunkCount();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        // every chunk of the ring passes through the pool many times
+        cycle(ring, 1000 * ring.getCapacity());
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(ring.getAllocatedChunkCount(), chunks);
+        assertEquals(ring.getAllocatedChunkCount(), ring.getCapacity() + 2);
+        assertEquals(ring.getDiscardedChunkCount(), 0);
+        assertEquals(ring.size(), ring.getCapacity());
+        assertTrue(allocated <= ALLOWED_BYTES_PER_MEGABYTE, String.format("%d bytes allocated", allocated));
+    }
+
+    /**
+     * Keeps the ring full while the consumer holds a chunk: a chunk is
+     * published into the space left by the taken one and another one pushes
+     * out the oldest chunk before the taken chunk is released.
+     */
+    private static void cycle(ByteChunkRing ring, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            ByteChunk taken = ring.take();
+            publish(ring, i);
+            publish(ring, i);
+            ring.release(taken);
+        }
+    }
+
+    private static void publish(ByteChunkRing ring, int value) {
+        ByteChunk chunk = ring.acquire();
+        chunk.getBuffer().put((byte) value);
+        assertTrue(ring.publish(chunk));
+    }
+
+    private void assertAllocationFree(FirmataDevice device, ReplayTransport transport) {
+        // warms up the pools and the compiled code
+        receive(device, transport, 4 * MEGABYTE);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int megabytes = 8;
+        receive(device, transport, megabytes * MEGABYTE);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue(allocated / megabytes <= ALLOWED_BYTES_PER_MEGABYTE,
+                String.format("%d bytes allocated per MB received", allocated / megabytes));
+    }
+
+    private static void receive(FirmataDevice device, ReplayTransport transport, long bytes) {
+        long target = transport.delivered + bytes;
+        while (transport.delivered < target) {
+            transport.available = 4096;
+            device.onDataAvailable(transport);
+        }
+    }
+
+    /**
+     * Delivers analog and digital messages over and over, a limited number of
+     * bytes per notification.
+     */
+    private static class ReplayTransport implements Transport {
+
+        private final boolean inline;
+        private final byte[] data;
+        private int position;
+        private int available;
+        private long delivered;
+
+        ReplayTransport(boolean inline) {
+            this.inline = inline;
+            // 3 byte messages do not line up with the reads, so they are split between chunks
+            data = new byte[999];
+            for (int i = 0; i < data.length; i += 3) {
+                int value = i & 0x3FFF;
+                data[i] = (byte) ((i / 3) % 2 == 0 ? 0xE0 | (i / 3) % 16 : 0x90 | (i / 3) % 8);
+                data[i + 1] = (byte) (value & 0x7F);
+                data[i + 2] = (byte) (value >>> 7);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            int count = Math.min(Math.min(available, buffer.remaining()), data.length - position);
+            buffer.put(data, position, count);
+            position = (position + count) % data.length;
+            available -= count;
+            delivered += count;
+            return count;
+        }
+
+        @Override
+        public boolean supportsInlineParsing() {
+            return inline;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void setTransportListener(TransportListener listener) {
+        }
+
+    }
+
+}
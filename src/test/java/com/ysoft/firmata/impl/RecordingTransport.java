@@ -0,0 +1,106 @@
+package com.ysoft.firmata.impl;
+
+import com.ysoft.firmata.transport.Transport;
+import com.ysoft.firmata.transport.TransportListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Passes the data to another transport and records every write as a hex
+ * string. The device writes in the sending thread, so a message is recorded
+ * by the time it has been sent. Writes containing the command set by
+ * {@link #failOn} fail, writes containing the hex string set by
+ * {@link #dropOn} are recorded but do not reach the other transport.
+ */
+class RecordingTransport implements Transport {
+
+    private final Transport delegate;
+    private final List<String> writes = new ArrayList<>();
+    private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1) {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    volatile int failOn = -1;
+    volatile String dropOn;
+
+    RecordingTransport(Transport delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the writes recorded since the last call.
+     *
+     * @return the writes as hex strings
+     */
+    synchronized List<String> takeWrites() {
+        List<String> result = new ArrayList<>(writes);
+        writes.clear();
+        return result;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if ((data[i] & 0xFF) == failOn) {
+                throw new IOException("Broken link");
+            }
+        }
+        byte[] written = new byte[length];
+        System.arraycopy(data, offset, written, 0, length);
+        String hex = Hex.encodeHexString(written);
+        synchronized (this) {
+            writes.add(hex);
+        }
+        String drop = dropOn;
+        if (drop == null || !hex.contains(drop)) {
+            delegate.write(data, offset, length);
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        delegate.open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return delegate.read(buffer);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void setTransportListener(TransportListener listener) {
+        delegate.setTransportListener(listener);
+    }
+
+    @Override
+    public ScheduledExecutorService getWriteExecutor() {
+        return executor;
+    }
+
+}
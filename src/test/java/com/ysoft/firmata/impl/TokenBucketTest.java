@@ -0,0 +1,63 @@
+package com.ysoft.firmata.impl;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks the waits computed by {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testBoardIsLimitedByLineRate() {
+        // 960 bytes per second over the line, the board drains 3368 bytes per second
+        TokenBucket bucket = TokenBucket.forBoard(9600, 64, 19);
+        assertEquals(bucket.getCapacity(), 64);
+        assertWait(bucket, 32, 960);
+    }
+
+    @Test
+    public void testBoardIsLimitedByDrainRate() {
+        // 5760 bytes per second over the line, the board drains 3368 bytes per second
+        TokenBucket bucket = TokenBucket.forBoard(57600, 64, 19);
+        assertEquals(bucket.getCapacity(), 64);
+        assertWait(bucket, 32, 64 * 1000.0 / 19);
+    }
+
+    @Test
+    public void testWaitForMissingTokens() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1000);
+        assertEquals(bucket.tryAcquire(60), 0);
+        assertEquals(bucket.tryAcquire(40), 0);
+        long wait = bucket.tryAcquire(50);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(40) && wait <= TimeUnit.MILLISECONDS.toNanos(50), "Wait " + wait);
+        assertEquals(bucket.getDelay(), 0);
+        TimeUnit.NANOSECONDS.sleep(wait + TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(bucket.tryAcquire(50), 0);
+        assertTrue(bucket.getDelay() >= wait, "Delay " + bucket.getDelay());
+    }
+
+    @Test
+    public void testBucketDoesNotOverfill() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10, 1000);
+        // refilled many times over
+        Thread.sleep(50);
+        assertEquals(bucket.tryAcquire(10), 0);
+        assertTrue(bucket.tryAcquire(1) > 0);
+    }
+
+    /**
+     * Empties the bucket and checks that the count of tokens takes as long as
+     * the rate says. The time passed between the calls shortens the wait a
+     * little.
+     */
+    private static void assertWait(TokenBucket bucket, int count, double tokensPerSecond) {
+        assertEquals(bucket.tryAcquire(bucket.getCapacity()), 0);
+        long expected = (long) (count / tokensPerSecond * TimeUnit.SECONDS.toNanos(1));
+        long wait = bucket.tryAcquire(count);
+        assertTrue(wait <= expected + 1 && wait > expected * 3 / 4, "Expected about " + expected + " ns, got " + wait);
+    }
+
+}
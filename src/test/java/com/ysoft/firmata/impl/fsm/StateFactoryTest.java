@@ -0,0 +1,70 @@
+package com.ysoft.firmata.impl.fsm;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.impl.parser.WaitingForMessageState;
+import com.ysoft.firmata.transport.LoopbackTransport;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+import static org.testng.Assert.*;
+
+/**
+ * Checks that the states of the parser are reused between messages and that
+ * a reused state does not carry anything over from the previous message.
+ */
+public class StateFactoryTest {
+
+    // pin state response of pin 13 in output mode with value 1
+    private static final byte[] PIN_STATE_BYTES = {START_SYSEX, PIN_STATE_RESPONSE, 13, PIN_MODE_OUTPUT, 1, END_SYSEX};
+
+    @Test
+    public void testStatesAreReused() {
+        Recorder recorder = new Recorder();
+        State waiting = recorder.getCurrentState();
+        // stops inside the sysex message, so its state is current
+        recorder.process(PIN_STATE_BYTES, 0, 3);
+        State pinState = recorder.getCurrentState();
+        recorder.process(PIN_STATE_BYTES, 3, PIN_STATE_BYTES.length - 3);
+        assertSame(recorder.getCurrentState(), waiting);
+        recorder.process(PIN_STATE_BYTES, 0, 3);
+        assertSame(recorder.getCurrentState(), pinState);
+        recorder.process(PIN_STATE_BYTES, 3, PIN_STATE_BYTES.length - 3);
+        assertEquals(recorder.events.size(), 2);
+        for (Event event : recorder.events) {
+            assertEquals(event.getName(), PIN_STATE);
+            assertEquals(event.getBodyItem(PIN_ID), (byte) 13);
+            assertEquals(event.getBodyItem(PIN_MODE), PIN_MODE_OUTPUT);
+            assertEquals(event.getBodyItem(PIN_VALUE), 1L);
+        }
+    }
+
+    @Test
+    public void testReusedStateStartsEmpty() {
+        Recorder recorder = new Recorder();
+        // the first response carries a longer value, its extra bytes must not leak into the next one
+        recorder.process(new byte[]{START_SYSEX, PIN_STATE_RESPONSE, 5, PIN_MODE_PWM, 0x7F, 0x7F, 0x7F, END_SYSEX});
+        recorder.process(PIN_STATE_BYTES);
+        assertEquals(recorder.events.size(), 2);
+        Event second = recorder.events.get(1);
+        assertEquals(second.getBodyItem(PIN_ID), (byte) 13);
+        assertEquals(second.getBodyItem(PIN_VALUE), 1L);
+    }
+
+    private static class Recorder extends FiniteStateMachine {
+
+        private final List<Event> events = new ArrayList<>();
+
+        Recorder() {
+            super(WaitingForMessageState.class, new DeviceConfiguration(new LoopbackTransport()));
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            events.add(event);
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.ysoft.firmata.impl.fsm;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.impl.parser.WaitingForMessageState;
+import com.ysoft.firmata.transport.LoopbackTransport;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Measures how many messages per second the parser gets through and how many
+ * bytes it allocates per message. The traffic is a mix of analog and digital
+ * reports with an occasional pin state response, as a board streaming its
+ * inputs produces.<br/>
+ * The benchmark is in the {@code benchmark} group which the regular test run
+ * excludes. All benchmarks are run by {@code mvn test -Pbenchmark}, this one by
+ * {@code mvn test -Dtest=StateMachineBenchmark}.
+ */
+public class StateMachineBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateMachineBenchmark.class);
+
+    private static final int ROUNDS = 5;
+    private static final long ROUND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Test(groups = "benchmark")
+    public void benchmarkParsing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Allocated bytes of threads cannot be measured");
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        byte[] traffic = traffic();
+        Counter counter = new Counter();
+        // warms up the compiled code
+        run(counter, traffic, 2 * ROUND_NANOS);
+        for (int round = 1; round <= ROUNDS; round++) {
+            long messages = counter.messages;
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            run(counter, traffic, ROUND_NANOS);
+            long elapsed = System.nanoTime() - start;
+            allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            messages = counter.messages - messages;
+            LOGGER.info("Round {}: {} messages/s, {} bytes/message", round,
+                    messages * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                    String.format("%.1f", (double) allocated / messages));
+        }
+    }
+
+    private static void run(Counter counter, byte[] traffic, long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 100; i++) {
+                counter.process(traffic);
+            }
+        }
+    }
+
+    /**
+     * 16 analog reports, 8 digital reports and a pin state response.
+     */
+    private static byte[] traffic() {
+        byte[] data = new byte[16 * 3 + 8 * 3 + 6];
+        int position = 0;
+        for (int channel = 0; channel < 16; channel++) {
+            data[position++] = (byte) (ANALOG_MESSAGE | channel);
+            data[position++] = (byte) (channel * 7);
+            data[position++] = 3;
+        }
+        for (int port = 0; port < 8; port++) {
+            data[position++] = (byte) (DIGITAL_MESSAGE | port);
+            data[position++] = 0x55;
+            data[position++] = 1;
+        }
+        byte[] pinState = {START_SYSEX, PIN_STATE_RESPONSE, 13, PIN_MODE_OUTPUT, 1, END_SYSEX};
+        System.arraycopy(pinState, 0, data, position, pinState.length);
+        return data;
+    }
+
+    private static class Counter extends FiniteStateMachine {
+
+        private long messages;
+
+        Counter() {
+            super(WaitingForMessageState.class, new DeviceConfiguration(new LoopbackTransport()));
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            messages++;
+        }
+
+    }
+
+}
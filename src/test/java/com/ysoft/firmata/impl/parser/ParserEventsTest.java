@@ -0,0 +1,153 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
+import com.ysoft.firmata.transport.LoopbackTransport;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+import static org.testng.Assert.*;
+
+/**
+ * Feeds the parser with fixed messages and checks the typed events it
+ * fires. The messages are fed at once, byte by byte and split at every
+ * position, so both the bulk path and the byte-wise path of the states are
+ * exercised.
+ */
+public class ParserEventsTest {
+
+    private static final byte[] DIGITAL_BYTES = {(byte) 0x91, 0x05, 0x01};
+    private static final byte[] ANALOG_BYTES = {(byte) 0xE3, 0x10, 0x01};
+    private static final byte[] EXTENDED_ANALOG_BYTES = {START_SYSEX, EXTENDED_ANALOG, 0x05, 0x10, 0x01, 0x01, END_SYSEX};
+    private static final byte[] PIN_STATE_BYTES = {START_SYSEX, PIN_STATE_RESPONSE, 0x0D, 0x01, 0x01, END_SYSEX};
+    private static final byte[] STRING_BYTES = {START_SYSEX, STRING_DATA, 'H', 0x00, 'i', 0x00, END_SYSEX};
+
+    @Test
+    public void testDigitalMessage() {
+        List<String> events = parse(DIGITAL_BYTES);
+        assertEquals(events, Arrays.asList("digital port=1 value=133"));
+    }
+
+    @Test
+    public void testAnalogMessage() {
+        List<String> events = parse(ANALOG_BYTES);
+        assertEquals(events, Arrays.asList("analog pin=3 value=144 Integer"));
+    }
+
+    @Test
+    public void testExtendedAnalogMessage() {
+        List<String> events = parse(EXTENDED_ANALOG_BYTES);
+        assertEquals(events, Arrays.asList("analog pin=5 value=16528 Long"));
+    }
+
+    @Test
+    public void testPinStateResponse() {
+        List<String> events = parse(PIN_STATE_BYTES);
+        assertEquals(events, Arrays.asList("pinState pin=13 mode=1 value=1"));
+    }
+
+    @Test
+    public void testStringMessage() {
+        List<String> events = parse(STRING_BYTES);
+        assertEquals(events, Arrays.asList("string Hi"));
+    }
+
+    @Test
+    public void testStreamIsSplitAnywhere() {
+        byte[] stream = concat(DIGITAL_BYTES, ANALOG_BYTES, PIN_STATE_BYTES, DIGITAL_BYTES, EXTENDED_ANALOG_BYTES, ANALOG_BYTES, STRING_BYTES, ANALOG_BYTES);
+        List<String> expected = new ArrayList<>();
+        Recorder recorder = new Recorder();
+        for (byte b : stream) {
+            recorder.process(b);
+        }
+        expected.addAll(recorder.events);
+        assertEquals(expected.size(), 8);
+        for (int split = 0; split <= stream.length; split++) {
+            recorder = new Recorder();
+            recorder.process(stream, 0, split);
+            recorder.process(stream, split, stream.length - split);
+            assertEquals(recorder.events, expected, "Split at " + split);
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        byte[] stream = concat(ANALOG_BYTES, DIGITAL_BYTES, ANALOG_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stream.length);
+        buffer.put(stream);
+        Recorder recorder = new Recorder();
+        recorder.process(buffer, 0, stream.length);
+        assertEquals(recorder.events, parse(stream));
+    }
+
+    @Test
+    public void testEventsAreReused() {
+        List<Event> events = new ArrayList<>();
+        FiniteStateMachine fsm = new FiniteStateMachine(WaitingForMessageState.class, configuration()) {
+            @Override
+            public void onEvent(Event event) {
+                events.add(event);
+            }
+        };
+        fsm.process(concat(ANALOG_BYTES, ANALOG_BYTES, DIGITAL_BYTES, DIGITAL_BYTES));
+        assertEquals(events.size(), 4);
+        assertSame(events.get(0), events.get(1));
+        assertSame(events.get(2), events.get(3));
+    }
+
+    private static List<String> parse(byte[] data) {
+        Recorder recorder = new Recorder();
+        recorder.process(data);
+        return recorder.events;
+    }
+
+    private static byte[] concat(byte[]... messages) {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(messages).mapToInt(m -> m.length).sum());
+        for (byte[] message : messages) {
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    private static DeviceConfiguration configuration() {
+        return new DeviceConfiguration(new LoopbackTransport());
+    }
+
+    /**
+     * Describes the fired events while they are valid.
+     */
+    private static class Recorder extends FiniteStateMachine {
+
+        private final List<String> events = new ArrayList<>();
+
+        Recorder() {
+            super(WaitingForMessageState.class, configuration());
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            if (event instanceof DigitalPortEvent) {
+                DigitalPortEvent e = (DigitalPortEvent) event;
+                events.add(String.format("digital port=%d value=%d", e.getPortId(), e.getValue()));
+            } else if (event instanceof AnalogMessageEvent) {
+                AnalogMessageEvent e = (AnalogMessageEvent) event;
+                events.add(String.format("analog pin=%d value=%d %s", e.getPinId(), e.getValue(),
+                        e.getBodyItem(PIN_VALUE).getClass().getSimpleName()));
+            } else if (event instanceof PinStateEvent) {
+                PinStateEvent e = (PinStateEvent) event;
+                events.add(String.format("pinState pin=%d mode=%d value=%d", e.getPinId(), e.getMode(), e.getValue()));
+            } else if (event instanceof StringMessageEvent) {
+                events.add("string " + ((StringMessageEvent) event).getMessage());
+            } else {
+                events.add(event.getName());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.ysoft.firmata.impl.parser;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.capture.TrafficReader;
+import com.ysoft.firmata.capture.TrafficRecorder;
+import com.ysoft.firmata.impl.FirmataDevice;
+import com.ysoft.firmata.impl.fsm.Event;
+import com.ysoft.firmata.impl.fsm.FiniteStateMachine;
+import com.ysoft.firmata.simulator.SignalPattern;
+import com.ysoft.firmata.simulator.VirtualBoard;
+import com.ysoft.firmata.transport.LoopbackTransport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+
+/**
+ * Measures how fast the parser decodes received data.<br/>
+ * The recorded session is the inbound data of a file captured by
+ * {@link TrafficRecorder}, given by the {@code firmata.capture} system
+ * property. Without the property, a session of a {@link VirtualBoard}
+ * streaming its inputs is recorded first. The session is repeated to
+ * {@value #STREAM_SIZE} bytes and fed to the parser in chunks of
+ * {@value #CHUNK_SIZE} bytes, as reads of a transport deliver it. The
+ * synthetic stream holds reports of 16 analog channels and 9 digital ports.
+ * <br/>
+ * The benchmark is in the {@code benchmark} group which the regular test run
+ * excludes. All benchmarks are run by {@code mvn test -Pbenchmark}, this one by
+ * {@code mvn test -Dtest=RecordedTrafficBenchmark [-Dfirmata.capture=file]}.
+ */
+public class RecordedTrafficBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordedTrafficBenchmark.class);
+
+    private static final int STREAM_SIZE = 8 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 256;
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+
+    @Test(groups = "benchmark")
+    public void benchmarkRecordedSession() throws Exception {
+        String capture = System.getProperty("firmata.capture");
+        byte[] session;
+        if (capture != null) {
+            session = readInbound(Paths.get(capture));
+        } else {
+            Path file = Files.createTempFile("firmata-session", ".capture");
+            try {
+                recordSession(file);
+                session = readInbound(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+        measure("Recorded session", repeat(session));
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkSyntheticReports() {
+        byte[] reports = new byte[(16 + 9) * 3];
+        int position = 0;
+        for (int channel = 0; channel < 16; channel++) {
+            reports[position++] = (byte) (ANALOG_MESSAGE | channel);
+            reports[position++] = (byte) (channel * 7);
+            reports[position++] = 3;
+        }
+        for (int port = 0; port < 9; port++) {
+            reports[position++] = (byte) (DIGITAL_MESSAGE | port);
+            reports[position++] = 0x55;
+            reports[position++] = 1;
+        }
+        measure("Synthetic reports", repeat(reports));
+    }
+
+    private static void measure(String name, byte[] stream) {
+        Counter counter = new Counter();
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            feed(counter, stream);
+        }
+        for (int round = 1; round <= ROUNDS; round++) {
+            long events = counter.events;
+            long start = System.nanoTime();
+            feed(counter, stream);
+            long elapsed = System.nanoTime() - start;
+            LOGGER.info("{}, round {}: {} MB/s, {} events/s", name, round,
+                    String.format("%.1f", stream.length * 1000.0 / elapsed),
+                    (counter.events - events) * TimeUnit.SECONDS.toNanos(1) / elapsed);
+        }
+    }
+
+    private static void feed(Counter counter, byte[] stream) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            counter.process(stream, offset, Math.min(CHUNK_SIZE, stream.length - offset));
+        }
+    }
+
+    /**
+     * Records a second of a virtual board streaming reports of all its inputs
+     * to a device.
+     */
+    private static void recordSession(Path file) throws IOException, InterruptedException {
+        VirtualBoard board = new VirtualBoard()
+                .setPinCount(20)
+                .setAnalogPinCount(6)
+                .setReportRate(1000)
+                .setAnalogPattern(SignalPattern.SINE)
+                .setDigitalPattern(SignalPattern.SQUARE);
+        try (TrafficRecorder recorder = new TrafficRecorder(file)) {
+            FirmataDevice device = new FirmataDevice(new DeviceConfiguration(board.getClientTransport())
+                    .setTrafficRecorder(recorder));
+            board.start();
+            device.start();
+            try {
+                device.ensureInitializationIsDone();
+                Thread.sleep(1000);
+            } finally {
+                device.stop();
+                board.stop();
+            }
+        }
+    }
+
+    private static byte[] readInbound(Path file) throws IOException {
+        ByteArrayOutputStream inbound = new ByteArrayOutputStream();
+        try (TrafficReader reader = new TrafficReader(file)) {
+            while (reader.next()) {
+                if (reader.getDirection() == TrafficRecorder.Direction.INBOUND) {
+                    inbound.write(reader.getData(), 0, reader.getLength());
+                }
+            }
+        }
+        if (inbound.size() == 0) {
+            throw new IOException("No inbound data has been captured in " + file);
+        }
+        return inbound.toByteArray();
+    }
+
+    private static byte[] repeat(byte[] data) {
+        byte[] stream = new byte[STREAM_SIZE];
+        for (int offset = 0; offset < stream.length; offset += data.length) {
+            System.arraycopy(data, 0, stream, offset, Math.min(data.length, stream.length - offset));
+        }
+        return stream;
+    }
+
+    private static class Counter extends FiniteStateMachine {
+
+        private long events;
+
+        Counter() {
+            super(WaitingForMessageState.class, new DeviceConfiguration(new LoopbackTransport()));
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            events++;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.ysoft.firmata.impl.queue;
+
+import com.ysoft.firmata.OverflowPolicy;
+import com.ysoft.firmata.WaitStrategy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks how {@link ByteChunkRing} behaves when it is full.
+ */
+public class ByteChunkRingTest {
+
+    private static final int CAPACITY = 4;
+
+    @Test
+    public void testChunksAreTakenInOrder() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.FAIL_FAST, WaitStrategy.BLOCKING);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(publish(ring, i));
+        }
+        assertEquals(ring.size(), CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(takeValue(ring), i);
+        }
+        assertEquals(ring.size(), 0);
+        assertEquals(ring.getOverflowCount(), 0);
+    }
+
+    @Test
+    public void testFailFastRejectsNewChunk() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.FAIL_FAST, WaitStrategy.BLOCKING);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(publish(ring, i));
+        }
+        assertFalse(publish(ring, CAPACITY));
+        assertEquals(ring.getOverflowCount(), 1);
+        assertEquals(ring.getDroppedChunkCount(), 1);
+        assertEquals(ring.getDroppedByteCount(), 1);
+        // the rejected chunk is handed out again, empty
+        assertEquals(ring.acquire().getLength(), 0);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(takeValue(ring), i);
+        }
+    }
+
+    @Test
+    public void testDropOldestDiscardsOldestChunk() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.DROP_OLDEST, WaitStrategy.BLOCKING);
+        for (int i = 0; i < CAPACITY + 2; i++) {
+            assertTrue(publish(ring, i));
+        }
+        assertEquals(ring.getOverflowCount(), 2);
+        assertEquals(ring.getDroppedChunkCount(), 2);
+        assertEquals(ring.getDroppedByteCount(), 2);
+        assertEquals(ring.size(), CAPACITY);
+        for (int i = 2; i < CAPACITY + 2; i++) {
+            assertEquals(takeValue(ring), i);
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testBlockWaitsForConsumer() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.BLOCK, WaitStrategy.BLOCKING);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(publish(ring, i));
+        }
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean published = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            started.countDown();
+            published.set(publish(ring, CAPACITY));
+        });
+        producer.start();
+        started.await();
+        producer.join(100);
+        assertTrue(producer.isAlive(), "Producer should wait while the ring is full");
+        assertEquals(takeValue(ring), 0);
+        producer.join(TimeUnit.SECONDS.toMillis(4));
+        assertTrue(published.get());
+        assertEquals(ring.getOverflowCount(), 1);
+        assertEquals(ring.getDroppedChunkCount(), 0);
+        for (int i = 1; i <= CAPACITY; i++) {
+            assertEquals(takeValue(ring), i);
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testBlockGivesUpWhenInterrupted() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.BLOCK, WaitStrategy.SLEEPING);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(publish(ring, i));
+        }
+        AtomicBoolean published = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> published.set(publish(ring, CAPACITY)));
+        producer.start();
+        producer.join(100);
+        producer.interrupt();
+        producer.join();
+        assertFalse(published.get());
+        assertEquals(ring.getDroppedChunkCount(), 1);
+        assertEquals(ring.size(), CAPACITY);
+    }
+
+    @Test
+    public void testChunksAreRecycled() throws InterruptedException {
+        ByteChunkRing ring = new ByteChunkRing(CAPACITY, 16, false, OverflowPolicy.FAIL_FAST, WaitStrategy.BUSY_SPIN);
+        long allocated = ring.getAllocatedChunkCount();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(publish(ring, i));
+            assertEquals(takeValue(ring), i & 0x7F);
+        }
+        assertEquals(ring.getAllocatedChunkCount(), allocated);
+    }
+
+    private static boolean publish(ByteChunkRing ring, int value) {
+        ByteChunk chunk = ring.acquire();
+        chunk.getBuffer().put((byte) (value & 0x7F));
+        return ring.publish(chunk);
+    }
+
+    private static int takeValue(ByteChunkRing ring) throws InterruptedException {
+        ByteChunk chunk = ring.take();
+        try {
+            assertEquals(chunk.getLength(), 1);
+            return chunk.getBuffer().get(0);
+        } finally {
+            ring.release(chunk);
+        }
+    }
+
+}
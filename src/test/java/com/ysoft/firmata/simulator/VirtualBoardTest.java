@@ -0,0 +1,107 @@
+package com.ysoft.firmata.simulator;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.impl.FirmataDevice;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+import static org.testng.Assert.*;
+
+/**
+ * Runs a {@link FirmataDevice} against a {@link VirtualBoard} over a loopback
+ * pair.
+ */
+public class VirtualBoardTest {
+
+    private static final int PIN_COUNT = 10;
+    private static final int ANALOG_PIN_COUNT = 3;
+    private static final int FIRST_ANALOG_PIN = PIN_COUNT - ANALOG_PIN_COUNT;
+
+    private VirtualBoard board;
+    private FirmataDevice device;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        board = new VirtualBoard()
+                .setFirmware("TestBoard", 2, 5)
+                .setPinCount(PIN_COUNT)
+                .setAnalogPinCount(ANALOG_PIN_COUNT)
+                .setReportRate(200)
+                .setAnalogPattern(SignalPattern.CONSTANT)
+                .setDigitalPattern(SignalPattern.SQUARE);
+        device = new FirmataDevice(new DeviceConfiguration(board.getClientTransport()));
+        board.start();
+        device.start();
+        device.ensureInitializationIsDone();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        device.stop();
+        board.stop();
+    }
+
+    @Test(timeOut = 10000)
+    public void testHandshake() {
+        // firmware
+        assertEquals(device.getProtocol(), "TestBoard - 2.5");
+        // capabilities
+        assertEquals(device.getPinsCount(), PIN_COUNT);
+        for (int i = 0; i < PIN_COUNT; i++) {
+            Pin pin = device.getPin(i);
+            Set<Pin.Mode> modes = EnumSet.of(Pin.Mode.INPUT, Pin.Mode.OUTPUT, Pin.Mode.PULLUP,
+                    i < FIRST_ANALOG_PIN ? Pin.Mode.PWM : Pin.Mode.ANALOG);
+            assertEquals(pin.getSupportedModes(), modes, "Modes of pin " + i);
+            // pin states
+            assertEquals(pin.getMode(), i < FIRST_ANALOG_PIN ? Pin.Mode.OUTPUT : Pin.Mode.ANALOG, "Mode of pin " + i);
+        }
+        // analog mapping, the channels of the analog pins are reported
+        assertEquals(device.getReportedAnalogChannels(), new TreeSet<>(Arrays.asList(0, 1, 2)));
+        assertTrue(device.getReportedDigitalPorts().isEmpty());
+    }
+
+    @Test(timeOut = 10000)
+    public void testStreamedReports() throws Exception {
+        Set<Integer> masks = ConcurrentHashMap.newKeySet();
+        device.getPin(1).setMode(Pin.Mode.INPUT);
+        device.getPin(2).setMode(Pin.Mode.INPUT);
+        assertEquals(device.getReportedDigitalPorts(), new TreeSet<>(Arrays.asList(0)));
+        device.addDigitalPortListener((portId, oldMask, newMask) -> {
+            if (portId == 0) {
+                masks.add(newMask);
+            }
+        });
+        // the square wave puts neighbouring pins in opposite phases
+        while (!masks.contains(0x02) || !masks.contains(0x04)) {
+            Thread.sleep(10);
+        }
+        for (int i = FIRST_ANALOG_PIN; i < PIN_COUNT; i++) {
+            while (device.getPin(i).getValue() != 512) {
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(board.getReportCount() > 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testBoardTakesOutputs() throws Exception {
+        device.getPin(1).setMode(Pin.Mode.INPUT);
+        device.getPin(3).setValue(1);
+        device.getPin(4).setMode(Pin.Mode.PWM);
+        device.getPin(4).setValue(200);
+        while (board.getPinValue(3) != 1 || board.getPinValue(4) != 200) {
+            Thread.sleep(10);
+        }
+        assertEquals(board.getPinMode(1), PIN_MODE_INPUT);
+        assertEquals(board.getPinMode(4), PIN_MODE_PWM);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.ysoft.firmata.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks that a pair of {@link LoopbackTransport}s passes bytes in order and
+ * that closing one end reaches the other one.
+ */
+public class LoopbackTransportTest {
+
+    @Test(timeOut = 10000)
+    public void testPeerReceivesBytesInOrder() throws IOException {
+        // a small buffer wraps around and grows while the data is passed
+        LoopbackTransport client = new LoopbackTransport(4);
+        LoopbackTransport board = client.getPeer();
+        AtomicInteger notifications = new AtomicInteger();
+        board.setTransportListener(transport -> notifications.incrementAndGet());
+        client.open();
+        board.open();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        for (int i = 0; i < 20; i++) {
+            byte[] data = new byte[i % 5 + 1];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) (written.size() + j);
+            }
+            client.write(data, 0, data.length);
+            written.write(data);
+            if (i % 3 == 0) {
+                drain(board, buffer, received);
+            }
+        }
+        drain(board, buffer, received);
+        assertEquals(received.toByteArray(), written.toByteArray());
+        assertEquals(notifications.get(), 20);
+        assertEquals(client.available(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testCloseIsPropagatedToPeer() throws IOException {
+        LoopbackTransport client = new LoopbackTransport();
+        LoopbackTransport board = client.getPeer();
+        AtomicInteger disconnections = new AtomicInteger();
+        client.setTransportListener(new TransportListener() {
+            @Override
+            public void onDataAvailable(Transport transport) {
+            }
+
+            @Override
+            public void onDisconnect(Transport transport) {
+                assertSame(transport, client);
+                disconnections.incrementAndGet();
+            }
+        });
+        client.open();
+        board.open();
+        board.close();
+        assertFalse(board.isOpen());
+        assertFalse(client.isOpen());
+        assertEquals(disconnections.get(), 1);
+        try {
+            client.write(new byte[]{1}, 0, 1);
+            fail("A write to a closed pair should fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        // closing the other end as well does not notify again
+        client.close();
+        assertEquals(disconnections.get(), 1);
+    }
+
+    private static void drain(Transport transport, ByteBuffer buffer, ByteArrayOutputStream out) throws IOException {
+        while (transport.read(buffer) > 0) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.ysoft.firmata.transport;
+
+import com.ysoft.firmata.DeviceConfiguration;
+import com.ysoft.firmata.Pin;
+import com.ysoft.firmata.impl.FirmataDevice;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.ysoft.firmata.impl.parser.FirmataToken.*;
+import static org.testng.Assert.*;
+
+/**
+ * Checks {@link NetworkTransport} against a local {@link ServerSocketChannel}
+ * that plays a board.
+ */
+public class NetworkTransportTest {
+
+    private static final int PIN_COUNT = 4;
+
+    private ServerSocketChannel server;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test(timeOut = 10000)
+    public void testHandshakeAndInboundParsing() throws Exception {
+        StandInBoard board = new StandInBoard(server);
+        board.start();
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(new NetworkTransport(getAddress())));
+        device.ensureInitializationIsDone();
+        assertEquals(device.getPinsCount(), PIN_COUNT);
+        assertEquals(device.getProtocol(), "Stand-in - 2.5");
+        Pin pin = device.getPin(2);
+        assertEquals(pin.getMode(), Pin.Mode.INPUT);
+        // digital report of port 0 with pin 2 high
+        board.send(new byte[]{DIGITAL_MESSAGE, 0x04, 0x00});
+        while (pin.getValue() != 1) {
+            Thread.sleep(10);
+        }
+        device.stop();
+        board.join();
+        assertNull(board.failure.get());
+    }
+
+    @Test(timeOut = 10000)
+    public void testWriteWaitsForFullSocketBuffer() throws Exception {
+        NetworkTransport transport = new NetworkTransport(getAddress())
+                .setSendBufferSize(4096);
+        transport.open();
+        try (SocketChannel peer = server.accept()) {
+            // much more than the socket buffers of both ends can hold
+            byte[] data = new byte[16 * 1024 * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i % 251);
+            }
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    transport.write(data, 0, data.length);
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                }
+            });
+            writer.start();
+            writer.join(200);
+            assertTrue(writer.isAlive(), "Writing should wait until the peer reads");
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            int received = 0;
+            while (received < data.length) {
+                buffer.clear();
+                int read = peer.read(buffer);
+                assertTrue(read >= 0, "Connection has been closed");
+                for (int i = 0; i < read; i++) {
+                    assertEquals(buffer.get(i), data[received++], "Byte " + (received - 1) + " differs");
+                }
+            }
+            writer.join();
+            assertNull(failure.get());
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testWriteFailsWhenPeerStopsReading() throws Exception {
+        NetworkTransport transport = new NetworkTransport(getAddress())
+                .setSendBufferSize(4096)
+                .setWriteTimeout(300);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        transport.setTransportListener(new TransportListener() {
+            @Override
+            public void onDataAvailable(Transport t) {
+            }
+
+            @Override
+            public void onDisconnect(Transport t) {
+                disconnected.countDown();
+            }
+        });
+        transport.open();
+        try (SocketChannel peer = server.accept()) {
+            // much more than the socket buffers of both ends can hold, the peer never reads
+            byte[] data = new byte[16 * 1024 * 1024];
+            try {
+                transport.write(data, 0, data.length);
+                fail("Writing should time out");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertTrue(disconnected.await(5, TimeUnit.SECONDS), "Disconnection has not been reported");
+            try {
+                transport.write(new byte[1], 0, 1);
+                fail("Abandoned connection should not take more data");
+            } catch (IOException ex) {
+                // expected
+            }
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testDisconnectWhenPeerCloses() throws Exception {
+        NetworkTransport transport = new NetworkTransport(getAddress());
+        CountDownLatch endOfStream = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        transport.setTransportListener(new TransportListener() {
+            @Override
+            public void onDataAvailable(Transport t) {
+                try {
+                    buffer.clear();
+                    if (t.read(buffer) < 0) {
+                        endOfStream.countDown();
+                    }
+                } catch (IOException ex) {
+                    // the latch is not released, so the test fails
+                }
+            }
+
+            @Override
+            public void onDisconnect(Transport t) {
+                // the listener is told after it has seen the end of stream
+                if (endOfStream.getCount() == 0) {
+                    disconnected.countDown();
+                }
+            }
+        });
+        transport.open();
+        try {
+            server.accept().close();
+            assertTrue(endOfStream.await(5, TimeUnit.SECONDS), "End of stream has not been reported");
+            assertTrue(disconnected.await(5, TimeUnit.SECONDS), "Disconnection has not been reported");
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testDeviceIsNotReadyWhenPeerCloses() throws Exception {
+        StandInBoard board = new StandInBoard(server);
+        board.start();
+        NetworkTransport transport = new NetworkTransport(getAddress());
+        FirmataDevice device = new FirmataDevice(new DeviceConfiguration(transport));
+        try {
+            device.ensureInitializationIsDone();
+            board.close();
+            while (device.isReady()) {
+                Thread.sleep(10);
+            }
+        } finally {
+            // stopping sends messages which cannot reach the board any more
+            transport.close();
+        }
+    }
+
+    private InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Accepts one connection and answers the queries of the handshake as a
+     * board with {@link #PIN_COUNT} digital pins would.
+     */
+    private static class StandInBoard extends Thread {
+
+        private final ServerSocketChannel server;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile SocketChannel channel;
+
+        StandInBoard(ServerSocketChannel server) {
+            super("stand-in-board");
+            this.server = server;
+            setDaemon(true);
+        }
+
+        /**
+         * Sends data to the client. Can be used once the handshake is done.
+         */
+        void send(byte[] data) throws IOException {
+            synchronized (this) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+
+        /**
+         * Closes the connection as a board that has been switched off.
+         */
+        void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel ch = server.accept()) {
+                channel = ch;
+                ByteBuffer buffer = ByteBuffer.allocate(256);
+                ByteArrayOutputStream sysex = null;
+                while (ch.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == START_SYSEX) {
+                            sysex = new ByteArrayOutputStream();
+                        } else if (b == END_SYSEX && sysex != null) {
+                            answer(sysex.toByteArray());
+                            sysex = null;
+                        } else if (sysex != null) {
+                            sysex.write(b);
+                        }
+                    }
+                    buffer.clear();
+                }
+            } catch (AsynchronousCloseException ex) {
+                // closed by the test
+            } catch (IOException ex) {
+                failure.set(ex);
+            }
+        }
+
+        private void answer(byte[] query) throws IOException {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            response.write(START_SYSEX);
+            switch (query[0]) {
+                case REPORT_FIRMWARE:
+                    response.write(REPORT_FIRMWARE);
+                    response.write(2);
+                    response.write(5);
+                    for (char c : "Stand-in".toCharArray()) {
+                        response.write(c & 0x7F);
+                        response.write(c >> 7);
+                    }
+                    break;
+                case CAPABILITY_QUERY:
+                    response.write(CAPABILITY_RESPONSE);
+                    for (int i = 0; i < PIN_COUNT; i++) {
+                        response.write(PIN_MODE_INPUT);
+                        response.write(1);
+                        response.write(PIN_MODE_OUTPUT);
+                        response.write(1);
+                        response.write(0x7F);
+                    }
+                    break;
+                case PIN_STATE_QUERY:
+                    response.write(PIN_STATE_RESPONSE);
+                    response.write(query[1]);
+                    response.write(PIN_MODE_INPUT);
+                    response.write(0);
+                    break;
+                case ANALOG_MAPPING_QUERY:
+                    response.write(ANALOG_MAPPING_RESPONSE);
+                    for (int i = 0; i < PIN_COUNT; i++) {
+                        response.write(0x7F);
+                    }
+                    break;
+                default:
+                    return;
+            }
+            response.write(END_SYSEX);
+            send(response.toByteArray());
+        }
+
+    }
+
+}
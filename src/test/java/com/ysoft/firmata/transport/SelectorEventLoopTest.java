@@ -0,0 +1,106 @@
+package com.ysoft.firmata.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks that {@link SelectorEventLoop} serves many channels on its thread
+ * and refuses work once it has been closed.
+ */
+public class SelectorEventLoopTest {
+
+    @Test(timeOut = 10000)
+    public void testChannelsAreServedOnLoopThread() throws Exception {
+        int channels = 50;
+        SelectorEventLoop loop = new SelectorEventLoop("test-event-loop");
+        List<Pipe> pipes = new ArrayList<>();
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(channels);
+        try {
+            for (int i = 0; i < channels; i++) {
+                Pipe pipe = Pipe.open();
+                pipes.add(pipe);
+                pipe.source().configureBlocking(false);
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                loop.register(pipe.source(), SelectionKey.OP_READ, () -> {
+                    try {
+                        buffer.clear();
+                        if (pipe.source().read(buffer) > 0) {
+                            threads.add(Thread.currentThread().getName());
+                            received.countDown();
+                        }
+                    } catch (IOException ex) {
+                        fail("Cannot read", ex);
+                    }
+                });
+            }
+            assertEquals(loop.getChannelCount(), channels);
+            for (Pipe pipe : pipes) {
+                pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            }
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            for (String thread : threads) {
+                assertEquals(thread, "test-event-loop");
+            }
+        } finally {
+            loop.close();
+            for (Pipe pipe : pipes) {
+                pipe.source().close();
+                pipe.sink().close();
+            }
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testTasksRunOnLoopThread() throws Exception {
+        SelectorEventLoop loop = new SelectorEventLoop("test-event-loop");
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            boolean[] inLoop = new boolean[1];
+            loop.execute(() -> {
+                inLoop[0] = loop.inEventLoop();
+                done.countDown();
+            });
+            assertTrue(done.await(4, TimeUnit.SECONDS));
+            assertTrue(inLoop[0]);
+            assertFalse(loop.inEventLoop());
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test(timeOut = 5000, expectedExceptions = IllegalStateException.class)
+    public void testClosedLoopRefusesTasks() throws IOException {
+        SelectorEventLoop loop = new SelectorEventLoop("test-event-loop");
+        loop.close();
+        loop.execute(() -> {});
+    }
+
+    @Test(timeOut = 5000)
+    public void testClosedLoopRefusesChannels() throws IOException {
+        SelectorEventLoop loop = new SelectorEventLoop("test-event-loop");
+        loop.close();
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            loop.register(pipe.source(), SelectionKey.OP_READ, () -> {});
+            fail("A closed loop should not take channels");
+        } catch (IOException ex) {
+            // expected
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+}
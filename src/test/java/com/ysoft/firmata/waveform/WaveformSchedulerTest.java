@@ -0,0 +1,213 @@
+package com.ysoft.firmata.waveform;
+
+import com.ysoft.firmata.DeviceCommunicationException;
+import com.ysoft.firmata.IODevice;
+import com.ysoft.firmata.OutputBatch;
+import com.ysoft.firmata.Pin;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Runs {@link WaveformScheduler} against a stub device whose pins are all in
+ * PWM mode and whose batches are recorded.
+ */
+public class WaveformSchedulerTest {
+
+    private static final long PERIOD_MILLIS = 5;
+
+    @Test(timeOut = 10000)
+    public void testSamplesEqualToPinValueAreSuppressed() throws Exception {
+        StubDevice device = new StubDevice(4);
+        WaveformScheduler scheduler = new WaveformScheduler(device.proxy, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.play(2, tick -> 7, -1);
+        scheduler.start();
+        while (scheduler.getStatistics().getTickCount() < 5) {
+            Thread.sleep(PERIOD_MILLIS);
+        }
+        scheduler.stop();
+        TimingStatistics statistics = scheduler.getStatistics();
+        // only the first sample differs from the value of the pin
+        assertEquals(device.commits.size(), 1);
+        assertEquals(device.commits.get(0).toString(), "{2=7}");
+        assertEquals(statistics.getWriteCount(), 1);
+        assertEquals(statistics.getFailedWriteCount(), 0);
+        assertEquals(statistics.getSuppressedCount(), statistics.getTickCount() - 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testMissedTicksAreSkipped() throws Exception {
+        StubDevice device = new StubDevice(4);
+        WaveformScheduler scheduler = new WaveformScheduler(device.proxy, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        device.onCommit = values -> {
+            if (device.commits.size() == 1) {
+                // the first write takes three and a half periods
+                sleep(PERIOD_MILLIS * 7 / 2);
+            } else {
+                scheduler.cancel(1);
+            }
+        };
+        scheduler.play(1, tick -> tick + 1, -1);
+        scheduler.start();
+        while (scheduler.isPlaying(1)) {
+            Thread.sleep(PERIOD_MILLIS);
+        }
+        scheduler.stop();
+        TimingStatistics statistics = scheduler.getStatistics();
+        assertEquals(statistics.getTickCount(), 2);
+        assertEquals(statistics.getWriteCount(), 2);
+        long missed = statistics.getMissedTickCount();
+        assertTrue(missed >= 2, "Missed ticks: " + missed);
+        // the waveform has advanced by the missed ticks
+        assertEquals(device.commits.get(0).toString(), "{1=1}");
+        assertEquals(device.commits.get(1).toString(), "{1=" + (missed + 2) + "}");
+        // the rest of the delay is jitter, which is shorter than a period
+        assertTrue(statistics.getMaxJitterNanos() < TimeUnit.MILLISECONDS.toNanos(PERIOD_MILLIS), statistics.toString());
+        assertTrue(statistics.getMeanJitterNanos() <= statistics.getMaxJitterNanos(), statistics.toString());
+    }
+
+    @Test(timeOut = 10000)
+    public void testFailedWritesAreCountedApart() throws Exception {
+        StubDevice device = new StubDevice(4);
+        device.failing = true;
+        WaveformScheduler scheduler = new WaveformScheduler(device.proxy, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.play(3, tick -> 100, -1);
+        scheduler.start();
+        while (scheduler.getStatistics().getTickCount() < 3) {
+            Thread.sleep(PERIOD_MILLIS);
+        }
+        scheduler.stop();
+        TimingStatistics statistics = scheduler.getStatistics();
+        // the pin keeps its value, so every tick tries again
+        assertEquals(statistics.getWriteCount(), 0);
+        assertEquals(statistics.getFailedWriteCount(), statistics.getTickCount());
+        assertEquals(statistics.getSuppressedCount(), 0);
+        assertEquals(device.values.get(3), 0);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Device with pins in PWM mode. A batch sets the values of the pins when
+     * it is committed, or fails when {@link #failing} is set.
+     */
+    private static class StubDevice {
+
+        private final AtomicLongArray values;
+        private final IODevice proxy;
+        private final Pin[] pins;
+        private final List<Map<Integer, Long>> commits = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+        private volatile Consumer<Map<Integer, Long>> onCommit = values -> {};
+
+        StubDevice(int pinCount) {
+            values = new AtomicLongArray(pinCount);
+            pins = new Pin[pinCount];
+            for (int i = 0; i < pinCount; i++) {
+                int index = i;
+                pins[i] = stub(Pin.class, (method, args) -> {
+                    switch (method) {
+                        case "getIndex":
+                            return (byte) index;
+                        case "getMode":
+                            return Pin.Mode.PWM;
+                        case "getValue":
+                            return values.get(index);
+                        default:
+                            return null;
+                    }
+                });
+            }
+            proxy = stub(IODevice.class, (method, args) -> {
+                switch (method) {
+                    case "getPinsCount":
+                        return pins.length;
+                    case "getPin":
+                        return pins[(Integer) args[0]];
+                    case "batch":
+                        return new StubBatch();
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        /**
+         * Implements the methods the scheduler uses, the others fail.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T> T stub(Class<T> type, StubMethod implementation) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (instance, method, args) -> {
+                Object result = implementation.invoke(method.getName(), args);
+                if (result == null && !"toString".equals(method.getName())) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return result;
+            });
+        }
+
+        private class StubBatch implements OutputBatch {
+
+            private final Map<Integer, Long> batch = new LinkedHashMap<>();
+
+            @Override
+            public OutputBatch setMode(int pinIndex, Pin.Mode mode) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public OutputBatch setValue(int pinIndex, long value) {
+                batch.put(pinIndex, value);
+                return this;
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return batch.isEmpty();
+            }
+
+            @Override
+            public void commit() throws DeviceCommunicationException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<Void> commitAsync() {
+                CompletableFuture<Void> result = new CompletableFuture<>();
+                if (failing) {
+                    result.completeExceptionally(new DeviceCommunicationException("Cannot send message to device", new IOException("Broken link")));
+                    return result;
+                }
+                for (Map.Entry<Integer, Long> entry : batch.entrySet()) {
+                    values.set(entry.getKey(), entry.getValue());
+                }
+                commits.add(new LinkedHashMap<>(batch));
+                onCommit.accept(batch);
+                result.complete(null);
+                return result;
+            }
+        }
+    }
+
+    private interface StubMethod {
+
+        Object invoke(String method, Object[] args);
+    }
+
+}